@@ -0,0 +1,81 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks;
+
+import com.microsoft.thrifty.transport.Transport;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory transport that can be rewound, so that one message can be
+ * read, or written, over and over without allocating.
+ */
+final class MemoryTransport extends Transport {
+    private byte[] buffer = new byte[4096];
+    private int readPosition;
+    private int writePosition;
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) {
+        int available = writePosition - readPosition;
+        if (available == 0) {
+            return -1;
+        }
+
+        int toCopy = Math.min(count, available);
+        System.arraycopy(this.buffer, readPosition, buffer, offset, toCopy);
+        readPosition += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+        int required = writePosition + count;
+        if (required > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(required, this.buffer.length * 2));
+        }
+        System.arraycopy(buffer, offset, this.buffer, writePosition, count);
+        writePosition = required;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Makes everything written so far available to be read again.
+     */
+    void rewind() {
+        readPosition = 0;
+    }
+
+    /**
+     * Discards everything written so far.
+     */
+    void clear() {
+        readPosition = 0;
+        writePosition = 0;
+    }
+}
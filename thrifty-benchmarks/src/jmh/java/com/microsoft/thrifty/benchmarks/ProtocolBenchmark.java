@@ -0,0 +1,97 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks;
+
+import com.microsoft.thrifty.Adapter;
+import com.microsoft.thrifty.protocol.Protocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading and writing structs of every {@link Shape}, with
+ * generated adapters, for every combination of protocol and transport.
+ *
+ * <p>Run with the GC profiler (the default for this module) to see
+ * {@code gc.alloc.rate.norm}, the bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProtocolBenchmark {
+    @Param
+    public ProtocolType protocolType;
+
+    @Param
+    public TransportType transportType;
+
+    @Param
+    public Shape shape;
+
+    private MemoryTransport memory;
+    private Protocol protocol;
+    private Adapter<Object, ?> adapter;
+    private Object struct;
+
+    @SuppressWarnings("unchecked")
+    @Setup
+    public void setup() throws IOException {
+        memory = new MemoryTransport();
+        protocol = protocolType.create(transportType.wrap(memory));
+        adapter = (Adapter<Object, ?>) shape.adapter;
+        struct = shape.create();
+
+        // Leave one message in memory for read() to decode, making sure
+        // that it decodes correctly; a broken round-trip would make for
+        // meaningless numbers.
+        write();
+        if (!struct.equals(read())) {
+            throw new IllegalStateException(shape + " does not round-trip with " + protocolType);
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        memory.clear();
+        adapter.write(protocol, struct);
+        protocol.flush();
+    }
+
+    @Benchmark
+    public Object read() throws IOException {
+        memory.rewind();
+        return adapter.read(protocol);
+    }
+}
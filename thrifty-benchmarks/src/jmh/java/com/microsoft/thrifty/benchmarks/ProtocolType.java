@@ -0,0 +1,55 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks;
+
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.CompactProtocol;
+import com.microsoft.thrifty.protocol.JsonProtocol;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.transport.Transport;
+
+/**
+ * The protocols that benchmarks are parameterized over.
+ */
+public enum ProtocolType {
+    BINARY {
+        @Override
+        Protocol create(Transport transport) {
+            return new BinaryProtocol(transport);
+        }
+    },
+
+    COMPACT {
+        @Override
+        Protocol create(Transport transport) {
+            return new CompactProtocol(transport);
+        }
+    },
+
+    JSON {
+        @Override
+        Protocol create(Transport transport) {
+            return new JsonProtocol(transport);
+        }
+    };
+
+    abstract Protocol create(Transport transport);
+}
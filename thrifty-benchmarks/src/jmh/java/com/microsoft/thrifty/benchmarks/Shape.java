@@ -0,0 +1,242 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks;
+
+import com.microsoft.thrifty.Adapter;
+import com.microsoft.thrifty.integration.gen.Bonk;
+import com.microsoft.thrifty.integration.gen.Bools;
+import com.microsoft.thrifty.integration.gen.CrazyNesting;
+import com.microsoft.thrifty.integration.gen.Insanity;
+import com.microsoft.thrifty.integration.gen.LargeDeltas;
+import com.microsoft.thrifty.integration.gen.NestedMixedx2;
+import com.microsoft.thrifty.integration.gen.Numberz;
+import com.microsoft.thrifty.integration.gen.VersioningTestV2;
+import com.microsoft.thrifty.integration.gen.Xtruct;
+import okio.ByteString;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Representative structs, of various shapes, with which to exercise
+ * protocols and generated adapters.
+ */
+public enum Shape {
+    /**
+     * A handful of scalar fields.
+     */
+    SMALL(Xtruct.ADAPTER) {
+        @Override
+        Object create() {
+            return xtruct(1);
+        }
+    },
+
+    /**
+     * Many fields with widely-spaced IDs, including nested structs.
+     */
+    WIDE(LargeDeltas.ADAPTER) {
+        @Override
+        Object create() {
+            Bools bools = new Bools.Builder().im_true(true).im_false(false).build();
+
+            Set<String> strings = new LinkedHashSet<>();
+            for (int i = 0; i < 10; ++i) {
+                strings.add("string-" + i);
+            }
+
+            List<Integer> bigNumbers = new ArrayList<>();
+            for (int i = 0; i < 100; ++i) {
+                bigNumbers.add(i * 1_000_003);
+            }
+
+            return new LargeDeltas.Builder()
+                    .b1(bools)
+                    .b10(bools)
+                    .b100(bools)
+                    .check_true(true)
+                    .b1000(bools)
+                    .check_false(false)
+                    .vertwo2000(versioningTest(2000))
+                    .a_set2500(strings)
+                    .vertwo3000(versioningTest(3000))
+                    .big_numbers(bigNumbers)
+                    .build();
+        }
+    },
+
+    /**
+     * Collections of collections of structs, several levels deep.
+     */
+    NESTED(CrazyNesting.ADAPTER) {
+        @Override
+        Object create() {
+            Set<Insanity> insanities = new LinkedHashSet<>();
+            Map<Insanity, String> insanityNames = new LinkedHashMap<>();
+            for (int i = 0; i < 3; ++i) {
+                Insanity insanity = insanity(i);
+                insanities.add(insanity);
+                insanityNames.put(insanity, "insanity-" + i);
+            }
+
+            Set<List<Map<Insanity, String>>> innerSet = new LinkedHashSet<>();
+            innerSet.add(Collections.singletonList(insanityNames));
+
+            Map<Integer, Set<List<Map<Insanity, String>>>> innerMap = new LinkedHashMap<>();
+            for (int i = 0; i < 3; ++i) {
+                innerMap.put(i, innerSet);
+            }
+
+            List<Map<Set<Integer>, Map<Integer, Set<List<Map<Insanity, String>>>>>> listField = new ArrayList<>();
+            for (int i = 0; i < 3; ++i) {
+                Map<Set<Integer>, Map<Integer, Set<List<Map<Insanity, String>>>>> outer = new LinkedHashMap<>();
+                outer.put(intSet(i, 5), innerMap);
+                listField.add(outer);
+            }
+
+            byte[] binary = new byte[64];
+            for (int i = 0; i < binary.length; ++i) {
+                binary[i] = (byte) i;
+            }
+
+            return new CrazyNesting.Builder()
+                    .string_field("crazy")
+                    .set_field(insanities)
+                    .list_field(listField)
+                    .binary_field(ByteString.of(binary))
+                    .build();
+        }
+    },
+
+    /**
+     * Lists, sets and maps of primitives and strings.
+     */
+    COLLECTIONS(NestedMixedx2.ADAPTER) {
+        @Override
+        Object create() {
+            List<Set<Integer>> intSetList = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                intSetList.add(intSet(i * 10, 10));
+            }
+
+            List<Map<Integer, Set<String>>> mapList = new ArrayList<>();
+            for (int i = 0; i < 5; ++i) {
+                mapList.add(intToStringSet(i * 10, 10));
+            }
+
+            return new NestedMixedx2.Builder()
+                    .int_set_list(intSetList)
+                    .map_int_strset(intToStringSet(0, 10))
+                    .map_int_strset_list(mapList)
+                    .build();
+        }
+    };
+
+    final Adapter<?, ?> adapter;
+
+    Shape(Adapter<?, ?> adapter) {
+        this.adapter = adapter;
+    }
+
+    /**
+     * Creates a new instance of this shape of struct; instances are equal
+     * to one another.
+     */
+    abstract Object create();
+
+    private static Xtruct xtruct(int seed) {
+        return new Xtruct.Builder()
+                .string_thing("xtruct-" + seed)
+                .byte_thing((byte) seed)
+                .i32_thing(seed * 31)
+                .i64_thing(seed * 1_000_000_007L)
+                .double_thing(seed / 3.0)
+                .bool_thing(seed % 2 == 0)
+                .build();
+    }
+
+    private static Insanity insanity(int seed) {
+        Map<Numberz, Long> userMap = new LinkedHashMap<>();
+        userMap.put(Numberz.ONE, (long) seed);
+        userMap.put(Numberz.FIVE, seed * 5L);
+
+        List<Xtruct> xtructs = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            xtructs.add(xtruct(seed * 3 + i));
+        }
+
+        return new Insanity.Builder()
+                .userMap(userMap)
+                .xtructs(xtructs)
+                .build();
+    }
+
+    private static VersioningTestV2 versioningTest(int seed) {
+        List<Integer> list = new ArrayList<>();
+        Set<Integer> set = new LinkedHashSet<>();
+        Map<Integer, Integer> map = new LinkedHashMap<>();
+        for (int i = 0; i < 10; ++i) {
+            list.add(seed + i);
+            set.add(seed - i);
+            map.put(i, seed * i);
+        }
+
+        return new VersioningTestV2.Builder()
+                .begin_in_both(seed)
+                .newint(seed + 1)
+                .newbyte((byte) seed)
+                .newshort((short) seed)
+                .newlong(seed * 1_000_000_007L)
+                .newdouble(seed / 7.0)
+                .newstruct(new Bonk.Builder().message("bonk-" + seed).type(seed).build())
+                .newlist(list)
+                .newset(set)
+                .newmap(map)
+                .newstring("versioning-" + seed)
+                .end_in_both(seed + 2)
+                .build();
+    }
+
+    private static Set<Integer> intSet(int start, int count) {
+        Set<Integer> set = new LinkedHashSet<>();
+        for (int i = 0; i < count; ++i) {
+            set.add(start + i);
+        }
+        return set;
+    }
+
+    private static Map<Integer, Set<String>> intToStringSet(int start, int count) {
+        Map<Integer, Set<String>> map = new LinkedHashMap<>();
+        for (int i = 0; i < count; ++i) {
+            Set<String> strings = new LinkedHashSet<>();
+            for (int j = 0; j < 5; ++j) {
+                strings.add("value-" + (start + i) + "-" + j);
+            }
+            map.put(start + i, strings);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.benchmarks;
+
+import com.microsoft.thrifty.transport.BufferedTransport;
+import com.microsoft.thrifty.transport.FramedTransport;
+import com.microsoft.thrifty.transport.Transport;
+
+/**
+ * The transports that benchmarks are parameterized over; each wraps an
+ * in-memory transport, so that no actual I/O is measured.
+ */
+public enum TransportType {
+    UNBUFFERED {
+        @Override
+        Transport wrap(Transport transport) {
+            return transport;
+        }
+    },
+
+    BUFFERED {
+        @Override
+        Transport wrap(Transport transport) {
+            return new BufferedTransport(transport);
+        }
+    },
+
+    FRAMED {
+        @Override
+        Transport wrap(Transport transport) {
+            return new FramedTransport(transport);
+        }
+    },
+
+    FRAMED_WHOLE_READS {
+        @Override
+        Transport wrap(Transport transport) {
+            return new FramedTransport(transport).withWholeFrameReads(true);
+        }
+    };
+
+    abstract Transport wrap(Transport transport);
+}
@@ -113,6 +113,14 @@ import java.util.ArrayList
  *
  * `--omit-service-clients` is optional.  When specified, no service clients are generated.
  *
+ * `--java-completable-future-clients` is optional.  When specified, generated Java service
+ * methods return a `java.util.concurrent.CompletableFuture` instead of accepting a callback.
+ * The generated code requires Java 8 or later.  Implies `--lang=java`.
+ *
+ * `--java-service-processors` is optional.  When specified, a handler interface and a
+ * processor that dispatches calls to it are generated for each service, for use in
+ * servers.  Implies `--lang=java`.
+ *
  * `--omit-file-comments` is optional.  When specified, no file-header comment is generated.
  * The default behavior is to prefix generated files with a comment indicating that they
  * are generated by Thrifty, and should probably not be modified by hand.
@@ -238,6 +246,14 @@ class ThriftyCompiler {
                         "native" to nativeGeneratedAnnotation)
                 .default("javax.annotation.Generated")
 
+        val javaCompletableFutureClients: Boolean by option("--java-completable-future-clients",
+                    help = "When set, generated Java service methods return CompletableFuture instead of taking a callback")
+                .flag(default = false)
+
+        val javaServiceProcessors: Boolean by option("--java-service-processors",
+                    help = "When set, generate a handler interface and server-side processor for each service")
+                .flag(default = false)
+
         val kotlinEmitJvmName: Boolean by option("--kt-emit-jvmname",
                     help = "When set, emit @JvmName annotations")
                 .flag(default = false)
@@ -252,6 +268,10 @@ class ThriftyCompiler {
         val kotlinCoroutineClients: Boolean by option("--kt-coroutine-clients")
                 .flag(default = false)
 
+        val kotlinCoroutineServiceProcessors: Boolean by option("--kt-coroutine-service-processors",
+                    help = "When set, generate a suspending handler interface and a coroutine processor for each service")
+                .flag(default = false)
+
         val thriftFiles: List<Path> by argument(help = "All .thrift files to compile")
                 .path(mustExist = true, canBeFile = true, canBeDir = false, mustBeReadable = true)
                 .multiple()
@@ -300,7 +320,10 @@ class ThriftyCompiler {
             val impliedLanguage = when {
                 kotlinBuilderlessDataClasses -> Language.KOTLIN
                 kotlinFilePerType -> Language.KOTLIN
+                kotlinCoroutineServiceProcessors -> Language.KOTLIN
                 nullabilityAnnotationType != NullabilityAnnotationType.NONE -> Language.JAVA
+                javaCompletableFutureClients -> Language.JAVA
+                javaServiceProcessors -> Language.JAVA
                 else -> null
             }
 
@@ -338,6 +361,8 @@ class ThriftyCompiler {
             gen.emitParcelable(emitParcelable)
             gen.emitGeneratedAnnotations(generatedAnnotationClassName)
             gen.failOnUnknownEnumValues(failOnUnknownEnumValues)
+            gen.completableFutureServiceClients(javaCompletableFutureClients)
+            gen.emitServiceProcessors(javaServiceProcessors)
 
             gen.generate(outputDirectory)
         }
@@ -382,6 +407,10 @@ class ThriftyCompiler {
                 gen.coroutineServiceClients()
             }
 
+            if (kotlinCoroutineServiceProcessors) {
+                gen.coroutineServiceProcessors()
+            }
+
             val svc = TypeProcessorService.getInstance()
             svc.kotlinProcessor?.let {
                 gen.processor = it
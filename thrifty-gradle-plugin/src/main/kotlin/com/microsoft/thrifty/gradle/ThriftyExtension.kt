@@ -226,6 +226,14 @@ open class KotlinThriftOptions : ThriftOptions() {
     @Input
     var builderlessDataClasses = false
 
+    @Input
+    var emitServiceProcessors: Boolean = false
+        private set
+
+    fun generateServiceProcessors(shouldGenerate: Boolean) {
+        this.emitServiceProcessors = shouldGenerate
+    }
+
     fun serviceClientStyle(name: String) {
         val stylesByName = ClientStyle.values()
                 .map { it.optionName to it }
@@ -253,10 +261,45 @@ open class JavaThriftOptions : ThriftOptions() {
         ANDROIDX("androidx"),
     }
 
+    enum class ClientStyle(val optionName: String) {
+        DEFAULT("default"),
+        COMPLETABLE_FUTURE("completable-future"),
+    }
+
     @Input
     var nullabilityAnnotationKind: NullabilityAnnotations = NullabilityAnnotations.NONE
         private set
 
+    @Input
+    var serviceClientStyle: ClientStyle = ClientStyle.DEFAULT
+        private set
+
+    @Input
+    var emitServiceProcessors: Boolean = false
+        private set
+
+    fun generateServiceProcessors(shouldGenerate: Boolean) {
+        this.emitServiceProcessors = shouldGenerate
+    }
+
+    fun serviceClientStyle(name: String) {
+        val stylesByName = ClientStyle.values()
+                .map { it.optionName to it }
+                .toCaseInsensitiveMap()
+
+        val style = requireNotNull(stylesByName[name]) {
+            stylesByName.keys.joinToString(
+                    prefix = "Invalid client style name; valid style names are:\n",
+                    separator = "\n") { "\t- $it" }
+        }
+
+        serviceClientStyle(style)
+    }
+
+    fun serviceClientStyle(style: ClientStyle) {
+        serviceClientStyle = style
+    }
+
     fun nullabilityAnnotations(name: String) {
         val kindsByName = NullabilityAnnotations.values()
                 .map { it.optionName to it }
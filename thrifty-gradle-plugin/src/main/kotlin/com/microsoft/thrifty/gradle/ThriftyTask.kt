@@ -116,6 +116,9 @@ open class ThriftyTask @Inject constructor(
             emitGeneratedAnnotations(options.generatedAnnotationType)
             emitParcelable(options.parcelable)
             failOnUnknownEnumValues(!options.allowUnknownEnumValues)
+            completableFutureServiceClients(
+                    options.serviceClientStyle == JavaThriftOptions.ClientStyle.COMPLETABLE_FUTURE)
+            emitServiceProcessors(options.emitServiceProcessors)
 
             options.listType?.let { withListType(it) }
             options.setType?.let { withSetType(it) }
@@ -162,6 +165,10 @@ open class ThriftyTask @Inject constructor(
                 }
             }
 
+            if (options.emitServiceProcessors) {
+                coroutineServiceProcessors()
+            }
+
             emitGeneratedAnnotations(options.generatedAnnotationType)
 
             options.listType?.let { listClassName(it) }
@@ -42,6 +42,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TestRule;
 
 import java.util.Arrays;
 import java.util.HashMap;
@@ -65,27 +66,32 @@ import static org.junit.Assert.assertThat;
  */
 public abstract class ConformanceBase {
     /**
-     * An Apache Thrift server that is started anew for each test.
+     * A server that is started anew for each test; by default, an Apache
+     * Thrift server.
      *
      * <p>The server's transport and protocols are configured based
      * on values returned by the abstract methods
      * {@link #getServerProtocol()} and {@link #getServerTransport()}.
      */
-    @Rule public TestServer testServer;
+    protected TestRule testServer;
 
     private Transport transport;
     private Protocol protocol;
     private ThriftTestClient client;
 
-    public ConformanceBase() {
-        ServerTransport serverTransport = getServerTransport();
-        ServerProtocol serverProtocol = getServerProtocol();
-        testServer = new TestServer(serverProtocol, serverTransport);
+    /**
+     * Creates the test server once this instance is fully constructed, so
+     * that overrides of {@link #createServer()} may use their own fields.
+     */
+    @Rule
+    public TestRule testServer() {
+        testServer = createServer();
+        return testServer;
     }
 
     @Before
     public void setup() throws Exception {
-        int port = testServer.port();
+        int port = serverPort();
         SocketTransport transport = new SocketTransport.Builder("localhost", port)
                 .readTimeout(2000)
                 .build();
@@ -107,6 +113,22 @@ public abstract class ConformanceBase {
         });
     }
 
+    /**
+     * When overridden in a derived class, creates a server other than the
+     * default Apache Thrift server.  Derived classes that override this
+     * must also override {@link #serverPort()}.
+     */
+    protected TestRule createServer() {
+        return new TestServer(getServerProtocol(), getServerTransport());
+    }
+
+    /**
+     * Returns the port on which the running test server is listening.
+     */
+    protected int serverPort() {
+        return ((TestServer) testServer).port();
+    }
+
     /**
      * Specifies the kind of transport (blocking or non-blocking) for the
      * test server.
@@ -0,0 +1,39 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.integration.conformance;
+
+import org.junit.rules.TestRule;
+
+/**
+ * Runs the conformance suite against the generated ThriftTest processor,
+ * hosted on a Thrifty {@link com.microsoft.thrifty.server.BlockingServer}.
+ */
+public class ThriftyBlockingServerCompactProtocolConformance extends CompactProtocolConformance {
+    @Override
+    protected TestRule createServer() {
+        return new ThriftyTestServer(getServerProtocol(), getServerTransport());
+    }
+
+    @Override
+    protected int serverPort() {
+        return ((ThriftyTestServer) testServer).port();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.integration.conformance;
+
+import com.microsoft.thrifty.integration.gen.HasUnion;
+import com.microsoft.thrifty.integration.gen.Insanity;
+import com.microsoft.thrifty.integration.gen.NonEmptyUnion;
+import com.microsoft.thrifty.integration.gen.Numberz;
+import com.microsoft.thrifty.integration.gen.ThriftTestHandler;
+import com.microsoft.thrifty.integration.gen.UnionWithDefault;
+import com.microsoft.thrifty.integration.gen.Xception;
+import com.microsoft.thrifty.integration.gen.Xception2;
+import com.microsoft.thrifty.integration.gen.Xtruct;
+import com.microsoft.thrifty.integration.gen.Xtruct2;
+import okio.ByteString;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An implementation of the ThriftTest service against Thrifty's generated
+ * handler interface, with the same semantics as the Apache-based handler in
+ * thrifty-test-server.
+ */
+public class ThriftyTestHandler implements ThriftTestHandler {
+    @Override
+    public void testVoid() {
+    }
+
+    @Override
+    public String testString(String thing) {
+        return thing;
+    }
+
+    @Override
+    public Boolean testBool(Boolean thing) {
+        return thing;
+    }
+
+    @Override
+    public Byte testByte(Byte thing) {
+        return thing;
+    }
+
+    @Override
+    public Integer testI32(Integer thing) {
+        return thing;
+    }
+
+    @Override
+    public Long testI64(Long thing) {
+        return thing;
+    }
+
+    @Override
+    public Double testDouble(Double thing) {
+        return thing;
+    }
+
+    @Override
+    public ByteString testBinary(ByteString thing) {
+        return thing;
+    }
+
+    @Override
+    public Xtruct testStruct(Xtruct thing) {
+        return thing;
+    }
+
+    @Override
+    public Xtruct2 testNest(Xtruct2 thing) {
+        return thing;
+    }
+
+    @Override
+    public Map<Integer, Integer> testMap(Map<Integer, Integer> thing) {
+        return thing;
+    }
+
+    @Override
+    public Map<String, String> testStringMap(Map<String, String> thing) {
+        return thing;
+    }
+
+    @Override
+    public Set<Integer> testSet(Set<Integer> thing) {
+        return thing;
+    }
+
+    @Override
+    public List<Integer> testList(List<Integer> thing) {
+        return thing;
+    }
+
+    @Override
+    public Numberz testEnum(Numberz thing) {
+        return thing;
+    }
+
+    @Override
+    public Long testTypedef(Long thing) {
+        return thing;
+    }
+
+    @Override
+    public Map<Integer, Map<Integer, Integer>> testMapMap(Integer hello) {
+        // {-4 => {-4 => -4, -3 => -3, -2 => -2, -1 => -1, }, 4 => {1 => 1, 2 => 2, 3 => 3, 4 => 4, }, }
+        Map<Integer, Map<Integer, Integer>> result = new LinkedHashMap<>();
+        Map<Integer, Integer> first = new LinkedHashMap<>();
+        Map<Integer, Integer> second = new LinkedHashMap<>();
+
+        for (int i = 1; i <= 4; ++i) {
+            first.put(-i, -i);
+            second.put(i, i);
+        }
+
+        result.put(-4, first);
+        result.put(4, second);
+
+        return result;
+    }
+
+    @Override
+    public Map<Long, Map<Numberz, Insanity>> testInsanity(Insanity argument) {
+        /*
+         *   { 1 => { 2 => argument,
+         *            3 => argument,
+         *          },
+         *     2 => { 6 => <empty Insanity struct>, },
+         *   }
+         */
+        Map<Long, Map<Numberz, Insanity>> result = new LinkedHashMap<>();
+        Map<Numberz, Insanity> first = new LinkedHashMap<>();
+        Map<Numberz, Insanity> second = new LinkedHashMap<>();
+
+        first.put(Numberz.TWO, argument);
+        first.put(Numberz.THREE, argument);
+
+        second.put(Numberz.SIX, new Insanity.Builder().build());
+
+        result.put(1L, first);
+        result.put(2L, second);
+
+        return result;
+    }
+
+    @Override
+    public Xtruct testMulti(Byte arg0, Integer arg1, Long arg2, Map<Short, String> arg3, Numberz arg4, Long arg5) {
+        return new Xtruct.Builder()
+                .string_thing("Hello2")
+                .byte_thing(arg0)
+                .i32_thing(arg1)
+                .i64_thing(arg2)
+                .build();
+    }
+
+    @Override
+    public void testException(String arg) throws Xception {
+        if ("TException".equals(arg)) {
+            throw new IllegalStateException("TException");
+        } else if ("Xception".equals(arg)) {
+            throw new Xception.Builder()
+                    .errorCode(1001)
+                    .message("Xception")
+                    .build();
+        }
+    }
+
+    @Override
+    public Xtruct testMultiException(String arg0, String arg1) throws Xception, Xception2 {
+        if ("Xception".equals(arg0)) {
+            throw new Xception.Builder()
+                    .errorCode(1001)
+                    .message("This is an Xception")
+                    .build();
+        } else if ("Xception2".equals(arg0)) {
+            throw new Xception2.Builder()
+                    .errorCode(2002)
+                    .struct_thing(new Xtruct.Builder().string_thing("This is an Xception2").build())
+                    .build();
+        }
+
+        return new Xtruct.Builder().string_thing(arg1).build();
+    }
+
+    @Override
+    public void testOneway(Integer secondsToSleep) {
+    }
+
+    @Override
+    public HasUnion testUnionArgument(NonEmptyUnion arg0) {
+        return new HasUnion.Builder().TheUnion(arg0).build();
+    }
+
+    @Override
+    public UnionWithDefault testUnionWithDefault(UnionWithDefault theArg) {
+        return theArg;
+    }
+}
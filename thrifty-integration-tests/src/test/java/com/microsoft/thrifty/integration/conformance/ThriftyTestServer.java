@@ -0,0 +1,120 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.integration.conformance;
+
+import com.microsoft.thrifty.integration.gen.ThriftTestProcessor;
+import com.microsoft.thrifty.protocol.CompactProtocol;
+import com.microsoft.thrifty.protocol.JsonProtocol;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.protocol.ProtocolFactory;
+import com.microsoft.thrifty.server.BlockingServer;
+import com.microsoft.thrifty.server.NonblockingServer;
+import com.microsoft.thrifty.testing.ServerProtocol;
+import com.microsoft.thrifty.testing.ServerTransport;
+import com.microsoft.thrifty.transport.Transport;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Runs the ThriftTest service on a Thrifty server, using the generated
+ * processor, for the duration of each test.  A {@link BlockingServer} is
+ * used for {@link ServerTransport#BLOCKING}, and a
+ * {@link NonblockingServer} otherwise.
+ */
+public class ThriftyTestServer implements TestRule {
+    private final ServerProtocol protocol;
+    private final ServerTransport transport;
+    private Closeable server;
+    private int port;
+
+    public ThriftyTestServer(ServerProtocol protocol, ServerTransport transport) {
+        this.protocol = protocol;
+        this.transport = transport;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    @Override
+    public Statement apply(final Statement base, Description description) {
+        return new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                startServer();
+                try {
+                    base.evaluate();
+                } finally {
+                    server.close();
+                }
+            }
+        };
+    }
+
+    private void startServer() throws IOException {
+        ThriftTestProcessor processor = new ThriftTestProcessor(new ThriftyTestHandler());
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName("localhost"), 0);
+
+        if (transport == ServerTransport.BLOCKING) {
+            BlockingServer blockingServer = new BlockingServer.Builder(processor)
+                    .bindAddress(address)
+                    .protocolFactory(getProtocolFactory())
+                    .build();
+            blockingServer.start();
+            server = blockingServer;
+            port = blockingServer.port();
+        } else {
+            NonblockingServer nonblockingServer = new NonblockingServer.Builder(processor)
+                    .bindAddress(address)
+                    .protocolFactory(getProtocolFactory())
+                    .build();
+            nonblockingServer.start();
+            server = nonblockingServer;
+            port = nonblockingServer.port();
+        }
+    }
+
+    private ProtocolFactory getProtocolFactory() {
+        switch (protocol) {
+            case BINARY: return ProtocolFactory.BINARY;
+            case COMPACT: return new ProtocolFactory() {
+                @Override
+                public Protocol createProtocol(Transport transport) {
+                    return new CompactProtocol(transport);
+                }
+            };
+            case JSON: return new ProtocolFactory() {
+                @Override
+                public Protocol createProtocol(Transport transport) {
+                    return new JsonProtocol(transport);
+                }
+            };
+            default:
+                throw new AssertionError("Invalid protocol value: " + protocol);
+        }
+    }
+}
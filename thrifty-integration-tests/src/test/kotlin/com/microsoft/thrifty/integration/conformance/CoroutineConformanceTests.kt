@@ -32,16 +32,14 @@ import com.microsoft.thrifty.integration.kgen.coro.Xception
 import com.microsoft.thrifty.integration.kgen.coro.Xception2
 import com.microsoft.thrifty.integration.kgen.coro.Xtruct
 import com.microsoft.thrifty.integration.kgen.coro.Xtruct2
+import com.microsoft.thrifty.kotlin.service.awaitConnect
 import com.microsoft.thrifty.protocol.BinaryProtocol
 import com.microsoft.thrifty.protocol.CompactProtocol
 import com.microsoft.thrifty.protocol.JsonProtocol
 import com.microsoft.thrifty.protocol.Protocol
-import com.microsoft.thrifty.service.AsyncClientBase
 import com.microsoft.thrifty.testing.ServerProtocol
 import com.microsoft.thrifty.testing.ServerTransport
 import com.microsoft.thrifty.testing.TestServer
-import com.microsoft.thrifty.transport.FramedTransport
-import com.microsoft.thrifty.transport.SocketTransport
 import com.microsoft.thrifty.transport.Transport
 import io.kotest.assertions.fail
 import io.kotest.matchers.shouldBe
@@ -54,6 +52,8 @@ import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.Parameterized
+import java.net.InetSocketAddress
+import java.nio.channels.AsynchronousSocketChannel
 
 /**
  * A test of auto-generated service code for the standard ThriftTest
@@ -80,8 +80,6 @@ class CoroutineConformanceTests(
      */
     lateinit var testServer: TestServer
 
-    lateinit var transport: Transport
-    lateinit var protocol: Protocol
     lateinit var client: ThriftTestClient
 
     companion object {
@@ -98,17 +96,6 @@ class CoroutineConformanceTests(
         )
     }
 
-    /**
-     * When overridden in a derived class, wraps the given transport
-     * in a decorator, e.g. a framed transport.
-     */
-    private fun decorateTransport(transport: Transport): Transport {
-        return when (serverTransport) {
-            ServerTransport.NON_BLOCKING -> FramedTransport(transport)
-            else -> transport
-        }
-    }
-
     private fun createProtocol(transport: Transport): Protocol {
         return when (serverProtocol) {
             ServerProtocol.BINARY -> BinaryProtocol(transport)
@@ -118,34 +105,20 @@ class CoroutineConformanceTests(
     }
 
     @Before
-    fun setup() {
+    fun setup() = runBlocking<Unit> {
         testServer = TestServer(serverProtocol, serverTransport)
         testServer.run()
 
-        val port = testServer.port()
-        val transport = SocketTransport.Builder("localhost", port)
-                .readTimeout(2000)
-                .build()
+        val channel = AsynchronousSocketChannel.open()
+        channel.awaitConnect(InetSocketAddress("localhost", testServer.port()))
 
-        transport.connect()
-
-        this.transport = decorateTransport(transport)
-        this.protocol = createProtocol(this.transport)
-        this.client = ThriftTestClient(protocol, object : AsyncClientBase.Listener {
-            override fun onTransportClosed() {
-
-            }
-
-            override fun onError(error: Throwable) {
-                throw AssertionError(error)
-            }
-        })
+        // Only the non-blocking server expects framed messages.
+        val framed = serverTransport == ServerTransport.NON_BLOCKING
+        client = ThriftTestClient(channel, this@CoroutineConformanceTests::createProtocol, framed)
     }
 
     @After fun teardown() {
         client.close()
-        protocol.close()
-        transport.close()
         testServer.close()
     }
 
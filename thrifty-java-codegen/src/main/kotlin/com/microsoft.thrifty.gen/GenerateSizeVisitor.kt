@@ -0,0 +1,226 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.gen
+
+import com.microsoft.thrifty.SizedAdapter
+import com.microsoft.thrifty.protocol.ProtocolSizer
+import com.microsoft.thrifty.schema.BuiltinType
+import com.microsoft.thrifty.schema.EnumType
+import com.microsoft.thrifty.schema.ListType
+import com.microsoft.thrifty.schema.MapType
+import com.microsoft.thrifty.schema.NamespaceScope
+import com.microsoft.thrifty.schema.ServiceType
+import com.microsoft.thrifty.schema.SetType
+import com.microsoft.thrifty.schema.StructType
+import com.microsoft.thrifty.schema.ThriftType
+import com.microsoft.thrifty.schema.TypedefType
+import com.squareup.javapoet.MethodSpec
+import com.squareup.javapoet.ParameterizedTypeName
+import java.util.Deque
+
+import java.util.LinkedList
+
+/**
+ * Generates Java code to add the encoded size of a field's value to a
+ * running total, in an [SizedAdapter.serializedSize] implementation.
+ *
+ * This mirrors [GenerateWriterVisitor], making the same sequence of calls
+ * against a [ProtocolSizer] that the writer makes against a protocol.
+ *
+ * @param resolver the [TypeResolver] singleton
+ * @param method the [SizedAdapter.serializedSize] method under construction
+ * @param sizer the name of the [ProtocolSizer] parameter to the method
+ * @param size the name of the local variable holding the running total
+ * @param subject the name of the struct parameter to the method
+ * @param fieldName the Java name of the field being measured
+ */
+internal class GenerateSizeVisitor(
+        private val resolver: TypeResolver,
+        private val method: MethodSpec.Builder,
+        private val sizer: String,
+        private val size: String,
+        subject: String,
+        fieldName: String
+) : ThriftType.Visitor<Unit> {
+
+    /**
+     * A stack of names, with the topmost name being the one currently
+     * being measured.
+     */
+    private val nameStack: Deque<String> = LinkedList<String>().apply {
+        push("$subject.$fieldName")
+    }
+
+    /**
+     * A count of nested scopes.  Used to prevent name clashes for iterator
+     * and temporary names used when measuring nested collections.
+     */
+    private var scopeLevel: Int = 0
+
+    override fun visitBool(boolType: BuiltinType) {
+        addValue("boolValue")
+    }
+
+    override fun visitByte(byteType: BuiltinType) {
+        addValue("byteValue")
+    }
+
+    override fun visitI16(i16Type: BuiltinType) {
+        addValue("i16")
+    }
+
+    override fun visitI32(i32Type: BuiltinType) {
+        addValue("i32")
+    }
+
+    override fun visitI64(i64Type: BuiltinType) {
+        addValue("i64")
+    }
+
+    override fun visitDouble(doubleType: BuiltinType) {
+        addValue("doubleValue")
+    }
+
+    override fun visitString(stringType: BuiltinType) {
+        addValue("string")
+    }
+
+    override fun visitBinary(binaryType: BuiltinType) {
+        addValue("binary")
+    }
+
+    override fun visitVoid(voidType: BuiltinType) {
+        throw AssertionError("Fields cannot be void")
+    }
+
+    override fun visitEnum(enumType: EnumType) {
+        method.addStatement("\$N += \$N.i32(\$L.value)", size, sizer, nameStack.peek())
+    }
+
+    override fun visitList(listType: ListType) {
+        visitSingleElementCollection(listType.elementType.trueType, "listBegin")
+    }
+
+    override fun visitSet(setType: SetType) {
+        visitSingleElementCollection(setType.elementType.trueType, "setBegin")
+    }
+
+    private fun visitSingleElementCollection(elementType: ThriftType, beginMethod: String) {
+        val item = "item$scopeLevel"
+
+        val javaClass = resolver.getJavaClass(elementType)
+        val typeCode = resolver.getTypeCode(elementType)
+        val typeCodeName = TypeNames.getTypeCodeName(typeCode)
+
+        method.addStatement(
+                "\$N += \$N.\$L(\$T.\$L, \$L.size())",
+                size,
+                sizer,
+                beginMethod,
+                TypeNames.TTYPE,
+                typeCodeName,
+                nameStack.peek())
+
+        method.beginControlFlow("for (\$T \$N : \$L)", javaClass, item, nameStack.peek())
+
+        scope {
+            nameStack.push(item)
+            elementType.accept(this)
+            nameStack.pop()
+        }
+
+        method.endControlFlow()
+    }
+
+    override fun visitMap(mapType: MapType) {
+        val entryName = "entry$scopeLevel"
+        val keyName = "key$scopeLevel"
+        val valueName = "value$scopeLevel"
+        val kt = mapType.keyType.trueType
+        val vt = mapType.valueType.trueType
+
+        val keyTypeCode = resolver.getTypeCode(kt)
+        val valTypeCode = resolver.getTypeCode(vt)
+
+        method.addStatement(
+                "$1N += $2N.mapBegin($3T.$4L, $3T.$5L, $6L.size())",
+                size,
+                sizer,
+                TypeNames.TTYPE,
+                TypeNames.getTypeCodeName(keyTypeCode),
+                TypeNames.getTypeCodeName(valTypeCode),
+                nameStack.peek())
+
+        val keyTypeName = resolver.getJavaClass(kt)
+        val valueTypeName = resolver.getJavaClass(vt)
+        val entry = ParameterizedTypeName.get(TypeNames.MAP_ENTRY, keyTypeName, valueTypeName)
+        method.beginControlFlow("for (\$T \$N : \$L.entrySet())", entry, entryName, nameStack.peek())
+        method.addStatement("\$T \$N = \$N.getKey()", keyTypeName, keyName, entryName)
+        method.addStatement("\$T \$N = \$N.getValue()", valueTypeName, valueName, entryName)
+
+        scope {
+            nameStack.push(keyName)
+            kt.accept(this)
+            nameStack.pop()
+
+            nameStack.push(valueName)
+            vt.accept(this)
+            nameStack.pop()
+        }
+
+        method.endControlFlow()
+    }
+
+    override fun visitStruct(structType: StructType) {
+        val javaName = structType.getNamespaceFor(NamespaceScope.JAVA) + "." + structType.name
+        // ADAPTER is declared as a plain Adapter; generated adapters are always sized.
+        method.addStatement(
+                "\$N += ((\$T<\$L, \$L.Builder>) \$L.ADAPTER).serializedSize(\$N, \$L)",
+                size,
+                TypeNames.SIZED_ADAPTER,
+                javaName,
+                javaName,
+                javaName,
+                sizer,
+                nameStack.peek())
+    }
+
+    override fun visitTypedef(typedefType: TypedefType) {
+        typedefType.trueType.accept(this)
+    }
+
+    override fun visitService(serviceType: ServiceType) {
+        throw AssertionError("Cannot measure a service")
+    }
+
+    private fun addValue(sizerMethod: String) {
+        method.addStatement("\$N += \$N.\$L(\$L)", size, sizer, sizerMethod, nameStack.peek())
+    }
+
+    private inline fun scope(fn: () -> Unit) {
+        scopeLevel++
+        try {
+            fn()
+        } finally {
+            scopeLevel--
+        }
+    }
+}
@@ -47,7 +47,8 @@ import java.util.LinkedList
  * @param resolver the [TypeResolver] singleton
  * @param write the [Adapter.write] method under construction
  * @param proto the name of the [Protocol] parameter to the write method
- * @param subject the name of the struct parameter to the write method
+ * @param subject the name of the struct parameter to the write method, or
+ *                an empty string if [fieldName] names a local variable
  * @param fieldName the Java name of the field being written
  */
 internal class GenerateWriterVisitor(
@@ -63,7 +64,7 @@ internal class GenerateWriterVisitor(
      * being written/assigned.
      */
     private val nameStack: Deque<String> = LinkedList<String>().apply {
-        push("$subject.$fieldName")
+        push(if (subject.isEmpty()) fieldName else "$subject.$fieldName")
     }
 
     /**
@@ -25,6 +25,7 @@ import com.microsoft.thrifty.schema.BuiltinType
 import com.microsoft.thrifty.schema.NamespaceScope
 import com.microsoft.thrifty.schema.ServiceMethod
 import com.microsoft.thrifty.schema.ServiceType
+import com.microsoft.thrifty.schema.ThriftType
 import com.squareup.javapoet.AnnotationSpec
 import com.squareup.javapoet.ClassName
 import com.squareup.javapoet.CodeBlock
@@ -34,6 +35,7 @@ import com.squareup.javapoet.NameAllocator
 import com.squareup.javapoet.ParameterizedTypeName
 import com.squareup.javapoet.TypeName
 import com.squareup.javapoet.TypeSpec
+import com.squareup.javapoet.TypeVariableName
 
 import javax.lang.model.element.Modifier
 import java.util.concurrent.atomic.AtomicInteger
@@ -43,6 +45,17 @@ internal class ServiceBuilder(
         private val constantBuilder: ConstantBuilder,
         private val fieldNamer: FieldNamer
 ) {
+    /**
+     * When true, service methods return a `CompletableFuture` rather than
+     * accepting a callback.
+     */
+    var completableFutureClients = false
+
+    /**
+     * The names of the locals and parameters of generated processor
+     * methods, which method arguments must not shadow.
+     */
+    private val processorReservedNames = listOf("message", "protocol", "output", "field", "value", "result", "e")
 
     fun buildServiceInterface(service: ServiceType): TypeSpec {
         val serviceSpec = TypeSpec.interfaceBuilder(service.name)
@@ -85,8 +98,6 @@ internal class ServiceBuilder(
 
             }
 
-            val callbackName = allocator.newName("callback", ++tag)
-
             val returnType = method.returnType
             val returnTypeName = if (returnType == BuiltinType.VOID) {
                 TypeName.VOID.box()
@@ -94,10 +105,16 @@ internal class ServiceBuilder(
                 typeResolver.getJavaClass(returnType.trueType)
             }
 
-            val callbackInterfaceName = ParameterizedTypeName.get(
-                    TypeNames.SERVICE_CALLBACK, returnTypeName)
+            if (completableFutureClients) {
+                methodBuilder.returns(ParameterizedTypeName.get(TypeNames.COMPLETABLE_FUTURE, returnTypeName))
+            } else {
+                val callbackName = allocator.newName("callback", ++tag)
+                val callbackInterfaceName = ParameterizedTypeName.get(
+                        TypeNames.SERVICE_CALLBACK, returnTypeName)
 
-            methodBuilder.addParameter(callbackInterfaceName, callbackName)
+                methodBuilder.addParameter(callbackInterfaceName, callbackName)
+                methodBuilder.returns(TypeNames.SERVICE_CALL_HANDLE)
+            }
 
             serviceSpec.addMethod(methodBuilder.build())
         }
@@ -129,6 +146,17 @@ internal class ServiceBuilder(
                 .addStatement("super(protocol, listener)")
                 .build())
 
+        builder.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addParameter(TypeNames.SERVICE_CLIENT_LISTENER, "listener")
+                .addParameter(TypeNames.SERVICE_CLIENT_CONFIG, "config")
+                .addStatement("super(protocol, listener, config)")
+                .build())
+
+        val futureCallback = if (completableFutureClients) buildFutureCallback() else null
+        futureCallback?.let { builder.addType(it) }
+
         for ((i, methodSpec) in serviceInterface.methodSpecs.withIndex()) {
             val serviceMethod = service.methods[i]
             val call = buildCallSpec(serviceMethod)
@@ -137,23 +165,39 @@ internal class ServiceBuilder(
             val meth = MethodSpec.methodBuilder(methodSpec.name)
                     .addAnnotation(Override::class.java)
                     .addModifiers(Modifier.PUBLIC)
+                    .returns(methodSpec.returnType)
                     .addParameters(methodSpec.parameters)
                     .addExceptions(methodSpec.exceptions)
 
-            val body = CodeBlock.builder()
-                    .add("$[this.enqueue(new \$N(", call)
-
+            val arguments = CodeBlock.builder()
             for ((index, parameter) in methodSpec.parameters.withIndex()) {
                 if (index == 0) {
-                    body.add("\$N", parameter.name)
+                    arguments.add("\$N", parameter.name)
                 } else {
-                    body.add(", \$N", parameter.name)
+                    arguments.add(", \$N", parameter.name)
                 }
             }
 
-            body.add("));\n$]")
+            if (futureCallback != null) {
+                val allocator = NameAllocator()
+                for (parameter in methodSpec.parameters) {
+                    allocator.newName(parameter.name, parameter)
+                }
+                val futureName = allocator.newName("future")
+                val resultTypeName = (methodSpec.returnType as ParameterizedTypeName).typeArguments.single()
+                val futureType = ParameterizedTypeName.get(ClassName.get("", futureCallback.name), resultTypeName)
 
-            meth.addCode(body.build())
+                if (methodSpec.parameters.isNotEmpty()) {
+                    arguments.add(", ")
+                }
+                arguments.add("\$N", futureName)
+
+                meth.addStatement("\$T \$N = new \$T()", futureType, futureName, futureType)
+                meth.addStatement("\$N.setHandle(this.enqueue(new \$N(\$L)))", futureName, call, arguments.build())
+                meth.addStatement("return \$N", futureName)
+            } else {
+                meth.addStatement("return this.enqueue(new \$N(\$L))", call, arguments.build())
+            }
 
             builder.addMethod(meth.build())
         }
@@ -161,6 +205,222 @@ internal class ServiceBuilder(
         return builder.build()
     }
 
+    /**
+     * Builds a [java.util.concurrent.CompletableFuture] that serves as its
+     * own callback, so that each call allocates only the one object, and
+     * which cancels its call when it is itself cancelled.
+     *
+     * The call is enqueued before its handle is known, so the future may be
+     * cancelled first; setting the handle then cancels the call.
+     */
+    private fun buildFutureCallback(): TypeSpec {
+        val t = TypeVariableName.get("T")
+        return TypeSpec.classBuilder("FutureCallback")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addTypeVariable(t)
+                .superclass(ParameterizedTypeName.get(TypeNames.COMPLETABLE_FUTURE, t))
+                .addSuperinterface(ParameterizedTypeName.get(TypeNames.SERVICE_CALLBACK, t))
+                .addField(FieldSpec.builder(TypeNames.SERVICE_CALL_HANDLE, "handle", Modifier.PRIVATE, Modifier.VOLATILE)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("setHandle")
+                        .addParameter(TypeNames.SERVICE_CALL_HANDLE, "handle")
+                        .addStatement("this.handle = handle")
+                        .beginControlFlow("if (isCancelled())")
+                        .addStatement("handle.cancel()")
+                        .endControlFlow()
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("onSuccess")
+                        .addAnnotation(Override::class.java)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(t, "result")
+                        .addStatement("complete(result)")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("onError")
+                        .addAnnotation(Override::class.java)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(Throwable::class.java, "error")
+                        .addStatement("completeExceptionally(error)")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("cancel")
+                        .addAnnotation(Override::class.java)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(TypeName.BOOLEAN)
+                        .addParameter(TypeName.BOOLEAN, "mayInterruptIfRunning")
+                        .addStatement("boolean cancelled = super.cancel(mayInterruptIfRunning)")
+                        .addStatement("\$T handle = this.handle", TypeNames.SERVICE_CALL_HANDLE)
+                        .beginControlFlow("if (cancelled && handle != null)")
+                        .addStatement("handle.cancel()")
+                        .endControlFlow()
+                        .addStatement("return cancelled")
+                        .build())
+                .build()
+    }
+
+    fun buildPooledService(service: ServiceType): TypeSpec {
+        val packageName = service.getNamespaceFor(NamespaceScope.JAVA)
+        val interfaceTypeName = ClassName.get(packageName, service.name)
+        val clientTypeName = ClassName.get(packageName, service.name + "Client")
+        val pooledTypeName = ClassName.get(packageName, service.name + "PooledClient")
+        val poolTypeName = ParameterizedTypeName.get(TypeNames.SERVICE_CLIENT_POOL, clientTypeName)
+        val factoryTypeName = ParameterizedTypeName.get(TypeNames.SERVICE_CLIENT_FACTORY, clientTypeName)
+
+        val factory = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(factoryTypeName)
+                .addMethod(MethodSpec.methodBuilder("createClient")
+                        .addAnnotation(Override::class.java)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(clientTypeName)
+                        .addParameter(TypeNames.PROTOCOL, "protocol")
+                        .addParameter(TypeNames.SERVICE_CLIENT_LISTENER, "listener")
+                        .addParameter(TypeNames.SERVICE_CLIENT_CONFIG, "config")
+                        .addStatement("return new \$T(protocol, listener, config)", clientTypeName)
+                        .build())
+                .build()
+
+        val builder = TypeSpec.classBuilder(pooledTypeName)
+                .addModifiers(Modifier.PUBLIC)
+                .addSuperinterface(interfaceTypeName)
+                .addJavadoc("An implementation of {@link \$T} that leases a client from a {@link \$T}\n" +
+                        "for each call, returning it when the call completes.\n",
+                        interfaceTypeName, TypeNames.SERVICE_CLIENT_POOL)
+                .addField(FieldSpec.builder(factoryTypeName, "FACTORY")
+                        .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("\$L", factory)
+                        .build())
+                .addField(poolTypeName, "pool", Modifier.PRIVATE, Modifier.FINAL)
+                .addMethod(MethodSpec.constructorBuilder()
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(poolTypeName, "pool")
+                        .beginControlFlow("if (pool == null)")
+                        .addStatement("throw new \$T(\$S)", TypeNames.NULL_POINTER_EXCEPTION, "pool")
+                        .endControlFlow()
+                        .addStatement("this.pool = pool")
+                        .build())
+
+        // The facade implements the whole interface, including any methods
+        // inherited from base services.
+        val services = generateSequence(service) { it.extendsService as? ServiceType }.toList().asReversed()
+        for (svc in services) {
+            for (methodSpec in buildServiceInterface(svc).methodSpecs) {
+                builder.addMethod(buildPooledMethod(methodSpec, clientTypeName, pooledTypeName))
+            }
+        }
+
+        return builder.build()
+    }
+
+    private fun buildPooledMethod(
+            methodSpec: MethodSpec,
+            clientTypeName: ClassName,
+            pooledTypeName: ClassName
+    ): MethodSpec {
+        val allocator = NameAllocator()
+        for (parameter in methodSpec.parameters) {
+            allocator.newName(parameter.name, parameter)
+        }
+        val clientName = allocator.newName("client")
+        val errorName = allocator.newName("e")
+
+        if (completableFutureClients) {
+            return buildPooledFutureMethod(methodSpec, clientTypeName, pooledTypeName, allocator, clientName, errorName)
+        }
+
+        val arguments = methodSpec.parameters.dropLast(1)
+        val callback = methodSpec.parameters.last()
+
+        val invocation = CodeBlock.builder()
+                .add("\$N.\$N(", clientName, methodSpec)
+        for (parameter in arguments) {
+            invocation.add("\$N, ", parameter)
+        }
+        invocation.add("this.pool.releaseOnCompletion(\$N, \$N))", clientName, callback)
+
+        return MethodSpec.methodBuilder(methodSpec.name)
+                .addAnnotation(Override::class.java)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(methodSpec.returnType)
+                .addParameters(methodSpec.parameters)
+                .addExceptions(methodSpec.exceptions)
+                .addStatement("\$T \$N", clientTypeName, clientName)
+                .beginControlFlow("try")
+                .addStatement("\$N = this.pool.lease()", clientName)
+                .nextControlFlow("catch (\$T \$N)", TypeNames.IO_EXCEPTION, errorName)
+                .addStatement("\$N.onError(\$N)", callback, errorName)
+                .addStatement("return \$T.COMPLETED", TypeNames.SERVICE_CALL_HANDLE)
+                .endControlFlow()
+                .addCode("\n")
+                .beginControlFlow("try")
+                .addStatement("return \$L", invocation.build())
+                .nextControlFlow("catch (\$T \$N)", TypeNames.RUNTIME_EXCEPTION, errorName)
+                .addStatement("this.pool.release(\$N)", clientName)
+                .addStatement("throw \$N", errorName)
+                .endControlFlow()
+                .build()
+    }
+
+    private fun buildPooledFutureMethod(
+            methodSpec: MethodSpec,
+            clientTypeName: ClassName,
+            pooledTypeName: ClassName,
+            allocator: NameAllocator,
+            clientName: String,
+            errorName: String
+    ): MethodSpec {
+        val futureName = allocator.newName("future")
+        val futureTypeName = methodSpec.returnType as ParameterizedTypeName
+        val resultTypeName = futureTypeName.typeArguments.single()
+
+        val invocation = CodeBlock.builder()
+                .add("\$N.\$N(", clientName, methodSpec)
+        for ((index, parameter) in methodSpec.parameters.withIndex()) {
+            if (index > 0) {
+                invocation.add(", ")
+            }
+            invocation.add("\$N", parameter)
+        }
+        invocation.add(")")
+
+        // Returning the client's own future, rather than a dependent one,
+        // means that cancelling it cancels the call.
+        val releaser = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(
+                        TypeNames.BI_CONSUMER, resultTypeName, ClassName.get(Throwable::class.java)))
+                .addMethod(MethodSpec.methodBuilder("accept")
+                        .addAnnotation(Override::class.java)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(resultTypeName, "result")
+                        .addParameter(Throwable::class.java, "error")
+                        .addStatement("\$T.this.pool.release(\$N)", pooledTypeName, clientName)
+                        .build())
+                .build()
+
+        return MethodSpec.methodBuilder(methodSpec.name)
+                .addAnnotation(Override::class.java)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(futureTypeName)
+                .addParameters(methodSpec.parameters)
+                .addExceptions(methodSpec.exceptions)
+                .addStatement("final \$T \$N", clientTypeName, clientName)
+                .beginControlFlow("try")
+                .addStatement("\$N = this.pool.lease()", clientName)
+                .nextControlFlow("catch (\$T \$N)", TypeNames.IO_EXCEPTION, errorName)
+                .addStatement("\$T \$N = new \$T<>()", futureTypeName, futureName, TypeNames.COMPLETABLE_FUTURE)
+                .addStatement("\$N.completeExceptionally(\$N)", futureName, errorName)
+                .addStatement("return \$N", futureName)
+                .endControlFlow()
+                .addCode("\n")
+                .addStatement("\$T \$N", futureTypeName, futureName)
+                .beginControlFlow("try")
+                .addStatement("\$N = \$L", futureName, invocation.build())
+                .nextControlFlow("catch (\$T \$N)", TypeNames.RUNTIME_EXCEPTION, errorName)
+                .addStatement("this.pool.release(\$N)", clientName)
+                .addStatement("throw \$N", errorName)
+                .endControlFlow()
+                .addStatement("\$N.whenComplete(\$L)", futureName, releaser)
+                .addStatement("return \$N", futureName)
+                .build()
+    }
+
     private fun buildCallSpec(method: ServiceMethod): TypeSpec {
         val name = "${method.name.capitalize()}Call"
 
@@ -394,4 +654,278 @@ internal class ServiceBuilder(
 
         return recv.build()
     }
+
+    /**
+     * Builds the interface that server-side implementations of the given
+     * service implement, and to which its processor dispatches.
+     */
+    fun buildHandlerInterface(service: ServiceType): TypeSpec {
+        val handlerSpec = TypeSpec.interfaceBuilder(service.name + "Handler")
+                .addModifiers(Modifier.PUBLIC)
+
+        service.documentation.let {
+            if (it.isNotEmpty()) {
+                handlerSpec.addJavadoc(it)
+            }
+        }
+
+        if (service.isDeprecated) {
+            handlerSpec.addAnnotation(AnnotationSpec.builder(Deprecated::class.java).build())
+        }
+
+        val extendsServiceType = service.extendsService
+        if (extendsServiceType is ServiceType) {
+            val ns = extendsServiceType.getNamespaceFor(NamespaceScope.JAVA)
+            handlerSpec.addSuperinterface(ClassName.get(ns, extendsServiceType.name + "Handler"))
+        }
+
+        for (method in service.methods) {
+            val allocator = NameAllocator()
+            var tag = 0
+
+            val methodBuilder = MethodSpec.methodBuilder(method.name)
+                    .addModifiers(Modifier.PUBLIC, Modifier.ABSTRACT)
+
+            if (method.hasJavadoc) {
+                methodBuilder.addJavadoc(method.documentation)
+            }
+
+            for (field in method.parameters) {
+                val name = allocator.newName(fieldNamer.getName(field), ++tag)
+                methodBuilder.addParameter(typeResolver.getJavaClass(field.type.trueType), name)
+            }
+
+            val returnType = method.returnType
+            if (returnType != BuiltinType.VOID) {
+                methodBuilder.returns(typeResolver.getJavaClass(returnType.trueType))
+            }
+
+            for (field in method.exceptions) {
+                methodBuilder.addException(typeResolver.getJavaClass(field.type.trueType))
+            }
+
+            handlerSpec.addMethod(methodBuilder.build())
+        }
+
+        return handlerSpec.build()
+    }
+
+    /**
+     * Builds a [com.microsoft.thrifty.service.Processor] that decodes calls
+     * to the given service, invokes the corresponding methods of a handler,
+     * and writes their results.
+     */
+    fun buildProcessor(service: ServiceType): TypeSpec {
+        val packageName = service.getNamespaceFor(NamespaceScope.JAVA)
+        val handlerTypeName = ClassName.get(packageName, service.name + "Handler")
+        val builder = TypeSpec.classBuilder(service.name + "Processor")
+                .addModifiers(Modifier.PUBLIC)
+                .addField(handlerTypeName, "handler", Modifier.PRIVATE, Modifier.FINAL)
+
+        val ctor = MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(handlerTypeName, "handler")
+
+        val extendsServiceType = service.extendsService
+        val hasSuperProcessor = extendsServiceType is ServiceType
+        if (extendsServiceType is ServiceType) {
+            val ns = extendsServiceType.getNamespaceFor(NamespaceScope.JAVA)
+            builder.superclass(ClassName.get(ns, extendsServiceType.name + "Processor"))
+            ctor.addStatement("super(handler)")
+        } else {
+            builder.superclass(TypeNames.SERVICE_PROCESSOR_BASE)
+            ctor.beginControlFlow("if (handler == null)")
+            ctor.addStatement("throw new \$T(\$S)", TypeNames.NULL_POINTER_EXCEPTION, "handler")
+            ctor.endControlFlow()
+        }
+
+        ctor.addStatement("this.handler = handler")
+        builder.addMethod(ctor.build())
+
+        val dispatch = MethodSpec.methodBuilder("dispatch")
+                .addAnnotation(Override::class.java)
+                .addModifiers(Modifier.PROTECTED)
+                .returns(TypeName.BOOLEAN)
+                .addParameter(TypeNames.MESSAGE_METADATA, "message")
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addParameter(TypeNames.PROTOCOL, "output")
+                .addException(TypeNames.IO_EXCEPTION)
+
+        if (service.methods.isNotEmpty()) {
+            dispatch.beginControlFlow("switch (message.name)")
+        }
+
+        val handleMethods = service.methods.map { buildProcessMethod(it) }
+        for ((method, handle) in service.methods.zip(handleMethods)) {
+            dispatch.addCode("case \$S:\n", method.name)
+            dispatch.addStatement("\$>\$N(message, protocol, output)", handle)
+            dispatch.addStatement("return true\$<")
+        }
+
+        if (service.methods.isNotEmpty()) {
+            dispatch.addCode("default:\n\$>")
+        }
+
+        if (hasSuperProcessor) {
+            dispatch.addStatement("return super.dispatch(message, protocol, output)")
+        } else {
+            dispatch.addStatement("return false")
+        }
+
+        if (service.methods.isNotEmpty()) {
+            dispatch.addCode("\$<")
+            dispatch.endControlFlow()
+        }
+
+        builder.addMethod(dispatch.build())
+        builder.addMethods(handleMethods)
+
+        return builder.build()
+    }
+
+    private fun buildProcessMethod(method: ServiceMethod): MethodSpec {
+        val spec = MethodSpec.methodBuilder("handle" + method.name.capitalize())
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(TypeNames.MESSAGE_METADATA, "message")
+                .addParameter(TypeNames.PROTOCOL, "protocol")
+                .addParameter(TypeNames.PROTOCOL, "output")
+                .addException(TypeNames.IO_EXCEPTION)
+
+        val allocator = NameAllocator()
+        for (reserved in processorReservedNames) {
+            allocator.newName(reserved, reserved)
+        }
+
+        for (field in method.parameters) {
+            val name = allocator.newName(fieldNamer.getName(field), field)
+            spec.addStatement("\$T \$N = null", typeResolver.getJavaClass(field.type.trueType), name)
+        }
+
+        spec.addStatement("protocol.readStructBegin()")
+                .beginControlFlow("while (true)")
+                .addStatement("\$T field = protocol.readFieldBegin()", TypeNames.FIELD_METADATA)
+                .beginControlFlow("if (field.typeId == \$T.STOP)", TypeNames.TTYPE)
+                .addStatement("break")
+                .endControlFlow()
+                .beginControlFlow("switch (field.fieldId)")
+
+        for (field in method.parameters) {
+            val name = allocator.get(field)
+            spec.beginControlFlow("case \$L:", field.id)
+
+            object : GenerateReaderVisitor(typeResolver, spec, name, field.type.trueType) {
+                override fun useReadValue(localName: String) {
+                    spec.addStatement("\$N = \$N", name, localName)
+                }
+            }.generate()
+
+            spec.endControlFlow()
+            spec.addStatement("break")
+        }
+
+        spec.addStatement("default: \$T.skip(protocol, field.typeId); break", TypeNames.PROTO_UTIL)
+        spec.endControlFlow() // end switch
+        spec.addStatement("protocol.readFieldEnd()")
+        spec.endControlFlow() // end while
+        spec.addStatement("protocol.readStructEnd()")
+        spec.addStatement("protocol.readMessageEnd()")
+
+        val scope = AtomicInteger(0)
+        for (field in method.parameters) {
+            val name = allocator.get(field)
+            val defaultValue = field.defaultValue
+            if (defaultValue != null) {
+                spec.beginControlFlow("if (\$N == null)", name)
+                val init = CodeBlock.builder()
+                constantBuilder.generateFieldInitializer(
+                        init, allocator, scope, name, field.type.trueType, defaultValue, false)
+                spec.addCode(init.build())
+                spec.endControlFlow()
+            } else if (field.required) {
+                spec.beginControlFlow("if (\$N == null)", name)
+                if (!method.oneWay) {
+                    spec.addStatement(
+                            "writeException(output, message, new \$T(\$T.\$L, \$S))",
+                            TypeNames.THRIFT_EXCEPTION,
+                            TypeNames.THRIFT_EXCEPTION_KIND,
+                            ThriftException.Kind.PROTOCOL_ERROR.name,
+                            "Required argument '${field.name}' is missing")
+                }
+                spec.addStatement("return")
+                spec.endControlFlow()
+            }
+        }
+
+        val arguments = method.parameters.joinToString(", ") { allocator.get(it) }
+
+        if (method.oneWay) {
+            // There is no reply in which to report a failure; errors propagate to the server.
+            spec.addStatement("this.handler.\$L(\$L)", method.name, arguments)
+            return spec.build()
+        }
+
+        val hasReturnType = method.returnType != BuiltinType.VOID
+        if (hasReturnType) {
+            spec.addStatement("\$T result", typeResolver.getJavaClass(method.returnType.trueType))
+        }
+
+        spec.beginControlFlow("try")
+        if (hasReturnType) {
+            spec.addStatement("result = this.handler.\$L(\$L)", method.name, arguments)
+        } else {
+            spec.addStatement("this.handler.\$L(\$L)", method.name, arguments)
+        }
+
+        for (field in method.exceptions) {
+            val name = allocator.newName(fieldNamer.getName(field), field)
+            spec.nextControlFlow("catch (\$T \$N)", typeResolver.getJavaClass(field.type.trueType), name)
+            writeReplyBegin(spec, method)
+            writeReplyField(spec, field.name, field.id, field.type.trueType, name)
+            writeReplyEnd(spec)
+            spec.addStatement("return")
+        }
+
+        spec.nextControlFlow("catch (\$T e)", TypeNames.RUNTIME_EXCEPTION)
+        spec.addStatement("writeException(output, message, e)")
+        spec.addStatement("return")
+        spec.endControlFlow()
+
+        writeReplyBegin(spec, method)
+        if (hasReturnType) {
+            // A null result is sent as an empty struct, which the client reports as a missing result.
+            spec.beginControlFlow("if (result != null)")
+            writeReplyField(spec, "success", 0, method.returnType.trueType, "result")
+            spec.endControlFlow()
+        }
+        writeReplyEnd(spec)
+
+        return spec.build()
+    }
+
+    private fun writeReplyBegin(spec: MethodSpec.Builder, method: ServiceMethod) {
+        spec.addStatement("output.writeMessageBegin(message.name, \$T.REPLY, message.seqId)", TypeNames.TMESSAGE_TYPE)
+        spec.addStatement("output.writeStructBegin(\$S)", "${method.name}_result")
+    }
+
+    private fun writeReplyField(
+            spec: MethodSpec.Builder,
+            fieldName: String,
+            fieldId: Int,
+            fieldType: ThriftType,
+            localName: String) {
+        spec.addStatement("output.writeFieldBegin(\$S, \$L, \$T.\$L)",
+                fieldName,
+                fieldId,
+                TypeNames.TTYPE,
+                TypeNames.getTypeCodeName(typeResolver.getTypeCode(fieldType)))
+        fieldType.accept(GenerateWriterVisitor(typeResolver, spec, "output", "", localName))
+        spec.addStatement("output.writeFieldEnd()")
+    }
+
+    private fun writeReplyEnd(spec: MethodSpec.Builder) {
+        spec.addStatement("output.writeFieldStop()")
+        spec.addStatement("output.writeStructEnd()")
+        spec.addStatement("output.writeMessageEnd()")
+        spec.addStatement("output.flush()")
+    }
 }
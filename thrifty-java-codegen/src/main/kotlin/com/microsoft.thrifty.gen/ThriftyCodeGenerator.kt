@@ -50,6 +50,7 @@ import com.squareup.javapoet.MethodSpec
 import com.squareup.javapoet.NameAllocator
 import com.squareup.javapoet.ParameterSpec
 import com.squareup.javapoet.ParameterizedTypeName
+import com.squareup.javapoet.TypeName
 import com.squareup.javapoet.TypeSpec
 import javax.lang.model.element.Modifier
 import java.io.File
@@ -72,6 +73,7 @@ class ThriftyCodeGenerator {
     private var emitParcelable: Boolean = false
     private var emitFileComment = true
     private var failOnUnknownEnumValues = true
+    private var emitServiceProcessors = false
     private var generatedAnnotationType: ClassName? = null
     private val emitGeneratedAnnotations: Boolean
         get() = generatedAnnotationType != null
@@ -133,6 +135,27 @@ class ThriftyCodeGenerator {
         return this
     }
 
+    /**
+     * When set, generated service methods return a
+     * [java.util.concurrent.CompletableFuture] instead of accepting a
+     * [com.microsoft.thrifty.service.ServiceMethodCallback].  The generated
+     * code requires Java 8 or later.
+     */
+    fun completableFutureServiceClients(completableFutureServiceClients: Boolean): ThriftyCodeGenerator {
+        serviceBuilder.completableFutureClients = completableFutureServiceClients
+        return this
+    }
+
+    /**
+     * When set, a `Handler` interface and a
+     * [com.microsoft.thrifty.service.Processor] implementation are generated
+     * for each service, for use in servers.
+     */
+    fun emitServiceProcessors(emitServiceProcessors: Boolean): ThriftyCodeGenerator {
+        this.emitServiceProcessors = emitServiceProcessors
+        return this
+    }
+
     fun generate(directory: Path) {
         generate { file ->
             file?.writeTo(directory)
@@ -165,8 +188,17 @@ class ThriftyCodeGenerator {
         val services = schema.services.flatMap { svc ->
             val iface = serviceBuilder.buildServiceInterface(svc)
             val impl = serviceBuilder.buildService(svc, iface)
+            val pooled = serviceBuilder.buildPooledService(svc)
 
-            listOf(assembleJavaFile(svc, iface), assembleJavaFile(svc, impl))
+            val files = mutableListOf(
+                    assembleJavaFile(svc, iface), assembleJavaFile(svc, impl), assembleJavaFile(svc, pooled))
+
+            if (emitServiceProcessors) {
+                files += assembleJavaFile(svc, serviceBuilder.buildHandlerInterface(svc))
+                files += assembleJavaFile(svc, serviceBuilder.buildProcessor(svc))
+            }
+
+            files
         }.filterNotNull()
 
         return enums + structs + exceptions + unions + constants + services
@@ -251,7 +283,10 @@ class ThriftyCodeGenerator {
 
         structBuilder.addType(builderSpec)
         structBuilder.addType(adapterSpec)
-        structBuilder.addField(FieldSpec.builder(adapterSpec.superinterfaces[0], ADAPTER_FIELDNAME)
+        // Declared as a plain Adapter, as it always has been, so that code compiled against
+        // earlier generated classes still links; the instance is a SizedAdapter.
+        val adapterFieldType = ParameterizedTypeName.get(TypeNames.ADAPTER, structTypeName, builderTypeName)
+        structBuilder.addField(FieldSpec.builder(adapterFieldType, ADAPTER_FIELDNAME)
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
                 .initializer("new \$N()", adapterSpec)
                 .build())
@@ -555,7 +590,7 @@ class ThriftyCodeGenerator {
 
     private fun adapterFor(structType: StructType, structClassName: ClassName, builderClassName: ClassName): TypeSpec {
         val adapterSuperclass = ParameterizedTypeName.get(
-                TypeNames.ADAPTER,
+                TypeNames.SIZED_ADAPTER,
                 structClassName,
                 builderClassName)
 
@@ -574,6 +609,13 @@ class ThriftyCodeGenerator {
                 .addParameter(builderClassName, "builder")
                 .addException(TypeNames.IO_EXCEPTION)
 
+        val serializedSize = MethodSpec.methodBuilder("serializedSize")
+                .addAnnotation(TypeNames.OVERRIDE)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.INT)
+                .addParameter(TypeNames.PROTOCOL_SIZER, "sizer")
+                .addParameter(structClassName, "struct")
+
         val readHelper = MethodSpec.methodBuilder("read")
                 .addAnnotation(TypeNames.OVERRIDE)
                 .addModifiers(Modifier.PUBLIC)
@@ -586,6 +628,10 @@ class ThriftyCodeGenerator {
         // First, the writer
         write.addStatement("protocol.writeStructBegin(\$S)", structType.name)
 
+        // The size computation mirrors the writer
+        serializedSize.addStatement("int size = 0")
+        serializedSize.addStatement("sizer.structBegin()")
+
         // Then, the reader - set up the field-reading loop.
         read.addStatement("protocol.readStructBegin()")
         read.beginControlFlow("while (true)")
@@ -626,6 +672,23 @@ class ThriftyCodeGenerator {
                 write.endControlFlow()
             }
 
+            // Size
+            if (optional) {
+                serializedSize.beginControlFlow("if (struct.\$N != null)", fieldName)
+            }
+
+            serializedSize.addStatement(
+                    "size += sizer.fieldBegin(\$L, \$T.\$L)",
+                    field.id,
+                    TypeNames.TTYPE,
+                    typeCodeName)
+
+            tt.accept(GenerateSizeVisitor(typeResolver, serializedSize, "sizer", "size", "struct", fieldName))
+
+            if (optional) {
+                serializedSize.endControlFlow()
+            }
+
             val effectiveFailOnUnknownValues = if (tt.isEnum) {
                 failOnUnknownEnumValues || field.required
             } else {
@@ -641,6 +704,10 @@ class ThriftyCodeGenerator {
         write.addStatement("protocol.writeFieldStop()")
         write.addStatement("protocol.writeStructEnd()")
 
+        serializedSize.addStatement("size += sizer.fieldStop()")
+        serializedSize.addStatement("sizer.structEnd()")
+        serializedSize.addStatement("return size")
+
         if (structType.fields.isNotEmpty()) {
             read.beginControlFlow("default:")
             read.addStatement("\$T.skip(protocol, field.typeId)", TypeNames.PROTO_UTIL)
@@ -658,6 +725,7 @@ class ThriftyCodeGenerator {
                 .addSuperinterface(adapterSuperclass)
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .addMethod(write.build())
+                .addMethod(serializedSize.build())
                 .addMethod(read.build())
                 .addMethod(readHelper)
                 .build()
@@ -20,9 +20,10 @@
  */
 package com.microsoft.thrifty.gen
 
-import com.microsoft.thrifty.Adapter
 import com.microsoft.thrifty.Obfuscated
 import com.microsoft.thrifty.Redacted
+import com.microsoft.thrifty.Adapter
+import com.microsoft.thrifty.SizedAdapter
 import com.microsoft.thrifty.StructBuilder
 import com.microsoft.thrifty.TType
 import com.microsoft.thrifty.ThriftException
@@ -32,9 +33,14 @@ import com.microsoft.thrifty.protocol.ListMetadata
 import com.microsoft.thrifty.protocol.MapMetadata
 import com.microsoft.thrifty.protocol.MessageMetadata
 import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.protocol.ProtocolSizer
 import com.microsoft.thrifty.protocol.SetMetadata
 import com.microsoft.thrifty.service.AsyncClientBase
+import com.microsoft.thrifty.service.AsyncClientConfig
+import com.microsoft.thrifty.service.CallHandle
+import com.microsoft.thrifty.service.ClientPool
 import com.microsoft.thrifty.service.MethodCall
+import com.microsoft.thrifty.service.ProcessorBase
 import com.microsoft.thrifty.service.ServiceMethodCallback
 import com.microsoft.thrifty.service.TMessageType
 import com.microsoft.thrifty.util.ObfuscationUtil
@@ -67,6 +73,7 @@ internal object TypeNames {
     val SET = classNameOf<Set<*>>()
     val BYTE_STRING = classNameOf<ByteString>()
     val STRING_BUILDER = classNameOf<StringBuilder>()
+    val RUNTIME_EXCEPTION = classNameOf<java.lang.RuntimeException>()
     val ILLEGAL_STATE_EXCEPTION = classNameOf<java.lang.IllegalStateException>()
     val ILLEGAL_ARGUMENT_EXCEPTION = classNameOf<java.lang.IllegalArgumentException>()
     val NULL_POINTER_EXCEPTION = classNameOf<java.lang.NullPointerException>()
@@ -80,6 +87,7 @@ internal object TypeNames {
     val MAP_META = classNameOf<MapMetadata>()
 
     val PROTOCOL = classNameOf<Protocol>()
+    val PROTOCOL_SIZER = classNameOf<ProtocolSizer>()
     val PROTO_UTIL = classNameOf<ProtocolUtil>()
     val PROTOCOL_EXCEPTION = classNameOf<ProtocolException>()
     val IO_EXCEPTION = classNameOf<IOException>()
@@ -92,6 +100,7 @@ internal object TypeNames {
 
     val BUILDER = classNameOf<StructBuilder<*>>()
     val ADAPTER = classNameOf<Adapter<*, *>>()
+    val SIZED_ADAPTER = classNameOf<SizedAdapter<*, *>>()
 
     val FIELD_METADATA = classNameOf<FieldMetadata>()
     val MESSAGE_METADATA = classNameOf<MessageMetadata>()
@@ -109,9 +118,17 @@ internal object TypeNames {
     val ANDROIDX_NULLABLE = ClassName.get("androidx.annotation", "Nullable")
 
     val SERVICE_CALLBACK = classNameOf<ServiceMethodCallback<*>>()
+    val SERVICE_CALL_HANDLE = classNameOf<CallHandle>()
     val SERVICE_CLIENT_BASE = classNameOf<AsyncClientBase>()
     val SERVICE_CLIENT_LISTENER = classNameOf<AsyncClientBase.Listener>()
+    val SERVICE_CLIENT_CONFIG = classNameOf<AsyncClientConfig>()
+    val SERVICE_CLIENT_POOL = classNameOf<ClientPool<*>>()
+    val SERVICE_CLIENT_FACTORY = classNameOf<ClientPool.ClientFactory<*>>()
     val SERVICE_METHOD_CALL = classNameOf<MethodCall<*>>()
+    val SERVICE_PROCESSOR_BASE = classNameOf<ProcessorBase>()
+
+    val COMPLETABLE_FUTURE = ClassName.get("java.util.concurrent", "CompletableFuture")
+    val BI_CONSUMER = ClassName.get("java.util.function", "BiConsumer")
 
     val PARCEL = ClassName.get("android.os", "Parcel")
     val PARCELABLE = ClassName.get("android.os", "Parcelable")
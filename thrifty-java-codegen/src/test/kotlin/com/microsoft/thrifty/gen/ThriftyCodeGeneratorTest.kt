@@ -24,9 +24,12 @@ import com.google.common.truth.Truth.assertAbout
 import com.google.common.truth.Truth.assertThat
 import com.google.common.truth.Truth.assertWithMessage
 import com.google.testing.compile.JavaSourceSubjectFactory.javaSource
+import com.google.testing.compile.CompilationSubject.assertThat
+import com.google.testing.compile.Compiler.javac
 import com.google.testing.compile.JavaSourcesSubjectFactory.javaSources
 import com.microsoft.thrifty.schema.Loader
 import com.microsoft.thrifty.schema.Schema
+import com.microsoft.thrifty.service.CallHandle
 import com.squareup.javapoet.JavaFile
 import okio.buffer
 import okio.sink
@@ -35,7 +38,10 @@ import org.junit.Test
 import org.junit.rules.TemporaryFolder
 import java.io.File
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
 import javax.tools.JavaFileObject
+import javax.tools.StandardLocation
 
 /**
  * These tests ensure that various constructs produce valid Java code.
@@ -692,6 +698,63 @@ class ThriftyCodeGeneratorTest {
         assertThat(java).contains("public Builder(@NonNull Foo struct)")
     }
 
+    @Test
+    fun serializedSize() {
+        val thrift = """
+            namespace java structs.size
+
+            struct Bar {
+              1: required bool flag
+            }
+
+            struct Foo {
+              1: required i32 id
+              2: optional list<Bar> bars
+              3: optional map<string, binary> blobs
+            }
+        """
+
+        val expected = """
+    @Override
+    public int serializedSize(ProtocolSizer sizer, Foo struct) {
+      int size = 0;
+      sizer.structBegin();
+      size += sizer.fieldBegin(1, TType.I32);
+      size += sizer.i32(struct.id);
+      if (struct.bars != null) {
+        size += sizer.fieldBegin(2, TType.LIST);
+        size += sizer.listBegin(TType.STRUCT, struct.bars.size());
+        for (Bar item0 : struct.bars) {
+          size += ((SizedAdapter<structs.size.Bar, structs.size.Bar.Builder>) structs.size.Bar.ADAPTER).serializedSize(sizer, item0);
+        }
+      }
+      if (struct.blobs != null) {
+        size += sizer.fieldBegin(3, TType.MAP);
+        size += sizer.mapBegin(TType.STRING, TType.STRING, struct.blobs.size());
+        for (Map.Entry<String, ByteString> entry0 : struct.blobs.entrySet()) {
+          String key0 = entry0.getKey();
+          ByteString value0 = entry0.getValue();
+          size += sizer.string(key0);
+          size += sizer.binary(value0);
+        }
+      }
+      size += sizer.fieldStop();
+      sizer.structEnd();
+      return size;
+    }
+"""
+
+        val javaFiles = compile("structs_size.thrift", thrift)
+        val foo = javaFiles.single { it.typeSpec.name == "Foo" }
+
+        assertThat(foo.toString()).contains(expected)
+        assertThat(foo.toString()).contains("public static final Adapter<Foo, Builder> ADAPTER = new FooAdapter();")
+
+        assertAbout(javaSources())
+                .that(javaFiles.map { it.toJavaFileObject() })
+                .compilesWithoutError()
+    }
+
     @Test
     fun generationWithWildcardNamespace() {
         val thrift = """
@@ -713,6 +776,244 @@ class ThriftyCodeGeneratorTest {
                 .compilesWithoutError()
     }
 
+    @Test
+    fun pooledServiceClient() {
+        val thrift = """
+            namespace java services.pooled
+
+            service Base {
+              void ping()
+            }
+
+            service Svc extends Base {
+              i32 doThing(1: string client, 2: i32 e)
+            }
+        """
+
+        val java = compile("pooled.thrift", thrift)
+        val jfos = java.map { it.toJavaFileObject() }
+
+        assertAbout(javaSources()).that(jfos).compilesWithoutError()
+
+        val file = java.single { it.typeSpec.name == "SvcPooledClient" }.toString()
+
+        assertThat(file).contains("""
+            |public class SvcPooledClient implements Svc {
+            |  public static final ClientPool.ClientFactory<SvcClient> FACTORY = new ClientPool.ClientFactory<SvcClient>() {
+        """.trimMargin())
+
+        assertThat(file).contains("""
+            |  @Override
+            |  public CallHandle ping(ServiceMethodCallback<Void> callback) {
+        """.trimMargin())
+
+        assertThat(file).contains("""
+            |  @Override
+            |  public CallHandle doThing(String client, Integer e, ServiceMethodCallback<Integer> callback) {
+            |    SvcClient client_;
+            |    try {
+            |      client_ = this.pool.lease();
+            |    } catch (IOException e_) {
+            |      callback.onError(e_);
+            |      return CallHandle.COMPLETED;
+            |    }
+            |
+            |    try {
+            |      return client_.doThing(client, e, this.pool.releaseOnCompletion(client_, callback));
+            |    } catch (RuntimeException e_) {
+            |      this.pool.release(client_);
+            |      throw e_;
+            |    }
+            |  }
+        """.trimMargin())
+    }
+
+    @Test
+    fun completableFutureServiceClient() {
+        val thrift = """
+            namespace java services.futures
+
+            service Base {
+              void ping()
+            }
+
+            service Svc extends Base {
+              i32 doThing(1: string future, 2: i32 e)
+            }
+        """
+
+        val schema = parse("futures.thrift", thrift)
+        val java = ThriftyCodeGenerator(schema)
+                .emitFileComment(false)
+                .completableFutureServiceClients(true)
+                .generateTypes()
+        val jfos = java.map { it.toJavaFileObject() }
+
+        assertAbout(javaSources()).that(jfos).compilesWithoutError()
+
+        val iface = java.single { it.typeSpec.name == "Svc" }.toString()
+        assertThat(iface).contains("CompletableFuture<Integer> doThing(String future, Integer e);")
+
+        val client = java.single { it.typeSpec.name == "SvcClient" }.toString()
+        assertThat(client).contains("""
+            |  @Override
+            |  public CompletableFuture<Integer> doThing(String future, Integer e) {
+            |    FutureCallback<Integer> future_ = new FutureCallback<Integer>();
+            |    future_.setHandle(this.enqueue(new DoThingCall(future, e, future_)));
+            |    return future_;
+            |  }
+        """.trimMargin())
+        assertThat(client).contains(
+                "private static final class FutureCallback<T> extends CompletableFuture<T> " +
+                        "implements ServiceMethodCallback<T> {")
+
+        val pooled = java.single { it.typeSpec.name == "SvcPooledClient" }.toString()
+        assertThat(pooled).contains("public CompletableFuture<Void> ping() {")
+        assertThat(pooled).contains("future_ = client.doThing(future, e);")
+    }
+
+    @Test
+    fun completableFutureCancelledBeforeItsCallIsEnqueued() {
+        val thrift = """
+            namespace java services.futures
+
+            service Svc {
+              i32 doThing(1: i32 e)
+            }
+        """
+
+        val schema = parse("futures.thrift", thrift)
+        val java = ThriftyCodeGenerator(schema)
+                .emitFileComment(false)
+                .completableFutureServiceClients(true)
+                .generateTypes()
+        val compilation = javac().compile(java.map { it.toJavaFileObject() })
+        assertThat(compilation).succeeded()
+
+        val loader = object : ClassLoader(javaClass.classLoader) {
+            override fun findClass(name: String): Class<*> {
+                val file = compilation.generatedFile(StandardLocation.CLASS_OUTPUT, name.replace('.', '/') + ".class")
+                val bytes = file.orElseThrow { ClassNotFoundException(name) }.openInputStream().use { it.readBytes() }
+                return defineClass(name, bytes, 0, bytes.size)
+            }
+        }
+        val futureClass = loader.loadClass("services.futures.SvcClient\$FutureCallback")
+        val future = futureClass.getDeclaredConstructor()
+                .apply { isAccessible = true }
+                .newInstance() as CompletableFuture<*>
+
+        // The caller cancels the future before enqueue() has returned its handle.
+        assertThat(future.cancel(false)).isTrue()
+
+        val handle = CancelRecordingHandle()
+        futureClass.getDeclaredMethod("setHandle", CallHandle::class.java)
+                .apply { isAccessible = true }
+                .invoke(future, handle)
+
+        assertThat(handle.cancelled).isTrue()
+    }
+
+    @Test
+    fun serviceProcessor() {
+        val thrift = """
+            namespace java services.processors
+
+            exception Oops {
+              1: string message
+            }
+
+            service Base {
+              oneway void ping()
+            }
+
+            service Svc extends Base {
+              i32 doThing(1: string output, 2: i32 count = 3) throws (1: Oops oops)
+            }
+        """
+
+        val schema = parse("processors.thrift", thrift)
+        val java = ThriftyCodeGenerator(schema)
+                .emitFileComment(false)
+                .emitServiceProcessors(true)
+                .generateTypes()
+        val jfos = java.map { it.toJavaFileObject() }
+
+        assertAbout(javaSources()).that(jfos).compilesWithoutError()
+
+        val handler = java.single { it.typeSpec.name == "SvcHandler" }.toString()
+        assertThat(handler).contains("public interface SvcHandler extends BaseHandler {")
+        assertThat(handler).contains("Integer doThing(String output, Integer count) throws Oops;")
+
+        val processor = java.single { it.typeSpec.name == "SvcProcessor" }.toString()
+        assertThat(processor).contains("""
+            |public class SvcProcessor extends BaseProcessor {
+            |  private final SvcHandler handler;
+            |
+            |  public SvcProcessor(SvcHandler handler) {
+            |    super(handler);
+            |    this.handler = handler;
+            |  }
+            |
+            |  @Override
+            |  protected boolean dispatch(MessageMetadata message, Protocol protocol, Protocol output) throws
+            |      IOException {
+            |    switch (message.name) {
+            |      case "doThing":
+            |        handleDoThing(message, protocol, output);
+            |        return true;
+            |      default:
+            |        return super.dispatch(message, protocol, output);
+            |    }
+            |  }
+        """.trimMargin())
+
+        assertThat(processor).contains("""
+            |    protocol.readStructEnd();
+            |    protocol.readMessageEnd();
+            |    if (output_ == null) {
+            |      writeException(output, message, new ThriftException(ThriftException.Kind.PROTOCOL_ERROR, "Required argument 'output' is missing"));
+            |      return;
+            |    }
+            |    if (count == null) {
+            |      count = 3;
+            |    }
+            |    Integer result;
+            |    try {
+            |      result = this.handler.doThing(output_, count);
+            |    } catch (Oops oops) {
+            |      output.writeMessageBegin(message.name, TMessageType.REPLY, message.seqId);
+            |      output.writeStructBegin("doThing_result");
+            |      output.writeFieldBegin("oops", 1, TType.STRUCT);
+            |      services.processors.Oops.ADAPTER.write(output, oops);
+            |      output.writeFieldEnd();
+            |      output.writeFieldStop();
+            |      output.writeStructEnd();
+            |      output.writeMessageEnd();
+            |      output.flush();
+            |      return;
+            |    } catch (RuntimeException e) {
+            |      writeException(output, message, e);
+            |      return;
+            |    }
+            |    output.writeMessageBegin(message.name, TMessageType.REPLY, message.seqId);
+            |    output.writeStructBegin("doThing_result");
+            |    if (result != null) {
+            |      output.writeFieldBegin("success", 0, TType.I32);
+            |      output.writeI32(result);
+            |      output.writeFieldEnd();
+            |    }
+            |    output.writeFieldStop();
+        """.trimMargin())
+
+        val base = java.single { it.typeSpec.name == "BaseProcessor" }.toString()
+        assertThat(base).contains("public class BaseProcessor extends ProcessorBase {")
+        assertThat(base).contains("""
+            |    protocol.readMessageEnd();
+            |    this.handler.ping();
+            |  }
+        """.trimMargin())
+    }
+
     private fun compile(filename: String, text: String): List<JavaFile> {
         val schema = parse(filename, text)
         val gen = ThriftyCodeGenerator(schema).emitFileComment(false)
@@ -745,4 +1046,19 @@ class ThriftyCodeGeneratorTest {
     }
 
     private fun String.trimRawString() = this.trimStart('\n').trimIndent()
+
+    private class CancelRecordingHandle : CallHandle {
+        var cancelled = false
+
+        override fun cancel(): Boolean {
+            cancelled = true
+            return true
+        }
+
+        override fun isCancelled() = cancelled
+
+        override fun isDone() = cancelled
+
+        override fun withTimeout(timeout: Long, unit: TimeUnit) = this
+    }
 }
@@ -26,6 +26,7 @@ import com.google.common.collect.LinkedHashMultimap
 import com.microsoft.thrifty.Adapter
 import com.microsoft.thrifty.Obfuscated
 import com.microsoft.thrifty.Redacted
+import com.microsoft.thrifty.SizedAdapter
 import com.microsoft.thrifty.Struct
 import com.microsoft.thrifty.StructBuilder
 import com.microsoft.thrifty.TType
@@ -33,8 +34,12 @@ import com.microsoft.thrifty.ThriftException
 import com.microsoft.thrifty.ThriftField
 import com.microsoft.thrifty.compiler.spi.KotlinTypeProcessor
 import com.microsoft.thrifty.kotlin.Adapter as KtAdapter
+import com.microsoft.thrifty.kotlin.SizedAdapter as KtSizedAdapter
+import com.microsoft.thrifty.kotlin.service.CoroutineClientBase
+import com.microsoft.thrifty.kotlin.service.CoroutineProcessorBase
 import com.microsoft.thrifty.protocol.MessageMetadata
 import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.protocol.ProtocolSizer
 import com.microsoft.thrifty.schema.BuiltinType
 import com.microsoft.thrifty.schema.Constant
 import com.microsoft.thrifty.schema.EnumType
@@ -59,9 +64,14 @@ import com.microsoft.thrifty.schema.parser.ListValueElement
 import com.microsoft.thrifty.schema.parser.LiteralValueElement
 import com.microsoft.thrifty.schema.parser.MapValueElement
 import com.microsoft.thrifty.service.AsyncClientBase
+import com.microsoft.thrifty.service.AsyncClientConfig
+import com.microsoft.thrifty.service.CallHandle
+import com.microsoft.thrifty.service.ClientPool
 import com.microsoft.thrifty.service.MethodCall
 import com.microsoft.thrifty.service.ServiceMethodCallback
 import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.Transport
 import com.microsoft.thrifty.util.ObfuscationUtil
 import com.microsoft.thrifty.util.ProtocolUtil
 import com.squareup.kotlinpoet.AnnotationSpec
@@ -73,7 +83,7 @@ import com.squareup.kotlinpoet.FileSpec
 import com.squareup.kotlinpoet.FunSpec
 import com.squareup.kotlinpoet.INT
 import com.squareup.kotlinpoet.KModifier
-import com.squareup.kotlinpoet.MemberName
+import com.squareup.kotlinpoet.LambdaTypeName
 import com.squareup.kotlinpoet.NameAllocator
 import com.squareup.kotlinpoet.ParameterSpec
 import com.squareup.kotlinpoet.ParameterizedTypeName.Companion.parameterizedBy
@@ -88,6 +98,8 @@ import com.squareup.kotlinpoet.jvm.jvmField
 import com.squareup.kotlinpoet.jvm.jvmStatic
 import okio.ByteString
 import java.io.IOException
+import java.nio.channels.AsynchronousSocketChannel
+import java.util.concurrent.CancellationException
 
 private object Tags {
     val ADAPTER = "RESERVED:ADAPTER"
@@ -104,6 +116,13 @@ private object Tags {
     val DEFAULT = "RESERVED:default"
 }
 
+/**
+ * Names used in the functions of generated processors, which the names of
+ * arguments must not shadow.
+ */
+private val PROCESSOR_RESERVED_NAMES = listOf(
+        "message", "protocol", "output", "field", "value", "result", "e", "handler")
+
 /**
  * Generates Kotlin code from a [Schema].
  *
@@ -124,6 +143,7 @@ class KotlinCodeGenerator(
     private var builderlessDataClasses: Boolean = false
     private var omitServiceClients: Boolean = false
     private var coroutineServiceClients: Boolean = false
+    private var coroutineServiceProcessors: Boolean = false
     private var emitJvmName: Boolean = false
     private var failOnUnknownEnumValues: Boolean = true
 
@@ -226,6 +246,10 @@ class KotlinCodeGenerator(
         this.coroutineServiceClients = true
     }
 
+    fun coroutineServiceProcessors(): KotlinCodeGenerator = apply {
+        this.coroutineServiceProcessors = true
+    }
+
     fun emitGeneratedAnnotations(type: String?): KotlinCodeGenerator = apply {
         this.generatedAnnotationType = type?.let { ClassName.bestGuess(type) }
     }
@@ -272,17 +296,25 @@ class KotlinCodeGenerator(
 
         if (!omitServiceClients) {
             schema.services.forEach {
-                val iface: TypeSpec
-                val impl: TypeSpec
                 if (coroutineServiceClients) {
-                    iface = generateCoroServiceInterface(it)
-                    impl = generateCoroServiceImplementation(schema, it, iface)
+                    // Coroutine clients multiplex concurrent calls over one
+                    // connection, and so have no need of pooling.
+                    val iface = generateCoroServiceInterface(it)
+                    specsByNamespace.put(it.kotlinNamespace, iface)
+                    specsByNamespace.put(it.kotlinNamespace, generateCoroServiceImplementation(schema, it, iface))
                 } else {
-                    iface = generateServiceInterface(it)
-                    impl = generateServiceImplementation(schema, it, iface)
+                    val iface = generateServiceInterface(it)
+                    specsByNamespace.put(it.kotlinNamespace, iface)
+                    specsByNamespace.put(it.kotlinNamespace, generateServiceImplementation(schema, it, iface))
+                    specsByNamespace.put(it.kotlinNamespace, generatePooledServiceImplementation(it))
                 }
-                specsByNamespace.put(it.kotlinNamespace, iface)
-                specsByNamespace.put(it.kotlinNamespace, impl)
+            }
+        }
+
+        if (coroutineServiceProcessors) {
+            schema.services.forEach {
+                specsByNamespace.put(it.kotlinNamespace, generateCoroServiceHandler(it))
+                specsByNamespace.put(it.kotlinNamespace, generateCoroServiceProcessor(schema, it))
             }
         }
 
@@ -469,25 +501,27 @@ class KotlinCodeGenerator(
 
             val builderTypeName = ClassName(struct.kotlinNamespace, struct.name, "Builder")
             val adapterTypeName = ClassName(struct.kotlinNamespace, struct.name, "${struct.name}Adapter")
-            val adapterInterfaceTypeName = Adapter::class.asTypeName().parameterizedBy(
+            val adapterInterfaceTypeName = SizedAdapter::class.asTypeName().parameterizedBy(
                     struct.typeName, builderTypeName)
 
             typeBuilder.addType(generateBuilderFor(schema, struct))
             typeBuilder.addType(generateAdapterFor(struct, adapterTypeName, adapterInterfaceTypeName, builderTypeName))
 
-            companionBuilder.addProperty(PropertySpec.builder("ADAPTER", adapterInterfaceTypeName)
+            val adapterFieldTypeName = Adapter::class.asTypeName().parameterizedBy(struct.typeName, builderTypeName)
+            companionBuilder.addProperty(PropertySpec.builder("ADAPTER", adapterFieldTypeName)
                     .initializer("%T()", adapterTypeName)
                     .jvmField()
                     .build())
         } else {
             val adapterTypeName = ClassName(struct.kotlinNamespace, struct.name, "${struct.name}Adapter")
-            val adapterInterfaceTypeName = KtAdapter::class
+            val adapterInterfaceTypeName = KtSizedAdapter::class
                     .asTypeName()
                     .parameterizedBy(struct.typeName)
 
             typeBuilder.addType(generateAdapterFor(struct, adapterTypeName, adapterInterfaceTypeName, null))
 
-            companionBuilder.addProperty(PropertySpec.builder("ADAPTER", adapterInterfaceTypeName)
+            val adapterFieldTypeName = KtAdapter::class.asTypeName().parameterizedBy(struct.typeName)
+            companionBuilder.addProperty(PropertySpec.builder("ADAPTER", adapterFieldTypeName)
                     .initializer("%T()", adapterTypeName)
                     .jvmField()
                     .build())
@@ -617,14 +651,19 @@ class KotlinCodeGenerator(
         }
 
         var builderTypeName : ClassName? = null
-        var adapterInterfaceTypeName = KtAdapter::class
+        var adapterInterfaceTypeName = KtSizedAdapter::class
+                .asTypeName()
+                .parameterizedBy(struct.typeName)
+        var adapterFieldTypeName = KtAdapter::class
                 .asTypeName()
                 .parameterizedBy(struct.typeName)
         if (!builderlessDataClasses) {
             builderTypeName = ClassName(struct.kotlinNamespace, struct.name, "Builder")
 
             typeBuilder.addType(generateBuilderForSealed(struct))
-            adapterInterfaceTypeName = Adapter::class.asTypeName().parameterizedBy(
+            adapterInterfaceTypeName = SizedAdapter::class.asTypeName().parameterizedBy(
+                    struct.typeName, builderTypeName)
+            adapterFieldTypeName = Adapter::class.asTypeName().parameterizedBy(
                     struct.typeName, builderTypeName)
         }
 
@@ -633,7 +672,7 @@ class KotlinCodeGenerator(
         typeBuilder.addType(generateAdapterForSealed(struct, adapterTypeName, adapterInterfaceTypeName, builderTypeName))
 
         val companionBuilder = TypeSpec.companionObjectBuilder()
-        companionBuilder.addProperty(PropertySpec.builder("ADAPTER", adapterInterfaceTypeName)
+        companionBuilder.addProperty(PropertySpec.builder("ADAPTER", adapterFieldTypeName)
                 .initializer("%T()", adapterTypeName)
                 .jvmField()
                 .build())
@@ -885,9 +924,9 @@ class KotlinCodeGenerator(
      * Generates an adapter for the given struct type.
      *
      * The kind of adapter generated depends on whether a [builderType] is
-     * provided.  If so, a conventional [com.microsoft.thrifty.Adapter] gets
+     * provided.  If so, a conventional [com.microsoft.thrifty.SizedAdapter] gets
      * created, making use of the given [builderType].  If not, a so-called
-     * "builderless" [com.microsoft.thrifty.kotlin.Adapter] is the result.
+     * "builderless" [com.microsoft.thrifty.kotlin.SizedAdapter] is the result.
      */
     internal fun generateAdapterFor(
             struct: StructType,
@@ -913,6 +952,12 @@ class KotlinCodeGenerator(
                 .addParameter("protocol", Protocol::class)
                 .addParameter("struct", struct.typeName)
 
+        val sizer = FunSpec.builder("serializedSize")
+                .addModifiers(KModifier.OVERRIDE)
+                .addParameter("sizer", ProtocolSizer::class)
+                .addParameter("struct", struct.typeName)
+                .returns(INT)
+
         // Writer first, b/c it is easier
 
         val nameAllocator = nameAllocators[struct]
@@ -943,6 +988,30 @@ class KotlinCodeGenerator(
         writer.addStatement("protocol.writeFieldStop()")
         writer.addStatement("protocol.writeStructEnd()")
 
+        // The size computation mirrors the writer
+
+        sizer.addStatement("var size = 0")
+        sizer.addStatement("sizer.structBegin()")
+        for (field in struct.fields) {
+            val name = nameAllocator.get(field)
+            val fieldType = field.type
+
+            if (!field.required) {
+                sizer.beginControlFlow("if (struct.$name != null)")
+            }
+
+            sizer.addStatement("size += sizer.fieldBegin(%L, %T.%L)", field.id, TType::class, fieldType.typeCodeName)
+
+            generateSizeCall(sizer, "struct.$name", fieldType)
+
+            if (!field.required) {
+                sizer.endControlFlow()
+            }
+        }
+        sizer.addStatement("size += sizer.fieldStop()")
+        sizer.addStatement("sizer.structEnd()")
+        sizer.addStatement("return size")
+
         // Reader next
 
         fun localFieldName(field: Field): String {
@@ -1060,6 +1129,7 @@ class KotlinCodeGenerator(
         return adapter
                 .addFunction(reader.build())
                 .addFunction(writer.build())
+                .addFunction(sizer.build())
                 .build()
     }
 
@@ -1068,9 +1138,9 @@ class KotlinCodeGenerator(
      * Generates an adapter for the given struct type.
      *
      * The kind of adapter generated depends on whether a [builderType] is
-     * provided.  If so, a conventional [com.microsoft.thrifty.Adapter] gets
+     * provided.  If so, a conventional [com.microsoft.thrifty.SizedAdapter] gets
      * created, making use of the given [builderType].  If not, a so-called
-     * "builderless" [com.microsoft.thrifty.kotlin.Adapter] is the result.
+     * "builderless" [com.microsoft.thrifty.kotlin.SizedAdapter] is the result.
      */
     internal fun generateAdapterForSealed(
             struct: StructType,
@@ -1096,6 +1166,12 @@ class KotlinCodeGenerator(
                 .addParameter("protocol", Protocol::class)
                 .addParameter("struct", struct.typeName)
 
+        val sizer = FunSpec.builder("serializedSize")
+                .addModifiers(KModifier.OVERRIDE)
+                .addParameter("sizer", ProtocolSizer::class)
+                .addParameter("struct", struct.typeName)
+                .returns(INT)
+
         // Writer
 
         val nameAllocator = nameAllocators[struct]
@@ -1125,6 +1201,26 @@ class KotlinCodeGenerator(
         writer.addStatement("protocol.writeFieldStop()")
         writer.addStatement("protocol.writeStructEnd()")
 
+        // Size
+
+        sizer.addStatement("var size = 0")
+        sizer.addStatement("sizer.structBegin()")
+        sizer.beginControlFlow("when (struct)")
+        for (field in struct.fields) {
+            val name = nameAllocator.get(field)
+            val fieldType = field.type
+            val typeName = FieldNamingPolicy.PASCAL.apply(name)
+
+            sizer.beginControlFlow("is $typeName ->")
+            sizer.addStatement("size += sizer.fieldBegin(%L, %T.%L)", field.id, TType::class, fieldType.typeCodeName)
+            generateSizeCall(sizer, "struct.value", fieldType)
+            sizer.endControlFlow()
+        }
+        sizer.endControlFlow()
+        sizer.addStatement("size += sizer.fieldStop()")
+        sizer.addStatement("sizer.structEnd()")
+        sizer.addStatement("return size")
+
         // Reader
 
         reader.addStatement("protocol.readStructBegin()")
@@ -1201,13 +1297,19 @@ class KotlinCodeGenerator(
         return adapter
                 .addFunction(reader.build())
                 .addFunction(writer.build())
+                .addFunction(sizer.build())
                 .build()
     }
 
-    private fun generateWriteCall(writer: FunSpec.Builder, name: String, type: ThriftType) {
+    private fun generateWriteCall(
+            writer: FunSpec.Builder,
+            name: String,
+            type: ThriftType,
+            protocol: String = "protocol"
+    ) {
 
         // Assumptions:
-        // - writer has a parameter "protocol" that is a Protocol
+        // - writer has a parameter or local named [protocol] that is a Protocol
 
         fun generateRecursiveWrite(source: String, type: ThriftType, scope: Int) {
             type.accept(object : ThriftType.Visitor<Unit> {
@@ -1216,46 +1318,46 @@ class KotlinCodeGenerator(
                 }
 
                 override fun visitBool(boolType: BuiltinType) {
-                    writer.addStatement("%N.writeBool(%L)", "protocol", source)
+                    writer.addStatement("%N.writeBool(%L)", protocol, source)
                 }
 
                 override fun visitByte(byteType: BuiltinType) {
-                    writer.addStatement("%N.writeByte(%L)", "protocol", source)
+                    writer.addStatement("%N.writeByte(%L)", protocol, source)
                 }
 
                 override fun visitI16(i16Type: BuiltinType) {
-                    writer.addStatement("%N.writeI16(%L)", "protocol", source)
+                    writer.addStatement("%N.writeI16(%L)", protocol, source)
                 }
 
                 override fun visitI32(i32Type: BuiltinType) {
-                    writer.addStatement("%N.writeI32(%L)", "protocol", source)
+                    writer.addStatement("%N.writeI32(%L)", protocol, source)
                 }
 
                 override fun visitI64(i64Type: BuiltinType) {
-                    writer.addStatement("%N.writeI64(%L)", "protocol", source)
+                    writer.addStatement("%N.writeI64(%L)", protocol, source)
                 }
 
                 override fun visitDouble(doubleType: BuiltinType) {
-                    writer.addStatement("%N.writeDouble(%L)", "protocol", source)
+                    writer.addStatement("%N.writeDouble(%L)", protocol, source)
                 }
 
                 override fun visitString(stringType: BuiltinType) {
-                    writer.addStatement("%N.writeString(%L)", "protocol", source)
+                    writer.addStatement("%N.writeString(%L)", protocol, source)
                 }
 
                 override fun visitBinary(binaryType: BuiltinType) {
-                    writer.addStatement("%N.writeBinary(%L)", "protocol", source)
+                    writer.addStatement("%N.writeBinary(%L)", protocol, source)
                 }
 
                 override fun visitEnum(enumType: EnumType) {
-                    writer.addStatement("%N.writeI32(%L.value)", "protocol", source)
+                    writer.addStatement("%N.writeI32(%L.value)", protocol, source)
                 }
 
                 override fun visitList(listType: ListType) {
                     val elementType = listType.elementType
                     writer.addStatement(
                             "%N.writeListBegin(%T.%L, %L.size)",
-                            "protocol",
+                            protocol,
                             TType::class,
                             elementType.typeCodeName,
                             source)
@@ -1267,14 +1369,14 @@ class KotlinCodeGenerator(
 
                     writer.endControlFlow()
 
-                    writer.addStatement("%N.writeListEnd()", "protocol")
+                    writer.addStatement("%N.writeListEnd()", protocol)
                 }
 
                 override fun visitSet(setType: SetType) {
                     val elementType = setType.elementType
                     writer.addStatement(
                             "%N.writeSetBegin(%T.%L, %L.size)",
-                            "protocol",
+                            protocol,
                             TType::class,
                             elementType.typeCodeName,
                             source)
@@ -1286,7 +1388,7 @@ class KotlinCodeGenerator(
 
                     writer.endControlFlow()
 
-                    writer.addStatement("%N.writeSetEnd()", "protocol")
+                    writer.addStatement("%N.writeSetEnd()", protocol)
                 }
 
                 override fun visitMap(mapType: MapType) {
@@ -1295,7 +1397,7 @@ class KotlinCodeGenerator(
 
                     writer.addStatement(
                             "%1N.writeMapBegin(%2T.%3L, %2T.%4L, %5L.size)",
-                            "protocol",
+                            protocol,
                             TType::class,
                             keyType.typeCodeName,
                             valType.typeCodeName,
@@ -1310,11 +1412,11 @@ class KotlinCodeGenerator(
 
                     writer.endControlFlow()
 
-                    writer.addStatement("%N.writeMapEnd()", "protocol")
+                    writer.addStatement("%N.writeMapEnd()", protocol)
                 }
 
                 override fun visitStruct(structType: StructType) {
-                    writer.addStatement("%T.ADAPTER.write(%N, %L)", structType.typeName, "protocol", source)
+                    writer.addStatement("%T.ADAPTER.write(%N, %L)", structType.typeName, protocol, source)
                 }
 
                 override fun visitTypedef(typedefType: TypedefType) {
@@ -1330,6 +1432,138 @@ class KotlinCodeGenerator(
         generateRecursiveWrite(name, type, 0)
     }
 
+    private fun generateSizeCall(sizer: FunSpec.Builder, name: String, type: ThriftType) {
+
+        // Assumptions:
+        // - sizer has a parameter "sizer" that is a ProtocolSizer
+        // - sizer has a local var "size" holding the running total
+
+        fun addValue(method: String, source: String) {
+            sizer.addStatement("%N += %N.%N(%L)", "size", "sizer", method, source)
+        }
+
+        fun generateRecursiveSize(source: String, type: ThriftType, scope: Int) {
+            type.accept(object : ThriftType.Visitor<Unit> {
+                override fun visitVoid(voidType: BuiltinType) {
+                    error("Cannot measure void")
+                }
+
+                override fun visitBool(boolType: BuiltinType) {
+                    addValue("boolValue", source)
+                }
+
+                override fun visitByte(byteType: BuiltinType) {
+                    addValue("byteValue", source)
+                }
+
+                override fun visitI16(i16Type: BuiltinType) {
+                    addValue("i16", source)
+                }
+
+                override fun visitI32(i32Type: BuiltinType) {
+                    addValue("i32", source)
+                }
+
+                override fun visitI64(i64Type: BuiltinType) {
+                    addValue("i64", source)
+                }
+
+                override fun visitDouble(doubleType: BuiltinType) {
+                    addValue("doubleValue", source)
+                }
+
+                override fun visitString(stringType: BuiltinType) {
+                    addValue("string", source)
+                }
+
+                override fun visitBinary(binaryType: BuiltinType) {
+                    addValue("binary", source)
+                }
+
+                override fun visitEnum(enumType: EnumType) {
+                    addValue("i32", "$source.value")
+                }
+
+                override fun visitList(listType: ListType) {
+                    visitSingleElementCollection("listBegin", listType.elementType)
+                }
+
+                override fun visitSet(setType: SetType) {
+                    visitSingleElementCollection("setBegin", setType.elementType)
+                }
+
+                private fun visitSingleElementCollection(beginMethod: String, elementType: ThriftType) {
+                    sizer.addStatement(
+                            "%N += %N.%N(%T.%L, %L.size)",
+                            "size",
+                            "sizer",
+                            beginMethod,
+                            TType::class,
+                            elementType.typeCodeName,
+                            source)
+
+                    val iterator = "item$scope"
+                    sizer.beginControlFlow("for ($iterator in %L)", source)
+
+                    generateRecursiveSize(iterator, elementType, scope + 1)
+
+                    sizer.endControlFlow()
+                }
+
+                override fun visitMap(mapType: MapType) {
+                    val keyType = mapType.keyType
+                    val valType = mapType.valueType
+
+                    sizer.addStatement(
+                            "%1N += %2N.mapBegin(%3T.%4L, %3T.%5L, %6L.size)",
+                            "size",
+                            "sizer",
+                            TType::class,
+                            keyType.typeCodeName,
+                            valType.typeCodeName,
+                            source)
+
+                    val keyIter = "key$scope"
+                    val valIter = "val$scope"
+                    sizer.beginControlFlow("for (($keyIter, $valIter) in %L)", source)
+
+                    generateRecursiveSize(keyIter, keyType, scope + 1)
+                    generateRecursiveSize(valIter, valType, scope + 1)
+
+                    sizer.endControlFlow()
+                }
+
+                override fun visitStruct(structType: StructType) {
+                    // ADAPTER is declared as a plain adapter; generated adapters are always sized.
+                    val sizedAdapterTypeName = if (builderlessDataClasses) {
+                        KtSizedAdapter::class.asTypeName().parameterizedBy(structType.typeName)
+                    } else {
+                        SizedAdapter::class.asTypeName().parameterizedBy(
+                                structType.typeName,
+                                ClassName(structType.kotlinNamespace, structType.name, "Builder"))
+                    }
+                    sizer.addStatement(
+                            "%N += (%T.ADAPTER as %T).serializedSize(%N, %L)",
+                            "size",
+                            structType.typeName,
+                            sizedAdapterTypeName,
+                            "sizer",
+                            source)
+                }
+
+                override fun visitTypedef(typedefType: TypedefType) {
+                    typedefType.oldType.accept(this)
+                }
+
+                override fun visitService(serviceType: ServiceType) {
+                    error("Cannot measure a service")
+                }
+            })
+        }
+
+        generateRecursiveSize(name, type, 0)
+    }
+
     private fun generateReadCall(
             block: CodeBlock.Builder,
             name: String,
@@ -1852,6 +2086,7 @@ class KotlinCodeGenerator(
                     .parameterizedBy(callbackResultType)
 
             funSpec.addParameter(callbackName, callbackType)
+            funSpec.returns(CallHandle::class)
 
             type.addFunction(funSpec.build())
         }
@@ -1879,12 +2114,17 @@ class KotlinCodeGenerator(
             }
 
             primaryConstructor(FunSpec.constructorBuilder()
+                    .addAnnotation(JvmOverloads::class)
                     .addParameter("protocol", Protocol::class)
                     .addParameter("listener", AsyncClientBase.Listener::class)
+                    .addParameter(ParameterSpec.builder("config", AsyncClientConfig::class)
+                            .defaultValue("%T.DEFAULT", AsyncClientConfig::class)
+                            .build())
                     .build())
 
             addSuperclassConstructorParameter("protocol", Protocol::class)
             addSuperclassConstructorParameter("listener", AsyncClientBase.Listener::class)
+            addSuperclassConstructorParameter("config", AsyncClientConfig::class)
         }
 
         for ((index, interfaceFun) in serviceInterface.funSpecs.withIndex()) {
@@ -1892,12 +2132,13 @@ class KotlinCodeGenerator(
             val call = buildCallType(schema, method)
             val spec = FunSpec.builder(interfaceFun.name).apply {
                 addModifiers(KModifier.OVERRIDE)
+                returns(CallHandle::class)
                 for (param in interfaceFun.parameters) {
                     addParameter(param)
                 }
 
                 addCode {
-                    add("this.enqueue(%N(", call)
+                    add("return this.enqueue(%N(", call)
                     for ((ix, param) in interfaceFun.parameters.withIndex()) {
                         if (ix > 0) {
                             add(", ")
@@ -1915,12 +2156,20 @@ class KotlinCodeGenerator(
     }
 
     internal fun generateCoroServiceInterface(serviceType: ServiceType): TypeSpec {
-        val type = TypeSpec.interfaceBuilder(serviceType.name).apply {
+        return buildSuspendingInterface(serviceType, serviceType.name) { it.typeName }
+    }
+
+    private fun buildSuspendingInterface(
+            serviceType: ServiceType,
+            name: String,
+            superinterfaceName: (ThriftType) -> TypeName
+    ): TypeSpec {
+        val type = TypeSpec.interfaceBuilder(name).apply {
             if (serviceType.hasJavadoc) addKdoc("%L", serviceType.documentation)
             if (serviceType.isDeprecated) addAnnotation(makeDeprecated())
 
             serviceType.extendsService?.let {
-                addSuperinterface(it.typeName)
+                addSuperinterface(superinterfaceName(it))
             }
 
             addGeneratedAnnotation()
@@ -1954,12 +2203,16 @@ class KotlinCodeGenerator(
     }
 
     internal fun generateCoroServiceImplementation(schema: Schema, serviceType: ServiceType, serviceInterface: TypeSpec): TypeSpec {
+        val protocolFactoryType = LambdaTypeName.get(
+                parameters = *arrayOf(Transport::class.asTypeName()),
+                returnType = Protocol::class.asTypeName())
+
         val type = TypeSpec.classBuilder(serviceType.name + "Client").apply {
             val baseType = serviceType.extendsService as? ServiceType
             val baseClassName = if (baseType != null) {
                 ClassName(baseType.kotlinNamespace, baseType.name + "Client")
             } else {
-                AsyncClientBase::class.asClassName()
+                CoroutineClientBase::class.asClassName()
             }
 
             superclass(baseClassName)
@@ -1973,71 +2226,320 @@ class KotlinCodeGenerator(
             }
 
             primaryConstructor(FunSpec.constructorBuilder()
-                    .addParameter("protocol", Protocol::class)
-                    .addParameter("listener", AsyncClientBase.Listener::class)
+                    .addParameter("channel", AsynchronousSocketChannel::class)
+                    .addParameter("protocolFactory", protocolFactoryType)
+                    .addParameter(ParameterSpec.builder("framed", BOOLEAN)
+                            .defaultValue("true")
+                            .build())
+                    .addParameter(ParameterSpec.builder("maxFrameSize", INT)
+                            .defaultValue("%T.DEFAULT_MAX_FRAME_SIZE", FramedTransport::class)
+                            .build())
                     .build())
 
-            addSuperclassConstructorParameter("protocol", Protocol::class)
-            addSuperclassConstructorParameter("listener", AsyncClientBase.Listener::class)
+            addSuperclassConstructorParameter("channel")
+            addSuperclassConstructorParameter("protocolFactory")
+            addSuperclassConstructorParameter("framed")
+            addSuperclassConstructorParameter("maxFrameSize")
         }
 
-        // suspendCoroutine is obviously not a class, but until kotlinpoet supports
-        // importing fully-qualified fun names, we can pun and use a ClassName.
-        val suspendCoroFn = MemberName("kotlin.coroutines", "suspendCoroutine")
-        val coroResultClass = ClassName("kotlin", "Result")
-
         for ((index, interfaceFun) in serviceInterface.funSpecs.withIndex()) {
             val method = serviceType.methods[index]
             val call = buildCallType(schema, method)
-            val resultType = interfaceFun.returnType ?: UNIT
-            val callbackResultType = if (method.oneWay) UNIT.copy(nullable = true) else resultType
-            val callbackType = ServiceMethodCallback::class.asTypeName().parameterizedBy(resultType)
-            val callback = TypeSpec.anonymousClassBuilder()
-                    .addSuperinterface(callbackType)
-                    .addFunction(FunSpec.builder("onSuccess")
-                            .addModifiers(KModifier.OVERRIDE)
-                            .addParameter("result", callbackResultType)
-                            .apply {
-                                // oneway calls don't have results, which the Java code represents as a null instance
-                                // of type Void.  We deal with this by making the callback accept a Unit? for oneway
-                                // functions; they are they only ones to accept a nullable result.
-                                //
-                                // It's a bit ungainly, but as an implementation detail it's acceptable.
-                                if (method.oneWay) {
-                                    addStatement("cont.resumeWith(%T.success(Unit))", coroResultClass)
-                                } else {
-                                    addStatement("cont.resumeWith(%T.success(result))", coroResultClass)
-                                }
-                            }
-                            .build())
-                    .addFunction(FunSpec.builder("onError")
-                            .addModifiers(KModifier.OVERRIDE)
-                            .addParameter("error", Throwable::class)
-                            .addStatement("cont.resumeWith(%T.failure(error))", coroResultClass)
-                            .build())
-                    .build()
+            val callbackName = nameAllocators[method].get(Tags.CALLBACK)
 
             val spec = FunSpec.builder(interfaceFun.name).apply {
                 addModifiers(KModifier.SUSPEND, KModifier.OVERRIDE)
-                returns(resultType)
+                returns(interfaceFun.returnType ?: UNIT)
 
                 for (param in interfaceFun.parameters) {
                     addParameter(param)
                 }
 
-                addCode("return %M·{·cont·->⇥\n", suspendCoroFn)
+                addCode("return this.execute·{·%N·->·%N(", callbackName, call)
+                for (param in interfaceFun.parameters) {
+                    addCode("%N,·", param.name)
+                }
+                addCode("%N)·}\n", callbackName)
+            }
+            type.addType(call)
+            type.addFunction(spec.build())
+        }
+
+        return type.build()
+    }
 
-                addCode("«this.enqueue(%N(", call)
+    internal fun generateCoroServiceHandler(serviceType: ServiceType): TypeSpec {
+        return buildSuspendingInterface(serviceType, serviceType.name + "Handler") {
+            val baseType = it as ServiceType
+            ClassName(baseType.kotlinNamespace, baseType.name + "Handler")
+        }
+    }
+
+    /**
+     * Generates a [CoroutineProcessorBase] that decodes calls to the given
+     * service, suspends while its handler serves them, and writes their
+     * results.
+     */
+    internal fun generateCoroServiceProcessor(schema: Schema, serviceType: ServiceType): TypeSpec {
+        val handlerType = ClassName(serviceType.kotlinNamespace, serviceType.name + "Handler")
+        val baseType = serviceType.extendsService as? ServiceType
+
+        val type = TypeSpec.classBuilder(serviceType.name + "Processor").apply {
+            if (baseType != null) {
+                superclass(ClassName(baseType.kotlinNamespace, baseType.name + "Processor"))
+                addSuperclassConstructorParameter("handler")
+            } else {
+                superclass(CoroutineProcessorBase::class)
+            }
+
+            addGeneratedAnnotation()
+
+            // If any services extend this, then this needs to be open.
+            if (schema.services.any { it.extendsService == serviceType }) {
+                addModifiers(KModifier.OPEN)
+            }
+
+            primaryConstructor(FunSpec.constructorBuilder()
+                    .addParameter("handler", handlerType)
+                    .build())
+
+            addProperty(PropertySpec.builder("handler", handlerType, KModifier.PRIVATE)
+                    .initializer("handler")
+                    .build())
+        }
+
+        val dispatch = FunSpec.builder("dispatch")
+                .addModifiers(KModifier.OVERRIDE, KModifier.SUSPEND)
+                .addParameter("message", MessageMetadata::class)
+                .addParameter("input", Protocol::class)
+                .addParameter("output", Protocol::class)
+                .returns(BOOLEAN)
+
+        val fallback = if (baseType != null) "super.dispatch(message, input, output)" else "false"
+        val handleFuns = serviceType.methods.map { buildCoroProcessFun(schema, serviceType, it) }
+        if (handleFuns.isNotEmpty()) {
+            dispatch.beginControlFlow("when (message.name)")
+            for ((method, handle) in serviceType.methods.zip(handleFuns)) {
+                dispatch.addStatement("%S·->·%N(message, input, output)", method.name, handle)
+            }
+            dispatch.addStatement("else·->·return·%L", fallback)
+            dispatch.endControlFlow()
+            dispatch.addStatement("return true")
+        } else {
+            dispatch.addStatement("return %L", fallback)
+        }
+
+        type.addFunction(dispatch.build())
+        handleFuns.forEach { type.addFunction(it) }
+
+        return type.build()
+    }
+
+    private fun buildCoroProcessFun(schema: Schema, serviceType: ServiceType, method: ServiceMethod): FunSpec {
+        val spec = FunSpec.builder("handle" + method.name.capitalize())
+                .addModifiers(KModifier.PRIVATE, KModifier.SUSPEND)
+                .addParameter("message", MessageMetadata::class)
+                .addParameter("protocol", Protocol::class)
+                .addParameter("output", Protocol::class)
+
+        val allocator = NameAllocator()
+        for (reserved in PROCESSOR_RESERVED_NAMES) {
+            allocator.newName(reserved, reserved)
+        }
+
+        for (param in method.parameters) {
+            val name = allocator.newName(nameAllocators[method].get(param), param)
+            spec.addStatement("var %N: %T = null", name, param.type.typeName.copy(nullable = true))
+        }
+
+        spec.addStatement("protocol.readStructBegin()")
+                .beginControlFlow("while (true)")
+                .addStatement("val field = protocol.readFieldBegin()")
+                .beginControlFlow("if (field.typeId == %T.STOP)", TType::class)
+                .addStatement("break")
+                .endControlFlow()
+
+        if (method.parameters.isNotEmpty()) {
+            spec.beginControlFlow("when (field.fieldId.toInt())")
+            for (param in method.parameters) {
+                val name = allocator.get(param)
+                spec.addCode {
+                    addStatement("${param.id}·->·{⇥")
+                    beginControlFlow("if (field.typeId == %T.%L)", TType::class, param.type.typeCodeName)
+                    generateReadCall(this, "value", param.type, failOnUnknownEnumValues = failOnUnknownEnumValues)
+                    addStatement("%N = value", name)
+                    nextControlFlow("else")
+                    addStatement("%T.skip(protocol, field.typeId)", ProtocolUtil::class)
+                    endControlFlow()
+                    addStatement("⇤}")
+                }
+            }
+            spec.addStatement("else·->·%T.skip(protocol, field.typeId)", ProtocolUtil::class)
+            spec.endControlFlow()
+        } else {
+            spec.addStatement("%T.skip(protocol, field.typeId)", ProtocolUtil::class)
+        }
+
+        spec.addStatement("protocol.readFieldEnd()")
+        spec.endControlFlow() // while (true)
+        spec.addStatement("protocol.readStructEnd()")
+        spec.addStatement("protocol.readMessageEnd()")
+
+        // Handler parameters are never null, so arguments without defaults are effectively required.
+        for (param in method.parameters) {
+            val name = allocator.get(param)
+            val defaultValue = param.defaultValue
+            spec.beginControlFlow("if (%N == null)", name)
+            if (defaultValue != null) {
+                spec.addStatement("%N = %L", name, renderConstValue(schema, param.type, defaultValue))
+            } else {
+                if (!method.oneWay) {
+                    spec.addStatement("writeException(output, message, %T(%T.%L, %S))",
+                            ThriftException::class,
+                            ThriftException.Kind::class,
+                            ThriftException.Kind.PROTOCOL_ERROR.name,
+                            "Required argument '${param.name}' is missing")
+                }
+                spec.addStatement("return")
+            }
+            spec.endControlFlow()
+        }
+
+        val handlerFun = nameAllocators[serviceType].get(method)
+        val arguments = method.parameters.joinToString(", ") { allocator.get(it) }
+
+        if (method.oneWay) {
+            // There is no reply in which to report a failure; errors propagate to the server.
+            spec.addStatement("handler.%N($arguments)", handlerFun)
+            return spec.build()
+        }
+
+        val hasResult = method.returnType.typeName != UNIT
+        if (hasResult) {
+            spec.beginControlFlow("val result = try")
+        } else {
+            spec.beginControlFlow("try")
+        }
+        spec.addStatement("handler.%N($arguments)", handlerFun)
+
+        // Cancellation is not a failure of the call; let it end the coroutine.
+        spec.nextControlFlow("catch (e: %T)", CancellationException::class)
+        spec.addStatement("throw e")
+
+        for (exn in method.exceptions) {
+            spec.nextControlFlow("catch (e: %T)", exn.type.typeName)
+            writeReplyBegin(spec, method)
+            writeReplyField(spec, exn.name, exn.id, exn.type, "e")
+            writeReplyEnd(spec)
+            spec.addStatement("return")
+        }
+
+        spec.nextControlFlow("catch (e: %T)", Exception::class)
+        spec.addStatement("writeException(output, message, e)")
+        spec.addStatement("return")
+        spec.endControlFlow()
+
+        writeReplyBegin(spec, method)
+        if (hasResult) {
+            writeReplyField(spec, "success", 0, method.returnType, "result")
+        }
+        writeReplyEnd(spec)
+
+        return spec.build()
+    }
+
+    private fun writeReplyBegin(spec: FunSpec.Builder, method: ServiceMethod) {
+        spec.addStatement("output.writeMessageBegin(message.name, %T.REPLY, message.seqId)", TMessageType::class)
+        spec.addStatement("output.writeStructBegin(%S)", "${method.name}_result")
+    }
+
+    private fun writeReplyField(spec: FunSpec.Builder, fieldName: String, fieldId: Int, type: ThriftType, name: String) {
+        spec.addStatement("output.writeFieldBegin(%S, %L, %T.%L)", fieldName, fieldId, TType::class, type.typeCodeName)
+        generateWriteCall(spec, name, type, protocol = "output")
+        spec.addStatement("output.writeFieldEnd()")
+    }
+
+    private fun writeReplyEnd(spec: FunSpec.Builder) {
+        spec.addStatement("output.writeFieldStop()")
+        spec.addStatement("output.writeStructEnd()")
+        spec.addStatement("output.writeMessageEnd()")
+        spec.addStatement("output.flush()")
+    }
+
+    internal fun generatePooledServiceImplementation(serviceType: ServiceType): TypeSpec {
+        val ns = serviceType.kotlinNamespace
+        val clientType = ClassName(ns, serviceType.name + "Client")
+        val poolType = ClientPool::class.asClassName().parameterizedBy(clientType)
+        val factoryType = ClientPool.ClientFactory::class.asClassName().parameterizedBy(clientType)
+
+        val type = TypeSpec.classBuilder(serviceType.name + "PooledClient").apply {
+            addSuperinterface(ClassName(ns, serviceType.name))
+            addGeneratedAnnotation()
+            addKdoc("An implementation of [%T] that leases a client from a [%T]\n", ClassName(ns, serviceType.name),
+                    ClientPool::class)
+            addKdoc("for each call, returning it when the call completes.\n")
+
+            primaryConstructor(FunSpec.constructorBuilder()
+                    .addParameter("pool", poolType)
+                    .build())
+
+            addProperty(PropertySpec.builder("pool", poolType, KModifier.PRIVATE)
+                    .initializer("pool")
+                    .build())
+
+            addType(TypeSpec.companionObjectBuilder()
+                    .addProperty(PropertySpec.builder("FACTORY", factoryType)
+                            .addAnnotation(JvmField::class)
+                            .initializer("%T·{·protocol,·listener,·config·->·%T(protocol,·listener,·config)·}",
+                                    factoryType, clientType)
+                            .build())
+                    .build())
+        }
+
+        // The facade implements the whole interface, including any functions
+        // inherited from base services.
+        val services = generateSequence(serviceType) { it.extendsService as? ServiceType }.toList().asReversed()
+        for (svc in services) {
+            val serviceInterface = generateServiceInterface(svc)
+
+            for (interfaceFun in serviceInterface.funSpecs) {
+                val allocator = NameAllocator()
                 for (param in interfaceFun.parameters) {
-                    addCode("%N, ", param.name)
+                    allocator.newName(param.name, param)
                 }
+                val clientName = allocator.newName("client")
+
+                val spec = FunSpec.builder(interfaceFun.name).apply {
+                    addModifiers(KModifier.OVERRIDE)
+                    for (param in interfaceFun.parameters) {
+                        addParameter(param)
+                    }
 
-                addCode("%L))»\n", callback)
+                    val errorName = allocator.newName("e")
+                    val callback = interfaceFun.parameters.last()
 
-                addCode("⇤}\n")
+                    beginControlFlow("val %N = try", clientName)
+                    addStatement("this.pool.lease()")
+                    nextControlFlow("catch (%N: %T)", errorName, IOException::class)
+                    addStatement("%N.onError(%N)", callback, errorName)
+                    addStatement("return %T.COMPLETED", CallHandle::class)
+                    endControlFlow()
+                    addCode("\n")
+                    returns(CallHandle::class)
+                    beginControlFlow("try")
+                    addCode("return %N.%N(", clientName, interfaceFun)
+                    for (param in interfaceFun.parameters.dropLast(1)) {
+                        addCode("%N, ", param)
+                    }
+                    addCode("this.pool.releaseOnCompletion(%N, %N))\n", clientName, callback)
+                    nextControlFlow("catch (%N: %T)", errorName, RuntimeException::class)
+                    addStatement("this.pool.release(%N)", clientName)
+                    addStatement("throw %N", errorName)
+                    endControlFlow()
+                }
+
+                type.addFunction(spec.build())
             }
-            type.addType(call)
-            type.addFunction(spec.build())
         }
 
         return type.build()
@@ -335,22 +335,138 @@ class KotlinCodeGeneratorTest {
             |}
             |
             |class SvcClient(
-            |  protocol: Protocol,
-            |  listener: AsyncClientBase.Listener
-            |) : AsyncClientBase(protocol, listener), Svc {
-            |  override suspend fun doSomething(foo: Int): Int = suspendCoroutine { cont ->
-            |    this.enqueue(DoSomethingCall(foo, object : ServiceMethodCallback<Int> {
-            |      override fun onSuccess(result: Int) {
-            |        cont.resumeWith(Result.success(result))
-            |      }
+            |  channel: AsynchronousSocketChannel,
+            |  protocolFactory: (Transport) -> Protocol,
+            |  framed: Boolean = true,
+            |  maxFrameSize: Int = FramedTransport.DEFAULT_MAX_FRAME_SIZE
+            |) : CoroutineClientBase(channel, protocolFactory, framed, maxFrameSize), Svc {
+            |  override suspend fun doSomething(foo: Int): Int =
+            |      this.execute { callback -> DoSomethingCall(foo, callback) }
             |
-            |      override fun onError(error: Throwable) {
-            |        cont.resumeWith(Result.failure(error))
-            |      }
-            |    }))
+        """.trimMargin())
+    }
+
+    @Test
+    fun `coroutine service processors`() {
+        val thrift = """
+            |namespace kt test.proc
+            |
+            |service Svc {
+            |  i32 doSomething(1: i32 foo);
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift) {
+            omitServiceClients()
+            coroutineServiceProcessors()
+        }.single().toString()
+
+        file should contain("""
+            |interface SvcHandler {
+            |  suspend fun doSomething(foo: Int): Int
+            |}
+        """.trimMargin())
+
+        file should contain("""
+            |class SvcProcessor(
+            |  private val handler: SvcHandler
+            |) : CoroutineProcessorBase() {
+            |  override suspend fun dispatch(
+            |    message: MessageMetadata,
+            |    input: Protocol,
+            |    output: Protocol
+            |  ): Boolean {
+            |    when (message.name) {
+            |      "doSomething" -> handleDoSomething(message, input, output)
+            |      else -> return false
+            |    }
+            |    return true
             |  }
+        """.trimMargin())
+
+        file should contain("""
+            |    if (foo == null) {
+            |      writeException(output, message, ThriftException(ThriftException.Kind.PROTOCOL_ERROR,
+            |          "Required argument 'foo' is missing"))
+            |      return
+            |    }
+            |    val result = try {
+            |      handler.doSomething(foo)
+            |    } catch (e: CancellationException) {
+            |      throw e
+            |    } catch (e: Exception) {
+            |      writeException(output, message, e)
+            |      return
+            |    }
+        """.trimMargin())
+    }
+
+    @Test
+    fun `processors of extended services extend the parent processor`() {
+        val thrift = """
+            |namespace kt test.proc
+            |
+            |service Base {
+            |  void ping();
+            |}
             |
+            |service Svc extends Base {
+            |  oneway void fire(1: string what);
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift) {
+            omitServiceClients()
+            coroutineServiceProcessors()
+        }.single().toString()
+
+        file should contain("interface SvcHandler : BaseHandler {")
+        file should contain("open class BaseProcessor(")
+        file should contain("""
+            |class SvcProcessor(
+            |  private val handler: SvcHandler
+            |) : BaseProcessor(handler) {
         """.trimMargin())
+        file should contain("else -> return super.dispatch(message, input, output)")
+    }
+
+    @Test
+    fun `callback service clients return call handles`() {
+        val thrift = """
+            |namespace kt test.handles
+            |
+            |service Svc {
+            |  i32 doSomething(1: i32 foo);
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift).single().toString()
+
+        file should contain("""
+            |interface Svc {
+            |  fun doSomething(foo: Int, callback: ServiceMethodCallback<Int>): CallHandle
+            |}
+        """.trimMargin())
+
+        file should contain("""
+            |  override fun doSomething(foo: Int, callback: ServiceMethodCallback<Int>): CallHandle =
+            |      this.enqueue(DoSomethingCall(foo, callback))
+        """.trimMargin())
+    }
+
+    @Test
+    fun `suspend-fun service clients are not pooled`() {
+        val thrift = """
+            |namespace kt test.coro
+            |
+            |service Svc {
+            |  i32 doSomething(1: i32 foo);
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift) { coroutineServiceClients() }
+
+        file.single().toString() shouldNot contain("SvcPooledClient")
     }
 
     @Test
@@ -723,7 +839,7 @@ class KotlinCodeGeneratorTest {
         val file = generate(thrift)
 
         file.single().toString() should contain("""
-            |  private class UnionAdapter : Adapter<Union, Builder> {
+            |  private class UnionAdapter : SizedAdapter<Union, Builder> {
         """.trimMargin())
     }
 
@@ -743,7 +859,112 @@ class KotlinCodeGeneratorTest {
         val file = generate(thrift) { builderlessDataClasses() }
 
         file.single().toString() should contain("""
-            |  private class UnionAdapter : Adapter<Union> {
+            |  private class UnionAdapter : SizedAdapter<Union> {
+        """.trimMargin())
+    }
+
+    @Test
+    fun `struct adapter computes serialized size`() {
+        val thrift = """
+            |namespace kt test.size
+            |
+            |struct Foo {
+            |  1: required i32 id;
+            |  2: optional map<string, list<i64>> values;
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift)
+
+        file.single().toString() should contain("""
+            |    override fun serializedSize(sizer: ProtocolSizer, struct: Foo): Int {
+            |      var size = 0
+            |      sizer.structBegin()
+            |      size += sizer.fieldBegin(1, TType.I32)
+            |      size += sizer.i32(struct.id)
+            |      if (struct.values != null) {
+            |        size += sizer.fieldBegin(2, TType.MAP)
+            |        size += sizer.mapBegin(TType.STRING, TType.LIST, struct.values.size)
+            |        for ((key0, val0) in struct.values) {
+            |          size += sizer.string(key0)
+            |          size += sizer.listBegin(TType.I64, val0.size)
+            |          for (item1 in val0) {
+            |            size += sizer.i64(item1)
+            |          }
+            |        }
+            |      }
+            |      size += sizer.fieldStop()
+            |      sizer.structEnd()
+            |      return size
+            |    }
+        """.trimMargin())
+    }
+
+    @Test
+    fun `nested struct sizes go through the declared adapter`() {
+        val thrift = """
+            |namespace kt test.size
+            |
+            |struct Bar {
+            |  1: required i32 id;
+            |}
+            |
+            |struct Foo {
+            |  1: required Bar bar;
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift).single().toString()
+
+        file should contain("val ADAPTER: Adapter<Bar, Builder> = BarAdapter()")
+        file should contain(
+                "size += (Bar.ADAPTER as SizedAdapter<Bar, Bar.Builder>).serializedSize(sizer, struct.bar)")
+    }
+
+    @Test
+    fun `builderless nested struct sizes go through the declared adapter`() {
+        val thrift = """
+            |namespace kt test.size
+            |
+            |struct Bar {
+            |  1: required i32 id;
+            |}
+            |
+            |struct Foo {
+            |  1: required Bar bar;
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift) { builderlessDataClasses() }.single().toString()
+
+        file should contain("val ADAPTER: Adapter<Bar> = BarAdapter()")
+        file should contain("size += (Bar.ADAPTER as SizedAdapter<Bar>).serializedSize(sizer, struct.bar)")
+    }
+
+    @Test
+    fun `union adapter computes serialized size`() {
+        val thrift = """
+            |namespace kt test.size
+            |
+            |union Union {
+            |  1: i32 Foo;
+            |  2: string Bar;
+            |}
+        """.trimMargin()
+
+        val file = generate(thrift) { builderlessDataClasses() }
+
+        file.single().toString() should contain("""
+            |      when (struct) {
+            |        is Foo -> {
+            |          size += sizer.fieldBegin(1, TType.I32)
+            |          size += sizer.i32(struct.value)
+            |        }
+            |        is Bar -> {
+            |          size += sizer.fieldBegin(2, TType.STRING)
+            |          size += sizer.string(struct.value)
+            |        }
+            |      }
         """.trimMargin())
     }
 
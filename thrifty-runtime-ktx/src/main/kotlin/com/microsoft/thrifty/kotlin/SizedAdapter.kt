@@ -0,0 +1,44 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin
+
+import com.microsoft.thrifty.protocol.ProtocolSizer
+
+/**
+ * An [Adapter] that can also compute the encoded size of a struct without
+ * encoding it.  Adapters generated by the Thrifty compiler implement this
+ * interface, although their `ADAPTER` properties are declared as plain
+ * [Adapter]s, so that code compiled against earlier generated classes keeps
+ * working: `(Foo.ADAPTER as SizedAdapter<Foo>).serializedSize(sizer, foo)`.
+ *
+ * @param T The struct type, generated by the Thrifty compiler.
+ */
+interface SizedAdapter<T> : Adapter<T> {
+    /**
+     * Computes the number of bytes that [write] would produce for the given
+     * [struct], without encoding it.
+     *
+     * @param sizer A [ProtocolSizer] for the protocol of interest.
+     * @param struct A struct to be measured.
+     * @return The encoded size of [struct], in bytes.
+     */
+    fun serializedSize(sizer: ProtocolSizer, struct: T): Int
+}
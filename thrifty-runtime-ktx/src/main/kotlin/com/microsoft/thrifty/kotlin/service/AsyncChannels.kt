@@ -0,0 +1,141 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import kotlinx.coroutines.CancellableContinuation
+import kotlinx.coroutines.suspendCancellableCoroutine
+import java.io.EOFException
+import java.net.SocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.AsynchronousServerSocketChannel
+import java.nio.channels.AsynchronousSocketChannel
+import java.nio.channels.Channel
+import java.nio.channels.CompletionHandler
+import kotlin.coroutines.Continuation
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlin.coroutines.suspendCoroutine
+
+/**
+ * Connects this channel to the given [remote] address, suspending until the
+ * connection is established.
+ *
+ * If the calling coroutine is cancelled while connecting, the channel is closed.
+ */
+suspend fun AsynchronousSocketChannel.awaitConnect(remote: SocketAddress) {
+    suspendCancellableCoroutine<Void?> { cont ->
+        cont.invokeOnCancellation { closeQuietly() }
+        connect(remote, cont, CancellableHandler.get())
+    }
+}
+
+/**
+ * Accepts a connection, suspending until one arrives.
+ *
+ * If the calling coroutine is cancelled while waiting, the channel is closed.
+ */
+internal suspend fun AsynchronousServerSocketChannel.awaitAccept(): AsynchronousSocketChannel {
+    return suspendCancellableCoroutine { cont ->
+        cont.invokeOnCancellation { closeQuietly() }
+        accept(cont, CancellableHandler.get())
+    }
+}
+
+/**
+ * Reads until [buffer] is full, suspending as needed.
+ *
+ * If the calling coroutine is cancelled while reading, the channel is closed.
+ *
+ * @return false if the stream ended before anything was read.
+ * @throws EOFException if the stream ended part-way through.
+ */
+internal suspend fun AsynchronousSocketChannel.readFully(buffer: ByteBuffer): Boolean {
+    val start = buffer.position()
+    while (buffer.hasRemaining()) {
+        val numRead = suspendCancellableCoroutine<Int> { cont ->
+            cont.invokeOnCancellation { closeQuietly() }
+            read(buffer, cont, CancellableHandler.get())
+        }
+
+        if (numRead < 0) {
+            if (buffer.position() == start) {
+                return false
+            }
+            throw EOFException()
+        }
+    }
+    return true
+}
+
+/**
+ * Writes all remaining bytes of [buffer], suspending until they have been
+ * handed to the operating system.
+ *
+ * This is deliberately not cancellable: abandoning a write part-way through
+ * would leave a truncated message on the wire.
+ */
+internal suspend fun AsynchronousSocketChannel.writeFully(buffer: ByteBuffer) {
+    while (buffer.hasRemaining()) {
+        suspendCoroutine<Int> { cont -> write(buffer, cont, ResumingHandler.get()) }
+    }
+}
+
+internal fun Channel.closeQuietly() {
+    try {
+        close()
+    } catch (ignored: Exception) {
+        // nope
+    }
+}
+
+/**
+ * Adapts channel completions to continuations; stateless, so one instance
+ * serves every channel.
+ */
+private object ResumingHandler : CompletionHandler<Any?, Continuation<Any?>> {
+    override fun completed(result: Any?, attachment: Continuation<Any?>) {
+        attachment.resume(result)
+    }
+
+    override fun failed(exc: Throwable, attachment: Continuation<Any?>) {
+        attachment.resumeWithException(exc)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun <T> get(): CompletionHandler<T, Continuation<T>> = this as CompletionHandler<T, Continuation<T>>
+}
+
+private object CancellableHandler : CompletionHandler<Any?, CancellableContinuation<Any?>> {
+    override fun completed(result: Any?, attachment: CancellableContinuation<Any?>) {
+        attachment.resume(result)
+    }
+
+    override fun failed(exc: Throwable, attachment: CancellableContinuation<Any?>) {
+        // A failure caused by cancellation has already been reported.
+        if (!attachment.isCancelled) {
+            attachment.resumeWithException(exc)
+        }
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    fun <T> get(): CompletionHandler<T, CancellableContinuation<T>> =
+            this as CompletionHandler<T, CancellableContinuation<T>>
+}
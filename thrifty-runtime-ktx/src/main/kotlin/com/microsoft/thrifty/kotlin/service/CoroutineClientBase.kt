@@ -0,0 +1,452 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import com.microsoft.thrifty.Struct
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.ClientBase
+import com.microsoft.thrifty.service.MethodCall
+import com.microsoft.thrifty.service.ServiceMethodCallback
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.Transport
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.EOFException
+import java.net.ProtocolException
+import java.nio.ByteBuffer
+import java.nio.channels.AsynchronousSocketChannel
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.CompletionHandler
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Implements a basic service client whose methods are suspending functions,
+ * and which does not tie up any threads of its own.
+ *
+ * All I/O is performed asynchronously on an [AsynchronousSocketChannel], whose
+ * completions are handled by the threads of its
+ * [java.nio.channels.AsynchronousChannelGroup].  Any number of clients can
+ * share one group, and so a handful of threads; a coroutine awaiting a
+ * response is merely suspended.
+ *
+ * By default, messages are framed, exactly as by [FramedTransport], as a
+ * non-blocking server expects.  Unframed messages can be used instead with
+ * servers that read them straight from the socket; since such messages do
+ * not announce their length, each response is then parsed once as it
+ * arrives, to find where it ends, before being dispatched.
+ *
+ * Calls may be made concurrently, and are pipelined on the one connection:
+ * each is written as soon as the calls ahead of it have been, and responses
+ * are matched to their callers by sequence ID, so they may arrive in any order.
+ *
+ * Cancelling a suspended call abandons it.  If it has not yet been written
+ * it never will be; otherwise, its response is discarded when it arrives.
+ *
+ * Errors in the connection itself, as opposed to exceptions returned by
+ * the server, close the client and fail all outstanding calls.
+ *
+ * @param channel A connected channel; the client takes ownership of it.
+ * @param protocolFactory Creates the [Protocol]s with which messages are
+ *                        encoded.  Responses are read with one instance and
+ *                        requests written with another, since the two happen
+ *                        concurrently.
+ * @param framed Whether messages are framed.
+ * @param maxFrameSize The size of the largest response accepted; a server
+ *                     sending a larger one fails all outstanding calls with a
+ *                     [ProtocolException], and the client is closed.
+ */
+open class CoroutineClientBase private constructor(
+        private val channel: AsynchronousSocketChannel,
+        private val readTransport: FrameTransport,
+        private val writeTransport: FrameTransport,
+        private val protocolFactory: (Transport) -> Protocol,
+        framed: Boolean,
+        private val maxFrameSize: Int
+) : ClientBase(protocolFactory(readTransport), protocolFactory(writeTransport)) {
+
+    protected constructor(
+            channel: AsynchronousSocketChannel,
+            protocolFactory: (Transport) -> Protocol,
+            framed: Boolean = true,
+            maxFrameSize: Int = FramedTransport.DEFAULT_MAX_FRAME_SIZE
+    ) : this(channel, FrameTransport(), FrameTransport(framed), protocolFactory, framed, maxFrameSize)
+
+    private val open = AtomicBoolean(true)
+
+    @Volatile
+    private var closeCause: Throwable? = null
+
+    /**
+     * Serializes writes, so that frames are never interleaved.
+     */
+    private val writeLock = Mutex()
+
+    private val awaitingResponse = ConcurrentHashMap<Int, PendingCall<*>>()
+
+    private val reader: ResponseReader
+
+    init {
+        require(maxFrameSize > 0) { "maxFrameSize must be positive" }
+        reader = if (framed) FrameReader() else MessageReader()
+        reader.start()
+    }
+
+    /**
+     * When invoked by a derived instance, sends a call to the server and
+     * suspends until its result is received.
+     *
+     * @param newCall creates the call to be sent; it must be constructed with
+     *                the given callback.
+     * @return the result of the call, or [Unit] if it is one-way.
+     */
+    protected suspend fun <T> execute(newCall: (ServiceMethodCallback<T>) -> MethodCall<T>): T {
+        val pending = PendingCall<T>()
+        val call = newCall(pending)
+        pending.call = call
+        val oneWay = isOneWay(call)
+
+        val seqId = writeLock.withLock {
+            checkOpen()
+
+            val sid = nextSeqId()
+            if (!oneWay) {
+                awaitingResponse[sid] = pending
+                if (!open.get()) {
+                    // Closed concurrently; the call may have been missed when failing the rest.
+                    awaitingResponse.remove(sid)
+                    checkOpen()
+                }
+            }
+
+            val frame = try {
+                sendRequest(call, sid)
+                writeTransport.takeFrame()
+            } catch (e: Exception) {
+                // The call could not be serialized; nothing has been sent.
+                writeTransport.discardFrame()
+                awaitingResponse.remove(sid)
+                throw e
+            }
+
+            try {
+                channel.writeFully(frame)
+            } catch (e: Throwable) {
+                awaitingResponse.remove(sid)
+                close(e)
+                throw e
+            } finally {
+                writeTransport.discardFrame()
+            }
+            sid
+        }
+
+        if (oneWay) {
+            @Suppress("UNCHECKED_CAST")
+            return Unit as T
+        }
+
+        try {
+            return pending.result.await()
+        } finally {
+            awaitingResponse.remove(seqId, pending)
+        }
+    }
+
+    /**
+     * Closes this client and its channel, failing any outstanding calls.
+     */
+    override fun close() {
+        close(null)
+    }
+
+    private fun close(cause: Throwable?) {
+        if (!open.compareAndSet(true, false)) {
+            return
+        }
+
+        closeCause = cause
+        channel.closeQuietly()
+        super.close()
+
+        val error = cause ?: ClosedChannelException()
+        for (seqId in awaitingResponse.keys) {
+            awaitingResponse.remove(seqId)?.onError(error)
+        }
+    }
+
+    private fun checkOpen() {
+        if (!open.get()) {
+            throw IllegalStateException("Cannot write to a closed service client", closeCause)
+        }
+    }
+
+    /**
+     * Reads the response in the current frame, and delivers it to its caller.
+     */
+    private fun dispatchResponse() {
+        val metadata = readResponseBegin()
+        @Suppress("UNCHECKED_CAST")
+        val pending = awaitingResponse.remove(metadata.seqId) as PendingCall<Any?>?
+                ?: return // The caller has given up; discard the rest of the frame.
+
+        val result = try {
+            readResponse(pending.call, metadata)
+        } catch (e: ClientBase.ServerException) {
+            pending.onError(e.thriftException)
+            return
+        } catch (e: Exception) {
+            pending.onError(e)
+            if (e is Struct) {
+                return
+            }
+            throw e
+        }
+        pending.onSuccess(result)
+    }
+
+    /**
+     * Reads responses, one after another, for as long as the client is open.
+     *
+     * Each read is initiated from the completion of the one before it, so
+     * there is never more than one outstanding.
+     */
+    private abstract inner class ResponseReader : CompletionHandler<Int, Unit> {
+        abstract fun start()
+
+        /**
+         * Handles the completion of a read that did not reach end-of-stream.
+         */
+        protected abstract fun onRead()
+
+        override fun completed(result: Int, attachment: Unit) {
+            try {
+                if (result < 0) {
+                    throw EOFException("Connection closed by the server")
+                }
+                onRead()
+            } catch (e: Throwable) {
+                failed(e, attachment)
+            }
+        }
+
+        override fun failed(exc: Throwable, attachment: Unit) {
+            close(exc)
+        }
+    }
+
+    /**
+     * Reads length-prefixed frames, each holding one response.
+     */
+    private inner class FrameReader : ResponseReader() {
+        private val header = ByteBuffer.allocate(FrameTransport.HEADER_SIZE)
+        private var payload = ByteBuffer.allocate(INITIAL_FRAME_SIZE)
+        private var readingHeader = true
+
+        override fun start() {
+            readingHeader = true
+            header.clear()
+            channel.read(header, Unit, this)
+        }
+
+        override fun onRead() {
+            val buffer = if (readingHeader) header else payload
+            if (buffer.hasRemaining()) {
+                channel.read(buffer, Unit, this)
+            } else if (readingHeader) {
+                startPayload(header.getInt(0))
+            } else {
+                readTransport.setReadFrame(payload.array(), payload.limit())
+                dispatchResponse()
+                if (payload.capacity() > FrameTransport.MAX_RETAINED_BUFFER_SIZE) {
+                    payload = ByteBuffer.allocate(INITIAL_FRAME_SIZE)
+                }
+                start()
+            }
+        }
+
+        private fun startPayload(size: Int) {
+            if (size < 0 || size > maxFrameSize) {
+                throw ProtocolException("Invalid frame size: $size; the maximum is $maxFrameSize")
+            }
+
+            if (size > payload.capacity()) {
+                payload = ByteBuffer.allocate(size)
+            }
+            payload.clear()
+            payload.limit(size)
+            readingHeader = false
+            channel.read(payload, Unit, this)
+        }
+    }
+
+    /**
+     * Reads unframed responses, finding where each one ends by parsing it
+     * from the bytes received so far.
+     *
+     * Until a whole response has arrived, the attempt fails, and it is
+     * repeated from the start of the response once at least as many bytes
+     * have been received as the failed attempt needed.  A response made of
+     * one large value is therefore scanned only twice, but one made of many
+     * small values may be rescanned after every read; buffering, and so
+     * each scan, is bounded by [maxFrameSize].
+     */
+    private inner class MessageReader : ResponseReader() {
+        private var buffer = ByteBuffer.allocate(INITIAL_FRAME_SIZE)
+        private val scanTransport = ScanTransport()
+        private val scanProtocol = protocolFactory(scanTransport)
+
+        // The number of buffered bytes the last failed scan needed.
+        private var bytesNeeded = 0
+
+        override fun start() {
+            channel.read(buffer, Unit, this)
+        }
+
+        override fun onRead() {
+            while (true) {
+                val length = measureResponse() ?: break
+                readTransport.setReadFrame(buffer.array(), length)
+                dispatchResponse()
+
+                // Move whatever follows the response to the front of the buffer.
+                buffer.flip()
+                buffer.position(length)
+                buffer.compact()
+                bytesNeeded = 0
+            }
+
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() >= maxFrameSize) {
+                    throw ProtocolException("Response exceeds the maximum size of $maxFrameSize")
+                }
+                buffer.flip()
+                buffer = ByteBuffer.allocate(minOf(buffer.capacity() * 2, maxFrameSize)).put(buffer)
+            } else if (buffer.position() == 0 && buffer.capacity() > FrameTransport.MAX_RETAINED_BUFFER_SIZE) {
+                buffer = ByteBuffer.allocate(INITIAL_FRAME_SIZE)
+            }
+            start()
+        }
+
+        /**
+         * Returns the length of the response at the front of the buffer, or
+         * null if it has not been received in full.
+         */
+        private fun measureResponse(): Int? {
+            if (buffer.position() == 0 || buffer.position() < bytesNeeded) {
+                return null
+            }
+
+            scanTransport.reset(buffer.array(), buffer.position())
+            scanProtocol.reset()
+            return try {
+                scanProtocol.readMessageBegin()
+                scanProtocol.skip(TType.STRUCT)
+                scanProtocol.readMessageEnd()
+                scanTransport.position
+            } catch (e: IncompleteResponseException) {
+                bytesNeeded = scanTransport.bytesNeeded
+                null
+            }
+        }
+    }
+
+    /**
+     * Serves the bytes received so far to a protocol that is finding the end
+     * of a response; running out of them means the response is incomplete.
+     */
+    private class ScanTransport : Transport() {
+        private var bytes = ByteArray(0)
+        private var limit = 0
+        var position = 0
+            private set
+
+        /**
+         * The number of bytes the read that ran out of them would have needed.
+         */
+        var bytesNeeded = 0
+            private set
+
+        fun reset(bytes: ByteArray, limit: Int) {
+            this.bytes = bytes
+            this.limit = limit
+            this.position = 0
+        }
+
+        override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+            // Protocols may not check for short reads, so never return one.
+            checkAvailable(count)
+            System.arraycopy(bytes, position, buffer, offset, count)
+            position += count
+            return count
+        }
+
+        override fun skip(count: Int) {
+            checkAvailable(count)
+            position += count
+        }
+
+        override fun write(buffer: ByteArray, offset: Int, count: Int) {
+            throw UnsupportedOperationException("ScanTransport is read-only")
+        }
+
+        override fun flush() {
+        }
+
+        override fun close() {
+        }
+
+        private fun checkAvailable(count: Int) {
+            if (count > limit - position) {
+                bytesNeeded = position + count
+                throw IncompleteResponseException
+            }
+        }
+    }
+
+    /**
+     * Signals that a response has not been received in full.  Thrown once
+     * per read of an incomplete response, so it is shared, and carries no
+     * stack trace.
+     */
+    private object IncompleteResponseException : EOFException() {
+        override fun fillInStackTrace(): Throwable = this
+    }
+
+    private class PendingCall<T> : ServiceMethodCallback<T> {
+        lateinit var call: MethodCall<T>
+        val result = CompletableDeferred<T>()
+
+        override fun onSuccess(result: T) {
+            this.result.complete(result)
+        }
+
+        override fun onError(error: Throwable) {
+            result.completeExceptionally(error)
+        }
+    }
+
+    private companion object {
+        const val INITIAL_FRAME_SIZE = 256
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import com.microsoft.thrifty.protocol.Protocol
+
+/**
+ * Processes requests for a service whose handler suspends; the coroutine
+ * counterpart of [com.microsoft.thrifty.service.Processor].
+ *
+ * Implementations are generated from service definitions, and are hosted by
+ * a [CoroutineServer].
+ */
+interface CoroutineProcessor {
+    /**
+     * Reads one request message from [input], suspends while the handler
+     * serves it, and writes the reply, if any, to [output].
+     */
+    suspend fun process(input: Protocol, output: Protocol)
+}
@@ -0,0 +1,92 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.ThriftException
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.util.ProtocolUtil
+
+/**
+ * The base class of generated coroutine service processors.
+ *
+ * Handles the message envelope exactly as [com.microsoft.thrifty.service.ProcessorBase]
+ * does, leaving subclasses to decode the arguments of the methods they know,
+ * to call their handlers, and to write their results.
+ */
+abstract class CoroutineProcessorBase : CoroutineProcessor {
+
+    final override suspend fun process(input: Protocol, output: Protocol) {
+        val message = input.readMessageBegin()
+
+        if (message.type != TMessageType.CALL && message.type != TMessageType.ONEWAY) {
+            discardRequest(input)
+            writeException(output, message, ThriftException(
+                    ThriftException.Kind.INVALID_MESSAGE_TYPE,
+                    "Invalid message type: ${message.type}"))
+            return
+        }
+
+        if (!dispatch(message, input, output)) {
+            discardRequest(input)
+            if (message.type == TMessageType.CALL) {
+                writeException(output, message, ThriftException(
+                        ThriftException.Kind.UNKNOWN_METHOD,
+                        "Unknown method: ${message.name}"))
+            }
+        }
+    }
+
+    /**
+     * Handles a call to the method named in [message], if this processor
+     * knows it.
+     *
+     * When the method is known, implementations read its arguments and the
+     * message end from [input], call the handler, and write the reply to
+     * [output]; otherwise they consume nothing and return false.
+     */
+    protected abstract suspend fun dispatch(message: MessageMetadata, input: Protocol, output: Protocol): Boolean
+
+    /**
+     * Replies to the call described by [message] with an exception that is
+     * not among those the method declares.
+     *
+     * A [ThriftException] is sent as-is, anything else as an
+     * [ThriftException.Kind.INTERNAL_ERROR] whose message does not reveal
+     * the error's details.
+     */
+    protected fun writeException(output: Protocol, message: MessageMetadata, error: Exception) {
+        val e = error as? ThriftException
+                ?: ThriftException(ThriftException.Kind.INTERNAL_ERROR, "Internal error processing ${message.name}")
+
+        output.writeMessageBegin(message.name, TMessageType.EXCEPTION, message.seqId)
+        e.write(output)
+        output.writeMessageEnd()
+        output.flush()
+    }
+
+    private fun discardRequest(input: Protocol) {
+        ProtocolUtil.skip(input, TType.STRUCT)
+        input.readMessageEnd()
+    }
+}
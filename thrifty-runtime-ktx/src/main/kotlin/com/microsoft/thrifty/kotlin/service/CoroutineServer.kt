@@ -0,0 +1,182 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.Transport
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withLock
+import java.io.EOFException
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.AsynchronousServerSocketChannel
+import java.nio.channels.AsynchronousSocketChannel
+import java.nio.channels.ClosedChannelException
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Serves a [CoroutineProcessor] over [AsynchronousSocketChannel]s, without
+ * tying up any threads of its own; the server-side counterpart of
+ * [CoroutineClientBase].
+ *
+ * Messages are framed, exactly as by [FramedTransport].  Each request frame
+ * is read in full and then processed in a new coroutine, launched on
+ * [dispatcher]; replies are written as they are produced.
+ *
+ * Up to [maxConcurrentRequests] requests from one connection are processed
+ * at a time.  With the default of one, replies are sent in the order the
+ * requests arrived, as most clients expect; a [CoroutineClientBase], which
+ * matches responses to calls by sequence ID, can make use of more.
+ *
+ * Processing is structured: when a connection is closed, whether by the
+ * client or because of an error, the coroutines processing its requests are
+ * cancelled, and cancelling [serve] closes every connection.
+ *
+ * @param processor Processes each request.
+ * @param protocolFactory Creates the [Protocol]s with which messages are encoded.
+ * @param dispatcher The dispatcher on which requests are processed.
+ * @param maxConcurrentRequests The number of requests per connection that
+ *                              may be processed at once.
+ * @param maxFrameSize The size of the largest request frame accepted;
+ *                     connections sending larger ones are closed.
+ */
+class CoroutineServer(
+        private val processor: CoroutineProcessor,
+        private val protocolFactory: (Transport) -> Protocol,
+        private val dispatcher: CoroutineDispatcher = Dispatchers.Default,
+        private val maxConcurrentRequests: Int = 1,
+        private val maxFrameSize: Int = FramedTransport.DEFAULT_MAX_FRAME_SIZE
+) {
+    init {
+        require(maxConcurrentRequests > 0) { "maxConcurrentRequests must be positive" }
+        require(maxFrameSize > 0) { "maxFrameSize must be positive" }
+    }
+
+    /**
+     * Accepts connections from [serverChannel] and serves each of them, until
+     * the calling coroutine is cancelled or the channel is closed.
+     *
+     * Cancellation closes [serverChannel] and every connection accepted from
+     * it.  A connection that fails is closed without affecting the others.
+     */
+    suspend fun serve(serverChannel: AsynchronousServerSocketChannel) {
+        coroutineScope {
+            while (true) {
+                val channel = try {
+                    serverChannel.awaitAccept()
+                } catch (e: ClosedChannelException) {
+                    break
+                }
+
+                launch {
+                    try {
+                        serveConnection(channel)
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: IOException) {
+                        LOGGER.log(Level.FINE, "Connection failed", e)
+                    } catch (e: Exception) {
+                        LOGGER.log(Level.WARNING, "Failed to process a request; closed its connection", e)
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Serves requests from [channel] until the client closes it, then closes
+     * it in turn; the server takes ownership of the channel.
+     *
+     * Requests still being processed when the connection ends are
+     * cancelled.  Any error reading, processing or writing a request closes
+     * the connection, and is rethrown.
+     */
+    suspend fun serveConnection(channel: AsynchronousSocketChannel) {
+        try {
+            coroutineScope {
+                val writeLock = Mutex()
+                val permits = Semaphore(maxConcurrentRequests)
+                val header = ByteBuffer.allocate(FrameTransport.HEADER_SIZE)
+
+                while (true) {
+                    header.clear()
+                    if (!channel.readFully(header)) {
+                        break
+                    }
+
+                    val frameSize = header.getInt(0)
+                    if (frameSize < 0 || frameSize > maxFrameSize) {
+                        throw IOException("Invalid frame size: $frameSize")
+                    }
+
+                    permits.acquire()
+                    val frame = ByteArray(frameSize)
+                    if (!channel.readFully(ByteBuffer.wrap(frame))) {
+                        throw EOFException()
+                    }
+
+                    launch(dispatcher) {
+                        try {
+                            val reply = process(frame)
+                            if (reply != null) {
+                                writeLock.withLock { channel.writeFully(reply) }
+                            }
+                        } finally {
+                            permits.release()
+                        }
+                    }
+                }
+
+                // The client has gone; nobody is left to receive any replies.
+                coroutineContext.cancelChildren()
+            }
+        } finally {
+            channel.closeQuietly()
+        }
+    }
+
+    /**
+     * Processes the request in [frame], returning the framed reply, or null
+     * if there is none.
+     */
+    private suspend fun process(frame: ByteArray): ByteBuffer? {
+        val transport = FrameTransport()
+        transport.setReadFrame(frame, frame.size)
+
+        processor.process(protocolFactory(transport), protocolFactory(transport))
+
+        val reply = transport.takeFrame()
+        return if (reply.remaining() > FrameTransport.HEADER_SIZE) reply else null
+    }
+
+    private companion object {
+        val LOGGER: Logger = Logger.getLogger(CoroutineServer::class.java.name)
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import com.microsoft.thrifty.transport.Transport
+import java.nio.ByteBuffer
+
+/**
+ * An in-memory [Transport] that turns outgoing messages into frames, and
+ * serves incoming messages from frames that have already been read in full.
+ *
+ * Frames use the same encoding as [com.microsoft.thrifty.transport.FramedTransport]:
+ * a four-byte, big-endian length followed by that many bytes of payload.
+ * An unframed transport omits the length, and sends messages as they are.
+ *
+ * Writing and reading are independent, so one thread may write while
+ * another reads; beyond that, instances of this class are *not* threadsafe.
+ */
+internal class FrameTransport(private val framed: Boolean = true) : Transport() {
+    // The frame under construction, with space reserved for its header.
+    private var writeBuffer = ByteArray(INITIAL_BUFFER_SIZE)
+    private var writeLength = HEADER_SIZE
+
+    private var readBuffer = EMPTY
+    private var readPosition = 0
+    private var readLimit = 0
+
+    override fun read(buffer: ByteArray, offset: Int, count: Int): Int {
+        if (readPosition == readLimit) {
+            return -1
+        }
+
+        val toCopy = minOf(count, readLimit - readPosition)
+        System.arraycopy(readBuffer, readPosition, buffer, offset, toCopy)
+        readPosition += toCopy
+        return toCopy
+    }
+
+    // The frame is held in memory, so protocols may decode it in place.
+
+    override fun getBuffer(): ByteArray = readBuffer
+
+    override fun getBufferPosition(): Int = readPosition
+
+    override fun getBytesRemainingInBuffer(): Int = readLimit - readPosition
+
+    override fun consumeBuffer(count: Int) {
+        readPosition += count
+    }
+
+    override fun write(buffer: ByteArray, offset: Int, count: Int) {
+        val required = writeLength + count
+        if (required > writeBuffer.size) {
+            writeBuffer = writeBuffer.copyOf(maxOf(required, writeBuffer.size * 2))
+        }
+        System.arraycopy(buffer, offset, writeBuffer, writeLength, count)
+        writeLength = required
+    }
+
+    override fun flush() {
+        // Frames are taken explicitly with takeFrame().
+    }
+
+    override fun close() {
+        discardFrame()
+        readBuffer = EMPTY
+        readPosition = 0
+        readLimit = 0
+    }
+
+    /**
+     * Returns the frame written since the last call, header included if this
+     * transport is framed, ready to be sent.
+     *
+     * The returned buffer shares storage with this transport, and must be
+     * sent in full before anything more is written.
+     */
+    fun takeFrame(): ByteBuffer {
+        val payloadLength = writeLength - HEADER_SIZE
+        val frame = if (framed) {
+            writeBuffer[0] = (payloadLength ushr 24).toByte()
+            writeBuffer[1] = (payloadLength ushr 16).toByte()
+            writeBuffer[2] = (payloadLength ushr 8).toByte()
+            writeBuffer[3] = payloadLength.toByte()
+            ByteBuffer.wrap(writeBuffer, 0, writeLength)
+        } else {
+            ByteBuffer.wrap(writeBuffer, HEADER_SIZE, payloadLength)
+        }
+        writeLength = HEADER_SIZE
+        return frame
+    }
+
+    /**
+     * Discards anything written since the last call to [takeFrame], and
+     * releases the storage of an unusually large frame.
+     */
+    fun discardFrame() {
+        writeLength = HEADER_SIZE
+        if (writeBuffer.size > MAX_RETAINED_BUFFER_SIZE) {
+            writeBuffer = ByteArray(INITIAL_BUFFER_SIZE)
+        }
+    }
+
+    /**
+     * Makes the first [length] bytes of [payload] available for reading.
+     */
+    fun setReadFrame(payload: ByteArray, length: Int) {
+        readBuffer = payload
+        readPosition = 0
+        readLimit = length
+    }
+
+    companion object {
+        const val HEADER_SIZE = 4
+        const val MAX_RETAINED_BUFFER_SIZE = 64 * 1024
+        private const val INITIAL_BUFFER_SIZE = 256
+        private val EMPTY = ByteArray(0)
+    }
+}
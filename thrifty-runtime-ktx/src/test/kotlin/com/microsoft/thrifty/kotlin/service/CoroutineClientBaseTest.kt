@@ -0,0 +1,310 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.ThriftException
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.JsonProtocol
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.MethodCall
+import com.microsoft.thrifty.service.ServiceMethodCallback
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.transport.BufferTransport
+import com.microsoft.thrifty.transport.FramedTransport
+import com.microsoft.thrifty.transport.Transport
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
+import okio.Buffer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.net.InetAddress
+import java.net.ProtocolException
+import java.net.InetSocketAddress
+import java.net.ServerSocket
+import java.nio.channels.AsynchronousSocketChannel
+import java.nio.channels.ClosedChannelException
+import kotlin.concurrent.thread
+
+class CoroutineClientBaseTest {
+    private lateinit var serverSocket: ServerSocket
+    private var serverThread: Thread? = null
+    private var client: TestClient? = null
+
+    @Before
+    fun setup() {
+        serverSocket = ServerSocket(0, 1, InetAddress.getLoopbackAddress())
+    }
+
+    @After
+    fun teardown() {
+        client?.close()
+        serverSocket.close()
+        serverThread?.join(2000)
+    }
+
+    @Test
+    fun `concurrent calls are matched to responses by sequence ID`() = runBlocking {
+        serve(batchSize = 3, reverse = true)
+        val client = connect()
+
+        val results = (0 until 3).map { async { client.echo(it) } }.awaitAll()
+
+        results shouldBe listOf(0, 1, 2)
+    }
+
+    @Test
+    fun `server exceptions fail only their call`() = runBlocking {
+        serve(batchSize = 1, reverse = false)
+        val client = connect()
+
+        val error = shouldThrow<ThriftException> { client.echo(-1) }
+        error.kind shouldBe ThriftException.Kind.INTERNAL_ERROR
+
+        client.echo(7) shouldBe 7
+    }
+
+    @Test
+    fun `responses to abandoned calls are discarded`() = runBlocking {
+        // The server waits for both calls, then answers the first one last.
+        serve(batchSize = 2, reverse = true)
+        val client = connect()
+
+        withTimeoutOrNull(100) { client.echo(1) } shouldBe null
+        client.echo(2) shouldBe 2
+    }
+
+    @Test
+    fun `closing fails outstanding calls`() = runBlocking {
+        serve(batchSize = 2, reverse = false)
+        val client = connect()
+
+        val call = async { runCatching { client.echo(1) } }
+        delay(100)
+        client.close()
+
+        call.await().exceptionOrNull()?.javaClass shouldBe ClosedChannelException::class.java
+        shouldThrow<IllegalStateException> { client.echo(2) }
+        Unit
+    }
+
+    @Test
+    fun `oversized frames fail outstanding calls and close the client`() = runBlocking {
+        serverThread = thread(isDaemon = true) {
+            try {
+                serverSocket.accept().use { socket ->
+                    val input = DataInputStream(socket.getInputStream())
+                    readFrame(input)
+
+                    val output = DataOutputStream(socket.getOutputStream())
+                    output.writeInt(Int.MAX_VALUE)
+                    output.flush()
+                    input.read() // until the client hangs up
+                }
+            } catch (ignored: IOException) {
+                // test is over
+            }
+        }
+        val client = connect(maxFrameSize = 1024)
+
+        shouldThrow<ProtocolException> { client.echo(1) }
+        shouldThrow<IllegalStateException> { client.echo(2) }
+        Unit
+    }
+
+    @Test
+    fun `unframed responses are read as they arrive`() = runBlocking {
+        serve(batchSize = 3, reverse = true, framed = false)
+        val client = connect(framed = false)
+
+        for (batch in listOf(0 until 3, 3 until 6)) {
+            val results = batch.map { async { client.echo(it) } }.awaitAll()
+            results shouldBe batch.toList()
+        }
+    }
+
+    @Test
+    fun `stateful protocols survive concurrent reads and writes`() = runBlocking {
+        serve(batchSize = 1, reverse = false, protocolFactory = ::JsonProtocol)
+        val client = connect(protocolFactory = ::JsonProtocol)
+
+        val values = 0 until 500
+        val results = values.map { async(Dispatchers.Default) { client.echo(it) } }.awaitAll()
+
+        results shouldBe values.toList()
+    }
+
+    private suspend fun connect(
+            framed: Boolean = true,
+            maxFrameSize: Int = FramedTransport.DEFAULT_MAX_FRAME_SIZE,
+            protocolFactory: (Transport) -> Protocol = ::BinaryProtocol
+    ): TestClient {
+        val channel = AsynchronousSocketChannel.open()
+        channel.awaitConnect(InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.localPort))
+        return TestClient(channel, protocolFactory, framed, maxFrameSize).also { client = it }
+    }
+
+    /**
+     * Answers echo calls in batches, so that several are outstanding at once.
+     *
+     * Unframed responses are written a few bytes at a time, so that the
+     * client receives them in pieces.
+     */
+    private fun serve(
+            batchSize: Int,
+            reverse: Boolean,
+            framed: Boolean = true,
+            protocolFactory: (Transport) -> Protocol = ::BinaryProtocol
+    ) {
+        serverThread = thread(isDaemon = true) {
+            try {
+                serverSocket.accept().use { socket ->
+                    socket.tcpNoDelay = true
+                    val input = DataInputStream(socket.getInputStream())
+                    val output = DataOutputStream(socket.getOutputStream())
+                    val stream = protocolFactory(StreamTransport(input))
+                    while (true) {
+                        val responses = List(batchSize) {
+                            val request = if (framed) {
+                                protocolFactory(BufferTransport(Buffer().write(readFrame(input))))
+                            } else {
+                                stream
+                            }
+                            respond(request, protocolFactory)
+                        }
+                        for (response in if (reverse) responses.asReversed() else responses) {
+                            if (framed) {
+                                output.writeInt(response.size)
+                                output.write(response)
+                            } else {
+                                for (offset in response.indices step 5) {
+                                    output.write(response, offset, minOf(5, response.size - offset))
+                                    output.flush()
+                                    Thread.sleep(1)
+                                }
+                            }
+                        }
+                        output.flush()
+                    }
+                }
+            } catch (ignored: IOException) {
+                // test is over
+            }
+        }
+    }
+
+    private fun readFrame(input: DataInputStream): ByteArray {
+        val frame = ByteArray(input.readInt())
+        input.readFully(frame)
+        return frame
+    }
+
+    private fun respond(input: Protocol, protocolFactory: (Transport) -> Protocol): ByteArray {
+        val metadata = input.readMessageBegin()
+        input.readStructBegin()
+        input.readFieldBegin()
+        val value = input.readI32()
+        input.readFieldEnd()
+        input.readFieldBegin()
+        input.readStructEnd()
+        input.readMessageEnd()
+
+        val transport = BufferTransport()
+        val output = protocolFactory(transport)
+        if (value < 0) {
+            output.writeMessageBegin("echo", TMessageType.EXCEPTION, metadata.seqId)
+            output.writeStructBegin("TApplicationException")
+            output.writeFieldBegin("message", 1, TType.STRING)
+            output.writeString("negative")
+            output.writeFieldEnd()
+            output.writeFieldBegin("type", 2, TType.I32)
+            output.writeI32(6) // INTERNAL_ERROR
+            output.writeFieldEnd()
+        } else {
+            output.writeMessageBegin("echo", TMessageType.REPLY, metadata.seqId)
+            output.writeStructBegin("echo_result")
+            output.writeFieldBegin("success", 0, TType.I32)
+            output.writeI32(value)
+            output.writeFieldEnd()
+        }
+        output.writeFieldStop()
+        output.writeStructEnd()
+        output.writeMessageEnd()
+        return transport.b.readByteArray()
+    }
+
+    private class StreamTransport(private val input: InputStream) : Transport() {
+        override fun read(buffer: ByteArray, offset: Int, count: Int) = input.read(buffer, offset, count)
+
+        override fun write(buffer: ByteArray, offset: Int, count: Int) = throw UnsupportedOperationException()
+
+        override fun flush() {
+        }
+
+        override fun close() {
+        }
+    }
+
+    private class TestClient(
+            channel: AsynchronousSocketChannel,
+            protocolFactory: (Transport) -> Protocol,
+            framed: Boolean,
+            maxFrameSize: Int
+    ) : CoroutineClientBase(channel, protocolFactory, framed, maxFrameSize) {
+        suspend fun echo(value: Int): Int = execute { callback -> EchoCall(value, callback) }
+    }
+
+    private class EchoCall(
+            private val value: Int,
+            callback: ServiceMethodCallback<Int>
+    ) : MethodCall<Int>("echo", TMessageType.CALL, callback) {
+        override fun send(protocol: Protocol) {
+            protocol.writeStructBegin("echo_args")
+            protocol.writeFieldBegin("value", 1, TType.I32)
+            protocol.writeI32(value)
+            protocol.writeFieldEnd()
+            protocol.writeFieldStop()
+            protocol.writeStructEnd()
+        }
+
+        override fun receive(protocol: Protocol, metadata: MessageMetadata): Int {
+            protocol.readStructBegin()
+            protocol.readFieldBegin()
+            val result = protocol.readI32()
+            protocol.readFieldEnd()
+            protocol.readFieldBegin()
+            protocol.readStructEnd()
+            return result
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.kotlin.service
+
+import com.microsoft.thrifty.TType
+import com.microsoft.thrifty.ThriftException
+import com.microsoft.thrifty.protocol.BinaryProtocol
+import com.microsoft.thrifty.protocol.MessageMetadata
+import com.microsoft.thrifty.protocol.Protocol
+import com.microsoft.thrifty.service.MethodCall
+import com.microsoft.thrifty.service.ServiceMethodCallback
+import com.microsoft.thrifty.service.TMessageType
+import com.microsoft.thrifty.util.ProtocolUtil
+import io.kotest.assertions.throwables.shouldThrow
+import io.kotest.matchers.shouldBe
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.Test
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.channels.AsynchronousServerSocketChannel
+import java.nio.channels.AsynchronousSocketChannel
+import java.nio.channels.ClosedChannelException
+import java.util.concurrent.atomic.AtomicInteger
+
+class CoroutineServerTest {
+    private val processor = TestProcessor()
+
+    @Test
+    fun `calls are answered`() = runBlocking {
+        withServer(maxConcurrentRequests = 1) { client ->
+            client.echo(1) shouldBe 1
+            client.echo(2) shouldBe 2
+        }
+    }
+
+    @Test
+    fun `errors are reported to the caller`() = runBlocking {
+        withServer(maxConcurrentRequests = 1) { client ->
+            val error = shouldThrow<ThriftException> { client.echo(-1) }
+            error.kind shouldBe ThriftException.Kind.INTERNAL_ERROR
+
+            client.echo(3) shouldBe 3
+        }
+    }
+
+    @Test
+    fun `requests are processed one at a time by default`() = runBlocking {
+        withServer(maxConcurrentRequests = 1) { client ->
+            val results = listOf(30, 20, 10).map { async { client.echo(it) } }.awaitAll()
+
+            results shouldBe listOf(30, 20, 10)
+            processor.maxActive.get() shouldBe 1
+        }
+    }
+
+    @Test
+    fun `requests are processed concurrently up to the limit`() = runBlocking {
+        withServer(maxConcurrentRequests = 2) { client ->
+            val results = listOf(300, 200, 100, 50).map { async { client.echo(it) } }.awaitAll()
+
+            results shouldBe listOf(300, 200, 100, 50)
+            processor.maxActive.get() shouldBe 2
+        }
+    }
+
+    @Test
+    fun `closing the connection cancels its requests`() = runBlocking {
+        withServer(maxConcurrentRequests = 1) { client ->
+            val call = async { runCatching { client.hang() } }
+            withTimeout(5000) { processor.hanging.await() }
+
+            client.close()
+
+            withTimeout(5000) { processor.cancelled.await() }
+            call.await().exceptionOrNull()?.javaClass shouldBe ClosedChannelException::class.java
+        }
+    }
+
+    @Test
+    fun `cancelling the server cancels requests`() = runBlocking {
+        val serverChannel = AsynchronousServerSocketChannel.open()
+                .bind(InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+        val server = CoroutineServer(processor, ::BinaryProtocol)
+        val serverJob = launch(Dispatchers.Default) { server.serve(serverChannel) }
+
+        val client = connect(serverChannel)
+        val call = async { runCatching { client.hang() } }
+        withTimeout(5000) { processor.hanging.await() }
+
+        serverJob.cancel()
+
+        withTimeout(5000) { processor.cancelled.await() }
+        call.await().isFailure shouldBe true
+        serverChannel.isOpen shouldBe false
+    }
+
+    private suspend fun CoroutineScope.withServer(
+            maxConcurrentRequests: Int,
+            block: suspend (TestClient) -> Unit
+    ) {
+        val serverChannel = AsynchronousServerSocketChannel.open()
+                .bind(InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+        val server = CoroutineServer(
+                processor,
+                ::BinaryProtocol,
+                Dispatchers.Default,
+                maxConcurrentRequests = maxConcurrentRequests)
+        val serverJob = launch(Dispatchers.Default) { server.serve(serverChannel) }
+
+        val client = connect(serverChannel)
+        try {
+            block(client)
+        } finally {
+            client.close()
+            serverJob.cancel()
+        }
+    }
+
+    private suspend fun connect(serverChannel: AsynchronousServerSocketChannel): TestClient {
+        val channel = AsynchronousSocketChannel.open()
+        channel.awaitConnect(serverChannel.localAddress)
+        return TestClient(channel)
+    }
+
+    /**
+     * Implements "echo", which returns its argument after suspending for
+     * that many milliseconds, or fails if it is negative; and "hang", which
+     * suspends until cancelled.
+     */
+    private class TestProcessor : CoroutineProcessorBase() {
+        val active = AtomicInteger()
+        val maxActive = AtomicInteger()
+        val hanging = CompletableDeferred<Unit>()
+        val cancelled = CompletableDeferred<Unit>()
+
+        override suspend fun dispatch(message: MessageMetadata, input: Protocol, output: Protocol): Boolean {
+            if (message.name != "echo" && message.name != "hang") {
+                return false
+            }
+
+            var value = 0
+            input.readStructBegin()
+            while (true) {
+                val field = input.readFieldBegin()
+                if (field.typeId == TType.STOP) {
+                    break
+                }
+                if (field.fieldId.toInt() == 1 && field.typeId == TType.I32) {
+                    value = input.readI32()
+                } else {
+                    ProtocolUtil.skip(input, field.typeId)
+                }
+                input.readFieldEnd()
+            }
+            input.readStructEnd()
+            input.readMessageEnd()
+
+            maxActive.accumulateAndGet(active.incrementAndGet()) { a, b -> maxOf(a, b) }
+            try {
+                if (message.name == "hang") {
+                    hanging.complete(Unit)
+                    try {
+                        CompletableDeferred<Unit>().await()
+                    } catch (e: CancellationException) {
+                        cancelled.complete(Unit)
+                        throw e
+                    }
+                }
+
+                if (value < 0) {
+                    writeException(output, message, IllegalArgumentException("negative"))
+                    return true
+                }
+                delay(value.toLong())
+            } finally {
+                active.decrementAndGet()
+            }
+
+            output.writeMessageBegin(message.name, TMessageType.REPLY, message.seqId)
+            output.writeStructBegin("echo_result")
+            output.writeFieldBegin("success", 0, TType.I32)
+            output.writeI32(value)
+            output.writeFieldEnd()
+            output.writeFieldStop()
+            output.writeStructEnd()
+            output.writeMessageEnd()
+            output.flush()
+            return true
+        }
+    }
+
+    private class TestClient(channel: AsynchronousSocketChannel) : CoroutineClientBase(channel, ::BinaryProtocol) {
+        suspend fun echo(value: Int): Int = execute { callback -> IntCall("echo", value, callback) }
+
+        suspend fun hang(): Int = execute { callback -> IntCall("hang", 0, callback) }
+    }
+
+    private class IntCall(
+            name: String,
+            private val value: Int,
+            callback: ServiceMethodCallback<Int>
+    ) : MethodCall<Int>(name, TMessageType.CALL, callback) {
+        override fun send(protocol: Protocol) {
+            protocol.writeStructBegin("args")
+            protocol.writeFieldBegin("value", 1, TType.I32)
+            protocol.writeI32(value)
+            protocol.writeFieldEnd()
+            protocol.writeFieldStop()
+            protocol.writeStructEnd()
+        }
+
+        override fun receive(protocol: Protocol, metadata: MessageMetadata): Int {
+            protocol.readStructBegin()
+            protocol.readFieldBegin()
+            val result = protocol.readI32()
+            protocol.readFieldEnd()
+            protocol.readFieldBegin()
+            protocol.readStructEnd()
+            return result
+        }
+    }
+}
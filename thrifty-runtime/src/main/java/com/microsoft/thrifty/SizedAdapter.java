@@ -0,0 +1,52 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty;
+
+import com.microsoft.thrifty.protocol.ProtocolSizer;
+
+/**
+ * An {@link Adapter} that can also compute the encoded size of a struct
+ * without encoding it.
+ *
+ * <p>Adapters generated by Thrifty implement this interface, although their
+ * {@code ADAPTER} fields are declared as plain {@link Adapter}s, so that
+ * code compiled against earlier generated classes keeps working.  Code that
+ * accepts arbitrary adapters should check for it with {@code instanceof}.
+ *
+ * @param <T> the type of struct that can be written, read and measured
+ * @param <B> a {@link StructBuilder} for {@link T}.
+ */
+public interface SizedAdapter<T, B extends StructBuilder<T>> extends Adapter<T, B> {
+    /**
+     * Computes the number of bytes that {@link #write} would produce for the
+     * given {@code struct}, without encoding it.
+     *
+     * <p>For example,
+     * {@code ((SizedAdapter<Foo, Foo.Builder>) Foo.ADAPTER).serializedSize(ProtocolSizer.compact(), foo)}
+     * is the exact size of {@code foo} as written by a
+     * {@link com.microsoft.thrifty.protocol.CompactProtocol}.
+     *
+     * @param sizer the sizer for the protocol of interest
+     * @param struct the struct to be measured
+     * @return the encoded size of {@code struct}, in bytes.
+     */
+    int serializedSize(ProtocolSizer sizer, T struct);
+}
@@ -137,4 +137,26 @@ public class ThriftException extends RuntimeException {
 
         return new ThriftException(kind, message);
     }
+
+    /**
+     * Writes this exception as a {@code TApplicationException} struct, as
+     * a server does when replying to a call that it could not complete.
+     *
+     * @param protocol the protocol to which the exception is written.
+     * @throws IOException if writing fails.
+     */
+    public void write(Protocol protocol) throws IOException {
+        protocol.writeStructBegin("TApplicationException");
+        String message = getMessage();
+        if (message != null) {
+            protocol.writeFieldBegin("message", 1, TType.STRING);
+            protocol.writeString(message);
+            protocol.writeFieldEnd();
+        }
+        protocol.writeFieldBegin("type", 2, TType.I32);
+        protocol.writeI32(kind.value);
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
 }
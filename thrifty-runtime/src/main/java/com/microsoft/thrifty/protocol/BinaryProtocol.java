@@ -26,7 +26,6 @@ import okio.ByteString;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.net.ProtocolException;
 
 /**
@@ -53,9 +52,15 @@ public class BinaryProtocol extends Protocol {
     private final long containerLengthLimit;
 
     /**
-     * A shared buffer for writing.
+     * Scratch buffers for writing and reading primitives.  They are kept
+     * separate so that one thread may write while another reads.
      */
-    private final byte[] buffer = new byte[8];
+    private final byte[] writeBuffer = new byte[8];
+    private final byte[] readBuffer = new byte[8];
+
+    private final Utf8Encoder stringEncoder = new Utf8Encoder();
+
+    private StringCache stringCache;
 
     private boolean strictRead;
     private boolean strictWrite;
@@ -74,6 +79,18 @@ public class BinaryProtocol extends Protocol {
         this.containerLengthLimit = containerLengthLimit;
     }
 
+    /**
+     * Decodes strings through the given cache, so that repeated values share
+     * a single instance.
+     *
+     * @param cache the cache to use, or null to decode every string anew.
+     * @return this protocol.
+     */
+    public BinaryProtocol withStringCache(StringCache cache) {
+        stringCache = cache;
+        return this;
+    }
+
     @Override
     public void writeMessageBegin(String name, byte typeId, int seqId) throws IOException {
         if (strictWrite) {
@@ -153,41 +170,41 @@ public class BinaryProtocol extends Protocol {
 
     @Override
     public void writeByte(byte b) throws IOException {
-        buffer[0] = b;
+        writeBuffer[0] = b;
 
-        transport.write(buffer, 0, 1);
+        transport.write(writeBuffer, 0, 1);
     }
 
     @Override
     public void writeI16(short i16) throws IOException {
-        buffer[0] = (byte) ((i16 >> 8) & 0xFF);
-        buffer[1] = (byte) (i16 & 0xFF);
+        writeBuffer[0] = (byte) ((i16 >> 8) & 0xFF);
+        writeBuffer[1] = (byte) (i16 & 0xFF);
 
-        transport.write(buffer, 0, 2);
+        transport.write(writeBuffer, 0, 2);
     }
 
     @Override
     public void writeI32(int i32) throws IOException {
-        buffer[0] = (byte) ((i32 >> 24) & 0xFF);
-        buffer[1] = (byte) ((i32 >> 16) & 0xFF);
-        buffer[2] = (byte) ((i32 >>  8) & 0xFF);
-        buffer[3] = (byte)  (i32        & 0xFF);
+        writeBuffer[0] = (byte) ((i32 >> 24) & 0xFF);
+        writeBuffer[1] = (byte) ((i32 >> 16) & 0xFF);
+        writeBuffer[2] = (byte) ((i32 >>  8) & 0xFF);
+        writeBuffer[3] = (byte)  (i32        & 0xFF);
 
-        transport.write(buffer, 0, 4);
+        transport.write(writeBuffer, 0, 4);
     }
 
     @Override
     public void writeI64(long i64) throws IOException {
-        buffer[0] = (byte) ((i64 >> 56) & 0xFF);
-        buffer[1] = (byte) ((i64 >> 48) & 0xFF);
-        buffer[2] = (byte) ((i64 >> 40) & 0xFF);
-        buffer[3] = (byte) ((i64 >> 32) & 0xFF);
-        buffer[4] = (byte) ((i64 >> 24) & 0xFF);
-        buffer[5] = (byte) ((i64 >> 16) & 0xFF);
-        buffer[6] = (byte) ((i64 >>  8) & 0xFF);
-        buffer[7] = (byte)  (i64        & 0xFF);
+        writeBuffer[0] = (byte) ((i64 >> 56) & 0xFF);
+        writeBuffer[1] = (byte) ((i64 >> 48) & 0xFF);
+        writeBuffer[2] = (byte) ((i64 >> 40) & 0xFF);
+        writeBuffer[3] = (byte) ((i64 >> 32) & 0xFF);
+        writeBuffer[4] = (byte) ((i64 >> 24) & 0xFF);
+        writeBuffer[5] = (byte) ((i64 >> 16) & 0xFF);
+        writeBuffer[6] = (byte) ((i64 >>  8) & 0xFF);
+        writeBuffer[7] = (byte)  (i64        & 0xFF);
 
-        transport.write(buffer, 0, 8);
+        transport.write(writeBuffer, 0, 8);
     }
 
     @Override
@@ -197,19 +214,22 @@ public class BinaryProtocol extends Protocol {
 
     @Override
     public void writeString(String str) throws IOException {
-        try {
-            byte[] bs = str.getBytes("UTF-8");
-            writeI32(bs.length);
-            transport.write(bs);
-        } catch (UnsupportedEncodingException e) {
-            throw new AssertionError(e);
-        }
+        int length = stringEncoder.encode(str, 4);
+
+        // The encoder leaves room for the length, so both go in one write.
+        byte[] buffer = stringEncoder.buffer();
+        buffer[0] = (byte) ((length >>> 24) & 0xFF);
+        buffer[1] = (byte) ((length >>> 16) & 0xFF);
+        buffer[2] = (byte) ((length >>>  8) & 0xFF);
+        buffer[3] = (byte)  (length         & 0xFF);
+
+        transport.write(buffer, 0, 4 + length);
     }
 
     @Override
     public void writeBinary(ByteString buf) throws IOException {
         writeI32(buf.size());
-        transport.write(buf.toByteArray());
+        transport.write(buf);
     }
 
     //////////////////////
@@ -249,7 +269,7 @@ public class BinaryProtocol extends Protocol {
     public FieldMetadata readFieldBegin() throws IOException {
         byte typeId = readByte();
         short fieldId = typeId == TType.STOP ? 0 : readI16();
-        return new FieldMetadata("", typeId, fieldId);
+        return MetadataCache.field(typeId, fieldId);
     }
 
     @Override
@@ -264,7 +284,7 @@ public class BinaryProtocol extends Protocol {
         if (containerLengthLimit != -1 && size > containerLengthLimit) {
             throw new ProtocolException("Container size limit exceeded");
         }
-        return new MapMetadata(keyTypeId, valueTypeId, size);
+        return MetadataCache.map(keyTypeId, valueTypeId, size);
     }
 
     @Override
@@ -278,7 +298,7 @@ public class BinaryProtocol extends Protocol {
         if (containerLengthLimit != -1 && size > containerLengthLimit) {
             throw new ProtocolException("Container size limit exceeded");
         }
-        return new ListMetadata(elementTypeId, size);
+        return MetadataCache.list(elementTypeId, size);
     }
 
     @Override
@@ -292,7 +312,7 @@ public class BinaryProtocol extends Protocol {
         if (containerLengthLimit != -1 && size > containerLengthLimit) {
             throw new ProtocolException("Container size limit exceeded");
         }
-        return new SetMetadata(elementTypeId, size);
+        return MetadataCache.set(elementTypeId, size);
     }
 
     @Override
@@ -306,39 +326,50 @@ public class BinaryProtocol extends Protocol {
 
     @Override
     public byte readByte() throws IOException {
-        readFully(buffer, 1);
-        return buffer[0];
+        if (transport.getBytesRemainingInBuffer() >= 1) {
+            byte result = transport.getBuffer()[transport.getBufferPosition()];
+            transport.consumeBuffer(1);
+            return result;
+        }
+
+        readFully(readBuffer, 1);
+        return readBuffer[0];
     }
 
     @Override
     public short readI16() throws IOException {
-        readFully(buffer, 2);
-        return (short) (((buffer[0] & 0xFF) << 8)
-                       | (buffer[1] & 0xFF));
+        if (transport.getBytesRemainingInBuffer() >= 2) {
+            short result = decodeI16(transport.getBuffer(), transport.getBufferPosition());
+            transport.consumeBuffer(2);
+            return result;
+        }
+
+        readFully(readBuffer, 2);
+        return decodeI16(readBuffer, 0);
     }
 
     @Override
     public int readI32() throws IOException {
-        readFully(buffer, 4);
+        if (transport.getBytesRemainingInBuffer() >= 4) {
+            int result = decodeI32(transport.getBuffer(), transport.getBufferPosition());
+            transport.consumeBuffer(4);
+            return result;
+        }
 
-        return ((buffer[0] & 0xFF) << 24)
-             | ((buffer[1] & 0xFF) << 16)
-             | ((buffer[2] & 0xFF) <<  8)
-             |  (buffer[3] & 0xFF);
+        readFully(readBuffer, 4);
+        return decodeI32(readBuffer, 0);
     }
 
     @Override
     public long readI64() throws IOException {
-        readFully(buffer, 8);
+        if (transport.getBytesRemainingInBuffer() >= 8) {
+            long result = decodeI64(transport.getBuffer(), transport.getBufferPosition());
+            transport.consumeBuffer(8);
+            return result;
+        }
 
-        return ((buffer[0] & 0xFFL) << 56)
-             | ((buffer[1] & 0xFFL) << 48)
-             | ((buffer[2] & 0xFFL) << 40)
-             | ((buffer[3] & 0xFFL) << 32)
-             | ((buffer[4] & 0xFFL) << 24)
-             | ((buffer[5] & 0xFFL) << 16)
-             | ((buffer[6] & 0xFFL) <<  8)
-             |  (buffer[7] & 0xFFL);
+        readFully(readBuffer, 8);
+        return decodeI64(readBuffer, 0);
     }
 
     @Override
@@ -356,21 +387,104 @@ public class BinaryProtocol extends Protocol {
         return readStringWithSize(sizeInBytes);
     }
 
+    /**
+     * Reads a binary value.
+     *
+     * <p>This is not a zero-copy read.  A value held entirely in the
+     * transport's buffer is copied out of it in one bulk copy, since the
+     * buffer may be reused; other values are read with
+     * {@link com.microsoft.thrifty.transport.Transport#readByteString(int)},
+     * which only an okio-backed transport can satisfy by sharing storage.
+     */
     @Override
     public ByteString readBinary() throws IOException {
         int sizeInBytes = readI32();
         if (stringLengthLimit != -1 && sizeInBytes > stringLengthLimit) {
             throw new ProtocolException("Binary size limit exceeded");
         }
-        byte[] data = new byte[sizeInBytes];
-        readFully(data, data.length);
-        return ByteString.of(data);
+        if (sizeInBytes < 0) {
+            throw new ProtocolException("Negative binary size: " + sizeInBytes);
+        }
+        if (sizeInBytes == 0) {
+            return ByteString.EMPTY;
+        }
+
+        if (transport.getBytesRemainingInBuffer() >= sizeInBytes) {
+            ByteString result = ByteString.of(transport.getBuffer(), transport.getBufferPosition(), sizeInBytes);
+            transport.consumeBuffer(sizeInBytes);
+            return result;
+        }
+
+        return transport.readByteString(sizeInBytes);
+    }
+
+    /**
+     * Skips strings and binaries by their length, without decoding them.
+     */
+    @Override
+    public void skip(byte typeCode) throws IOException {
+        if (typeCode != TType.STRING) {
+            super.skip(typeCode);
+            return;
+        }
+
+        int sizeInBytes = readI32();
+        if (sizeInBytes < 0) {
+            throw new ProtocolException("Negative string size: " + sizeInBytes);
+        }
+        transport.skip(sizeInBytes);
     }
 
     private String readStringWithSize(int size) throws IOException {
+        if (size < 0) {
+            throw new ProtocolException("Negative string size: " + size);
+        }
+        if (size == 0) {
+            return "";
+        }
+
+        if (transport.getBytesRemainingInBuffer() >= size) {
+            String result = decodeString(transport.getBuffer(), transport.getBufferPosition(), size);
+            transport.consumeBuffer(size);
+            return result;
+        }
+
         byte[] encoded = new byte[size];
         readFully(encoded, size);
-        return new String(encoded, "UTF-8");
+        return decodeString(encoded, 0, size);
+    }
+
+    private String decodeString(byte[] buffer, int offset, int length) throws IOException {
+        if (stringCache != null) {
+            return stringCache.decode(buffer, offset, length);
+        }
+        return new String(buffer, offset, length, "UTF-8");
+    }
+
+    // Decoding happens before the bytes are consumed, because consuming them
+    // may release the transport's buffer for reuse.
+
+    private static short decodeI16(byte[] buffer, int offset) {
+        return (short) (((buffer[offset] & 0xFF) << 8)
+                       | (buffer[offset + 1] & 0xFF));
+    }
+
+    private static int decodeI32(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+             | ((buffer[offset + 1] & 0xFF) << 16)
+             | ((buffer[offset + 2] & 0xFF) <<  8)
+             |  (buffer[offset + 3] & 0xFF);
+    }
+
+    private static long decodeI64(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFFL) << 56)
+             | ((buffer[offset + 1] & 0xFFL) << 48)
+             | ((buffer[offset + 2] & 0xFFL) << 40)
+             | ((buffer[offset + 3] & 0xFFL) << 32)
+             | ((buffer[offset + 4] & 0xFFL) << 24)
+             | ((buffer[offset + 5] & 0xFFL) << 16)
+             | ((buffer[offset + 6] & 0xFFL) <<  8)
+             |  (buffer[offset + 7] & 0xFFL);
     }
 
     private void readFully(byte[] buffer, int count) throws IOException {
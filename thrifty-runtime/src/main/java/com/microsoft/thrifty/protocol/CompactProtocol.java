@@ -70,6 +70,9 @@ public class CompactProtocol extends Protocol {
     private static final byte TYPE_BITS = 0x07;
     private static final int  TYPE_SHIFT_AMOUNT = 5;
 
+    private static final int MAX_VARINT32_BYTES = 5;
+    private static final int MAX_VARINT64_BYTES = 10;
+
     private static final StructMetadata NO_STRUCT = new StructMetadata("");
     private static final FieldMetadata END_FIELDS = new FieldMetadata("", TType.STOP, (short) 0);
 
@@ -83,7 +86,14 @@ public class CompactProtocol extends Protocol {
     // the `readBool` call.
     private byte booleanFieldType = -1;
 
-    private final byte[] buffer = new byte[16];
+    // Scratch buffers for primitives; reading and writing use separate
+    // buffers so that one thread may write while another reads.
+    private final byte[] writeBuffer = new byte[16];
+    private final byte[] readBuffer = new byte[16];
+
+    private final Utf8Encoder stringEncoder = new Utf8Encoder();
+
+    private StringCache stringCache;
 
     // Keep track of the most-recently-written fields,
     // used for delta-encoding.
@@ -97,6 +107,18 @@ public class CompactProtocol extends Protocol {
         super(transport);
     }
 
+    /**
+     * Decodes strings through the given cache, so that repeated values share
+     * a single instance.
+     *
+     * @param cache the cache to use, or null to decode every string anew.
+     * @return this protocol.
+     */
+    public CompactProtocol withStringCache(StringCache cache) {
+        stringCache = cache;
+        return this;
+    }
+
     @Override
     public void writeMessageBegin(String name, byte typeId, int seqId) throws IOException {
         writeByte(PROTOCOL_ID);
@@ -210,8 +232,8 @@ public class CompactProtocol extends Protocol {
 
     @Override
     public void writeByte(byte b) throws IOException {
-        buffer[0] = b;
-        transport.write(buffer, 0, 1);
+        writeBuffer[0] = b;
+        transport.write(writeBuffer, 0, 1);
     }
 
     @Override
@@ -234,34 +256,40 @@ public class CompactProtocol extends Protocol {
         long bits = Double.doubleToLongBits(dub);
 
         // Doubles get written out in little-endian order
-        buffer[0] = (byte)  (bits         & 0xFFL);
-        buffer[1] = (byte) ((bits >>>  8) & 0xFFL);
-        buffer[2] = (byte) ((bits >>> 16) & 0xFFL);
-        buffer[3] = (byte) ((bits >>> 24) & 0xFFL);
-        buffer[4] = (byte) ((bits >>> 32) & 0xFFL);
-        buffer[5] = (byte) ((bits >>> 40) & 0xFFL);
-        buffer[6] = (byte) ((bits >>> 48) & 0xFFL);
-        buffer[7] = (byte) ((bits >>> 56) & 0xFFL);
+        writeBuffer[0] = (byte)  (bits         & 0xFFL);
+        writeBuffer[1] = (byte) ((bits >>>  8) & 0xFFL);
+        writeBuffer[2] = (byte) ((bits >>> 16) & 0xFFL);
+        writeBuffer[3] = (byte) ((bits >>> 24) & 0xFFL);
+        writeBuffer[4] = (byte) ((bits >>> 32) & 0xFFL);
+        writeBuffer[5] = (byte) ((bits >>> 40) & 0xFFL);
+        writeBuffer[6] = (byte) ((bits >>> 48) & 0xFFL);
+        writeBuffer[7] = (byte) ((bits >>> 56) & 0xFFL);
 
-        transport.write(buffer, 0, 8);
+        transport.write(writeBuffer, 0, 8);
     }
 
     @Override
     public void writeString(String str) throws IOException {
-        try {
-            byte[] bytes = str.getBytes("UTF-8");
-
-            writeVarint32(bytes.length);
-            transport.write(bytes);
-        } catch (UnsupportedEncodingException e) {
-            throw new AssertionError(e);
+        int length = stringEncoder.encode(str, MAX_VARINT32_BYTES);
+
+        // The encoder leaves room for the length, which is written directly
+        // before the string so that both go in one write.
+        byte[] buffer = stringEncoder.buffer();
+        int offset = MAX_VARINT32_BYTES - varint32Size(length);
+        int n = length;
+        for (int i = offset; i < MAX_VARINT32_BYTES - 1; ++i) {
+            buffer[i] = (byte) ((n & 0x7F) | 0x80);
+            n >>>= 7;
         }
+        buffer[MAX_VARINT32_BYTES - 1] = (byte) n;
+
+        transport.write(buffer, offset, MAX_VARINT32_BYTES - offset + length);
     }
 
     @Override
     public void writeBinary(ByteString buf) throws IOException {
         writeVarint32(buf.size());
-        transport.write(buf.toByteArray());
+        transport.write(buf);
     }
 
     private void writeVectorBegin(byte typeId, int size) throws IOException {
@@ -275,13 +303,13 @@ public class CompactProtocol extends Protocol {
     }
 
     private void writeVarint32(int n) throws IOException {
-        for (int i = 0; i < buffer.length; ++i) {
+        for (int i = 0; i < writeBuffer.length; ++i) {
             if ((n & ~0x7F) == 0x00) {
-                buffer[i] = (byte) n;
-                transport.write(buffer, 0, i + 1);
+                writeBuffer[i] = (byte) n;
+                transport.write(writeBuffer, 0, i + 1);
                 return;
             } else {
-                buffer[i] = (byte) ((n & 0x7F) | 0x80);
+                writeBuffer[i] = (byte) ((n & 0x7F) | 0x80);
                 n >>>= 7;
             }
         }
@@ -290,14 +318,23 @@ public class CompactProtocol extends Protocol {
         throw new IllegalArgumentException("Cannot represent " + n + " as a varint in 16 bytes or less");
     }
 
+    private static int varint32Size(int n) {
+        int size = 1;
+        while ((n & ~0x7F) != 0) {
+            n >>>= 7;
+            ++size;
+        }
+        return size;
+    }
+
     private void writeVarint64(long n) throws IOException {
-        for (int i = 0; i < buffer.length; ++i) {
+        for (int i = 0; i < writeBuffer.length; ++i) {
             if ((n & ~0x7FL) == 0x00L) {
-                buffer[i] = (byte) n;
-                transport.write(buffer, 0, i + 1);
+                writeBuffer[i] = (byte) n;
+                transport.write(writeBuffer, 0, i + 1);
                 return;
             } else {
-                buffer[i] = (byte) ((n & 0x7F) | 0x80);
+                writeBuffer[i] = (byte) ((n & 0x7F) | 0x80);
                 n >>>= 7;
             }
         }
@@ -387,7 +424,7 @@ public class CompactProtocol extends Protocol {
 
         lastReadingField = fieldId;
 
-        return new FieldMetadata("", typeId, fieldId);
+        return MetadataCache.field(typeId, fieldId);
     }
 
     @Override
@@ -403,7 +440,7 @@ public class CompactProtocol extends Protocol {
         byte keyType = CompactTypes.compactToTtype((byte) ((keyAndValueTypes >> 4) & 0x0F));
         byte valueType = CompactTypes.compactToTtype((byte) (keyAndValueTypes & 0x0F));
 
-        return new MapMetadata(keyType, valueType, size);
+        return MetadataCache.map(keyType, valueType, size);
     }
 
     @Override
@@ -420,7 +457,7 @@ public class CompactProtocol extends Protocol {
         }
         byte compactType = (byte) (sizeAndType & 0x0F);
         byte ttype = CompactTypes.compactToTtype(compactType);
-        return new ListMetadata(ttype, size);
+        return MetadataCache.list(ttype, size);
     }
 
     @Override
@@ -437,7 +474,7 @@ public class CompactProtocol extends Protocol {
         }
         byte compactType = (byte) (sizeAndType & 0x0F);
         byte ttype = CompactTypes.compactToTtype(compactType);
-        return new SetMetadata(ttype, size);
+        return MetadataCache.set(ttype, size);
     }
 
     @Override
@@ -460,8 +497,14 @@ public class CompactProtocol extends Protocol {
 
     @Override
     public byte readByte() throws IOException {
-        readFully(buffer, 1);
-        return buffer[0];
+        if (transport.getBytesRemainingInBuffer() >= 1) {
+            byte result = transport.getBuffer()[transport.getBufferPosition()];
+            transport.consumeBuffer(1);
+            return result;
+        }
+
+        readFully(readBuffer, 1);
+        return readBuffer[0];
     }
 
     @Override
@@ -481,16 +524,14 @@ public class CompactProtocol extends Protocol {
 
     @Override
     public double readDouble() throws IOException {
-        readFully(buffer, 8);
-
-        long bits =  (buffer[0] & 0xFFL)
-                  | ((buffer[1] & 0xFFL) <<  8)
-                  | ((buffer[2] & 0xFFL) << 16)
-                  | ((buffer[3] & 0xFFL) << 24)
-                  | ((buffer[4] & 0xFFL) << 32)
-                  | ((buffer[5] & 0xFFL) << 40)
-                  | ((buffer[6] & 0xFFL) << 48)
-                  | ((buffer[7] & 0xFFL) << 56);
+        long bits;
+        if (transport.getBytesRemainingInBuffer() >= 8) {
+            bits = decodeLittleEndianI64(transport.getBuffer(), transport.getBufferPosition());
+            transport.consumeBuffer(8);
+        } else {
+            readFully(readBuffer, 8);
+            bits = decodeLittleEndianI64(readBuffer, 0);
+        }
 
         return Double.longBitsToDouble(bits);
     }
@@ -501,53 +542,250 @@ public class CompactProtocol extends Protocol {
         if (length == 0) {
             return "";
         }
+        if (length < 0) {
+            throw new ProtocolException("Negative string size: " + length);
+        }
+
+        if (transport.getBytesRemainingInBuffer() >= length) {
+            String result = decodeString(transport.getBuffer(), transport.getBufferPosition(), length);
+            transport.consumeBuffer(length);
+            return result;
+        }
 
         byte[] bytes = new byte[length];
         readFully(bytes, length);
+        return decodeString(bytes, 0, length);
+    }
+
+    /**
+     * Skips strings and binaries by their length, without decoding them.
+     */
+    @Override
+    public void skip(byte typeCode) throws IOException {
+        if (typeCode != TType.STRING) {
+            super.skip(typeCode);
+            return;
+        }
+
+        int length = readVarint32();
+        if (length < 0) {
+            throw new ProtocolException("Negative string size: " + length);
+        }
+        transport.skip(length);
+    }
+
+    private String decodeString(byte[] buffer, int offset, int length) {
+        if (stringCache != null) {
+            return stringCache.decode(buffer, offset, length);
+        }
 
         try {
-            return new String(bytes, "UTF-8");
+            return new String(buffer, offset, length, "UTF-8");
         } catch (UnsupportedEncodingException e) {
             throw new AssertionError(e);
         }
     }
 
+    /**
+     * Reads a binary value.
+     *
+     * <p>This is not a zero-copy read.  A value held entirely in the
+     * transport's buffer is copied out of it in one bulk copy, since the
+     * buffer may be reused; other values are read with
+     * {@link com.microsoft.thrifty.transport.Transport#readByteString(int)},
+     * which only an okio-backed transport can satisfy by sharing storage.
+     */
     @Override
     public ByteString readBinary() throws IOException {
         int length = readVarint32();
         if (length == 0) {
             return ByteString.EMPTY;
         }
+        if (length < 0) {
+            throw new ProtocolException("Negative binary size: " + length);
+        }
 
-        byte[] bytes = new byte[length];
-        readFully(bytes, length);
-        return ByteString.of(bytes);
+        if (transport.getBytesRemainingInBuffer() >= length) {
+            ByteString result = ByteString.of(transport.getBuffer(), transport.getBufferPosition(), length);
+            transport.consumeBuffer(length);
+            return result;
+        }
+
+        return transport.readByteString(length);
     }
 
     private int readVarint32() throws IOException {
+        if (transport.getBytesRemainingInBuffer() >= MAX_VARINT32_BYTES) {
+            return readBufferedVarint32();
+        }
+
         int result = 0;
-        int shift = 0;
-        while (true) {
+        for (int shift = 0; shift < 7 * MAX_VARINT32_BYTES; shift += 7) {
             byte b = readByte();
             result |= (b & 0x7F) << shift;
-            if ((b & 0x80) != 0x80) {
+            if (b >= 0) {
                 return result;
             }
-            shift += 7;
         }
+        throw new ProtocolException("Malformed varint");
     }
 
     private long readVarint64() throws IOException {
+        if (transport.getBytesRemainingInBuffer() >= MAX_VARINT64_BYTES) {
+            return readBufferedVarint64();
+        }
+
         long result = 0;
-        int shift = 0;
-        while (true) {
+        for (int shift = 0; shift < 7 * MAX_VARINT64_BYTES; shift += 7) {
             byte b = readByte();
             result |= (long) (b & 0x7F) << shift;
-            if ((b & 0x80) != 0x80) {
+            if (b >= 0) {
                 return result;
             }
-            shift += 7;
         }
+        throw new ProtocolException("Malformed varint");
+    }
+
+    /**
+     * Decodes a varint directly from the transport's buffer, which must hold
+     * at least {@link #MAX_VARINT32_BYTES} bytes.
+     *
+     * <p>A byte with its high bit clear - that is, a non-negative byte - ends
+     * the varint.
+     */
+    private int readBufferedVarint32() throws IOException {
+        byte[] buffer = transport.getBuffer();
+        int start = transport.getBufferPosition();
+        int position = start;
+        int b;
+        int result;
+
+        do {
+            b = buffer[position++];
+            result = b & 0x7F;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 7;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 14;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 21;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= b << 28;
+            if (b >= 0) {
+                break;
+            }
+
+            throw new ProtocolException("Malformed varint");
+        } while (false);
+
+        transport.consumeBuffer(position - start);
+        return result;
+    }
+
+    /**
+     * Decodes a varint directly from the transport's buffer, which must hold
+     * at least {@link #MAX_VARINT64_BYTES} bytes.
+     */
+    private long readBufferedVarint64() throws IOException {
+        byte[] buffer = transport.getBuffer();
+        int start = transport.getBufferPosition();
+        int position = start;
+        long b;
+        long result;
+
+        do {
+            b = buffer[position++];
+            result = b & 0x7F;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 7;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 14;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 21;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 28;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 35;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 42;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 49;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= (b & 0x7F) << 56;
+            if (b >= 0) {
+                break;
+            }
+
+            b = buffer[position++];
+            result |= b << 63;
+            if (b >= 0) {
+                break;
+            }
+
+            throw new ProtocolException("Malformed varint");
+        } while (false);
+
+        transport.consumeBuffer(position - start);
+        return result;
+    }
+
+    private static long decodeLittleEndianI64(byte[] buffer, int offset) {
+        return  (buffer[offset] & 0xFFL)
+             | ((buffer[offset + 1] & 0xFFL) <<  8)
+             | ((buffer[offset + 2] & 0xFFL) << 16)
+             | ((buffer[offset + 3] & 0xFFL) << 24)
+             | ((buffer[offset + 4] & 0xFFL) << 32)
+             | ((buffer[offset + 5] & 0xFFL) << 40)
+             | ((buffer[offset + 6] & 0xFFL) << 48)
+             | ((buffer[offset + 7] & 0xFFL) << 56);
     }
 
     private static int zigZagToInt(int n) {
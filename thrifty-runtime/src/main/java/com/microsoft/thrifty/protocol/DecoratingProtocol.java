@@ -247,6 +247,11 @@ public abstract class DecoratingProtocol extends Protocol {
         return concreteProtocol.readBinary();
     }
 
+    @Override
+    public void skip(byte typeCode) throws IOException {
+        concreteProtocol.skip(typeCode);
+    }
+
     @Override
     public void flush() throws IOException {
         concreteProtocol.flush();
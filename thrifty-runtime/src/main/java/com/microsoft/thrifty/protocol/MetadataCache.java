@@ -0,0 +1,90 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+/**
+ * Shared instances of the metadata that binary protocols read, so that
+ * decoding a struct does not allocate a {@link FieldMetadata} per field.
+ *
+ * <p>Metadata objects are immutable, and in the binary and compact
+ * protocols they carry no names, so any two with equal type IDs, field IDs
+ * and sizes are interchangeable.  Each table is direct-mapped: a key maps to
+ * exactly one slot, which holds the most recent instance for a key with
+ * that slot.  Slots are read and written without locks; a racing thread
+ * sees either an older instance, which it checks and discards, or a
+ * complete new one.
+ *
+ * <p>The tables are sized so that the common case - type IDs below 16,
+ * small field IDs and small containers - never collides.
+ */
+final class MetadataCache {
+    private static final FieldMetadata[] FIELDS = new FieldMetadata[128 * 16];
+    private static final ListMetadata[] LISTS = new ListMetadata[64 * 16];
+    private static final SetMetadata[] SETS = new SetMetadata[64 * 16];
+    private static final MapMetadata[] MAPS = new MapMetadata[8 * 16 * 16];
+
+    private MetadataCache() {
+        // no instances
+    }
+
+    static FieldMetadata field(byte typeId, short fieldId) {
+        int index = ((fieldId & 0x7F) << 4) | (typeId & 0x0F);
+        FieldMetadata metadata = FIELDS[index];
+        if (metadata == null || metadata.typeId != typeId || metadata.fieldId != fieldId) {
+            metadata = new FieldMetadata("", typeId, fieldId);
+            FIELDS[index] = metadata;
+        }
+        return metadata;
+    }
+
+    static ListMetadata list(byte elementTypeId, int size) {
+        int index = ((size & 0x3F) << 4) | (elementTypeId & 0x0F);
+        ListMetadata metadata = LISTS[index];
+        if (metadata == null || metadata.elementTypeId != elementTypeId || metadata.size != size) {
+            metadata = new ListMetadata(elementTypeId, size);
+            LISTS[index] = metadata;
+        }
+        return metadata;
+    }
+
+    static SetMetadata set(byte elementTypeId, int size) {
+        int index = ((size & 0x3F) << 4) | (elementTypeId & 0x0F);
+        SetMetadata metadata = SETS[index];
+        if (metadata == null || metadata.elementTypeId != elementTypeId || metadata.size != size) {
+            metadata = new SetMetadata(elementTypeId, size);
+            SETS[index] = metadata;
+        }
+        return metadata;
+    }
+
+    static MapMetadata map(byte keyTypeId, byte valueTypeId, int size) {
+        int index = ((size & 0x07) << 8) | ((keyTypeId & 0x0F) << 4) | (valueTypeId & 0x0F);
+        MapMetadata metadata = MAPS[index];
+        if (metadata == null
+                || metadata.keyTypeId != keyTypeId
+                || metadata.valueTypeId != valueTypeId
+                || metadata.size != size) {
+            metadata = new MapMetadata(keyTypeId, valueTypeId, size);
+            MAPS[index] = metadata;
+        }
+        return metadata;
+    }
+}
@@ -20,11 +20,13 @@
  */
 package com.microsoft.thrifty.protocol;
 
+import com.microsoft.thrifty.TType;
 import com.microsoft.thrifty.transport.Transport;
 import okio.ByteString;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.ProtocolException;
 
 public abstract class Protocol implements Closeable {
     protected final Transport transport;
@@ -120,6 +122,69 @@ public abstract class Protocol implements Closeable {
 
     public abstract ByteString readBinary() throws IOException;
 
+    /**
+     * Reads and discards a value of the given type.
+     *
+     * <p>The default implementation reads the value piece by piece, skipping
+     * the contents of structs and containers recursively.  Protocols that
+     * can advance past a value without decoding it - for example, past a
+     * string whose length is known up front - should override this.
+     *
+     * @param typeCode the {@link TType} of the value to skip.
+     * @throws ProtocolException if {@code typeCode} is not a valid type.
+     */
+    public void skip(byte typeCode) throws IOException {
+        switch (typeCode) {
+            case TType.BOOL: readBool(); break;
+            case TType.BYTE: readByte(); break;
+            case TType.I16: readI16(); break;
+            case TType.I32: readI32(); break;
+            case TType.I64: readI64(); break;
+            case TType.DOUBLE: readDouble(); break;
+            case TType.STRING: readString(); break;
+            case TType.STRUCT:
+                readStructBegin();
+                while (true) {
+                    FieldMetadata fieldMetadata = readFieldBegin();
+                    if (fieldMetadata.typeId == TType.STOP) {
+                        break;
+                    }
+                    skip(fieldMetadata.typeId);
+                    readFieldEnd();
+                }
+                readStructEnd();
+                break;
+
+            case TType.LIST:
+                ListMetadata listMetadata = readListBegin();
+                for (int i = 0; i < listMetadata.size; ++i) {
+                    skip(listMetadata.elementTypeId);
+                }
+                readListEnd();
+                break;
+
+            case TType.SET:
+                SetMetadata setMetadata = readSetBegin();
+                for (int i = 0; i < setMetadata.size; ++i) {
+                    skip(setMetadata.elementTypeId);
+                }
+                readSetEnd();
+                break;
+
+            case TType.MAP:
+                MapMetadata mapMetadata = readMapBegin();
+                for (int i = 0; i < mapMetadata.size; ++i) {
+                    skip(mapMetadata.keyTypeId);
+                    skip(mapMetadata.valueTypeId);
+                }
+                readMapEnd();
+                break;
+
+            default:
+                throw new ProtocolException("Unrecognized TType value: " + typeCode);
+        }
+    }
+
     //////////////
 
     public void flush() throws IOException {
@@ -0,0 +1,52 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+import com.microsoft.thrifty.transport.Transport;
+
+/**
+ * Creates the {@link Protocol} through which messages are read from, or
+ * written to, a newly-connected transport.
+ *
+ * <p>Servers create protocols once per connection and reuse them for every
+ * request on it; client pools create one for each client they connect.
+ */
+public interface ProtocolFactory {
+    /**
+     * Creates a {@link BinaryProtocol}, the default wherever a factory is
+     * accepted.
+     */
+    ProtocolFactory BINARY = new ProtocolFactory() {
+        @Override
+        public Protocol createProtocol(Transport transport) {
+            return new BinaryProtocol(transport);
+        }
+    };
+
+    /**
+     * Creates a protocol that encodes to and decodes from the given
+     * transport.
+     *
+     * @param transport the transport to wrap.
+     * @return a new protocol.
+     */
+    Protocol createProtocol(Transport transport);
+}
@@ -0,0 +1,301 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+import com.microsoft.thrifty.TType;
+import okio.ByteString;
+
+/**
+ * Computes the exact number of bytes that values occupy when written by a
+ * particular protocol, without encoding them.
+ *
+ * <p>Generated adapters implement {@link com.microsoft.thrifty.SizedAdapter#serializedSize}
+ * by making the same sequence of calls against a sizer that their
+ * {@code write} method makes against a {@link Protocol}; the sum of the
+ * results is the size of the encoded struct.  Knowing this in advance lets
+ * callers allocate exactly-sized buffers, write a frame's length before its
+ * payload, or reject oversized messages before encoding them.
+ *
+ * <p>Sizers may track state between calls, just as protocols do, and so
+ * instances of this class are <em>not</em> threadsafe.  They are cheap, and
+ * may be created per computation.
+ */
+public abstract class ProtocolSizer {
+
+    /**
+     * Returns a sizer for {@link BinaryProtocol}.
+     */
+    public static ProtocolSizer binary() {
+        return new BinarySizer();
+    }
+
+    /**
+     * Returns a sizer for {@link CompactProtocol}.
+     */
+    public static ProtocolSizer compact() {
+        return new CompactSizer();
+    }
+
+    ProtocolSizer() {
+    }
+
+    /**
+     * Marks the beginning of a struct; takes no space on the wire.
+     */
+    public void structBegin() {
+    }
+
+    /**
+     * Marks the end of a struct; takes no space on the wire.
+     */
+    public void structEnd() {
+    }
+
+    public abstract int fieldBegin(int fieldId, byte typeId);
+
+    public abstract int fieldStop();
+
+    public abstract int listBegin(byte elementTypeId, int listSize);
+
+    public abstract int setBegin(byte elementTypeId, int setSize);
+
+    public abstract int mapBegin(byte keyTypeId, byte valueTypeId, int mapSize);
+
+    public abstract int boolValue(boolean b);
+
+    public abstract int byteValue(byte b);
+
+    public abstract int i16(short i16);
+
+    public abstract int i32(int i32);
+
+    public abstract int i64(long i64);
+
+    public abstract int doubleValue(double dub);
+
+    public abstract int string(String str);
+
+    public abstract int binary(ByteString buf);
+
+    private static final class BinarySizer extends ProtocolSizer {
+        @Override
+        public int fieldBegin(int fieldId, byte typeId) {
+            return 3;
+        }
+
+        @Override
+        public int fieldStop() {
+            return 1;
+        }
+
+        @Override
+        public int listBegin(byte elementTypeId, int listSize) {
+            return 5;
+        }
+
+        @Override
+        public int setBegin(byte elementTypeId, int setSize) {
+            return 5;
+        }
+
+        @Override
+        public int mapBegin(byte keyTypeId, byte valueTypeId, int mapSize) {
+            return 6;
+        }
+
+        @Override
+        public int boolValue(boolean b) {
+            return 1;
+        }
+
+        @Override
+        public int byteValue(byte b) {
+            return 1;
+        }
+
+        @Override
+        public int i16(short i16) {
+            return 2;
+        }
+
+        @Override
+        public int i32(int i32) {
+            return 4;
+        }
+
+        @Override
+        public int i64(long i64) {
+            return 8;
+        }
+
+        @Override
+        public int doubleValue(double dub) {
+            return 8;
+        }
+
+        @Override
+        public int string(String str) {
+            return 4 + Utf8Encoder.encodedLength(str);
+        }
+
+        @Override
+        public int binary(ByteString buf) {
+            return 4 + buf.size();
+        }
+    }
+
+    /**
+     * Mirrors the stateful parts of {@link CompactProtocol}: field IDs are
+     * delta-encoded relative to the previous field in the same struct, and
+     * boolean field values are folded into their field headers.
+     */
+    private static final class CompactSizer extends ProtocolSizer {
+        private short[] fieldStack = new short[16];
+        private int top = -1;
+        private short lastField;
+        private int booleanFieldId = -1;
+
+        @Override
+        public void structBegin() {
+            if (top + 1 == fieldStack.length) {
+                short[] biggerStack = new short[fieldStack.length << 1];
+                System.arraycopy(fieldStack, 0, biggerStack, 0, fieldStack.length);
+                fieldStack = biggerStack;
+            }
+            fieldStack[++top] = lastField;
+            lastField = 0;
+        }
+
+        @Override
+        public void structEnd() {
+            lastField = fieldStack[top--];
+        }
+
+        @Override
+        public int fieldBegin(int fieldId, byte typeId) {
+            if (typeId == TType.BOOL) {
+                // Counted along with the value, in boolValue().
+                booleanFieldId = fieldId;
+                return 0;
+            }
+            return fieldHeader(fieldId);
+        }
+
+        private int fieldHeader(int fieldId) {
+            int size;
+            if (fieldId > lastField && fieldId - lastField <= 15) {
+                size = 1;
+            } else {
+                size = 1 + i16((short) fieldId);
+            }
+            lastField = (short) fieldId;
+            return size;
+        }
+
+        @Override
+        public int fieldStop() {
+            return 1;
+        }
+
+        @Override
+        public int listBegin(byte elementTypeId, int listSize) {
+            return vectorBegin(listSize);
+        }
+
+        @Override
+        public int setBegin(byte elementTypeId, int setSize) {
+            return vectorBegin(setSize);
+        }
+
+        private static int vectorBegin(int size) {
+            return size <= 14 ? 1 : 1 + varint32(size);
+        }
+
+        @Override
+        public int mapBegin(byte keyTypeId, byte valueTypeId, int mapSize) {
+            return mapSize == 0 ? 1 : varint32(mapSize) + 1;
+        }
+
+        @Override
+        public int boolValue(boolean b) {
+            if (booleanFieldId != -1) {
+                int size = fieldHeader(booleanFieldId);
+                booleanFieldId = -1;
+                return size;
+            }
+            return 1;
+        }
+
+        @Override
+        public int byteValue(byte b) {
+            return 1;
+        }
+
+        @Override
+        public int i16(short i16) {
+            return varint32((i16 << 1) ^ (i16 >> 31));
+        }
+
+        @Override
+        public int i32(int i32) {
+            return varint32((i32 << 1) ^ (i32 >> 31));
+        }
+
+        @Override
+        public int i64(long i64) {
+            return varint64((i64 << 1) ^ (i64 >> 63));
+        }
+
+        @Override
+        public int doubleValue(double dub) {
+            return 8;
+        }
+
+        @Override
+        public int string(String str) {
+            int length = Utf8Encoder.encodedLength(str);
+            return varint32(length) + length;
+        }
+
+        @Override
+        public int binary(ByteString buf) {
+            return varint32(buf.size()) + buf.size();
+        }
+
+        private static int varint32(int n) {
+            int size = 1;
+            while ((n & ~0x7F) != 0) {
+                n >>>= 7;
+                ++size;
+            }
+            return size;
+        }
+
+        private static int varint64(long n) {
+            int size = 1;
+            while ((n & ~0x7FL) != 0) {
+                n >>>= 7;
+                ++size;
+            }
+            return size;
+        }
+    }
+}
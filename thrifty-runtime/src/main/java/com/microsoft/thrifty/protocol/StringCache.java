@@ -0,0 +1,138 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A bounded cache of decoded strings, keyed on their UTF-8 encoding, that
+ * lets protocols return an existing {@link String} when a value repeats.
+ *
+ * <p>Payloads often repeat a small vocabulary of strings - tags, hostnames,
+ * map keys - and decoding each occurrence into a new {@code String} costs
+ * both allocation and, for long-lived objects, retained heap.  With a cache,
+ * every occurrence of a cached value shares one instance.
+ *
+ * <p>The cache is direct-mapped: each encoding hashes to exactly one slot,
+ * and a newly-decoded string replaces whatever occupied its slot.  Lookups
+ * take constant time and never lock, so one cache may be shared by
+ * protocols on many threads.  Strings whose encodings are longer than the
+ * configured maximum are never cached.
+ */
+public final class StringCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_ENTRY_LENGTH = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Entry[] entries;
+    private final int mask;
+    private final int maxEntryLength;
+
+    public StringCache() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_ENTRY_LENGTH);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param capacity the number of strings the cache can hold; rounded up to
+     *                 a power of two.
+     * @param maxEntryLength the length, in bytes, of the longest UTF-8
+     *                       encoding that will be cached.
+     */
+    public StringCache(int capacity, int maxEntryLength) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30: " + capacity);
+        }
+        if (maxEntryLength < 0) {
+            throw new IllegalArgumentException("maxEntryLength cannot be negative: " + maxEntryLength);
+        }
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+
+        this.entries = new Entry[size];
+        this.mask = size - 1;
+        this.maxEntryLength = maxEntryLength;
+    }
+
+    /**
+     * Decodes the given UTF-8 bytes, returning a cached string if there is
+     * one.
+     */
+    String decode(byte[] buffer, int offset, int length) {
+        if (length > maxEntryLength) {
+            return new String(buffer, offset, length, UTF_8);
+        }
+
+        int hash = hash(buffer, offset, length);
+        int index = hash & mask;
+
+        // Entries are immutable, so a racy read sees either null or a
+        // complete entry.
+        Entry entry = entries[index];
+        if (entry != null && entry.hash == hash && entry.matches(buffer, offset, length)) {
+            return entry.value;
+        }
+
+        String value = new String(buffer, offset, length, UTF_8);
+        entries[index] = new Entry(hash, Arrays.copyOfRange(buffer, offset, offset + length), value);
+        return value;
+    }
+
+    private static int hash(byte[] buffer, int offset, int length) {
+        int hash = length;
+        for (int i = offset, end = offset + length; i < end; ++i) {
+            hash = 31 * hash + buffer[i];
+        }
+
+        // Spread high bits downward, since only the low bits pick a slot.
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+        final int hash;
+        final byte[] encoded;
+        final String value;
+
+        Entry(int hash, byte[] encoded, String value) {
+            this.hash = hash;
+            this.encoded = encoded;
+            this.value = value;
+        }
+
+        boolean matches(byte[] buffer, int offset, int length) {
+            if (encoded.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (encoded[i] != buffer[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
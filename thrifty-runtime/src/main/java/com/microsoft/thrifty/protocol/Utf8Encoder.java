@@ -0,0 +1,147 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+/**
+ * Encodes strings as UTF-8 into a reusable buffer, so that protocols can
+ * write them without allocating.
+ *
+ * <p>Encoding matches {@link String#getBytes(String) String.getBytes("UTF-8")},
+ * including the substitution of {@code '?'} for unpaired surrogates.
+ *
+ * <p>Instances of this class are <em>not</em> threadsafe.
+ */
+final class Utf8Encoder {
+    /**
+     * A UTF-16 char encodes to at most three bytes; a surrogate pair, which
+     * is two chars, encodes to four.
+     */
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    /**
+     * Buffers larger than this are not kept between calls, so that a single
+     * large string does not pin memory for the life of the protocol.
+     */
+    private static final int MAX_RETAINED_SIZE = 8192;
+
+    private byte[] retained = new byte[256];
+    private byte[] buffer = retained;
+
+    /**
+     * Encodes the given string, leaving {@code prefixSize} bytes free at the
+     * beginning of {@link #buffer()} for a length prefix.
+     *
+     * @param str the string to encode.
+     * @param prefixSize the number of bytes to leave free before the string.
+     * @return the number of bytes the string encoded to.
+     */
+    int encode(String str, int prefixSize) {
+        long worstCase = prefixSize + (long) MAX_BYTES_PER_CHAR * str.length();
+        if (worstCase <= retained.length) {
+            buffer = retained;
+        } else if (worstCase <= MAX_RETAINED_SIZE) {
+            retained = new byte[(int) Math.min(Math.max(worstCase, 2L * retained.length), MAX_RETAINED_SIZE)];
+            buffer = retained;
+        } else {
+            buffer = new byte[prefixSize + encodedLength(str)];
+        }
+
+        return encode(str, buffer, prefixSize);
+    }
+
+    /**
+     * Returns the buffer holding the most recently encoded string.
+     */
+    byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes that the given string encodes to.
+     */
+    static int encodedLength(String str) {
+        int length = str.length();
+        int result = length;
+        for (int i = 0; i < length; ++i) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+
+            if (c < 0x800) {
+                result += 1;
+            } else if (!Character.isSurrogate(c)) {
+                result += 2;
+            } else if (isSurrogatePair(str, i)) {
+                // Four bytes for two chars
+                result += 2;
+                ++i;
+            }
+            // Otherwise, an unpaired surrogate is encoded as a single '?'.
+        }
+        return result;
+    }
+
+    private static int encode(String str, byte[] buffer, int offset) {
+        int length = str.length();
+        int position = offset;
+        int i = 0;
+
+        // ASCII is by far the common case, and needs no transformation.
+        for (; i < length; ++i) {
+            char c = str.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            buffer[position++] = (byte) c;
+        }
+
+        for (; i < length; ++i) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xC0 | (c >>> 6));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                buffer[position++] = (byte) (0xE0 | (c >>> 12));
+                buffer[position++] = (byte) (0x80 | ((c >>> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            } else if (isSurrogatePair(str, i)) {
+                int codePoint = Character.toCodePoint(c, str.charAt(++i));
+                buffer[position++] = (byte) (0xF0 | (codePoint >>> 18));
+                buffer[position++] = (byte) (0x80 | ((codePoint >>> 12) & 0x3F));
+                buffer[position++] = (byte) (0x80 | ((codePoint >>> 6) & 0x3F));
+                buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[position++] = '?';
+            }
+        }
+
+        return position - offset;
+    }
+
+    private static boolean isSurrogatePair(String str, int index) {
+        return Character.isHighSurrogate(str.charAt(index))
+                && index + 1 < str.length()
+                && Character.isLowSurrogate(str.charAt(index + 1));
+    }
+}
@@ -22,6 +22,7 @@ package com.microsoft.thrifty.service;
 
 import com.microsoft.thrifty.Struct;
 import com.microsoft.thrifty.ThriftException;
+import com.microsoft.thrifty.protocol.MessageMetadata;
 import com.microsoft.thrifty.protocol.Protocol;
 
 import java.io.Closeable;
@@ -30,10 +31,18 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Implements a basic service client that executes methods asynchronously.
@@ -44,6 +53,20 @@ import java.util.concurrent.RejectedExecutionException;
  * at the transport level.  If your backend requires framing, be sure to
  * configure your {@link Protocol} and {@link com.microsoft.thrifty.transport.Transport}
  * objects appropriately.
+ *
+ * <p>By default, calls are strictly sequential: each is sent, and its response
+ * read, before the next is sent.  When {@link AsyncClientConfig#maxInFlight()}
+ * is greater than one, calls are instead <em>pipelined</em> - a writer thread
+ * sends them back-to-back, up to that many at a time, while a reader thread
+ * matches responses to calls by sequence ID.  Either way, callbacks are
+ * invoked in the order that calls were enqueued - unless
+ * {@link AsyncClientConfig#outOfOrderResponses()} allows the server to
+ * respond to pipelined calls in any order, in which case they are invoked
+ * as calls complete.
+ *
+ * <p>Each call may be given a deadline, and may be cancelled, through the
+ * {@link CallHandle} returned when it is made.  Calls that are cancelled or
+ * expire while queued are never sent.
  */
 public class AsyncClientBase extends ClientBase implements Closeable {
     /**
@@ -75,29 +98,104 @@ public class AsyncClientBase extends ClientBase implements Closeable {
     }
 
     /**
-     * A single-thread executor on which to invoke method callbacks.
+     * The executor on which to invoke method callbacks.
      *
-     * <p>I expect that we'll revisit this design choice; it guarantees
-     * that method responses won't race each other, but arguably that's
-     * a higher-level concern, and this does feel a bit heavy-handed.
+     * <p>Unless configured otherwise, this is a single-thread executor
+     * owned by this client; that guarantees that method responses won't
+     * race each other.  See {@link AsyncClientConfig.Builder#callbackExecutor(Executor)}
+     * for the alternatives.
+     */
+    private final Executor callbackExecutor;
+
+    /**
+     * The callback executor, if it was created by (and so must be shut
+     * down by) this client; otherwise null.
+     */
+    private final ExecutorService ownedCallbackExecutor;
+
+    /**
+     * A queue holding RPC calls awaiting execution; unbounded unless
+     * configured otherwise.
      */
-    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+    private final BlockingQueue<MethodCall<?>> pendingCalls;
+
+    private final AsyncClientConfig.OverflowPolicy overflowPolicy;
+    private final CallQueueMetrics queueMetrics = new CallQueueMetrics();
+    private final long callTimeoutNanos;
+    private final boolean outOfOrderResponses;
 
     /**
-     * An unbounded queue holding RPC calls awaiting execution.
+     * Calls that have been sent, but whose responses have not yet been read,
+     * in the order in which they were sent.  Only used when pipelining.
      */
-    private final BlockingQueue<MethodCall<?>> pendingCalls = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<InFlightCall> inFlightCalls = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Permits for sending calls; limits the number of calls in flight.
+     */
+    private final Semaphore sendPermits;
+
+    /**
+     * Permits for reading responses; one is released for each call sent, so
+     * that the reader never blocks on the network when nothing is expected.
+     */
+    private final Semaphore responsesDue = new Semaphore(0);
 
     private final Listener listener;
-    private final WorkerThread workerThread;
+    private final IoLoop workerLoop;
+    private final IoLoop readerLoop;
 
     protected AsyncClientBase(Protocol protocol, Listener listener) {
+        this(protocol, listener, AsyncClientConfig.DEFAULT);
+    }
+
+    protected AsyncClientBase(Protocol protocol, Listener listener, AsyncClientConfig config) {
         super(protocol);
+        if (config == null) {
+            throw new NullPointerException("config");
+        }
+
         this.listener = listener;
-        this.workerThread = new WorkerThread();
+        this.sendPermits = new Semaphore(config.maxInFlight());
+        this.pendingCalls = new LinkedBlockingQueue<>(config.maxPendingCalls());
+        this.overflowPolicy = config.overflowPolicy();
+        this.callTimeoutNanos = config.callTimeout(TimeUnit.NANOSECONDS);
+        this.outOfOrderResponses = config.outOfOrderResponses();
+
+        Executor executor = config.callbackExecutor();
+        if (executor == null) {
+            this.ownedCallbackExecutor = Executors.newSingleThreadExecutor();
+            this.callbackExecutor = ownedCallbackExecutor;
+        } else if (config.orderedCallbacks() && executor != AsyncClientConfig.directExecutor()) {
+            this.ownedCallbackExecutor = null;
+            this.callbackExecutor = new SerialExecutor(executor);
+        } else {
+            this.ownedCallbackExecutor = null;
+            this.callbackExecutor = executor;
+        }
 
-        workerThread.setDaemon(true);
-        workerThread.start();
+        if (config.maxInFlight() > 1) {
+            this.workerLoop = new WriterLoop();
+            this.readerLoop = new ReaderLoop();
+        } else {
+            this.workerLoop = new WorkerLoop();
+            this.readerLoop = null;
+        }
+
+        start(workerLoop, config.ioExecutor());
+        if (readerLoop != null) {
+            start(readerLoop, config.ioExecutor());
+        }
+    }
+
+    private static void start(IoLoop loop, Executor ioExecutor) {
+        if (ioExecutor != null) {
+            ioExecutor.execute(loop);
+        } else {
+            Thread thread = new Thread(loop);
+            thread.setDaemon(true);
+            thread.start();
+        }
     }
 
     /**
@@ -105,16 +203,79 @@ public class AsyncClientBase extends ClientBase implements Closeable {
      * be sent to the server.
      *
      * @param methodCall the remote method call to be invoked
+     * @return a handle through which the call may be cancelled.
      */
-    protected void enqueue(MethodCall<?> methodCall) {
+    protected CallHandle enqueue(MethodCall<?> methodCall) {
         if (!running.get()) {
             throw new IllegalStateException("Cannot write to a closed service client");
         }
 
-        if (!pendingCalls.offer(methodCall)) {
-            // This should never happen with an unbounded queue
-            throw new IllegalStateException("Call queue is full");
+        methodCall.client = this;
+        methodCall.enqueuedAtNanos = System.nanoTime();
+        if (methodCall.isCancelled()) {
+            dispatchFailure(methodCall, new CancellationException());
+            return methodCall;
         }
+
+        if (methodCall.timeoutNanos < 0 && callTimeoutNanos > 0) {
+            methodCall.timeoutNanos = callTimeoutNanos;
+        }
+        if (methodCall.timeoutNanos >= 0) {
+            scheduleDeadline(methodCall);
+        }
+
+        queueMetrics.onEnqueued();
+
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    pendingCalls.put(methodCall);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    queueMetrics.onRejected();
+                    fail(methodCall, new RejectedExecutionException("Interrupted while waiting for queue space"));
+                    return methodCall;
+                }
+                break;
+
+            case DROP_OLDEST:
+                while (!pendingCalls.offer(methodCall)) {
+                    MethodCall<?> oldest = pendingCalls.poll();
+                    if (oldest != null) {
+                        queueMetrics.onDropped();
+                        fail(oldest, new RejectedExecutionException("Call dropped from a full call queue"));
+                    }
+                }
+                break;
+
+            case FAIL:
+                if (!pendingCalls.offer(methodCall)) {
+                    queueMetrics.onRejected();
+                    fail(methodCall, new RejectedExecutionException("Call queue is full"));
+                    return methodCall;
+                }
+                break;
+
+            default:
+                throw new AssertionError("Unexpected overflow policy: " + overflowPolicy);
+        }
+
+        queueMetrics.onAccepted();
+
+        if (!running.get()) {
+            // We raced with close(), which may already have drained the queue.
+            failPendingCalls();
+        }
+        return methodCall;
+    }
+
+    /**
+     * Statistics describing the queue of calls waiting to be sent.
+     *
+     * @return this client's call-queue metrics.
+     */
+    public CallQueueMetrics callQueueMetrics() {
+        return queueMetrics;
     }
 
     @Override
@@ -127,13 +288,54 @@ public class AsyncClientBase extends ClientBase implements Closeable {
             return;
         }
 
-        workerThread.interrupt();
+        workerLoop.interrupt();
+        if (readerLoop != null) {
+            readerLoop.interrupt();
+        }
 
         closeProtocol();
 
+        // Calls that were sent may have been processed by the server; report
+        // the error that interrupted them if we have one.
+        Throwable inFlightError = error != null ? error : new CancellationException();
+        InFlightCall inFlight;
+        while ((inFlight = inFlightCalls.poll()) != null) {
+            try {
+                fail(inFlight.call, inFlightError);
+            } catch (Exception ignored) {
+                // nope
+            }
+        }
+
+        failPendingCalls();
+
+        dispatch(new Runnable() {
+            @Override
+            public void run() {
+                if (error != null) {
+                    listener.onError(error);
+                } else {
+                    listener.onTransportClosed();
+                }
+            }
+        });
+
+        if (ownedCallbackExecutor != null) {
+            try {
+                // Shut down, but let queued tasks finish.
+                // Don't terminate!
+                ownedCallbackExecutor.shutdown();
+            } catch (Exception ignored) {
+                // nope
+            }
+        }
+    }
+
+    private void failPendingCalls() {
         if (!pendingCalls.isEmpty()) {
             List<MethodCall<?>> incompleteCalls = new ArrayList<>();
             pendingCalls.drainTo(incompleteCalls);
+            queueMetrics.onDrained(incompleteCalls.size());
             CancellationException e = new CancellationException();
             for (MethodCall<?> call : incompleteCalls) {
                 try {
@@ -143,50 +345,148 @@ public class AsyncClientBase extends ClientBase implements Closeable {
                 }
             }
         }
+    }
 
-        callbackExecutor.execute(new Runnable() {
+    /**
+     * Arranges for the given call to be failed if it has not completed by
+     * its deadline.
+     */
+    void scheduleDeadline(final MethodCall<?> call) {
+        ScheduledFuture<?> previous = call.deadlineTask;
+        if (previous != null) {
+            previous.cancel(false);
+        }
+
+        long delay = call.timeoutNanos - (System.nanoTime() - call.enqueuedAtNanos);
+        ScheduledFuture<?> task = DeadlineTimer.INSTANCE.schedule(new Runnable() {
             @Override
             public void run() {
-                if (error != null) {
-                    listener.onError(error);
-                } else {
-                    listener.onTransportClosed();
+                // The deadline may have been moved since this was scheduled.
+                if (call.isExpired(System.nanoTime())) {
+                    expire(call);
                 }
             }
-        });
+        }, delay, TimeUnit.NANOSECONDS);
 
-        try {
-            // Shut down, but let queued tasks finish.
-            // Don't terminate!
-            callbackExecutor.shutdown();
-        } catch (Exception ignored) {
-            // nope
+        call.deadlineTask = task;
+        if (call.isDone()) {
+            // Finished before we could record the task, so it wasn't cancelled.
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Cancels the given call, failing it with a {@link CancellationException}.
+     *
+     * @return true if the call was cancelled, false if it was already done.
+     */
+    boolean cancel(MethodCall<?> call) {
+        if (!call.finish(MethodCall.CANCELLED)) {
+            return false;
+        }
+        removePendingCall(call);
+        dispatchFailure(call, new CancellationException());
+        return true;
+    }
+
+    private void expire(MethodCall<?> call) {
+        if (call.finish(MethodCall.EXPIRED)) {
+            removePendingCall(call);
+            dispatchFailure(call, new TimeoutException("Call timed out"));
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private class WorkerThread extends Thread {
+    private void removePendingCall(MethodCall<?> call) {
+        if (pendingCalls.remove(call)) {
+            queueMetrics.onDrained(1);
+        }
+    }
+
+    /**
+     * Checks, just before sending, that the given call is still wanted.
+     *
+     * @return false if the call was cancelled, or has expired, while queued.
+     */
+    private boolean isStillWanted(MethodCall<?> call) {
+        if (call.isDone()) {
+            return false;
+        }
+        if (call.isExpired(System.nanoTime())) {
+            expire(call);
+            return false;
+        }
+        return true;
+    }
+
+    private MethodCall<?> takePendingCall() throws InterruptedException {
+        MethodCall<?> call = pendingCalls.take();
+        queueMetrics.onDequeued(System.nanoTime() - call.enqueuedAtNanos);
+        return call;
+    }
+
+    /**
+     * Base class for the loops that perform network I/O; runs
+     * {@link #runOnce()} until the client is closed or an error occurs,
+     * then closes the client.
+     *
+     * <p>The loop may run on a thread it does not own, so it takes care to
+     * interrupt that thread only while the loop is running on it.
+     */
+    private abstract class IoLoop implements Runnable {
+        private Thread thread;
+        private boolean interrupted;
+
         @Override
         public void run() {
+            synchronized (this) {
+                if (interrupted) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+
             Throwable error = null;
-            while (running.get()) {
+            try {
+                while (running.get()) {
+                    try {
+                        runOnce();
+                    } catch (Throwable e) {
+                        error = e;
+                        break;
+                    }
+                }
+
                 try {
-                    invokeRequest();
-                } catch (Throwable e) {
-                    error = e;
-                    break;
+                    close(error);
+                } catch (Throwable ignored) {
+                    // nope
+                }
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // Don't leak an interrupt to the next user of this thread.
+                    Thread.interrupted();
                 }
             }
+        }
 
-            try {
-                close(error);
-            } catch (Throwable ignored) {
-                // nope
+        synchronized void interrupt() {
+            interrupted = true;
+            if (thread != null) {
+                thread.interrupt();
             }
         }
 
-        private void invokeRequest() throws ThriftException, IOException, InterruptedException {
-            MethodCall<?> call = pendingCalls.take();
+        abstract void runOnce() throws Exception;
+    }
+
+    /**
+     * Sends each call and reads its response before sending the next.
+     */
+    private class WorkerLoop extends IoLoop {
+        @Override
+        void runOnce() throws Exception {
+            MethodCall<?> call = takePendingCall();
             if (!running.get()) {
                 if (call != null) {
                     fail(call, new CancellationException());
@@ -194,65 +494,232 @@ public class AsyncClientBase extends ClientBase implements Closeable {
                 return;
             }
 
-            if (call == null) {
+            if (call == null || !isStillWanted(call)) {
+                return;
+            }
+
+            invokeAndDeliver(call, null);
+        }
+    }
+
+    /**
+     * Sends calls as quickly as permitted by the in-flight limit, leaving
+     * the responses to the {@link ReaderLoop}.
+     */
+    private class WriterLoop extends IoLoop {
+        @Override
+        void runOnce() throws Exception {
+            MethodCall<?> call = takePendingCall();
+            if (!running.get()) {
+                fail(call, new CancellationException());
+                return;
+            }
+
+            if (!isStillWanted(call)) {
+                return;
+            }
+
+            if (call.callTypeId == TMessageType.ONEWAY) {
+                try {
+                    sendRequest(call, nextSeqId());
+                } catch (IOException | RuntimeException e) {
+                    fail(call, e);
+                    throw e;
+                }
+                deliver(call, null, null);
                 return;
             }
 
-            Object result = null;
-            Exception error = null;
             try {
-                result = AsyncClientBase.this.invokeRequest(call);
-            } catch (IOException | RuntimeException e) {
-                fail(call, e);
+                sendPermits.acquire();
+            } catch (InterruptedException e) {
+                fail(call, new CancellationException());
                 throw e;
-            } catch (ServerException e) {
-                error = e.thriftException;
-            } catch (Exception e) {
-                if (e instanceof Struct) {
-                    error = e;
-                } else {
-                    // invokeRequest should only throw one of the caught Exception types or
-                    // an Exception extending Struct from MethodCall
-                    throw new AssertionError("Unexpected exception", e);
-                }
             }
 
+            if (!isStillWanted(call)) {
+                // It may have been a long wait.
+                sendPermits.release();
+                return;
+            }
+
+            // The call must be registered before it is sent, lest the
+            // response arrive first.
+            InFlightCall inFlight = new InFlightCall(nextSeqId(), call);
+            inFlightCalls.add(inFlight);
             try {
-                if (error != null) {
-                    fail(call, error);
-                } else {
-                    complete(call, result);
+                sendRequest(call, inFlight.seqId);
+            } catch (IOException | RuntimeException e) {
+                if (inFlightCalls.remove(inFlight)) {
+                    fail(call, e);
                 }
-            } catch (RejectedExecutionException e) {
-                // The client has been closed out from underneath; as there will
-                // be no further use for this thread, no harm in running it
-                // synchronously.
-                if (error != null) {
-                    call.callback.onError(error);
-                } else {
-                    //noinspection RedundantCast
-                    ((MethodCall) call).callback.onSuccess(result);
+                throw e;
+            }
+            responsesDue.release();
+        }
+    }
+
+    /**
+     * Reads responses to pipelined calls, in the order the calls were sent
+     * or, if the server may respond out of order, in any order.
+     */
+    private class ReaderLoop extends IoLoop {
+        @Override
+        void runOnce() throws Exception {
+            responsesDue.acquire();
+
+            MessageMetadata metadata = readResponseBegin();
+            InFlightCall inFlight = outOfOrderResponses
+                    ? findInFlight(metadata.seqId)
+                    : inFlightCalls.peek();
+            if (inFlight == null) {
+                if (outOfOrderResponses && running.get()) {
+                    throw new ThriftException(
+                            ThriftException.Kind.BAD_SEQUENCE_ID,
+                            "Unrecognized sequence ID");
+                }
+                // Closed while we were reading; the call has already been failed.
+                throw new CancellationException();
+            }
+
+            if (metadata.seqId != inFlight.seqId) {
+                throw new ThriftException(
+                        ThriftException.Kind.BAD_SEQUENCE_ID,
+                        findInFlight(metadata.seqId) != null ? "Out-of-order response" : "Unrecognized sequence ID");
+            }
+
+            if (!inFlightCalls.remove(inFlight)) {
+                // Closed concurrently; the call has already been failed.
+                throw new CancellationException();
+            }
+            sendPermits.release();
+            invokeAndDeliver(inFlight.call, metadata);
+        }
+
+        private InFlightCall findInFlight(int seqId) {
+            for (InFlightCall call : inFlightCalls) {
+                if (call.seqId == seqId) {
+                    return call;
                 }
             }
+            return null;
+        }
+    }
+
+    /**
+     * Completes the given call and delivers its outcome to its callback.
+     *
+     * <p>If {@code metadata} is null, the call is sent and its response read;
+     * otherwise, the call has already been sent, and {@code metadata} is the
+     * header of its response.
+     */
+    private void invokeAndDeliver(MethodCall<?> call, MessageMetadata metadata) throws IOException {
+        Object result = null;
+        Exception error = null;
+        try {
+            result = metadata == null
+                    ? AsyncClientBase.this.invokeRequest(call)
+                    : readResponse(call, metadata);
+        } catch (IOException | RuntimeException e) {
+            fail(call, e);
+            throw e;
+        } catch (ServerException e) {
+            error = e.thriftException;
+        } catch (Exception e) {
+            if (e instanceof Struct) {
+                error = e;
+            } else {
+                // invokeRequest should only throw one of the caught Exception types or
+                // an Exception extending Struct from MethodCall
+                throw new AssertionError("Unexpected exception", e);
+            }
+        }
+
+        deliver(call, result, error);
+    }
+
+    private void deliver(MethodCall<?> call, Object result, Exception error) {
+        if (error != null) {
+            fail(call, error);
+        } else {
+            complete(call, result);
         }
     }
 
-    private void complete(final MethodCall call, final Object result) {
-        callbackExecutor.execute(new Runnable() {
+    /**
+     * Completes the given call successfully, unless it has already finished
+     * - for example, by being cancelled while its response was on the way.
+     */
+    private <T> void complete(final MethodCall<T> call, final Object result) {
+        if (!call.finish(MethodCall.COMPLETED)) {
+            return;
+        }
+
+        dispatch(new Runnable() {
             @SuppressWarnings("unchecked")
             @Override
             public void run() {
-                call.callback.onSuccess(result);
+                call.callback.onSuccess((T) result);
             }
         });
     }
 
-    private void fail(final MethodCall<?> call, final Throwable error) {
-        callbackExecutor.execute(new Runnable() {
+    /**
+     * Fails the given call, unless it has already finished.
+     */
+    private void fail(MethodCall<?> call, Throwable error) {
+        if (call.finish(MethodCall.COMPLETED)) {
+            dispatchFailure(call, error);
+        }
+    }
+
+    private void dispatchFailure(final MethodCall<?> call, final Throwable error) {
+        dispatch(new Runnable() {
             @Override
             public void run() {
                 call.callback.onError(error);
             }
         });
     }
+
+    private void dispatch(Runnable callback) {
+        try {
+            callbackExecutor.execute(callback);
+        } catch (RejectedExecutionException e) {
+            // The client has been closed out from underneath, or a shared
+            // executor has been shut down; either way, the callback must
+            // still run.
+            callback.run();
+        }
+    }
+
+    /**
+     * A timer, shared by all clients, that fails calls at their deadlines.
+     */
+    private static final class DeadlineTimer {
+        static final ScheduledThreadPoolExecutor INSTANCE = create();
+
+        private static ScheduledThreadPoolExecutor create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "thrifty-call-deadlines");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+
+    private static class InFlightCall {
+        final int seqId;
+        final MethodCall<?> call;
+
+        InFlightCall(int seqId, MethodCall<?> call) {
+            this.seqId = seqId;
+            this.call = call;
+        }
+    }
 }
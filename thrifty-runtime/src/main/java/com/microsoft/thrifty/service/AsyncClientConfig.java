@@ -0,0 +1,424 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunable behavior of an {@link AsyncClientBase}.
+ *
+ * <p>Instances are immutable, and are created with a {@link Builder}.
+ */
+public final class AsyncClientConfig {
+    /**
+     * What to do with a new call when the queue of pending calls is full.
+     *
+     * @see Builder#maxPendingCalls(int)
+     */
+    public enum OverflowPolicy {
+        /**
+         * The calling thread blocks until there is room in the queue.
+         */
+        BLOCK,
+
+        /**
+         * The new call is failed, via its callback, with a
+         * {@link java.util.concurrent.RejectedExecutionException}.
+         */
+        FAIL,
+
+        /**
+         * The oldest pending call is failed, via its callback, with a
+         * {@link java.util.concurrent.RejectedExecutionException}, making
+         * room for the new one.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * The configuration used when none is given explicitly.
+     */
+    public static final AsyncClientConfig DEFAULT = new Builder().build();
+
+    private final int maxInFlight;
+    private final boolean outOfOrderResponses;
+    private final Executor callbackExecutor;
+    private final boolean orderedCallbacks;
+    private final Executor ioExecutor;
+    private final int maxPendingCalls;
+    private final OverflowPolicy overflowPolicy;
+    private final long callTimeoutNanos;
+
+    private AsyncClientConfig(Builder builder) {
+        this.maxInFlight = builder.maxInFlight;
+        this.outOfOrderResponses = builder.outOfOrderResponses;
+        this.callbackExecutor = builder.callbackExecutor;
+        this.orderedCallbacks = builder.orderedCallbacks;
+        this.ioExecutor = builder.ioExecutor;
+        this.maxPendingCalls = builder.maxPendingCalls;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.callTimeoutNanos = builder.callTimeoutNanos;
+    }
+
+    /**
+     * The maximum number of calls that may be awaiting a response at once.
+     *
+     * @return the in-flight call limit; 1 means that calls are not pipelined.
+     */
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Whether responses to pipelined calls may arrive in any order.
+     *
+     * @return true if responses are matched to calls by sequence ID alone.
+     */
+    public boolean outOfOrderResponses() {
+        return outOfOrderResponses;
+    }
+
+    /**
+     * The executor on which callbacks are invoked.
+     *
+     * @return the callback executor, or null if each client should create
+     *         its own callback thread.
+     */
+    public Executor callbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Whether a client's callbacks are invoked one at a time, in order.
+     *
+     * @return true if callbacks are ordered.
+     */
+    public boolean orderedCallbacks() {
+        return orderedCallbacks;
+    }
+
+    /**
+     * The executor on which clients run their network I/O loops.
+     *
+     * @return the I/O executor, or null if each client should create its
+     *         own I/O threads.
+     */
+    public Executor ioExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * The maximum number of calls that may wait to be sent.
+     *
+     * @return the capacity of the call queue.
+     */
+    public int maxPendingCalls() {
+        return maxPendingCalls;
+    }
+
+    /**
+     * What happens to calls made when the call queue is full.
+     *
+     * @return the overflow policy.
+     */
+    public OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * The time allowed for each call, unless overridden per call.
+     *
+     * @param unit the unit in which to express the result.
+     * @return the default call timeout, or zero if calls have no deadline.
+     */
+    public long callTimeout(TimeUnit unit) {
+        return unit.convert(callTimeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns an executor that runs each task immediately, on the calling
+     * thread.
+     *
+     * <p>As a callback executor, this avoids any thread hand-off: callbacks
+     * run on whichever thread finishes the call, and that thread does not
+     * proceed until each has returned.  Responses and connection failures
+     * are delivered in order on the client's I/O thread, but a call that
+     * expires does so on the timer thread shared by all clients, and one
+     * that is cancelled fails on the thread that cancelled it.  It is only
+     * suitable for callbacks that are quick and never block.
+     *
+     * @return a same-thread executor.
+     */
+    public static Executor directExecutor() {
+        return DirectExecutor.INSTANCE;
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     *
+     * <p>Virtual threads are cheap enough that a client's I/O loops, which
+     * block for the lifetime of the client, can each occupy one without
+     * concern; this makes it a good choice for {@link Builder#ioExecutor(Executor)}
+     * when many clients are in use.
+     *
+     * @return a virtual-thread-per-task executor.
+     * @throws UnsupportedOperationException if the running JVM does not
+     *                                       support virtual threads.
+     */
+    public static Executor virtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        } catch (InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e.getCause());
+        }
+    }
+
+    public static class Builder {
+        private int maxInFlight = 1;
+        private boolean outOfOrderResponses;
+        private Executor callbackExecutor;
+        private boolean orderedCallbacks = true;
+        private Executor ioExecutor;
+        private int maxPendingCalls = Integer.MAX_VALUE;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.FAIL;
+        private long callTimeoutNanos;
+
+        public Builder() {
+        }
+
+        public Builder(AsyncClientConfig config) {
+            this.maxInFlight = config.maxInFlight;
+            this.outOfOrderResponses = config.outOfOrderResponses;
+            this.callbackExecutor = config.callbackExecutor;
+            this.orderedCallbacks = config.orderedCallbacks;
+            this.ioExecutor = config.ioExecutor;
+            this.maxPendingCalls = config.maxPendingCalls;
+            this.overflowPolicy = config.overflowPolicy;
+            this.callTimeoutNanos = config.callTimeoutNanos;
+        }
+
+        /**
+         * Sets the maximum number of calls that may be sent to the server
+         * before their responses have been received.
+         *
+         * <p>By default this is 1: each call is written, and its response read,
+         * before the next call is sent.  Larger values enable pipelining; calls
+         * are written back-to-back by one thread while another reads responses,
+         * so that throughput is no longer limited to one call per round-trip.
+         *
+         * <p>Pipelining requires that the server respond to calls in the order
+         * in which they were received, as the Apache Thrift servers do, unless
+         * {@link #outOfOrderResponses(boolean)} is enabled.  It also requires
+         * a protocol and transport that allow one thread to read while
+         * another writes; {@link com.microsoft.thrifty.protocol.BinaryProtocol}
+         * and {@link com.microsoft.thrifty.protocol.CompactProtocol}, over any of
+         * the socket transports, optionally framed or buffered, qualify.
+         *
+         * @param maxInFlight the maximum number of unanswered calls.
+         * @return this builder
+         */
+        public Builder maxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException("maxInFlight must be at least 1");
+            }
+            this.maxInFlight = maxInFlight;
+            return this;
+        }
+
+        /**
+         * Sets whether the server may respond to pipelined calls in any
+         * order.  Defaults to false.
+         *
+         * <p>By default, each response must answer the oldest call still in
+         * flight, and any other is treated as a protocol error that closes
+         * the client.  When enabled, responses are instead matched to calls
+         * by sequence ID, in whatever order they arrive; this suits servers
+         * that process several requests from one connection at once, such
+         * as a {@code NonblockingServer} with more than one concurrent
+         * request per connection, and lets a fast call complete without
+         * waiting for a slow one sent before it.  Callbacks are then invoked
+         * in the order that calls complete.
+         *
+         * <p>This only has an effect when {@link #maxInFlight(int)} is
+         * greater than one.
+         *
+         * @param outOfOrderResponses true to accept responses in any order.
+         * @return this builder
+         */
+        public Builder outOfOrderResponses(boolean outOfOrderResponses) {
+            this.outOfOrderResponses = outOfOrderResponses;
+            return this;
+        }
+
+        /**
+         * Sets the executor on which callbacks, and {@link AsyncClientBase.Listener}
+         * methods, are invoked.
+         *
+         * <p>By default each client creates a dedicated thread for its
+         * callbacks.  Clients can instead share an executor, such that many
+         * clients need not mean many threads.  The ordering guarantees are:
+         *
+         * <ul>
+         *   <li>By default, a client's callbacks are invoked one at a time,
+         *   in the order the calls were enqueued - or, with
+         *   {@link #outOfOrderResponses(boolean)}, in the order they
+         *   complete.</li>
+         *   <li>With a shared executor and {@link #orderedCallbacks(boolean)}
+         *   left enabled, the same holds for each client; callbacks from
+         *   different clients may run concurrently.</li>
+         *   <li>With {@link #orderedCallbacks(boolean)} disabled, callbacks
+         *   are handed to the executor as calls complete, and may run
+         *   concurrently and in any order.</li>
+         *   <li>With {@link AsyncClientConfig#directExecutor()}, callbacks
+         *   for responses run in order on the client's I/O thread; those for
+         *   expired and cancelled calls run on the shared timer thread and
+         *   the cancelling thread, respectively, and so are not ordered with
+         *   the rest.</li>
+         * </ul>
+         *
+         * <p>A shared executor is never shut down by a client.
+         *
+         * @param callbackExecutor the executor for callbacks, or null for
+         *                         a dedicated thread per client.
+         * @return this builder
+         */
+        public Builder callbackExecutor(Executor callbackExecutor) {
+            this.callbackExecutor = callbackExecutor;
+            return this;
+        }
+
+        /**
+         * Sets whether a client's callbacks must be invoked one at a time,
+         * in order, when using a {@link #callbackExecutor(Executor)}.
+         * Defaults to true.
+         *
+         * @param orderedCallbacks false to allow callbacks to run concurrently.
+         * @return this builder
+         */
+        public Builder orderedCallbacks(boolean orderedCallbacks) {
+            this.orderedCallbacks = orderedCallbacks;
+            return this;
+        }
+
+        /**
+         * Sets the executor on which a client runs its network I/O.
+         *
+         * <p>By default each client starts a dedicated thread for I/O (two,
+         * when pipelining).  These threads block on the network for the
+         * lifetime of the client, so a shared executor must be able to run
+         * all of them at once - an unbounded thread pool, or
+         * {@link AsyncClientConfig#virtualThreadExecutor()}.  A bounded pool
+         * would leave clients unable to make progress.
+         *
+         * @param ioExecutor the executor for I/O loops, or null for dedicated
+         *                   threads.
+         * @return this builder
+         */
+        public Builder ioExecutor(Executor ioExecutor) {
+            this.ioExecutor = ioExecutor;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of calls that may wait to be sent.
+         *
+         * <p>By default the queue is unbounded; if the server falls behind,
+         * pending calls accumulate without limit.  With a bound, calls made
+         * while the queue is full are handled according to the
+         * {@link #overflowPolicy(OverflowPolicy)}, turning overload into
+         * back-pressure or errors rather than unbounded memory growth.
+         *
+         * @param maxPendingCalls the capacity of the call queue.
+         * @return this builder
+         */
+        public Builder maxPendingCalls(int maxPendingCalls) {
+            if (maxPendingCalls < 1) {
+                throw new IllegalArgumentException("maxPendingCalls must be at least 1");
+            }
+            this.maxPendingCalls = maxPendingCalls;
+            return this;
+        }
+
+        /**
+         * Sets what happens to calls made when the call queue is full.
+         * Defaults to {@link OverflowPolicy#FAIL}.
+         *
+         * <p>Note that with {@link OverflowPolicy#BLOCK}, making calls from
+         * a callback that runs on the client's I/O thread - that is, with
+         * {@link AsyncClientConfig#directExecutor()} - can deadlock.
+         *
+         * @param overflowPolicy the policy to apply.
+         * @return this builder
+         */
+        public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+            if (overflowPolicy == null) {
+                throw new NullPointerException("overflowPolicy");
+            }
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Sets a deadline for every call made through the client, measured
+         * from when the call is made; zero, the default, means no deadline.
+         *
+         * <p>A call that has not completed by its deadline is failed with a
+         * {@link java.util.concurrent.TimeoutException}.  Unlike a transport
+         * read timeout, this affects only the call in question; the
+         * connection stays open.  Individual calls may override this via
+         * {@link CallHandle#withTimeout(long, TimeUnit)}.
+         *
+         * @param timeout the time allowed for each call, in the given unit.
+         * @param unit the unit of {@code timeout}.
+         * @return this builder
+         */
+        public Builder callTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout cannot be negative");
+            }
+            if (unit == null) {
+                throw new NullPointerException("unit");
+            }
+            this.callTimeoutNanos = unit.toNanos(timeout);
+            return this;
+        }
+
+        public AsyncClientConfig build() {
+            return new AsyncClientConfig(this);
+        }
+    }
+
+    private enum DirectExecutor implements Executor {
+        INSTANCE;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+}
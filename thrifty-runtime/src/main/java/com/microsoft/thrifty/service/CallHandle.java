@@ -0,0 +1,97 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A handle to an asynchronous service method call, through which the caller
+ * may give up on it.
+ *
+ * <p>A call that is cancelled or times out before it is sent is never sent.
+ * One that is already on the wire cannot be recalled, but its callback is
+ * failed immediately and the eventual response is discarded.
+ */
+public interface CallHandle {
+    /**
+     * A handle to a call that was completed before it could be made - for
+     * example, one whose client could not be obtained.
+     */
+    CallHandle COMPLETED = new CallHandle() {
+        @Override
+        public boolean cancel() {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public CallHandle withTimeout(long timeout, TimeUnit unit) {
+            return this;
+        }
+    };
+
+    /**
+     * Attempts to cancel the call, failing its callback with a
+     * {@link java.util.concurrent.CancellationException}.
+     *
+     * @return true if the call was cancelled; false if it had already
+     *         completed.
+     */
+    boolean cancel();
+
+    /**
+     * Returns true if the call was cancelled by {@link #cancel()}.
+     *
+     * @return whether the call was cancelled.
+     */
+    boolean isCancelled();
+
+    /**
+     * Returns true if the call has completed, successfully or otherwise,
+     * timed out, or was cancelled.
+     *
+     * @return whether the call is done.
+     */
+    boolean isDone();
+
+    /**
+     * Sets a deadline for the call, measured from when it was made.  If the
+     * call has not completed by then, its callback is failed with a
+     * {@link java.util.concurrent.TimeoutException}.
+     *
+     * <p>This overrides any {@link AsyncClientConfig.Builder#callTimeout(long, TimeUnit) default}
+     * configured on the client.
+     *
+     * @param timeout the time allowed for the call, in the given unit.
+     * @param unit the unit of {@code timeout}.
+     * @return this handle
+     */
+    CallHandle withTimeout(long timeout, TimeUnit unit);
+}
@@ -0,0 +1,150 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live statistics describing the queue of calls awaiting transmission in
+ * an {@link AsyncClientBase}.
+ *
+ * <p>Values are updated as calls flow through the queue and may be read at
+ * any time, from any thread; they are individually, but not mutually,
+ * consistent.
+ */
+public final class CallQueueMetrics {
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final AtomicLong dequeuedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    CallQueueMetrics() {
+    }
+
+    /**
+     * The number of calls currently waiting to be sent, including those
+     * whose callers are blocked waiting for room in a full queue.
+     */
+    public int depth() {
+        return depth.get();
+    }
+
+    /**
+     * The greatest number of calls that have been queued at once.
+     */
+    public int maxDepth() {
+        return maxDepth.get();
+    }
+
+    /**
+     * The number of calls that have left the queue to be sent.
+     */
+    public long dequeuedCount() {
+        return dequeuedCount.get();
+    }
+
+    /**
+     * The number of calls failed because the queue was full.
+     */
+    public long rejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * The number of queued calls failed to make room for newer calls.
+     */
+    public long droppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * The mean time that sent calls spent waiting in the queue.
+     *
+     * @param unit the unit in which to express the result.
+     * @return the mean wait time, or zero if no calls have been sent.
+     */
+    public long meanWaitTime(TimeUnit unit) {
+        long count = dequeuedCount.get();
+        return count == 0 ? 0 : unit.convert(totalWaitNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The longest time that any sent call spent waiting in the queue.
+     *
+     * @param unit the unit in which to express the result.
+     * @return the maximum wait time.
+     */
+    public long maxWaitTime(TimeUnit unit) {
+        return unit.convert(maxWaitNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    void onEnqueued() {
+        depth.incrementAndGet();
+    }
+
+    void onAccepted() {
+        updateMax(maxDepth, depth.get());
+    }
+
+    void onDequeued(long waitNanos) {
+        depth.decrementAndGet();
+        dequeuedCount.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        updateMax(maxWaitNanos, waitNanos);
+    }
+
+    void onRejected() {
+        depth.decrementAndGet();
+        rejectedCount.incrementAndGet();
+    }
+
+    void onDropped() {
+        depth.decrementAndGet();
+        droppedCount.incrementAndGet();
+    }
+
+    void onDrained(int count) {
+        depth.addAndGet(-count);
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current;
+        while ((current = max.get()) < value) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current;
+        while ((current = max.get()) < value) {
+            if (max.compareAndSet(current, value)) {
+                return;
+            }
+        }
+    }
+}
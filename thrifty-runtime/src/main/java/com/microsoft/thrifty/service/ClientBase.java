@@ -51,10 +51,24 @@ public class ClientBase implements Closeable {
      */
     final AtomicBoolean running = new AtomicBoolean(true);
 
-    private final Protocol protocol;
+    private final Protocol inputProtocol;
+    private final Protocol outputProtocol;
 
     protected ClientBase(Protocol protocol) {
-        this.protocol = protocol;
+        this(protocol, protocol);
+    }
+
+    /**
+     * Creates a client that reads responses with one protocol and writes
+     * requests with another, so that reading and writing may happen
+     * concurrently even with protocols that keep state.
+     *
+     * @param inputProtocol the protocol from which responses are read.
+     * @param outputProtocol the protocol to which requests are written.
+     */
+    protected ClientBase(Protocol inputProtocol, Protocol outputProtocol) {
+        this.inputProtocol = inputProtocol;
+        this.outputProtocol = outputProtocol;
     }
 
     /**
@@ -89,6 +103,13 @@ public class ClientBase implements Closeable {
     }
 
     void closeProtocol() {
+        closeQuietly(inputProtocol);
+        if (outputProtocol != inputProtocol) {
+            closeQuietly(outputProtocol);
+        }
+    }
+
+    private static void closeQuietly(Protocol protocol) {
         try {
             protocol.close();
         } catch (IOException ignored) {
@@ -106,20 +127,17 @@ public class ClientBase implements Closeable {
      * @throws Exception exception received from server implements {@link com.microsoft.thrifty.Struct}
      */
     final Object invokeRequest(MethodCall<?> call) throws Exception {
-        boolean isOneWay = call.callTypeId == TMessageType.ONEWAY;
-        int sid = seqId.incrementAndGet();
+        boolean isOneWay = isOneWay(call);
+        int sid = nextSeqId();
 
-        protocol.writeMessageBegin(call.name, call.callTypeId, sid);
-        call.send(protocol);
-        protocol.writeMessageEnd();
-        protocol.flush();
+        sendRequest(call, sid);
 
         if (isOneWay) {
             // No response will be received
             return null;
         }
 
-        MessageMetadata metadata = protocol.readMessageBegin();
+        MessageMetadata metadata = readResponseBegin();
 
         if (metadata.seqId != sid) {
             throw new ThriftException(
@@ -127,9 +145,63 @@ public class ClientBase implements Closeable {
                     "Unrecognized sequence ID");
         }
 
+        if (metadata.seqId != seqId.get()) {
+            throw new ThriftException(
+                    ThriftException.Kind.BAD_SEQUENCE_ID,
+                    "Out-of-order response");
+        }
+
+        return readResponse(call, metadata);
+    }
+
+    /**
+     * Allocates the sequence ID for a new request.
+     */
+    protected final int nextSeqId() {
+        return seqId.incrementAndGet();
+    }
+
+    /**
+     * Writes the given call to the server and flushes the protocol, without
+     * waiting for a response.
+     *
+     * @param call the remote method call to be sent
+     * @param sid the sequence ID identifying the call
+     * @throws IOException from the protocol
+     */
+    protected final void sendRequest(MethodCall<?> call, int sid) throws IOException {
+        outputProtocol.writeMessageBegin(call.name, call.callTypeId, sid);
+        call.send(outputProtocol);
+        outputProtocol.writeMessageEnd();
+        outputProtocol.flush();
+    }
+
+    /**
+     * Reads the header of the next message from the server.
+     *
+     * @return the metadata of the message
+     * @throws IOException from the protocol
+     */
+    protected final MessageMetadata readResponseBegin() throws IOException {
+        return inputProtocol.readMessageBegin();
+    }
+
+    /**
+     * Reads the remainder of a response whose header has been read with
+     * {@link #readResponseBegin()}, and which is known to belong to the
+     * given call.
+     *
+     * @param call the remote method call whose response is being read
+     * @param metadata the message header
+     * @return the result of the method call
+     * @throws ServerException wrapper around {@link ThriftException}. Callers should catch and unwrap this.
+     * @throws IOException from the protocol
+     * @throws Exception exception received from server implements {@link com.microsoft.thrifty.Struct}
+     */
+    protected final Object readResponse(MethodCall<?> call, MessageMetadata metadata) throws Exception {
         if (metadata.type == TMessageType.EXCEPTION) {
-            ThriftException e = ThriftException.read(protocol);
-            protocol.readMessageEnd();
+            ThriftException e = ThriftException.read(inputProtocol);
+            inputProtocol.readMessageEnd();
             throw new ServerException(e);
         } else if (metadata.type != TMessageType.REPLY) {
             throw new ThriftException(
@@ -137,12 +209,6 @@ public class ClientBase implements Closeable {
                     "Invalid message type: " + metadata.type);
         }
 
-        if (metadata.seqId != seqId.get()) {
-            throw new ThriftException(
-                    ThriftException.Kind.BAD_SEQUENCE_ID,
-                    "Out-of-order response");
-        }
-
         if (!metadata.name.equals(call.name)) {
             throw new ThriftException(
                     ThriftException.Kind.WRONG_METHOD_NAME,
@@ -151,23 +217,47 @@ public class ClientBase implements Closeable {
         }
 
         try {
-            Object result = call.receive(protocol, metadata);
-            protocol.readMessageEnd();
+            Object result = call.receive(inputProtocol, metadata);
+            inputProtocol.readMessageEnd();
             return result;
         } catch (Exception e) {
             if (e instanceof Struct) {
                 // Business as usual
-                protocol.readMessageEnd();
+                inputProtocol.readMessageEnd();
             }
             throw e;
         }
     }
 
-    static class ServerException extends Exception {
+    /**
+     * Returns true if the given call is one-way, i.e. if the server will not
+     * send a response to it.
+     *
+     * @param call the remote method call
+     * @return true if no response is expected for {@code call}.
+     */
+    protected static boolean isOneWay(MethodCall<?> call) {
+        return call.callTypeId == TMessageType.ONEWAY;
+    }
+
+    /**
+     * Wraps an exception sent by the server in an {@code EXCEPTION} message,
+     * distinguishing it from one raised locally by the protocol.
+     */
+    protected static class ServerException extends Exception {
         final ThriftException thriftException;
 
         ServerException(ThriftException thriftException) {
             this.thriftException = thriftException;
         }
+
+        /**
+         * Returns the exception sent by the server.
+         *
+         * @return the exception sent by the server.
+         */
+        public ThriftException getThriftException() {
+            return thriftException;
+        }
     }
 }
@@ -0,0 +1,627 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.protocol.ProtocolFactory;
+import com.microsoft.thrifty.transport.SocketTransport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of service clients connected to a single endpoint.
+ *
+ * <p>Each client owns one connection, and a connection can only carry one
+ * call at a time (or a window of pipelined calls; see
+ * {@link AsyncClientConfig#maxInFlight()}).  Callers who need more
+ * concurrency than that can spread their calls across several connections
+ * by leasing a client from the pool for the duration of each call, and
+ * releasing it when the call completes.  Generated {@code PooledClient}
+ * classes do exactly this, and are the easiest way to use a pool:
+ *
+ * <pre>{@code
+ * ClientPool<GoogleClient> pool = new ClientPool.Builder<>(
+ *         new SocketTransport.Builder("thrift.google.com", 80),
+ *         GooglePooledClient.FACTORY)
+ *     .maxSize(8)
+ *     .build();
+ *
+ * Google client = new GooglePooledClient(pool);
+ * }</pre>
+ *
+ * <p>Connections are opened as they are needed, up to {@link Builder#maxSize(int)}
+ * of them; when all are leased, callers of {@link #lease()} wait, and are
+ * served in the order in which they began waiting.  Released clients are
+ * checked for health, and connections that have been idle longer than
+ * {@link Builder#idleTimeout(long, TimeUnit)} are closed.
+ *
+ * <p>{@link Builder#minSize(int)} connections are kept ready: they are
+ * opened in the background as soon as the pool is built, are exempt from
+ * the idle timeout, and are replaced when they are lost.
+ *
+ * <p>Instances of this class are threadsafe.
+ *
+ * @param <C> the type of client held in the pool
+ */
+public final class ClientPool<C extends AsyncClientBase> implements Closeable {
+    /**
+     * Creates service clients for a pool; generally this is just a call to
+     * the client's constructor.
+     *
+     * @param <C> the type of client created
+     */
+    public interface ClientFactory<C extends AsyncClientBase> {
+        C createClient(Protocol protocol, AsyncClientBase.Listener listener, AsyncClientConfig config);
+    }
+
+    /**
+     * How often to retry opening connections up to the minimum size, when
+     * there is no idle timeout to set the pace.
+     */
+    private static final long REFILL_PERIOD_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final SocketTransport.Builder transportBuilder;
+    private final ClientFactory<C> clientFactory;
+    private final ProtocolFactory protocolFactory;
+    private final AsyncClientConfig clientConfig;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long leaseTimeoutMillis;
+
+    // A fair lock, so that waiters are served first-come, first-served.
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition available = lock.newCondition();
+
+    // Most-recently-used first; eviction proceeds from the tail.
+    private final ArrayDeque<Entry> idle = new ArrayDeque<>();
+    private final Map<C, Entry> leased = new IdentityHashMap<>();
+
+    // The number of connections open or being opened.
+    private int size;
+    private boolean closed;
+
+    // Evicts idle connections and opens new ones up to the minimum size;
+    // null if there is neither an idle timeout nor a minimum size.
+    private final ScheduledExecutorService maintenanceExecutor;
+
+    public static class Builder<C extends AsyncClientBase> {
+        private final SocketTransport.Builder transportBuilder;
+        private final ClientFactory<C> clientFactory;
+        private ProtocolFactory protocolFactory = ProtocolFactory.BINARY;
+        private AsyncClientConfig clientConfig = AsyncClientConfig.DEFAULT;
+        private int minSize = 0;
+        private int maxSize = 8;
+        private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(1);
+        private long leaseTimeoutMillis = 0;
+
+        public Builder(SocketTransport.Builder transportBuilder, ClientFactory<C> clientFactory) {
+            if (transportBuilder == null) {
+                throw new NullPointerException("transportBuilder");
+            }
+            if (clientFactory == null) {
+                throw new NullPointerException("clientFactory");
+            }
+            this.transportBuilder = transportBuilder;
+            this.clientFactory = clientFactory;
+        }
+
+        /**
+         * Sets how pooled clients create their protocol, for each newly-connected
+         * transport.  This is the place to add framing or to choose a protocol
+         * other than the default, {@link ProtocolFactory#BINARY}.
+         */
+        public Builder<C> protocolFactory(ProtocolFactory protocolFactory) {
+            if (protocolFactory == null) {
+                throw new NullPointerException("protocolFactory");
+            }
+            this.protocolFactory = protocolFactory;
+            return this;
+        }
+
+        public Builder<C> clientConfig(AsyncClientConfig clientConfig) {
+            if (clientConfig == null) {
+                throw new NullPointerException("clientConfig");
+            }
+            this.clientConfig = clientConfig;
+            return this;
+        }
+
+        /**
+         * Sets the number of connections kept ready for use.  Defaults to
+         * zero.
+         *
+         * <p>The pool opens this many connections in the background once it
+         * is built, never closes them for being idle, and opens replacements
+         * for any that are closed or lost.  Connections that cannot be opened
+         * are retried periodically.
+         */
+        public Builder<C> minSize(int minSize) {
+            if (minSize < 0) {
+                throw new IllegalArgumentException("minSize cannot be negative");
+            }
+            this.minSize = minSize;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of connections.  Defaults to eight.
+         */
+        public Builder<C> maxSize(int maxSize) {
+            if (maxSize < 1) {
+                throw new IllegalArgumentException("maxSize must be at least 1");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Sets how long a connection may sit unused before it is closed.
+         * Defaults to one minute; zero disables eviction.
+         */
+        public Builder<C> idleTimeout(long idleTimeout, TimeUnit unit) {
+            if (idleTimeout < 0) {
+                throw new IllegalArgumentException("idleTimeout cannot be negative");
+            }
+            this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+            return this;
+        }
+
+        /**
+         * Sets how long {@link ClientPool#lease()} waits for a client when
+         * all are in use.  Defaults to zero, meaning "forever".
+         */
+        public Builder<C> leaseTimeout(long leaseTimeout, TimeUnit unit) {
+            if (leaseTimeout < 0) {
+                throw new IllegalArgumentException("leaseTimeout cannot be negative");
+            }
+            this.leaseTimeoutMillis = unit.toMillis(leaseTimeout);
+            return this;
+        }
+
+        public ClientPool<C> build() {
+            if (minSize > maxSize) {
+                throw new IllegalStateException("minSize cannot exceed maxSize");
+            }
+            return new ClientPool<>(this);
+        }
+    }
+
+    private ClientPool(Builder<C> builder) {
+        this.transportBuilder = builder.transportBuilder;
+        this.clientFactory = builder.clientFactory;
+        this.protocolFactory = builder.protocolFactory;
+        this.clientConfig = builder.clientConfig;
+        this.minSize = builder.minSize;
+        this.maxSize = builder.maxSize;
+        this.idleTimeoutMillis = builder.idleTimeoutMillis;
+        this.leaseTimeoutMillis = builder.leaseTimeoutMillis;
+
+        if (idleTimeoutMillis > 0 || minSize > 0) {
+            maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "thrifty-client-pool-maintenance");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            long period = idleTimeoutMillis > 0 ? Math.max(idleTimeoutMillis / 2, 1) : REFILL_PERIOD_MILLIS;
+            maintenanceExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    evictIdle();
+                    fillToMinSize();
+                }
+            }, 0, period, TimeUnit.MILLISECONDS);
+        } else {
+            maintenanceExecutor = null;
+        }
+    }
+
+    /**
+     * Takes a client from the pool, connecting a new one if none are idle
+     * and the pool is not yet full, and otherwise waiting for one to be
+     * released.
+     *
+     * <p>The caller has exclusive use of the client until it is passed to
+     * {@link #release(AsyncClientBase)}, which must happen exactly once.
+     *
+     * @return a connected client
+     * @throws IOException if a new connection cannot be opened, if the lease
+     *                     timeout elapses, or if the calling thread is
+     *                     interrupted while waiting.
+     */
+    public C lease() throws IOException {
+        List<Entry> unhealthy = new ArrayList<>();
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a client");
+        }
+
+        try {
+            long deadline = leaseTimeoutMillis == 0
+                    ? 0
+                    : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMillis);
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Cannot lease from a closed pool");
+                }
+
+                Entry entry;
+                while ((entry = idle.pollFirst()) != null) {
+                    if (entry.isHealthy()) {
+                        leased.put(entry.client, entry);
+                        return entry.client;
+                    }
+                    size--;
+                    unhealthy.add(entry);
+                    available.signal();
+                }
+
+                if (size < maxSize) {
+                    size++;
+                    break;
+                }
+
+                awaitAvailable(deadline);
+            }
+        } finally {
+            lock.unlock();
+            closeAll(unhealthy);
+            if (!unhealthy.isEmpty()) {
+                requestRefill();
+            }
+        }
+
+        // Connect outside of the lock; we have reserved a slot for this connection.
+        Entry entry;
+        try {
+            entry = connect();
+        } catch (IOException | RuntimeException e) {
+            lock.lock();
+            try {
+                size--;
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            if (!closed) {
+                leased.put(entry.client, entry);
+                return entry.client;
+            }
+            size--;
+        } finally {
+            lock.unlock();
+        }
+
+        entry.close();
+        throw new IllegalStateException("Cannot lease from a closed pool");
+    }
+
+    /**
+     * Returns a client, obtained from {@link #lease()}, to the pool.  Clients
+     * that have been closed, or whose connections have been lost, are
+     * discarded.
+     *
+     * @param client the client to return.
+     */
+    public void release(C client) {
+        Entry entry;
+        boolean discard;
+        lock.lock();
+        try {
+            entry = leased.remove(client);
+            if (entry == null) {
+                throw new IllegalArgumentException("Client was not leased from this pool");
+            }
+
+            discard = closed || !entry.isHealthy();
+            if (discard) {
+                size--;
+            } else {
+                entry.idleSince = System.nanoTime();
+                idle.addFirst(entry);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (discard) {
+            entry.close();
+            requestRefill();
+        }
+    }
+
+    /**
+     * Wraps the given callback such that the given client is released back
+     * to this pool before the callback is invoked.
+     *
+     * @param client a leased client, which will be used to make one call.
+     * @param callback the callback for that call.
+     * @param <T> the result type of the call.
+     * @return a callback to pass to the client
+     */
+    public <T> ServiceMethodCallback<T> releaseOnCompletion(final C client, final ServiceMethodCallback<T> callback) {
+        return new ServiceMethodCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                release(client);
+                callback.onSuccess(result);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                release(client);
+                callback.onError(error);
+            }
+        };
+    }
+
+    /**
+     * The number of connections currently open, whether idle or leased.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of open connections not currently leased.
+     */
+    public int idleCount() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes connections that have been idle for longer than the idle
+     * timeout, leaving at least the minimum number open, and any that are no
+     * longer healthy; replacements for the latter are opened in the
+     * background.  This happens periodically in the background, but may
+     * also be invoked directly.
+     */
+    public void evictIdle() {
+        List<Entry> evicted = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long timeout = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+            Iterator<Entry> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                boolean expired = timeout > 0 && now - entry.idleSince >= timeout && size > minSize;
+                if (expired || !entry.isHealthy()) {
+                    iterator.remove();
+                    size--;
+                    evicted.add(entry);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        closeAll(evicted);
+        if (!evicted.isEmpty()) {
+            requestRefill();
+        }
+    }
+
+    /**
+     * Closes all idle connections, and causes leased connections to be
+     * closed when they are released.  Callers waiting in {@link #lease()}
+     * receive an {@link IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        List<Entry> toClose;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            size -= idle.size();
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdownNow();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Asks the maintenance thread to open connections up to the minimum
+     * size, without waiting for its next scheduled run.
+     */
+    private void requestRefill() {
+        if (minSize == 0) {
+            return;
+        }
+        try {
+            maintenanceExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fillToMinSize();
+                }
+            });
+        } catch (RejectedExecutionException ignored) {
+            // The pool has been closed.
+        }
+    }
+
+    /**
+     * Opens idle connections until the pool holds at least the minimum
+     * number, stopping at the first that cannot be opened; the next
+     * scheduled run tries again.
+     */
+    private void fillToMinSize() {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || size >= minSize) {
+                    return;
+                }
+                size++;
+            } finally {
+                lock.unlock();
+            }
+
+            Entry entry;
+            try {
+                entry = connect();
+            } catch (IOException | RuntimeException e) {
+                lock.lock();
+                try {
+                    size--;
+                    available.signal();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            boolean keep;
+            lock.lock();
+            try {
+                keep = !closed;
+                if (keep) {
+                    entry.idleSince = System.nanoTime();
+                    idle.addFirst(entry);
+                } else {
+                    size--;
+                }
+                available.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            if (!keep) {
+                entry.close();
+                return;
+            }
+        }
+    }
+
+    private void awaitAvailable(long deadline) throws IOException {
+        try {
+            if (deadline == 0) {
+                available.await();
+            } else {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || available.awaitNanos(remaining) <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for a client");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a client");
+        }
+    }
+
+    private Entry connect() throws IOException {
+        SocketTransport transport = transportBuilder.build();
+        try {
+            transport.connect();
+            Entry entry = new Entry(transport);
+            entry.client = clientFactory.createClient(protocolFactory.createProtocol(transport), entry, clientConfig);
+            return entry;
+        } catch (IOException | RuntimeException e) {
+            transport.close();
+            throw e;
+        }
+    }
+
+    private void closeAll(List<Entry> entries) {
+        for (Entry entry : entries) {
+            entry.close();
+        }
+    }
+
+    private final class Entry implements AsyncClientBase.Listener {
+        final SocketTransport transport;
+        C client;
+        long idleSince;
+
+        Entry(SocketTransport transport) {
+            this.transport = transport;
+        }
+
+        boolean isHealthy() {
+            return client.running.get() && transport.isConnected();
+        }
+
+        void close() {
+            try {
+                client.close();
+            } catch (IOException ignored) {
+                // nope
+            }
+        }
+
+        @Override
+        public void onTransportClosed() {
+            // Nothing to do; the pool notices on release or eviction.
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            // Nothing to do; the pool notices on release or eviction.
+        }
+    }
+}
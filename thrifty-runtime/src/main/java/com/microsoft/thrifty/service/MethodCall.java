@@ -24,16 +24,46 @@ import com.microsoft.thrifty.protocol.MessageMetadata;
 import com.microsoft.thrifty.protocol.Protocol;
 
 import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A closure capturing all data necessary to send and receive an asynchronous
  * service method call.
+ *
+ * <p>Once enqueued, a call also serves as its own {@link CallHandle}.
  */
-public abstract class MethodCall<T> {
+public abstract class MethodCall<T> implements CallHandle {
+    static final int PENDING = 0;
+    static final int COMPLETED = 1;
+    static final int CANCELLED = 2;
+    static final int EXPIRED = 3;
+
     protected final String name;
     protected final byte callTypeId;
     protected final ServiceMethodCallback<T> callback;
 
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    /**
+     * When this call was enqueued, per {@link System#nanoTime()}.
+     */
+    volatile long enqueuedAtNanos;
+
+    /**
+     * The time allowed for this call, measured from {@link #enqueuedAtNanos};
+     * negative if there is no deadline.
+     */
+    volatile long timeoutNanos = -1;
+
+    /**
+     * The client to which this call was given; null until it is enqueued.
+     */
+    volatile AsyncClientBase client;
+
+    volatile ScheduledFuture<?> deadlineTask;
+
     public MethodCall(
             String name,
             byte callTypeId,
@@ -53,6 +83,66 @@ public abstract class MethodCall<T> {
         this.callback = callback;
     }
 
+    @Override
+    public final boolean cancel() {
+        AsyncClientBase client = this.client;
+        if (client == null) {
+            // Not yet enqueued; the client will fail it when it is.
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+        return client.cancel(this);
+    }
+
+    @Override
+    public final boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    @Override
+    public final boolean isDone() {
+        return state.get() != PENDING;
+    }
+
+    @Override
+    public final CallHandle withTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("timeout cannot be negative");
+        }
+        if (unit == null) {
+            throw new NullPointerException("unit");
+        }
+
+        timeoutNanos = unit.toNanos(timeout);
+        AsyncClientBase client = this.client;
+        if (client != null) {
+            client.scheduleDeadline(this);
+        }
+        return this;
+    }
+
+    /**
+     * Moves this call from pending to the given terminal state.
+     *
+     * @return true if this call was pending, and so its callback is now ours
+     *         to invoke; false if it was already finished.
+     */
+    boolean finish(int newState) {
+        if (!state.compareAndSet(PENDING, newState)) {
+            return false;
+        }
+
+        ScheduledFuture<?> task = deadlineTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+        return true;
+    }
+
+    boolean isExpired(long nowNanos) {
+        long timeout = timeoutNanos;
+        return timeout >= 0 && nowNanos - enqueuedAtNanos >= timeout;
+    }
+
     protected abstract void send(Protocol protocol) throws IOException;
 
     protected abstract T receive(Protocol protocol, MessageMetadata metadata) throws Exception;
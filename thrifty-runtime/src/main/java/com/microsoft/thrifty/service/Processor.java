@@ -0,0 +1,49 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import com.microsoft.thrifty.protocol.Protocol;
+
+import java.io.IOException;
+
+/**
+ * The server side of a Thrift service: reads a request, invokes the
+ * matching handler method, and writes its reply.
+ *
+ * <p>Implementations are generated for each service, and are safe to share
+ * among any number of connections provided that the handler they wrap is.
+ */
+public interface Processor {
+    /**
+     * Reads one message from {@code input}, dispatches it, and writes the
+     * reply (if the call expects one) to {@code output}, flushing it.
+     *
+     * <p>Errors raised by the handler are reported to the caller as replies
+     * and are not rethrown, except by {@code oneway} methods, which have no
+     * reply to carry them.  An {@link IOException} indicates that one of the
+     * protocols failed, and that the connection should be closed.
+     *
+     * @param input the protocol from which the request is read.
+     * @param output the protocol to which the reply is written.
+     * @throws IOException if reading or writing fails.
+     */
+    void process(Protocol input, Protocol output) throws IOException;
+}
@@ -0,0 +1,106 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import com.microsoft.thrifty.TType;
+import com.microsoft.thrifty.ThriftException;
+import com.microsoft.thrifty.protocol.MessageMetadata;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.util.ProtocolUtil;
+
+import java.io.IOException;
+
+/**
+ * The base class of generated service processors.
+ *
+ * <p>Handles the message envelope, leaving subclasses to decode the
+ * arguments of the methods they know and to write their results.  Calls to
+ * unknown methods, and messages that are not calls at all, are answered
+ * with a {@link ThriftException} as Apache Thrift servers do.
+ */
+public abstract class ProcessorBase implements Processor {
+
+    @Override
+    public final void process(Protocol input, Protocol output) throws IOException {
+        MessageMetadata message = input.readMessageBegin();
+
+        if (message.type != TMessageType.CALL && message.type != TMessageType.ONEWAY) {
+            discardRequest(input);
+            writeException(output, message, new ThriftException(
+                    ThriftException.Kind.INVALID_MESSAGE_TYPE,
+                    "Invalid message type: " + message.type));
+            return;
+        }
+
+        if (!dispatch(message, input, output)) {
+            discardRequest(input);
+            if (message.type == TMessageType.CALL) {
+                writeException(output, message, new ThriftException(
+                        ThriftException.Kind.UNKNOWN_METHOD,
+                        "Unknown method: " + message.name));
+            }
+        }
+    }
+
+    /**
+     * Handles a call to the method named in {@code message}, if this
+     * processor knows it.
+     *
+     * <p>When the method is known, implementations read its arguments and
+     * the message end from {@code input}, invoke the handler, and write the
+     * reply; otherwise they consume nothing and return {@code false}.
+     *
+     * @param message the header of the call, already read from {@code input}.
+     * @param input the protocol from which the arguments are read.
+     * @param output the protocol to which the reply is written.
+     * @return {@code true} if the method was known and the call handled.
+     * @throws IOException if reading or writing fails.
+     */
+    protected abstract boolean dispatch(MessageMetadata message, Protocol input, Protocol output) throws IOException;
+
+    /**
+     * Replies to the given call with an exception that is not among those
+     * the method declares.
+     *
+     * @param output the protocol to which the reply is written.
+     * @param message the header of the call.
+     * @param error the error to report; a {@link ThriftException} is sent
+     *              as-is, anything else as an {@link ThriftException.Kind#INTERNAL_ERROR}
+     *              whose message does not reveal the error's details.
+     * @throws IOException if writing fails.
+     */
+    protected static void writeException(Protocol output, MessageMetadata message, RuntimeException error)
+            throws IOException {
+        ThriftException e = error instanceof ThriftException
+                ? (ThriftException) error
+                : new ThriftException(ThriftException.Kind.INTERNAL_ERROR, "Internal error processing " + message.name);
+
+        output.writeMessageBegin(message.name, TMessageType.EXCEPTION, message.seqId);
+        e.write(output);
+        output.writeMessageEnd();
+        output.flush();
+    }
+
+    private static void discardRequest(Protocol input) throws IOException {
+        ProtocolUtil.skip(input, TType.STRUCT);
+        input.readMessageEnd();
+    }
+}
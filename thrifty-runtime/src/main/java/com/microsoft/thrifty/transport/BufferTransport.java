@@ -21,12 +21,22 @@
 package com.microsoft.thrifty.transport;
 
 import okio.Buffer;
+import okio.ByteString;
 
+import java.io.EOFException;
 import java.io.IOException;
 
 public class BufferTransport extends Transport {
+    private static final byte[] EMPTY = new byte[0];
+
     public final Buffer b;
 
+    private final Buffer.UnsafeCursor cursor = new Buffer.UnsafeCursor();
+
+    // The head segment, as of the last call to getBytesRemainingInBuffer()
+    private byte[] segment = EMPTY;
+    private int segmentPosition;
+
     public BufferTransport() {
         this(new Buffer());
     }
@@ -40,6 +50,70 @@ public class BufferTransport extends Transport {
         return b.read(buffer, offset, count);
     }
 
+    /**
+     * Reads bytes as okio does: large reads share the buffer's segments
+     * rather than copying them.
+     */
+    @Override
+    public ByteString readByteString(int count) throws IOException {
+        return b.readByteString(count);
+    }
+
+    @Override
+    public void skip(int count) throws IOException {
+        b.skip(count);
+    }
+
+    @Override
+    public void write(ByteString bytes) throws IOException {
+        b.write(bytes);
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return segment;
+    }
+
+    @Override
+    public int getBufferPosition() {
+        return segmentPosition;
+    }
+
+    /**
+     * Returns the number of bytes in the buffer's first segment; only these
+     * are contiguous.
+     */
+    @Override
+    public int getBytesRemainingInBuffer() {
+        if (b.size() == 0) {
+            segment = EMPTY;
+            segmentPosition = 0;
+            return 0;
+        }
+
+        Buffer.UnsafeCursor c = b.readUnsafe(cursor);
+        try {
+            int count = c.seek(0);
+            segment = c.data;
+            segmentPosition = c.start;
+            return count;
+        } finally {
+            c.close();
+        }
+    }
+
+    @Override
+    public void consumeBuffer(int count) {
+        // Skipping may recycle the segment, so don't hold on to it.
+        segment = EMPTY;
+        segmentPosition = 0;
+        try {
+            b.skip(count);
+        } catch (EOFException e) {
+            throw new IllegalArgumentException("Cannot consume more bytes than are buffered", e);
+        }
+    }
+
     @Override
     public void write(byte[] buffer, int offset, int count) throws IOException {
         b.write(buffer, offset, count);
@@ -0,0 +1,179 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport;
+
+import java.io.IOException;
+
+/**
+ * A transport that buffers reads and writes to an underlying transport.
+ *
+ * <p>Protocols tend to issue many small reads and writes - a single struct
+ * can easily result in dozens of one-, two-, and four-byte operations.
+ * When the underlying transport is a socket, each of those is potentially
+ * a system call and a packet on the wire.  This transport coalesces writes
+ * until {@link #flush()} is called (or the buffer fills), and serves reads
+ * from a buffer that is refilled from the underlying transport in bulk.
+ *
+ * <p>It composes with {@link FramedTransport}; the typical arrangement is
+ * {@code new FramedTransport(new BufferedTransport(socketTransport))}.
+ *
+ * <p>Instances of this class are <em>not</em> threadsafe.
+ */
+public class BufferedTransport extends Transport {
+    static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private final Transport inner;
+
+    // Read state
+    private final byte[] readBuffer;
+    private int readPosition;
+    private int readLimit;
+
+    // Write state
+    private final byte[] writeBuffer;
+    private int writePosition;
+
+    public BufferedTransport(Transport inner) {
+        this(inner, DEFAULT_BUFFER_SIZE);
+    }
+
+    public BufferedTransport(Transport inner, int bufferSize) {
+        if (inner == null) {
+            throw new NullPointerException("inner");
+        }
+
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+
+        this.inner = inner;
+        this.readBuffer = new byte[bufferSize];
+        this.writeBuffer = new byte[bufferSize];
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+
+        int available = readLimit - readPosition;
+        if (available == 0) {
+            if (count >= readBuffer.length) {
+                // Large reads gain nothing from an intermediate copy.
+                return inner.read(buffer, offset, count);
+            }
+
+            int numRead = fillBuffer();
+            if (numRead <= 0) {
+                return numRead;
+            }
+            available = numRead;
+        }
+
+        int toCopy = Math.min(count, available);
+        System.arraycopy(readBuffer, readPosition, buffer, offset, toCopy);
+        readPosition += toCopy;
+        return toCopy;
+    }
+
+    /**
+     * Blocks until at least one byte of input is buffered, reading from the
+     * underlying transport only if the buffer is empty.
+     *
+     * <p>This lets a server wait for the next request on a connection
+     * without consuming any of it.
+     *
+     * @return false if the underlying transport has no more input.
+     * @throws IOException if reading from the underlying transport fails.
+     */
+    public boolean awaitInput() throws IOException {
+        return readPosition < readLimit || fillBuffer() > 0;
+    }
+
+    private int fillBuffer() throws IOException {
+        int numRead = inner.read(readBuffer, 0, readBuffer.length);
+        if (numRead > 0) {
+            readPosition = 0;
+            readLimit = numRead;
+        }
+        return numRead;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return readBuffer;
+    }
+
+    @Override
+    public int getBufferPosition() {
+        return readPosition;
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+        return readLimit - readPosition;
+    }
+
+    @Override
+    public void consumeBuffer(int count) {
+        readPosition += count;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        if (count > writeBuffer.length - writePosition) {
+            flushBuffer();
+        }
+
+        if (count >= writeBuffer.length) {
+            // Too big to buffer; pending data has already been written,
+            // so ordering is preserved.
+            inner.write(buffer, offset, count);
+            return;
+        }
+
+        System.arraycopy(buffer, offset, writeBuffer, writePosition, count);
+        writePosition += count;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        inner.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        readPosition = 0;
+        readLimit = 0;
+        writePosition = 0;
+        inner.close();
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writePosition > 0) {
+            int size = writePosition;
+            writePosition = 0;
+            inner.write(writeBuffer, 0, size);
+        }
+    }
+}
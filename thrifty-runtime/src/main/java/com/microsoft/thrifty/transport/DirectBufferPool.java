@@ -0,0 +1,77 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small, bounded, threadsafe pool of direct {@link ByteBuffer ByteBuffers}.
+ *
+ * <p>Direct buffers are expensive to allocate and are only reclaimed when
+ * the GC gets around to their (tiny) heap-side owners, so transports that
+ * come and go should recycle them rather than allocate new ones.
+ */
+final class DirectBufferPool {
+    static final DirectBufferPool DEFAULT = new DirectBufferPool(64);
+
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger(0);
+    private final int maxPooled;
+
+    DirectBufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Returns a cleared direct buffer of exactly {@code capacity} bytes.
+     */
+    ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer;
+        while ((buffer = buffers.poll()) != null) {
+            pooledCount.decrementAndGet();
+            if (buffer.capacity() == capacity) {
+                buffer.clear();
+                return buffer;
+            }
+            // Wrong size; let it be collected.
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Returns the given buffer to the pool, if there is room for it.
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        if (pooledCount.incrementAndGet() > maxPooled) {
+            pooledCount.decrementAndGet();
+            return;
+        }
+
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+}
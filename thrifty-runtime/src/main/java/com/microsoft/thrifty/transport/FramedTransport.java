@@ -21,32 +21,109 @@
 package com.microsoft.thrifty.transport;
 
 import com.microsoft.thrifty.util.UnsafeByteArrayOutputStream;
+import okio.ByteString;
 
 import java.io.IOException;
 import java.io.EOFException;
+import java.net.ProtocolException;
 
 /**
  * A transport decorator that reads from and writes to the underlying transport
  * in length-prefixed frames.  Used when the server is using a non-blocking
  * implementation, which currently requires such framing.
+ *
+ * <p>By default, written data is held in memory until {@link #flush()}, when
+ * its length is known and the frame can be sent.  When the length is known
+ * in advance - for example, from {@link com.microsoft.thrifty.SizedAdapter#serializedSize} -
+ * {@link #beginFrame(int)} sends the header immediately and lets the payload
+ * stream straight through to the underlying transport instead.
+ *
+ * <p>Incoming frames larger than {@link #withMaxFrameSize(int) the maximum frame
+ * size} are rejected before any of their payload is read.  Optionally, each
+ * frame can be {@link #withWholeFrameReads(boolean) read in full} with one
+ * bulk read, after which protocols decode it directly from memory.
  */
 public class FramedTransport extends Transport {
+    /**
+     * The default limit on the size of incoming frames, matching that of
+     * the Apache Thrift implementation.
+     */
+    public static final int DEFAULT_MAX_FRAME_SIZE = 16384000;
+
+    private static final int INITIAL_FRAME_BUFFER_SIZE = 256;
+
+    // Buffers grown beyond this size to hold an unusually large frame are
+    // replaced by smaller ones once frames return to normal.
+    private static final int MAX_RETAINED_FRAME_BUFFER_SIZE = 64 * 1024;
+
     private final Transport inner;
 
+    private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private boolean wholeFrameReads;
+
     // Read state
     private int remainingBytes;
+    private final byte[] readHeaderBytes = new byte[4];
+
+    // When reading whole frames, the current frame occupies the first
+    // frameLength bytes of frameBuffer; remainingBytes of them are unread.
+    private byte[] frameBuffer;
+    private int frameLength;
 
     // Write state
     private UnsafeByteArrayOutputStream pendingWrite;
+    private final byte[] writeHeaderBytes = new byte[4];
+
+    // The number of bytes yet to be written in a frame begun with
+    // beginFrame(), or -1 if frames are being buffered.
+    private int streamingBytesRemaining = -1;
 
     public FramedTransport(Transport inner) {
         this.inner = inner;
     }
 
+    /**
+     * Sets the largest incoming frame that will be accepted; a larger frame
+     * header fails the read with a {@link ProtocolException}, before the
+     * frame's payload is read.
+     *
+     * @param maxFrameSize the maximum frame size, in bytes.
+     * @return this transport.
+     */
+    public FramedTransport withMaxFrameSize(int maxFrameSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize must be positive");
+        }
+        this.maxFrameSize = maxFrameSize;
+        return this;
+    }
+
+    /**
+     * Controls whether each incoming frame is read into memory in full, with
+     * a single bulk read, as soon as its header arrives.
+     *
+     * <p>Reads are then served from memory, so protocols can decode values in
+     * place regardless of whether the underlying transport is buffered.  The
+     * memory used is reused from frame to frame.
+     *
+     * @param wholeFrameReads true to read whole frames at once.
+     * @return this transport.
+     */
+    public FramedTransport withWholeFrameReads(boolean wholeFrameReads) {
+        if (remainingBytes > 0) {
+            throw new IllegalStateException("Cannot change read mode in the middle of a frame");
+        }
+        this.wholeFrameReads = wholeFrameReads;
+        return this;
+    }
+
     @Override
     public void close() throws IOException {
         inner.close();
         pendingWrite = null;
+        streamingBytesRemaining = -1;
+        frameBuffer = null;
+        remainingBytes = 0;
     }
 
     @Override
@@ -56,30 +133,157 @@ public class FramedTransport extends Transport {
         }
 
         int toRead = Math.min(count, remainingBytes);
+        if (wholeFrameReads) {
+            System.arraycopy(frameBuffer, frameLength - remainingBytes, buffer, offset, toRead);
+            remainingBytes -= toRead;
+            return toRead;
+        }
+
         int numRead = inner.read(buffer, offset, toRead);
         remainingBytes -= numRead;
         return numRead;
     }
 
+    /**
+     * Exposes the current frame when reading whole frames, or otherwise the
+     * inner transport's buffer, if it has one, limited to the remainder of
+     * the current frame.
+     */
+    @Override
+    public byte[] getBuffer() {
+        if (wholeFrameReads) {
+            return frameBuffer;
+        }
+        return inner.getBuffer();
+    }
+
+    @Override
+    public int getBufferPosition() {
+        if (wholeFrameReads) {
+            return frameLength - remainingBytes;
+        }
+        return inner.getBufferPosition();
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+        if (wholeFrameReads) {
+            // Zero until the next frame's header has been read.
+            return Math.max(remainingBytes, 0);
+        }
+
+        int available = inner.getBytesRemainingInBuffer();
+        if (available <= 0 || remainingBytes <= 0) {
+            // Either nothing is buffered, or the next frame's header must
+            // be read first.
+            return Math.min(available, 0);
+        }
+        return Math.min(available, remainingBytes);
+    }
+
+    @Override
+    public void consumeBuffer(int count) {
+        if (wholeFrameReads) {
+            if (count < 0 || count > remainingBytes) {
+                throw new IllegalArgumentException(
+                        "Cannot consume " + count + " bytes; only " + remainingBytes + " remain in the frame");
+            }
+        } else {
+            inner.consumeBuffer(count);
+        }
+        remainingBytes -= count;
+    }
+
     private void readHeader() throws IOException {
-        byte[] headerBytes = new byte[4];
+        int frameSize;
+        if (inner.getBytesRemainingInBuffer() >= 4) {
+            frameSize = decodeFrameSize(inner.getBuffer(), inner.getBufferPosition());
+            inner.consumeBuffer(4);
+        } else {
+            readFully(readHeaderBytes, 4);
+            frameSize = decodeFrameSize(readHeaderBytes, 0);
+        }
+
+        if (frameSize < 0) {
+            throw new ProtocolException("Negative frame size: " + frameSize);
+        }
+
+        if (frameSize > maxFrameSize) {
+            throw new ProtocolException("Frame size " + frameSize + " exceeds the maximum of " + maxFrameSize);
+        }
+
+        if (wholeFrameReads) {
+            readFully(frameBufferFor(frameSize), frameSize);
+            frameLength = frameSize;
+        }
+
+        remainingBytes = frameSize;
+    }
+
+    private byte[] frameBufferFor(int frameSize) {
+        byte[] buffer = frameBuffer;
+        boolean tooSmall = buffer == null || buffer.length < frameSize;
+        boolean oversized = buffer != null
+                && buffer.length > MAX_RETAINED_FRAME_BUFFER_SIZE
+                && frameSize <= MAX_RETAINED_FRAME_BUFFER_SIZE;
+        if (tooSmall || oversized) {
+            buffer = new byte[Math.max(frameSize, INITIAL_FRAME_BUFFER_SIZE)];
+            frameBuffer = buffer;
+        }
+        return buffer;
+    }
+
+    private void readFully(byte[] buffer, int count) throws IOException {
         int numRead = 0;
-        while (numRead < headerBytes.length) {
-            int n = inner.read(headerBytes, numRead, headerBytes.length - numRead);
+        while (numRead < count) {
+            int n = inner.read(buffer, numRead, count - numRead);
             if (n == -1) {
                 throw new EOFException();
             }
             numRead += n;
         }
+    }
+
+    private static int decodeFrameSize(byte[] buffer, int offset) {
+        return ((buffer[offset    ] & 0xFF) << 24)
+             | ((buffer[offset + 1] & 0xFF) << 16)
+             | ((buffer[offset + 2] & 0xFF) <<  8)
+             |  (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Begins a frame of exactly {@code frameSize} bytes, writing its header
+     * to the underlying transport right away.
+     *
+     * <p>Until the next {@link #flush()}, writes go directly to the underlying
+     * transport rather than being held in memory, and must add up to exactly
+     * {@code frameSize} bytes.
+     *
+     * @param frameSize the number of bytes that will be written in the frame.
+     * @throws IllegalStateException if data has been written since the last
+     *                               flush.
+     */
+    public void beginFrame(int frameSize) throws IOException {
+        if (frameSize < 0) {
+            throw new IllegalArgumentException("frameSize cannot be negative: " + frameSize);
+        }
+
+        if (streamingBytesRemaining != -1 || (pendingWrite != null && pendingWrite.size() > 0)) {
+            throw new IllegalStateException("Cannot begin a frame while another is in progress");
+        }
 
-        remainingBytes = ((headerBytes[0] & 0xFF) << 24)
-                       | ((headerBytes[1] & 0xFF) << 16)
-                       | ((headerBytes[2] & 0xFF) <<  8)
-                       | (headerBytes[3] & 0xFF);
+        writeHeader(frameSize);
+        streamingBytesRemaining = frameSize;
     }
 
     @Override
     public void write(byte[] buffer, int offset, int count) throws IOException {
+        if (streamingBytesRemaining != -1) {
+            reserveStreamingBytes(count);
+            inner.write(buffer, offset, count);
+            return;
+        }
+
         if (pendingWrite == null) {
             pendingWrite = new UnsafeByteArrayOutputStream(Math.max(count, 32));
         }
@@ -87,21 +291,56 @@ public class FramedTransport extends Transport {
         pendingWrite.write(buffer, offset, count);
     }
 
+    @Override
+    public void write(ByteString bytes) throws IOException {
+        if (streamingBytesRemaining != -1) {
+            reserveStreamingBytes(bytes.size());
+            inner.write(bytes);
+            return;
+        }
+
+        super.write(bytes);
+    }
+
+    private void reserveStreamingBytes(int count) {
+        if (count > streamingBytesRemaining) {
+            throw new IllegalStateException(
+                    "Write of " + count + " bytes exceeds the " + streamingBytesRemaining + " left in the frame");
+        }
+        streamingBytesRemaining -= count;
+    }
+
     @Override
     public void flush() throws IOException {
-        int size = pendingWrite == null ? 0 : pendingWrite.size();
+        if (streamingBytesRemaining != -1) {
+            int missing = streamingBytesRemaining;
+            streamingBytesRemaining = -1;
+            if (missing > 0) {
+                throw new IllegalStateException("Frame is " + missing + " bytes short of its declared size");
+            }
+            inner.flush();
+            return;
+        }
 
-        byte[] headerBytes = new byte[4];
-        headerBytes[0] = (byte) ((size >> 24) & 0xFF);
-        headerBytes[1] = (byte) ((size >> 16) & 0xFF);
-        headerBytes[2] = (byte) ((size >>  8) & 0xFF);
-        headerBytes[3] = (byte)  (size        & 0xFF);
+        int size = pendingWrite == null ? 0 : pendingWrite.size();
 
-        inner.write(headerBytes);
+        writeHeader(size);
 
         if (size > 0) {
             inner.write(pendingWrite.getBuffer(), 0, size);
             pendingWrite.reset();
         }
+
+        inner.flush();
+    }
+
+    private void writeHeader(int frameSize) throws IOException {
+        byte[] headerBytes = writeHeaderBytes;
+        headerBytes[0] = (byte) ((frameSize >> 24) & 0xFF);
+        headerBytes[1] = (byte) ((frameSize >> 16) & 0xFF);
+        headerBytes[2] = (byte) ((frameSize >>  8) & 0xFF);
+        headerBytes[3] = (byte)  (frameSize        & 0xFF);
+
+        inner.write(headerBytes, 0, 4);
     }
 }
@@ -0,0 +1,325 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A transport over a {@link SocketChannel}, using pooled direct buffers.
+ *
+ * <p>Writes are accumulated in a direct buffer until {@link #flush()}; reads
+ * are served from a direct buffer that is refilled in bulk.  When a single
+ * write does not fit in the remaining buffer space - for example, the
+ * payload of a large {@link FramedTransport} frame following its header -
+ * the pending bytes and the new ones are sent with one gathering
+ * {@link SocketChannel#write(ByteBuffer[])} call, rather than being copied.
+ *
+ * <p>The channel is used in non-blocking mode internally so that connect
+ * and read timeouts can be honored; from the caller's perspective all
+ * operations block, exactly as with {@link SocketTransport}.
+ *
+ * <p>Reading and writing use independent buffers and selectors, so one
+ * thread may read while another writes; beyond that, instances of this
+ * class are <em>not</em> threadsafe.
+ */
+public class SocketChannelTransport extends Transport {
+    private final String host;
+    private final int port;
+    private final int readTimeout;
+    private final int connectTimeout;
+    private final boolean tcpNoDelay;
+    private final int bufferSize;
+
+    private SocketChannel channel;
+    private Selector readSelector;
+    private Selector writeSelector;
+
+    // Always in "read mode", i.e. flipped.
+    private ByteBuffer readBuffer;
+
+    // Always in "write mode", i.e. not flipped.
+    private ByteBuffer writeBuffer;
+
+    public static class Builder {
+        private final String host;
+        private final int port;
+        private int readTimeout;
+        private int connectTimeout;
+        private boolean tcpNoDelay = true;
+        private int bufferSize = BufferedTransport.DEFAULT_BUFFER_SIZE;
+
+        public Builder(String host, int port) {
+            if (host == null || host.length() == 0) {
+                throw new NullPointerException("host");
+            }
+
+            if (port < 0 || port > 0xFFFF) {
+                throw new IllegalStateException("Invalid port number: " + port);
+            }
+
+            this.host = host;
+            this.port = port;
+        }
+
+        public Builder readTimeout(int readTimeout) {
+            if (readTimeout < 0) {
+                throw new IllegalArgumentException("readTimeout cannot be negative");
+            }
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder connectTimeout(int connectTimeout) {
+            if (connectTimeout < 0) {
+                throw new IllegalArgumentException("connectTimeout cannot be negative");
+            }
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize <= 0) {
+                throw new IllegalArgumentException("bufferSize must be positive");
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public SocketChannelTransport build() {
+            return new SocketChannelTransport(this);
+        }
+    }
+
+    SocketChannelTransport(Builder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.readTimeout = builder.readTimeout;
+        this.connectTimeout = builder.connectTimeout;
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.bufferSize = builder.bufferSize;
+    }
+
+    public boolean isConnected() {
+        SocketChannel c = channel;
+        return c != null && c.isOpen() && c.isConnected();
+    }
+
+    public void connect() throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        Selector readSelector = null;
+        Selector writeSelector = null;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+            channel.setOption(StandardSocketOptions.SO_LINGER, -1);
+
+            readSelector = Selector.open();
+            writeSelector = Selector.open();
+
+            if (!channel.connect(new InetSocketAddress(host, port))) {
+                SelectionKey key = channel.register(readSelector, SelectionKey.OP_CONNECT);
+                long deadline = deadlineFor(connectTimeout);
+                while (!channel.finishConnect()) {
+                    await(readSelector, deadline, "Connect timed out");
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                channel.register(readSelector, SelectionKey.OP_READ);
+            }
+            channel.register(writeSelector, SelectionKey.OP_WRITE);
+
+            this.channel = channel;
+            this.readSelector = readSelector;
+            this.writeSelector = writeSelector;
+            this.readBuffer = DirectBufferPool.DEFAULT.acquire(bufferSize);
+            this.readBuffer.flip(); // nothing to read yet
+            this.writeBuffer = DirectBufferPool.DEFAULT.acquire(bufferSize);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(readSelector);
+            closeQuietly(writeSelector);
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+
+        if (!readBuffer.hasRemaining()) {
+            readBuffer.clear();
+            int numRead;
+            try {
+                numRead = fill(readBuffer);
+            } finally {
+                readBuffer.flip();
+            }
+
+            if (numRead == -1) {
+                return -1;
+            }
+        }
+
+        int toCopy = Math.min(count, readBuffer.remaining());
+        readBuffer.get(buffer, offset, toCopy);
+        return toCopy;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        if (count <= writeBuffer.remaining()) {
+            writeBuffer.put(buffer, offset, count);
+            return;
+        }
+
+        if (count <= writeBuffer.capacity() / 2) {
+            // A small write that happens to straddle the end of the buffer.
+            flushBuffer();
+            writeBuffer.put(buffer, offset, count);
+            return;
+        }
+
+        // Send what we have and the new data together in one gathering write.
+        writeBuffer.flip();
+        try {
+            drain(writeBuffer, ByteBuffer.wrap(buffer, offset, count));
+        } finally {
+            writeBuffer.clear();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public void close() {
+        SocketChannel channel = this.channel;
+        Selector readSelector = this.readSelector;
+        Selector writeSelector = this.writeSelector;
+        ByteBuffer readBuffer = this.readBuffer;
+        ByteBuffer writeBuffer = this.writeBuffer;
+
+        this.channel = null;
+        this.readSelector = null;
+        this.writeSelector = null;
+        this.readBuffer = null;
+        this.writeBuffer = null;
+
+        closeQuietly(readSelector);
+        closeQuietly(writeSelector);
+        closeQuietly(channel);
+
+        DirectBufferPool.DEFAULT.release(readBuffer);
+        DirectBufferPool.DEFAULT.release(writeBuffer);
+    }
+
+    private void flushBuffer() throws IOException {
+        if (writeBuffer.position() == 0) {
+            return;
+        }
+
+        writeBuffer.flip();
+        try {
+            drain(writeBuffer);
+        } finally {
+            writeBuffer.clear();
+        }
+    }
+
+    /**
+     * Reads at least one byte into the given buffer, waiting up to the
+     * configured read timeout for data to arrive.
+     *
+     * @return the number of bytes read, or -1 at end-of-stream.
+     */
+    private int fill(ByteBuffer buffer) throws IOException {
+        int numRead = channel.read(buffer);
+        if (numRead != 0) {
+            return numRead;
+        }
+
+        long deadline = deadlineFor(readTimeout);
+        while ((numRead = channel.read(buffer)) == 0) {
+            await(readSelector, deadline, "Read timed out");
+        }
+        return numRead;
+    }
+
+    private void drain(ByteBuffer... buffers) throws IOException {
+        ByteBuffer last = buffers[buffers.length - 1];
+        while (last.hasRemaining()) {
+            if (channel.write(buffers) == 0) {
+                await(writeSelector, 0, null);
+            }
+        }
+    }
+
+    private static long deadlineFor(int timeoutMillis) {
+        return timeoutMillis == 0 ? 0 : System.currentTimeMillis() + timeoutMillis;
+    }
+
+    /**
+     * Blocks until the selector reports readiness for the registered
+     * interest set, or until the deadline passes.
+     *
+     * @param deadline the time, in epoch millis, at which to give up; zero
+     *                 means wait indefinitely.
+     */
+    private static void await(Selector selector, long deadline, String timeoutMessage) throws IOException {
+        if (deadline == 0) {
+            selector.select();
+        } else {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0 || selector.select(remaining) == 0 && System.currentTimeMillis() >= deadline) {
+                throw new SocketTimeoutException(timeoutMessage);
+            }
+        }
+        selector.selectedKeys().clear();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // nope
+            }
+        }
+    }
+}
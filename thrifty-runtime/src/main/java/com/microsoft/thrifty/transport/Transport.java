@@ -20,10 +20,17 @@
  */
 package com.microsoft.thrifty.transport;
 
+import okio.ByteString;
+
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public abstract class Transport implements Closeable {
+    private static final int SKIP_BUFFER_SIZE = 4096;
+
     public abstract int read(byte[] buffer, int offset, int count) throws IOException;
 
     public void write(byte[] data) throws IOException {
@@ -32,5 +39,149 @@ public abstract class Transport implements Closeable {
 
     public abstract void write(byte[] buffer, int offset, int count) throws IOException;
 
+    /**
+     * Reads exactly {@code count} bytes.
+     *
+     * <p>By default, the bytes are read into a new array, which the returned
+     * {@link ByteString} wraps without copying again.  Transports whose
+     * storage is never reused may instead return a view of it.
+     *
+     * @param count the number of bytes to read.
+     * @return the bytes read.
+     * @throws java.io.EOFException if the transport is exhausted before
+     *                              {@code count} bytes are read.
+     */
+    public ByteString readByteString(int count) throws IOException {
+        return ByteString.read(new TransportInputStream(this), count);
+    }
+
+    /**
+     * Reads and discards exactly {@code count} bytes.
+     *
+     * <p>Buffered bytes are discarded in place; the rest are read into a
+     * scratch array.
+     *
+     * @param count the number of bytes to skip.
+     * @throws EOFException if the transport is exhausted before
+     *                      {@code count} bytes are skipped.
+     */
+    public void skip(int count) throws IOException {
+        byte[] scratch = null;
+        while (count > 0) {
+            int buffered = getBytesRemainingInBuffer();
+            if (buffered > 0) {
+                int toSkip = Math.min(buffered, count);
+                consumeBuffer(toSkip);
+                count -= toSkip;
+                continue;
+            }
+
+            if (scratch == null) {
+                scratch = new byte[Math.min(count, SKIP_BUFFER_SIZE)];
+            }
+            int read = read(scratch, 0, Math.min(count, scratch.length));
+            if (read == -1) {
+                throw new EOFException();
+            }
+            count -= read;
+        }
+    }
+
+    /**
+     * Writes the given bytes without first copying them out of the
+     * {@link ByteString}.
+     *
+     * @param bytes the bytes to write.
+     */
+    public void write(ByteString bytes) throws IOException {
+        bytes.write(new TransportOutputStream(this));
+    }
+
     public abstract void flush() throws IOException;
+
+    /**
+     * Returns the array holding this transport's buffered input, or null if
+     * input is not buffered.
+     *
+     * <p>Transports that buffer their input in an array may expose it, so that
+     * protocols can decode directly from it instead of copying bytes out with
+     * {@link #read(byte[], int, int)}.  The protocol first calls
+     * {@link #getBytesRemainingInBuffer()}; if enough bytes are available, it
+     * decodes them from this array, starting at {@link #getBufferPosition()},
+     * and then calls {@link #consumeBuffer(int)}.  The array and position are
+     * valid only between those calls.
+     *
+     * @return the array holding buffered input, or null.
+     */
+    public byte[] getBuffer() {
+        return null;
+    }
+
+    /**
+     * Returns the offset, in {@link #getBuffer()}, of the next byte of
+     * buffered input.
+     *
+     * @return the offset of the next buffered byte.
+     */
+    public int getBufferPosition() {
+        return 0;
+    }
+
+    /**
+     * Returns the number of bytes of input that can be read directly from
+     * {@link #getBuffer()}, beginning at {@link #getBufferPosition()}.
+     *
+     * @return the number of contiguous buffered bytes, or -1 if input is not
+     *         buffered.
+     */
+    public int getBytesRemainingInBuffer() {
+        return -1;
+    }
+
+    /**
+     * Marks the given number of buffered bytes as having been read.
+     *
+     * @param count the number of bytes read directly from {@link #getBuffer()};
+     *              must not exceed {@link #getBytesRemainingInBuffer()}.
+     */
+    public void consumeBuffer(int count) {
+        throw new UnsupportedOperationException("This transport does not buffer input");
+    }
+
+    private static final class TransportInputStream extends InputStream {
+        private final Transport transport;
+
+        TransportInputStream(Transport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return transport.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return transport.read(b, off, len);
+        }
+    }
+
+    private static final class TransportOutputStream extends OutputStream {
+        private final Transport transport;
+
+        TransportOutputStream(Transport transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            transport.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            transport.write(b, off, len);
+        }
+    }
 }
@@ -22,6 +22,7 @@ package com.microsoft.thrifty.protocol;
 
 import com.microsoft.thrifty.TType;
 import com.microsoft.thrifty.transport.BufferTransport;
+import com.microsoft.thrifty.transport.BufferedTransport;
 import com.microsoft.thrifty.util.ProtocolUtil;
 import okio.Buffer;
 import okio.ByteString;
@@ -47,6 +48,18 @@ public class BinaryProtocolTest {
         assertThat(proto.readString(), is("foo"));
     }
 
+    @Test
+    public void readEmptyStringAtEndOfBuffer() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(3);
+        buffer.writeUtf8("foo");
+        buffer.writeInt(0);
+
+        BinaryProtocol proto = new BinaryProtocol(new BufferTransport(buffer));
+        assertThat(proto.readString(), is("foo"));
+        assertThat(proto.readString(), is(""));
+    }
+
     @Test
     public void readStringGreaterThanLimit() throws Exception {
         Buffer buffer = new Buffer();
@@ -73,6 +86,38 @@ public class BinaryProtocolTest {
         assertThat(proto.readBinary(), equalTo(ByteString.encodeUtf8("abcd")));
     }
 
+    @Test
+    public void readEmptyBinaryAtEndOfBuffer() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(4);
+        buffer.writeUtf8("abcd");
+        buffer.writeInt(0);
+
+        BinaryProtocol proto = new BinaryProtocol(new BufferTransport(buffer));
+        assertThat(proto.readBinary(), equalTo(ByteString.encodeUtf8("abcd")));
+        assertThat(proto.readBinary(), equalTo(ByteString.EMPTY));
+    }
+
+    @Test
+    public void largeBinaryRoundTrip() throws Exception {
+        byte[] payload = new byte[100000];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte) (i * 31);
+        }
+        ByteString expected = ByteString.of(payload);
+
+        Buffer buffer = new Buffer();
+        BinaryProtocol writer = new BinaryProtocol(new BufferTransport(buffer));
+        writer.writeBinary(expected);
+        writer.writeBinary(expected);
+
+        BinaryProtocol reader = new BinaryProtocol(new BufferTransport(buffer));
+        assertThat(reader.readBinary(), equalTo(expected));
+
+        reader = new BinaryProtocol(new BufferedTransport(new BufferTransport(buffer)));
+        assertThat(reader.readBinary(), equalTo(expected));
+    }
+
     @Test
     public void readBinaryGreaterThanLimit() throws Exception {
         Buffer buffer = new Buffer();
@@ -88,6 +133,53 @@ public class BinaryProtocolTest {
         }
     }
 
+    @Test
+    public void readNegativeStringSize() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(-1);
+
+        BinaryProtocol proto = new BinaryProtocol(new BufferTransport(buffer));
+        try {
+            proto.readString();
+            fail();
+        } catch (ProtocolException e) {
+            assertThat(e.getMessage(), containsString("Negative string size"));
+        }
+    }
+
+    @Test
+    public void readsValuesStraddlingBufferBoundaries() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeByte(1);
+        buffer.writeShort(0xFF00);
+        buffer.writeInt(0xFF0F00FF);
+        buffer.writeLong(0x0102030405060708L);
+        buffer.writeInt(5);
+        buffer.writeUtf8("hello");
+
+        // With a five-byte buffer, some values are read directly from the
+        // buffer and some are split across refills.
+        BinaryProtocol proto = new BinaryProtocol(new BufferedTransport(new BufferTransport(buffer), 5));
+        assertThat(proto.readByte(), is((byte) 1));
+        assertThat(proto.readI16(), is((short) 0xFF00));
+        assertThat(proto.readI32(), is(0xFF0F00FF));
+        assertThat(proto.readI64(), is(0x0102030405060708L));
+        assertThat(proto.readString(), is("hello"));
+    }
+
+    @Test
+    public void readsValuesStraddlingBufferSegments() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(8190);
+        buffer.write(new byte[8190]);
+        buffer.writeLong(Long.MIN_VALUE);
+
+        // The long starts two bytes before the end of the first segment.
+        BinaryProtocol proto = new BinaryProtocol(new BufferTransport(buffer));
+        assertThat(proto.readBinary().size(), is(8190));
+        assertThat(proto.readI64(), is(Long.MIN_VALUE));
+    }
+
     @Test
     public void writeByte() throws Exception {
         Buffer buffer = new Buffer();
@@ -21,13 +21,16 @@
 package com.microsoft.thrifty.protocol;
 
 import com.microsoft.thrifty.transport.BufferTransport;
+import com.microsoft.thrifty.transport.BufferedTransport;
 import okio.Buffer;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.net.ProtocolException;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class CompactProtocolTest {
     @Test
@@ -97,4 +100,68 @@ public class CompactProtocolTest {
 
         assertThat(read, equalTo(xtruct));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void varintsReadFromBuffersAndAcrossBufferEdges() throws Exception {
+        int[] ints = { 0, 1, -1, 150, -15000, 0xFFFFFF, Integer.MAX_VALUE, Integer.MIN_VALUE };
+        long[] longs = { 0, -1, 0xFFFFFFFFL, Long.MAX_VALUE, Long.MIN_VALUE };
+
+        Buffer buffer = new Buffer();
+        CompactProtocol writer = new CompactProtocol(new BufferTransport(buffer));
+        for (int i : ints) {
+            writer.writeI32(i);
+        }
+        for (long l : longs) {
+            writer.writeI64(l);
+        }
+        byte[] encoded = buffer.readByteArray();
+
+        // A seven-byte buffer means that some varints are decoded in place,
+        // while others are split across refills and read byte-by-byte.
+        for (int bufferSize : new int[] { 7, 4096 }) {
+            buffer.write(encoded);
+            BufferedTransport transport = new BufferedTransport(new BufferTransport(buffer), bufferSize);
+            CompactProtocol reader = new CompactProtocol(transport);
+            for (int i : ints) {
+                assertThat(reader.readI32(), equalTo(i));
+            }
+            for (long l : longs) {
+                assertThat(reader.readI64(), equalTo(l));
+            }
+        }
+    }
+
+    @Test
+    public void writeStringWithMultiByteLength() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            sb.append("\u00e9");
+        }
+        String str = sb.toString();
+
+        Buffer buffer = new Buffer();
+        CompactProtocol protocol = new CompactProtocol(new BufferTransport(buffer));
+        protocol.writeString(str);
+
+        // 200 bytes, as a two-byte varint
+        assertThat(buffer.readByte(), equalTo((byte) 0xC8));
+        assertThat(buffer.readByte(), equalTo((byte) 0x01));
+        assertThat(buffer.readUtf8(), equalTo(str));
+    }
+
+    @Test
+    public void malformedVarint() throws Exception {
+        Buffer buffer = new Buffer();
+        for (int i = 0; i < 10; ++i) {
+            buffer.writeByte(0x80);
+        }
+
+        CompactProtocol protocol = new CompactProtocol(new BufferTransport(buffer));
+        try {
+            protocol.readI32();
+            fail();
+        } catch (ProtocolException e) {
+            assertThat(e.getMessage(), equalTo("Malformed varint"));
+        }
+    }
+}
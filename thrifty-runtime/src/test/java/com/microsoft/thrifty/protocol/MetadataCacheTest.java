@@ -0,0 +1,90 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+import com.microsoft.thrifty.TType;
+import com.microsoft.thrifty.transport.BufferTransport;
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MetadataCacheTest {
+    @Test
+    public void equalKeysShareAnInstance() {
+        FieldMetadata field = MetadataCache.field(TType.I32, (short) 7);
+        assertThat(MetadataCache.field(TType.I32, (short) 7), sameInstance(field));
+
+        ListMetadata list = MetadataCache.list(TType.STRING, 3);
+        assertThat(MetadataCache.list(TType.STRING, 3), sameInstance(list));
+
+        SetMetadata set = MetadataCache.set(TType.I64, 2);
+        assertThat(MetadataCache.set(TType.I64, 2), sameInstance(set));
+
+        MapMetadata map = MetadataCache.map(TType.STRING, TType.STRUCT, 5);
+        assertThat(MetadataCache.map(TType.STRING, TType.STRUCT, 5), sameInstance(map));
+    }
+
+    @Test
+    public void collidingKeysAreNotConfused() {
+        // Field IDs 1 and 129 share a slot.
+        FieldMetadata low = MetadataCache.field(TType.I32, (short) 1);
+        FieldMetadata high = MetadataCache.field(TType.I32, (short) 129);
+        assertThat(low.fieldId, is((short) 1));
+        assertThat(high.fieldId, is((short) 129));
+        assertThat(MetadataCache.field(TType.I32, (short) 1).fieldId, is((short) 1));
+
+        // Sizes 1 and 65 share a slot.
+        assertThat(MetadataCache.list(TType.I32, 1).size, is(1));
+        assertThat(MetadataCache.list(TType.I32, 65).size, is(65));
+    }
+
+    @Test
+    public void protocolsReturnSharedFieldMetadata() throws Exception {
+        Buffer buffer = new Buffer();
+        CompactProtocol protocol = new CompactProtocol(new BufferTransport(buffer));
+
+        for (int i = 0; i < 2; ++i) {
+            protocol.writeStructBegin("S");
+            protocol.writeFieldBegin("f", 3, TType.I64);
+            protocol.writeI64(42);
+            protocol.writeFieldEnd();
+            protocol.writeFieldStop();
+            protocol.writeStructEnd();
+        }
+
+        FieldMetadata[] fields = new FieldMetadata[2];
+        for (int i = 0; i < 2; ++i) {
+            protocol.readStructBegin();
+            fields[i] = protocol.readFieldBegin();
+            assertThat(protocol.readI64(), is(42L));
+            protocol.readFieldEnd();
+            assertThat(protocol.readFieldBegin().typeId, is(TType.STOP));
+            protocol.readStructEnd();
+        }
+
+        assertThat(fields[0].fieldId, is((short) 3));
+        assertThat(fields[0].typeId, is(TType.I64));
+        assertThat(fields[1], sameInstance(fields[0]));
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+import com.microsoft.thrifty.SizedAdapter;
+import com.microsoft.thrifty.TType;
+import com.microsoft.thrifty.transport.BufferTransport;
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ProtocolSizerTest {
+    /**
+     * Measures {@link Xtruct}s, as a generated adapter would; the
+     * hand-written {@link Xtruct#ADAPTER} only reads and writes them.
+     */
+    public static final SizedAdapter<Xtruct, Xtruct.Builder> SIZED_XTRUCT_ADAPTER = new SizedXtructAdapter();
+
+    private static final Xtruct XTRUCT = new Xtruct.Builder()
+            .string_thing("h\u00e9llo, \u4e16\u754c \ud83d\ude00")
+            .byte_thing((byte) -1)
+            .i32_thing(-300)
+            .i64_thing(Long.MIN_VALUE)
+            .double_thing(3.14)
+            .bool_thing(true)
+            .build();
+
+    @Test
+    public void binarySizeMatchesEncoding() throws Exception {
+        Buffer buffer = new Buffer();
+        BinaryProtocol protocol = new BinaryProtocol(new BufferTransport(buffer));
+
+        int size = writeEverything(protocol, ProtocolSizer.binary());
+
+        assertThat(size, is((int) buffer.size()));
+    }
+
+    @Test
+    public void compactSizeMatchesEncoding() throws Exception {
+        Buffer buffer = new Buffer();
+        CompactProtocol protocol = new CompactProtocol(new BufferTransport(buffer));
+
+        int size = writeEverything(protocol, ProtocolSizer.compact());
+
+        assertThat(size, is((int) buffer.size()));
+    }
+
+    @Test
+    public void structSizeMatchesEncoding() throws Exception {
+        Xtruct sparse = new Xtruct.Builder().bool_thing(false).build();
+        for (Xtruct xtruct : new Xtruct[] { XTRUCT, sparse }) {
+            Buffer binary = new Buffer();
+            Xtruct.ADAPTER.write(new BinaryProtocol(new BufferTransport(binary)), xtruct);
+            assertThat(SIZED_XTRUCT_ADAPTER.serializedSize(ProtocolSizer.binary(), xtruct), is((int) binary.size()));
+
+            Buffer compact = new Buffer();
+            Xtruct.ADAPTER.write(new CompactProtocol(new BufferTransport(compact)), xtruct);
+            assertThat(SIZED_XTRUCT_ADAPTER.serializedSize(ProtocolSizer.compact(), xtruct), is((int) compact.size()));
+        }
+    }
+
+    /**
+     * Writes a variety of values to the protocol, making the same calls
+     * against the sizer, and returns the total computed size.
+     */
+    private static int writeEverything(Protocol protocol, ProtocolSizer sizer) throws IOException {
+        int size = 0;
+
+        protocol.writeStructBegin("Outer");
+        sizer.structBegin();
+
+        // A bool field, whose value is folded into the compact field header.
+        protocol.writeFieldBegin("flag", 1, TType.BOOL);
+        protocol.writeBool(true);
+        size += sizer.fieldBegin(1, TType.BOOL);
+        size += sizer.boolValue(true);
+
+        // Field IDs too far apart for compact delta encoding.
+        protocol.writeFieldBegin("far", 1000, TType.I16);
+        protocol.writeI16((short) -2);
+        size += sizer.fieldBegin(1000, TType.I16);
+        size += sizer.i16((short) -2);
+
+        protocol.writeFieldBegin("back", 2, TType.I32);
+        protocol.writeI32(Integer.MAX_VALUE);
+        size += sizer.fieldBegin(2, TType.I32);
+        size += sizer.i32(Integer.MAX_VALUE);
+
+        protocol.writeFieldBegin("nested", 3, TType.STRUCT);
+        Xtruct.ADAPTER.write(protocol, XTRUCT);
+        size += sizer.fieldBegin(3, TType.STRUCT);
+        size += SIZED_XTRUCT_ADAPTER.serializedSize(sizer, XTRUCT);
+
+        // Long enough to need an explicit size in compact.
+        protocol.writeFieldBegin("bools", 4, TType.LIST);
+        protocol.writeListBegin(TType.BOOL, 20);
+        size += sizer.fieldBegin(4, TType.LIST);
+        size += sizer.listBegin(TType.BOOL, 20);
+        for (int i = 0; i < 20; ++i) {
+            protocol.writeBool(i % 2 == 0);
+            size += sizer.boolValue(i % 2 == 0);
+        }
+
+        protocol.writeFieldBegin("set", 5, TType.SET);
+        protocol.writeSetBegin(TType.I64, 2);
+        protocol.writeI64(0L);
+        protocol.writeI64(-1234567890123L);
+        size += sizer.fieldBegin(5, TType.SET);
+        size += sizer.setBegin(TType.I64, 2);
+        size += sizer.i64(0L);
+        size += sizer.i64(-1234567890123L);
+
+        protocol.writeFieldBegin("empty", 6, TType.MAP);
+        protocol.writeMapBegin(TType.STRING, TType.DOUBLE, 0);
+        size += sizer.fieldBegin(6, TType.MAP);
+        size += sizer.mapBegin(TType.STRING, TType.DOUBLE, 0);
+
+        protocol.writeFieldBegin("map", 7, TType.MAP);
+        protocol.writeMapBegin(TType.STRING, TType.STRING, 1);
+        protocol.writeString("");
+        protocol.writeBinary(ByteString.of(new byte[200]));
+        size += sizer.fieldBegin(7, TType.MAP);
+        size += sizer.mapBegin(TType.STRING, TType.STRING, 1);
+        size += sizer.string("");
+        size += sizer.binary(ByteString.of(new byte[200]));
+
+        protocol.writeFieldBegin("byte", 8, TType.BYTE);
+        protocol.writeByte((byte) 0x7F);
+        size += sizer.fieldBegin(8, TType.BYTE);
+        size += sizer.byteValue((byte) 0x7F);
+
+        protocol.writeFieldBegin("unpaired", 9, TType.STRING);
+        protocol.writeString("\ud800x");
+        size += sizer.fieldBegin(9, TType.STRING);
+        size += sizer.string("\ud800x");
+
+        protocol.writeFieldBegin("double", 10, TType.DOUBLE);
+        protocol.writeDouble(-0.5);
+        size += sizer.fieldBegin(10, TType.DOUBLE);
+        size += sizer.doubleValue(-0.5);
+
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        size += sizer.fieldStop();
+        sizer.structEnd();
+
+        return size;
+    }
+
+    private static final class SizedXtructAdapter implements SizedAdapter<Xtruct, Xtruct.Builder> {
+        @Override
+        public Xtruct read(Protocol protocol) throws IOException {
+            return Xtruct.ADAPTER.read(protocol);
+        }
+
+        @Override
+        public Xtruct read(Protocol protocol, Xtruct.Builder builder) throws IOException {
+            return Xtruct.ADAPTER.read(protocol, builder);
+        }
+
+        @Override
+        public void write(Protocol protocol, Xtruct struct) throws IOException {
+            Xtruct.ADAPTER.write(protocol, struct);
+        }
+
+        @Override
+        public int serializedSize(ProtocolSizer sizer, Xtruct struct) {
+            int size = 0;
+            sizer.structBegin();
+            if (struct.string_thing != null) {
+                size += sizer.fieldBegin(1, TType.STRING);
+                size += sizer.string(struct.string_thing);
+            }
+            if (struct.byte_thing != null) {
+                size += sizer.fieldBegin(4, TType.BYTE);
+                size += sizer.byteValue(struct.byte_thing);
+            }
+            if (struct.i32_thing != null) {
+                size += sizer.fieldBegin(9, TType.I32);
+                size += sizer.i32(struct.i32_thing);
+            }
+            if (struct.i64_thing != null) {
+                size += sizer.fieldBegin(11, TType.I64);
+                size += sizer.i64(struct.i64_thing);
+            }
+            if (struct.double_thing != null) {
+                size += sizer.fieldBegin(13, TType.DOUBLE);
+                size += sizer.doubleValue(struct.double_thing);
+            }
+            if (struct.bool_thing != null) {
+                size += sizer.fieldBegin(15, TType.BOOL);
+                size += sizer.boolValue(struct.bool_thing);
+            }
+            size += sizer.fieldStop();
+            sizer.structEnd();
+            return size;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+import com.microsoft.thrifty.transport.BufferTransport;
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class StringCacheTest {
+    @Test
+    public void repeatedValuesShareAnInstance() throws Exception {
+        StringCache cache = new StringCache();
+        byte[] encoded = "hostname".getBytes("UTF-8");
+        byte[] padded = "__hostname__".getBytes("UTF-8");
+
+        String first = cache.decode(encoded, 0, encoded.length);
+        String second = cache.decode(padded, 2, encoded.length);
+
+        assertThat(first, equalTo("hostname"));
+        assertThat(second, sameInstance(first));
+    }
+
+    @Test
+    public void longValuesAreNotCached() throws Exception {
+        StringCache cache = new StringCache(16, 4);
+        byte[] encoded = "hostname".getBytes("UTF-8");
+
+        String first = cache.decode(encoded, 0, encoded.length);
+        String second = cache.decode(encoded, 0, encoded.length);
+
+        assertThat(second, equalTo(first));
+        assertThat(second, not(sameInstance(first)));
+    }
+
+    @Test
+    public void newValuesReplaceOldOnes() throws Exception {
+        StringCache cache = new StringCache(1, 64);
+        byte[] a = "a".getBytes("UTF-8");
+        byte[] b = "b".getBytes("UTF-8");
+
+        String first = cache.decode(a, 0, 1);
+        assertThat(cache.decode(b, 0, 1), equalTo("b"));
+        assertThat(cache.decode(a, 0, 1), not(sameInstance(first)));
+    }
+
+    @Test
+    public void protocolsDecodeThroughTheCache() throws Exception {
+        StringCache cache = new StringCache();
+        Buffer buffer = new Buffer();
+        BufferTransport transport = new BufferTransport(buffer);
+
+        BinaryProtocol binary = new BinaryProtocol(transport).withStringCache(cache);
+        binary.writeString("tag");
+        binary.writeString("tag");
+        String first = binary.readString();
+        assertThat(binary.readString(), sameInstance(first));
+
+        CompactProtocol compact = new CompactProtocol(transport).withStringCache(cache);
+        compact.writeString("tag");
+        assertThat(compact.readString(), sameInstance(first));
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.protocol;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class Utf8EncoderTest {
+    @Test
+    public void matchesStringGetBytes() throws Exception {
+        String[] strings = {
+                "",
+                "ascii only",
+                "caf\u00e9",
+                "\u20ac100",
+                "\u65e5\u672c\u8a9e",
+                "emoji \ud83d\ude00 in the middle",
+                "unpaired \ud83d high surrogate",
+                "unpaired \ude00 low surrogate",
+                "trailing high surrogate \ud83d",
+        };
+
+        Utf8Encoder encoder = new Utf8Encoder();
+        for (String str : strings) {
+            assertEncodesLikeGetBytes(encoder, str);
+        }
+    }
+
+    @Test
+    public void stringsLargerThanTheBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 20000) {
+            sb.append("abc\u00e9\u20ac\ud83d\ude00");
+        }
+
+        Utf8Encoder encoder = new Utf8Encoder();
+        assertEncodesLikeGetBytes(encoder, sb.substring(0, 1000));
+        assertEncodesLikeGetBytes(encoder, sb.toString());
+        assertEncodesLikeGetBytes(encoder, "small again");
+    }
+
+    private static void assertEncodesLikeGetBytes(Utf8Encoder encoder, String str) throws Exception {
+        byte[] expected = str.getBytes("UTF-8");
+
+        int length = encoder.encode(str, 5);
+        assertThat(length, equalTo(expected.length));
+        assertThat(Utf8Encoder.encodedLength(str), equalTo(expected.length));
+        assertThat(Arrays.copyOfRange(encoder.buffer(), 5, 5 + length), equalTo(expected));
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import com.microsoft.thrifty.TType;
+import com.microsoft.thrifty.ThriftException;
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.FieldMetadata;
+import com.microsoft.thrifty.protocol.MessageMetadata;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.transport.SocketTransport;
+import com.microsoft.thrifty.transport.Transport;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncClientBaseTest {
+    private ServerSocket serverSocket;
+    private Thread serverThread;
+    private final AtomicInteger receivedCalls = new AtomicInteger();
+    private TestClient client;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        serverSocket.close();
+        if (serverThread != null) {
+            serverThread.join(2000);
+        }
+    }
+
+    @Test
+    public void pipelinedCallsAreSentBeforeResponsesAreRead() throws Exception {
+        // The server won't respond until it has received all of the calls;
+        // this would deadlock if the client waited for each response.
+        serve(4, false);
+        client = connect(new AsyncClientConfig.Builder().maxInFlight(4).build());
+
+        RecordingCallback callback = new RecordingCallback(4);
+        for (int i = 0; i < 4; ++i) {
+            client.echo(i, callback);
+        }
+
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(0, 1, 2, 3)));
+    }
+
+    @Test
+    public void sequentialClientStillWorks() throws Exception {
+        serve(1, false);
+        client = connect(AsyncClientConfig.DEFAULT);
+
+        RecordingCallback callback = new RecordingCallback(3);
+        for (int i = 0; i < 3; ++i) {
+            client.echo(i, callback);
+        }
+
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(0, 1, 2)));
+    }
+
+    @Test
+    public void outOfOrderResponsesAreAnError() throws Exception {
+        serve(2, true);
+        RecordingListener listener = new RecordingListener();
+        client = connect(new AsyncClientConfig.Builder().maxInFlight(2).build(), listener);
+
+        RecordingCallback callback = new RecordingCallback(2);
+        client.echo(0, callback);
+        client.echo(1, callback);
+
+        assertTrue(callback.await());
+        Throwable error = listener.errors.poll(2, TimeUnit.SECONDS);
+        assertThat(error, instanceOf(ThriftException.class));
+        assertThat(((ThriftException) error).kind, is(ThriftException.Kind.BAD_SEQUENCE_ID));
+        assertThat(callback.results.get(0), instanceOf(ThriftException.class));
+        assertThat(callback.results.get(1), instanceOf(ThriftException.class));
+    }
+
+    @Test
+    public void outOfOrderResponsesAreMatchedBySequenceId() throws Exception {
+        serve(4, true);
+        RecordingListener listener = new RecordingListener();
+        client = connect(new AsyncClientConfig.Builder()
+                .maxInFlight(4)
+                .outOfOrderResponses(true)
+                .build(), listener);
+
+        RecordingCallback callback = new RecordingCallback(8);
+        for (int i = 0; i < 8; ++i) {
+            client.echo(i, callback);
+        }
+
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(3, 2, 1, 0, 7, 6, 5, 4)));
+        assertThat(listener.errors.isEmpty(), is(true));
+    }
+
+    @Test
+    public void sharedCallbackExecutorPreservesOrder() throws Exception {
+        serve(1, false);
+        ExecutorService shared = Executors.newFixedThreadPool(4);
+        try {
+            client = connect(new AsyncClientConfig.Builder()
+                    .callbackExecutor(shared)
+                    .build());
+
+            RecordingCallback callback = new RecordingCallback(20);
+            for (int i = 0; i < 20; ++i) {
+                client.echo(i, callback);
+            }
+
+            assertTrue(callback.await());
+            List<Object> expected = new ArrayList<>();
+            for (int i = 0; i < 20; ++i) {
+                expected.add(i);
+            }
+            assertThat(callback.results, is(expected));
+        } finally {
+            client.close();
+            shared.shutdown();
+        }
+    }
+
+    @Test
+    public void directExecutorRunsCallbacksOnTheIoThread() throws Exception {
+        serve(1, false);
+        final List<Thread> ioThreads = Collections.synchronizedList(new ArrayList<Thread>());
+        Executor ioExecutor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                Thread thread = new Thread(command);
+                ioThreads.add(thread);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        };
+
+        client = connect(new AsyncClientConfig.Builder()
+                .ioExecutor(ioExecutor)
+                .callbackExecutor(AsyncClientConfig.directExecutor())
+                .build());
+
+        final AtomicReference<Thread> callbackThread = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.echo(1, new ServiceMethodCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer result) {
+                callbackThread.set(Thread.currentThread());
+                latch.countDown();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertThat(ioThreads.size(), is(1));
+        assertThat(callbackThread.get(), sameInstance(ioThreads.get(0)));
+    }
+
+    @Test
+    public void virtualThreadExecutorWhereSupported() throws Exception {
+        Executor executor;
+        try {
+            executor = AsyncClientConfig.virtualThreadExecutor();
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+
+        serve(2, false);
+        client = connect(new AsyncClientConfig.Builder()
+                .maxInFlight(2)
+                .ioExecutor(executor)
+                .callbackExecutor(executor)
+                .build());
+
+        RecordingCallback callback = new RecordingCallback(2);
+        client.echo(0, callback);
+        client.echo(1, callback);
+
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(0, 1)));
+    }
+
+    @Test
+    public void fullQueueFailsNewCalls() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        serve(1, false, gate);
+        client = connect(new AsyncClientConfig.Builder()
+                .maxPendingCalls(1)
+                .overflowPolicy(AsyncClientConfig.OverflowPolicy.FAIL)
+                .build());
+
+        RecordingCallback callback = new RecordingCallback(2);
+        client.echo(0, callback);
+        awaitDequeued(1);
+        client.echo(1, callback);
+
+        RecordingCallback rejected = new RecordingCallback(1);
+        client.echo(2, rejected);
+        assertTrue(rejected.await());
+        assertThat(rejected.results.get(0), instanceOf(RejectedExecutionException.class));
+
+        gate.countDown();
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(0, 1)));
+
+        CallQueueMetrics metrics = client.callQueueMetrics();
+        assertThat(metrics.rejectedCount(), is(1L));
+        assertThat(metrics.dequeuedCount(), is(2L));
+        assertThat(metrics.depth(), is(0));
+        assertThat(metrics.maxDepth(), is(1));
+    }
+
+    @Test
+    public void fullQueueDropsOldestCall() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        serve(1, false, gate);
+        client = connect(new AsyncClientConfig.Builder()
+                .maxPendingCalls(2)
+                .overflowPolicy(AsyncClientConfig.OverflowPolicy.DROP_OLDEST)
+                .build());
+
+        RecordingCallback callback = new RecordingCallback(4);
+        client.echo(0, callback);
+        awaitDequeued(1);
+        client.echo(1, callback);
+        client.echo(2, callback);
+        client.echo(3, callback);
+        gate.countDown();
+
+        assertTrue(callback.await());
+        assertThat(callback.results.get(0), instanceOf(RejectedExecutionException.class));
+        assertThat(callback.results.subList(1, 4), is(Arrays.<Object>asList(0, 2, 3)));
+
+        CallQueueMetrics metrics = client.callQueueMetrics();
+        assertThat(metrics.droppedCount(), is(1L));
+        assertThat(metrics.dequeuedCount(), is(3L));
+        assertThat(metrics.maxDepth(), is(2));
+    }
+
+    @Test
+    public void fullQueueBlocksCaller() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        serve(1, false, gate);
+        client = connect(new AsyncClientConfig.Builder()
+                .maxPendingCalls(1)
+                .overflowPolicy(AsyncClientConfig.OverflowPolicy.BLOCK)
+                .build());
+
+        final RecordingCallback callback = new RecordingCallback(3);
+        client.echo(0, callback);
+        awaitDequeued(1);
+        client.echo(1, callback);
+
+        Thread caller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                client.echo(2, callback);
+            }
+        });
+        caller.start();
+        caller.join(100);
+        assertTrue(caller.isAlive());
+
+        gate.countDown();
+        caller.join(2000);
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(0, 1, 2)));
+        assertTrue(client.callQueueMetrics().maxWaitTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void queuedCallThatExpiresIsNeverSent() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        serve(1, false, gate);
+        client = connect(AsyncClientConfig.DEFAULT);
+
+        RecordingCallback first = new RecordingCallback(1);
+        client.echo(0, first);
+        awaitDequeued(1);
+
+        RecordingCallback expired = new RecordingCallback(1);
+        CallHandle handle = client.echo(1, expired).withTimeout(20, TimeUnit.MILLISECONDS);
+        assertTrue(expired.await());
+        assertThat(expired.results.get(0), instanceOf(TimeoutException.class));
+        assertTrue(handle.isDone());
+        assertFalse(handle.isCancelled());
+
+        gate.countDown();
+        RecordingCallback last = new RecordingCallback(1);
+        client.echo(2, last);
+        assertTrue(first.await());
+        assertTrue(last.await());
+        assertThat(first.results, is(Arrays.<Object>asList(0)));
+        assertThat(last.results, is(Arrays.<Object>asList(2)));
+        assertThat(receivedCalls.get(), is(2));
+    }
+
+    @Test
+    public void cancelledQueuedCallIsNeverSent() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        serve(1, false, gate);
+        client = connect(AsyncClientConfig.DEFAULT);
+
+        RecordingCallback callback = new RecordingCallback(3);
+        client.echo(0, callback);
+        awaitDequeued(1);
+
+        CallHandle handle = client.echo(1, callback);
+        assertTrue(handle.cancel());
+        assertTrue(handle.isCancelled());
+        assertFalse(handle.cancel());
+        assertThat(client.callQueueMetrics().depth(), is(0));
+
+        client.echo(2, callback);
+        gate.countDown();
+
+        assertTrue(callback.await());
+        assertThat(callback.results.get(0), instanceOf(CancellationException.class));
+        assertThat(callback.results.subList(1, 3), is(Arrays.<Object>asList(0, 2)));
+        assertThat(receivedCalls.get(), is(2));
+    }
+
+    @Test
+    public void callTimeoutFailsOnlyTheCall() throws Exception {
+        CountDownLatch gate = new CountDownLatch(1);
+        serve(1, false, gate);
+        RecordingListener listener = new RecordingListener();
+        client = connect(new AsyncClientConfig.Builder()
+                .maxInFlight(2)
+                .callTimeout(20, TimeUnit.MILLISECONDS)
+                .build(), listener);
+
+        RecordingCallback timedOut = new RecordingCallback(1);
+        client.echo(0, timedOut);
+        assertTrue(timedOut.await());
+        assertThat(timedOut.results.get(0), instanceOf(TimeoutException.class));
+
+        // The late response to the first call is read and discarded.
+        gate.countDown();
+        RecordingCallback callback = new RecordingCallback(1);
+        client.echo(1, callback).withTimeout(2, TimeUnit.SECONDS);
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(1)));
+        assertThat(timedOut.results.size(), is(1));
+        assertThat(listener.errors.isEmpty(), is(true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxPendingCallsMustBePositive() {
+        new AsyncClientConfig.Builder().maxPendingCalls(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void maxInFlightMustBePositive() {
+        new AsyncClientConfig.Builder().maxInFlight(0);
+    }
+
+    private TestClient connect(AsyncClientConfig config) throws IOException {
+        return connect(config, new RecordingListener());
+    }
+
+    private TestClient connect(AsyncClientConfig config, AsyncClientBase.Listener listener) throws IOException {
+        SocketTransport transport = new SocketTransport.Builder("localhost", serverSocket.getLocalPort())
+                .readTimeout(2000)
+                .build();
+        transport.connect();
+        return new TestClient(new BinaryProtocol(transport), listener, config);
+    }
+
+    private void awaitDequeued(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (client.callQueueMetrics().dequeuedCount() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Timed out waiting for calls to be dequeued");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private void serve(int batchSize, boolean reverse) {
+        serve(batchSize, reverse, null);
+    }
+
+    /**
+     * Starts a server that reads {@code batchSize} calls before responding
+     * to any of them, optionally responding in reverse order.  If a gate is
+     * given, no responses are written until it opens.
+     */
+    private void serve(final int batchSize, final boolean reverse, final CountDownLatch gate) {
+        serverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = serverSocket.accept()) {
+                    Protocol protocol = new BinaryProtocol(new StreamTransport(socket));
+                    while (true) {
+                        List<int[]> batch = new ArrayList<>();
+                        for (int i = 0; i < batchSize; ++i) {
+                            MessageMetadata metadata = protocol.readMessageBegin();
+                            protocol.readStructBegin();
+                            protocol.readFieldBegin();
+                            int value = protocol.readI32();
+                            protocol.readFieldEnd();
+                            protocol.readFieldBegin();
+                            protocol.readStructEnd();
+                            protocol.readMessageEnd();
+                            batch.add(new int[] { metadata.seqId, value });
+                            receivedCalls.incrementAndGet();
+                        }
+
+                        if (reverse) {
+                            Collections.reverse(batch);
+                        }
+
+                        if (gate != null) {
+                            gate.await();
+                        }
+
+                        for (int[] call : batch) {
+                            protocol.writeMessageBegin("echo", TMessageType.REPLY, call[0]);
+                            protocol.writeStructBegin("echo_result");
+                            protocol.writeFieldBegin("success", 0, TType.I32);
+                            protocol.writeI32(call[1]);
+                            protocol.writeFieldEnd();
+                            protocol.writeFieldStop();
+                            protocol.writeStructEnd();
+                            protocol.writeMessageEnd();
+                        }
+                        protocol.flush();
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                    // test is over
+                }
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    static class TestClient extends AsyncClientBase {
+        TestClient(Protocol protocol, Listener listener, AsyncClientConfig config) {
+            super(protocol, listener, config);
+        }
+
+        CallHandle echo(int value, ServiceMethodCallback<Integer> callback) {
+            return enqueue(new EchoCall(value, callback));
+        }
+    }
+
+    static class EchoCall extends MethodCall<Integer> {
+        private final int value;
+
+        EchoCall(int value, ServiceMethodCallback<Integer> callback) {
+            super("echo", TMessageType.CALL, callback);
+            this.value = value;
+        }
+
+        @Override
+        protected void send(Protocol protocol) throws IOException {
+            protocol.writeStructBegin("echo_args");
+            protocol.writeFieldBegin("value", 1, TType.I32);
+            protocol.writeI32(value);
+            protocol.writeFieldEnd();
+            protocol.writeFieldStop();
+            protocol.writeStructEnd();
+        }
+
+        @Override
+        protected Integer receive(Protocol protocol, MessageMetadata metadata) throws Exception {
+            protocol.readStructBegin();
+            protocol.readFieldBegin();
+            int result = protocol.readI32();
+            protocol.readFieldEnd();
+            FieldMetadata field = protocol.readFieldBegin();
+            if (field.typeId != TType.STOP) {
+                throw new AssertionError("Expected a single field");
+            }
+            protocol.readStructEnd();
+            return result;
+        }
+    }
+
+    static class RecordingCallback implements ServiceMethodCallback<Integer> {
+        final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+        private final CountDownLatch latch;
+
+        RecordingCallback(int expected) {
+            this.latch = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onSuccess(Integer result) {
+            results.add(result);
+            latch.countDown();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            results.add(error);
+            latch.countDown();
+        }
+
+        boolean await() throws InterruptedException {
+            return latch.await(2, TimeUnit.SECONDS);
+        }
+    }
+
+    static class RecordingListener implements AsyncClientBase.Listener {
+        final BlockingQueue<Throwable> errors = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onTransportClosed() {
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            errors.add(error);
+        }
+    }
+
+    private static class StreamTransport extends Transport {
+        private final InputStream in;
+        private final OutputStream out;
+
+        StreamTransport(Socket socket) throws IOException {
+            this.in = socket.getInputStream();
+            this.out = socket.getOutputStream();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            return in.read(buffer, offset, count);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            out.write(buffer, offset, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import com.microsoft.thrifty.TType;
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.MessageMetadata;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.service.AsyncClientBaseTest.RecordingCallback;
+import com.microsoft.thrifty.service.AsyncClientBaseTest.TestClient;
+import com.microsoft.thrifty.transport.SocketTransport;
+import com.microsoft.thrifty.transport.Transport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ClientPoolTest {
+    private static final ClientPool.ClientFactory<TestClient> FACTORY = new ClientPool.ClientFactory<TestClient>() {
+        @Override
+        public TestClient createClient(Protocol protocol, AsyncClientBase.Listener listener, AsyncClientConfig config) {
+            return new TestClient(protocol, listener, config);
+        }
+    };
+
+    private ServerSocket serverSocket;
+    private ClientPool<TestClient> pool;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        serveEcho(serverSocket.accept());
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }
+        });
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        if (pool != null) {
+            pool.close();
+        }
+        serverSocket.close();
+    }
+
+    @Test
+    public void releasedClientsAreReused() throws Exception {
+        pool = builder().build();
+
+        TestClient first = pool.lease();
+        pool.release(first);
+        TestClient second = pool.lease();
+
+        assertThat(second, sameInstance(first));
+        assertThat(pool.size(), is(1));
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void leaseTimesOutWhenPoolIsExhausted() throws Exception {
+        pool = builder()
+                .maxSize(2)
+                .leaseTimeout(50, TimeUnit.MILLISECONDS)
+                .build();
+
+        pool.lease();
+        pool.lease();
+        pool.lease();
+    }
+
+    @Test
+    public void waitingLeaseIsServedOnRelease() throws Exception {
+        pool = builder().maxSize(1).build();
+        final TestClient client = pool.lease();
+
+        final AtomicReference<TestClient> leased = new AtomicReference<>();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    leased.set(pool.lease());
+                } catch (IOException ignored) {
+                    // leased stays null
+                }
+            }
+        });
+        waiter.start();
+
+        Thread.sleep(50);
+        assertThat(leased.get(), nullValue());
+
+        pool.release(client);
+        waiter.join(2000);
+        assertThat(leased.get(), sameInstance(client));
+    }
+
+    @Test
+    public void closedClientsAreDiscarded() throws Exception {
+        pool = builder().build();
+
+        TestClient client = pool.lease();
+        client.close();
+        pool.release(client);
+
+        assertThat(pool.size(), is(0));
+        assertThat(pool.lease(), not(sameInstance(client)));
+    }
+
+    @Test
+    public void idleConnectionsAreEvictedDownToMinSize() throws Exception {
+        pool = builder()
+                .minSize(1)
+                .idleTimeout(1, TimeUnit.HOURS)
+                .build();
+        awaitIdleCount(1);
+
+        TestClient first = pool.lease();
+        TestClient second = pool.lease();
+        pool.release(first);
+        pool.release(second);
+
+        pool.evictIdle();
+        assertThat(pool.size(), is(2));
+
+        pool.close();
+        pool = builder()
+                .minSize(1)
+                .idleTimeout(1, TimeUnit.MILLISECONDS)
+                .build();
+        awaitIdleCount(1);
+
+        first = pool.lease();
+        second = pool.lease();
+        pool.release(first);
+        pool.release(second);
+
+        Thread.sleep(20);
+        pool.evictIdle();
+        assertThat(pool.size(), is(1));
+        assertThat(pool.idleCount(), is(1));
+    }
+
+    @Test
+    public void minSizeConnectionsAreOpenedAndReplaced() throws Exception {
+        pool = builder()
+                .minSize(2)
+                .idleTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        awaitIdleCount(2);
+        assertThat(pool.size(), is(2));
+
+        TestClient client = pool.lease();
+        client.close();
+        pool.release(client);
+
+        awaitIdleCount(2);
+        assertThat(pool.size(), is(2));
+    }
+
+    @Test
+    public void releaseOnCompletionReturnsClientBeforeCallback() throws Exception {
+        pool = builder().build();
+
+        TestClient client = pool.lease();
+        RecordingCallback callback = new RecordingCallback(1);
+        client.echo(42, pool.releaseOnCompletion(client, callback));
+
+        assertTrue(callback.await());
+        assertThat(callback.results, is(Arrays.<Object>asList(42)));
+        assertThat(pool.idleCount(), is(1));
+    }
+
+    private void awaitIdleCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (pool.idleCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(pool.idleCount(), is(count));
+    }
+
+    private ClientPool.Builder<TestClient> builder() {
+        SocketTransport.Builder transport = new SocketTransport.Builder("localhost", serverSocket.getLocalPort())
+                .readTimeout(2000);
+        return new ClientPool.Builder<>(transport, FACTORY);
+    }
+
+    private static void serveEcho(final Socket socket) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket s = socket) {
+                    final InputStream in = s.getInputStream();
+                    final OutputStream out = s.getOutputStream();
+                    Protocol protocol = new BinaryProtocol(new Transport() {
+                        @Override
+                        public int read(byte[] buffer, int offset, int count) throws IOException {
+                            return in.read(buffer, offset, count);
+                        }
+
+                        @Override
+                        public void write(byte[] buffer, int offset, int count) throws IOException {
+                            out.write(buffer, offset, count);
+                        }
+
+                        @Override
+                        public void flush() throws IOException {
+                            out.flush();
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            s.close();
+                        }
+                    });
+
+                    while (true) {
+                        MessageMetadata metadata = protocol.readMessageBegin();
+                        protocol.readStructBegin();
+                        protocol.readFieldBegin();
+                        int value = protocol.readI32();
+                        protocol.readFieldEnd();
+                        protocol.readFieldBegin();
+                        protocol.readStructEnd();
+                        protocol.readMessageEnd();
+
+                        protocol.writeMessageBegin(metadata.name, TMessageType.REPLY, metadata.seqId);
+                        protocol.writeStructBegin("echo_result");
+                        protocol.writeFieldBegin("success", 0, TType.I32);
+                        protocol.writeI32(value);
+                        protocol.writeFieldEnd();
+                        protocol.writeFieldStop();
+                        protocol.writeStructEnd();
+                        protocol.writeMessageEnd();
+                        protocol.flush();
+                    }
+                } catch (IOException ignored) {
+                    // connection closed
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.service;
+
+import com.microsoft.thrifty.TType;
+import com.microsoft.thrifty.ThriftException;
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.MessageMetadata;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.transport.BufferTransport;
+import com.microsoft.thrifty.util.ProtocolUtil;
+import okio.Buffer;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ProcessorBaseTest {
+    private final Buffer requests = new Buffer();
+    private final Buffer replies = new Buffer();
+    private final Protocol input = new BinaryProtocol(new BufferTransport(requests));
+    private final Protocol output = new BinaryProtocol(new BufferTransport(replies));
+
+    private final ProcessorBase processor = new ProcessorBase() {
+        @Override
+        protected boolean dispatch(MessageMetadata message, Protocol input, Protocol output) throws IOException {
+            if (!message.name.equals("ping")) {
+                return false;
+            }
+
+            ProtocolUtil.skip(input, TType.STRUCT);
+            input.readMessageEnd();
+
+            if (message.type == TMessageType.CALL) {
+                output.writeMessageBegin(message.name, TMessageType.REPLY, message.seqId);
+                output.writeStructBegin("ping_result");
+                output.writeFieldStop();
+                output.writeStructEnd();
+                output.writeMessageEnd();
+                output.flush();
+            }
+            return true;
+        }
+    };
+
+    @Test
+    public void dispatchesKnownMethods() throws Exception {
+        writeRequest("ping", TMessageType.CALL, 7);
+        processor.process(input, output);
+
+        MessageMetadata reply = new BinaryProtocol(new BufferTransport(replies)).readMessageBegin();
+        assertThat(reply.name, is("ping"));
+        assertThat(reply.type, is(TMessageType.REPLY));
+        assertThat(reply.seqId, is(7));
+    }
+
+    @Test
+    public void unknownMethodsAreSkippedAndReported() throws Exception {
+        writeRequest("pong", TMessageType.CALL, 3);
+        writeRequest("ping", TMessageType.CALL, 4);
+
+        processor.process(input, output);
+        ThriftException e = readException(3);
+        assertThat(e.kind, is(ThriftException.Kind.UNKNOWN_METHOD));
+        assertThat(e.getMessage(), is("Unknown method: pong"));
+
+        // The unknown call's arguments were consumed, so the next call is intact.
+        processor.process(input, output);
+        assertThat(readReplyHeader().seqId, is(4));
+        assertThat(requests.size(), is(0L));
+    }
+
+    @Test
+    public void unknownOnewayMethodsAreSkippedSilently() throws Exception {
+        writeRequest("pong", TMessageType.ONEWAY, 1);
+
+        processor.process(input, output);
+
+        assertThat(requests.size(), is(0L));
+        assertThat(replies.size(), is(0L));
+    }
+
+    @Test
+    public void nonCallMessagesAreRejected() throws Exception {
+        writeRequest("ping", TMessageType.REPLY, 5);
+
+        processor.process(input, output);
+
+        assertThat(readException(5).kind, is(ThriftException.Kind.INVALID_MESSAGE_TYPE));
+        assertThat(requests.size(), is(0L));
+    }
+
+    @Test
+    public void handlerErrorsDoNotRevealDetails() throws Exception {
+        MessageMetadata message = new MessageMetadata("ping", TMessageType.CALL, 9);
+        ProcessorBase.writeException(output, message, new IllegalStateException("secret"));
+
+        ThriftException e = readException(9);
+        assertThat(e.kind, is(ThriftException.Kind.INTERNAL_ERROR));
+        assertThat(e.getMessage(), is("Internal error processing ping"));
+    }
+
+    @Test
+    public void thriftExceptionsAreSentAsIs() throws Exception {
+        MessageMetadata message = new MessageMetadata("ping", TMessageType.CALL, 2);
+        ProcessorBase.writeException(output, message,
+                new ThriftException(ThriftException.Kind.PROTOCOL_ERROR, "bad args"));
+
+        ThriftException e = readException(2);
+        assertThat(e.kind, is(ThriftException.Kind.PROTOCOL_ERROR));
+        assertThat(e.getMessage(), is("bad args"));
+    }
+
+    private void writeRequest(String name, byte type, int seqId) throws IOException {
+        Protocol protocol = new BinaryProtocol(new BufferTransport(requests));
+        protocol.writeMessageBegin(name, type, seqId);
+        protocol.writeStructBegin("args");
+        protocol.writeFieldBegin("name", 1, TType.STRING);
+        protocol.writeString("ignored");
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+    }
+
+    private MessageMetadata readReplyHeader() throws IOException {
+        return new BinaryProtocol(new BufferTransport(replies)).readMessageBegin();
+    }
+
+    private ThriftException readException(int seqId) throws IOException {
+        Protocol protocol = new BinaryProtocol(new BufferTransport(replies));
+        MessageMetadata metadata = protocol.readMessageBegin();
+        assertThat(metadata.type, is(TMessageType.EXCEPTION));
+        assertThat(metadata.seqId, is(seqId));
+
+        ThriftException e = ThriftException.read(protocol);
+        protocol.readMessageEnd();
+        return e;
+    }
+}
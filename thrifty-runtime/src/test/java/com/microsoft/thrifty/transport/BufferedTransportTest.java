@@ -0,0 +1,234 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport;
+
+import com.google.common.base.Charsets;
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import okio.Buffer;
+import okio.ByteString;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class BufferedTransportTest {
+    @Test
+    public void writesAreHeldUntilFlush() throws Exception {
+        Buffer buffer = new Buffer();
+        BufferedTransport transport = new BufferedTransport(new BufferTransport(buffer));
+
+        transport.write("abc".getBytes(Charsets.UTF_8));
+        transport.write("de".getBytes(Charsets.UTF_8));
+        assertThat(buffer.size(), is(0L));
+
+        transport.flush();
+        assertThat(buffer.readUtf8(), is("abcde"));
+    }
+
+    @Test
+    public void primitiveWritesAreCoalesced() throws Exception {
+        CountingTransport counting = new CountingTransport(new BufferTransport());
+        BinaryProtocol protocol = new BinaryProtocol(new BufferedTransport(counting));
+
+        protocol.writeByte((byte) 1);
+        protocol.writeI16((short) 2);
+        protocol.writeI32(3);
+        protocol.writeI64(4L);
+        protocol.flush();
+
+        assertThat(counting.writes, is(1));
+    }
+
+    @Test
+    public void writesLargerThanTheBufferPreserveOrder() throws Exception {
+        Buffer buffer = new Buffer();
+        BufferedTransport transport = new BufferedTransport(new BufferTransport(buffer), 4);
+
+        transport.write("ab".getBytes(Charsets.UTF_8));
+        transport.write("cdefgh".getBytes(Charsets.UTF_8));
+        transport.write("i".getBytes(Charsets.UTF_8));
+        transport.flush();
+
+        assertThat(buffer.readUtf8(), is("abcdefghi"));
+    }
+
+    @Test
+    public void readsAreServedFromTheBuffer() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8("abcdefghij");
+
+        CountingTransport counting = new CountingTransport(new BufferTransport(buffer));
+        BufferedTransport transport = new BufferedTransport(counting);
+
+        byte[] readBuffer = new byte[10];
+        assertThat(transport.read(readBuffer, 0, 3), is(3));
+        assertThat(transport.read(readBuffer, 3, 7), is(7));
+        assertThat(new String(readBuffer, Charsets.UTF_8), is("abcdefghij"));
+        assertThat(counting.reads, is(1));
+    }
+
+    @Test
+    public void readReturnsEofFromInnerTransport() throws Exception {
+        BufferedTransport transport = new BufferedTransport(new BufferTransport(new Buffer()));
+
+        assertThat(transport.read(new byte[4], 0, 4), is(-1));
+    }
+
+    @Test
+    public void awaitInputBuffersWithoutConsuming() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8("abc");
+
+        CountingTransport counting = new CountingTransport(new BufferTransport(buffer));
+        BufferedTransport transport = new BufferedTransport(counting);
+
+        assertThat(transport.awaitInput(), is(true));
+        assertThat(transport.awaitInput(), is(true));
+        assertThat(transport.getBytesRemainingInBuffer(), is(3));
+        assertThat(counting.reads, is(1));
+
+        byte[] readBuffer = new byte[3];
+        assertThat(transport.read(readBuffer, 0, 3), is(3));
+        assertThat(new String(readBuffer, Charsets.UTF_8), is("abc"));
+        assertThat(transport.awaitInput(), is(false));
+    }
+
+    @Test
+    public void composesWithFramedTransport() throws Exception {
+        Buffer buffer = new Buffer();
+        FramedTransport transport = new FramedTransport(new BufferedTransport(new BufferTransport(buffer)));
+
+        transport.write("abcde".getBytes(Charsets.UTF_8));
+        transport.flush();
+
+        assertThat(buffer.readInt(), is(5));
+        assertThat(buffer.readUtf8(), is("abcde"));
+    }
+
+    @Test
+    public void framedReadsThroughBuffer() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(6);
+        buffer.writeUtf8("abcdef");
+        buffer.writeInt(4);
+        buffer.writeUtf8("ghij");
+
+        FramedTransport transport = new FramedTransport(new BufferedTransport(new BufferTransport(buffer)));
+
+        byte[] readBuffer = new byte[10];
+        assertThat(transport.read(readBuffer, 0, 10), is(6));
+        assertThat(transport.read(readBuffer, 6, 4), is(4));
+        assertThat(new String(readBuffer, Charsets.UTF_8), is("abcdefghij"));
+    }
+
+    @Test
+    public void bufferedBytesCanBeReadDirectly() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8("abcdefghij");
+
+        BufferedTransport transport = new BufferedTransport(new BufferTransport(buffer));
+        assertThat(transport.getBytesRemainingInBuffer(), is(0));
+
+        byte[] readBuffer = new byte[3];
+        assertThat(transport.read(readBuffer, 0, 3), is(3));
+        assertThat(transport.getBytesRemainingInBuffer(), is(7));
+        assertThat(transport.getBuffer()[transport.getBufferPosition()], is((byte) 'd'));
+
+        transport.consumeBuffer(2);
+        assertThat(transport.getBytesRemainingInBuffer(), is(5));
+        assertThat(transport.read(readBuffer, 0, 3), is(3));
+        assertThat(new String(readBuffer, Charsets.UTF_8), is("fgh"));
+    }
+
+    @Test
+    public void readByteStringLargerThanTheBuffer() throws Exception {
+        byte[] payload = new byte[1000];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte) i;
+        }
+
+        Buffer buffer = new Buffer();
+        buffer.write(payload);
+
+        BufferedTransport transport = new BufferedTransport(new BufferTransport(buffer), 16);
+        assertThat(transport.read(new byte[3], 0, 3), is(3));
+        assertThat(transport.readByteString(997), is(ByteString.of(payload, 3, 997)));
+    }
+
+    @Test(expected = EOFException.class)
+    public void readByteStringPastEof() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeUtf8("abc");
+
+        new BufferedTransport(new BufferTransport(buffer)).readByteString(4);
+    }
+
+    @Test
+    public void writeSegmentedByteString() throws Exception {
+        Buffer source = new Buffer();
+        for (int i = 0; i < 3000; ++i) {
+            source.writeUtf8("abcdefghij");
+        }
+        ByteString bytes = source.snapshot(); // spans several segments
+
+        Buffer buffer = new Buffer();
+        BufferedTransport transport = new BufferedTransport(new BufferTransport(buffer));
+        transport.write(bytes);
+        transport.flush();
+
+        assertThat(buffer.readByteString(), is(bytes));
+    }
+
+    private static class CountingTransport extends Transport {
+        private final Transport inner;
+        int reads;
+        int writes;
+
+        CountingTransport(Transport inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            reads++;
+            return inner.read(buffer, offset, count);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            writes++;
+            inner.write(buffer, offset, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            inner.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inner.close();
+        }
+    }
+}
@@ -21,13 +21,23 @@
 package com.microsoft.thrifty.transport;
 
 import com.google.common.base.Charsets;
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.CompactProtocol;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.protocol.ProtocolSizer;
+import com.microsoft.thrifty.protocol.ProtocolSizerTest;
+import com.microsoft.thrifty.protocol.Xtruct;
 import okio.Buffer;
 import org.junit.Test;
 
 import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
 
+import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 public class FramedTransportTest {
     @Test
@@ -90,6 +100,207 @@ public class FramedTransportTest {
         assertThat(new String(readBuffer, Charsets.UTF_8), is("abcdefghij"));
     }
 
+    @Test
+    public void bufferedBytesAreLimitedToTheCurrentFrame() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(6);
+        buffer.writeUtf8("abcdef");
+        buffer.writeInt(4);
+        buffer.writeUtf8("ghij");
+
+        FramedTransport transport = new FramedTransport(new BufferedTransport(new BufferTransport(buffer)));
+
+        // The header hasn't been read yet.
+        assertThat(transport.getBytesRemainingInBuffer(), is(0));
+
+        byte[] readBuffer = new byte[4];
+        assertThat(transport.read(readBuffer, 0, 1), is(1));
+        assertThat(transport.getBytesRemainingInBuffer(), is(5));
+        assertThat(transport.getBuffer()[transport.getBufferPosition()], is((byte) 'b'));
+
+        transport.consumeBuffer(5);
+        assertThat(transport.getBytesRemainingInBuffer(), is(0));
+        assertThat(transport.read(readBuffer, 0, 4), is(4));
+        assertThat(new String(readBuffer, Charsets.UTF_8), is("ghij"));
+    }
+
+    @Test
+    public void noBufferedBytesOverUnbufferedTransport() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(6);
+        buffer.writeUtf8("abcdef");
+
+        FramedTransport transport = new FramedTransport(new UnbufferedTransport(new BufferTransport(buffer)));
+
+        byte[] readBuffer = new byte[1];
+        assertThat(transport.read(readBuffer, 0, 1), is(1));
+        assertThat(transport.getBytesRemainingInBuffer(), is(-1));
+    }
+
+    @Test
+    public void streamingFrameWritesHeaderAndPayloadImmediately() throws Exception {
+        Buffer target = new Buffer();
+        FramedTransport transport = new FramedTransport(new BufferTransport(target));
+
+        transport.beginFrame(5);
+        assertThat(target.size(), is(4L));
+
+        transport.write("ab".getBytes(Charsets.UTF_8));
+        assertThat(target.size(), is(6L));
+
+        transport.write("cde".getBytes(Charsets.UTF_8));
+        transport.flush();
+
+        assertThat(target.readInt(), is(5));
+        assertThat(target.readUtf8(), is("abcde"));
+    }
+
+    @Test
+    public void streamingFrameOfComputedSize() throws Exception {
+        Buffer target = new Buffer();
+        FramedTransport transport = new FramedTransport(new BufferTransport(target));
+        Protocol protocol = new CompactProtocol(transport);
+        Xtruct xtruct = new Xtruct.Builder()
+                .string_thing("foo")
+                .i64_thing(12345L)
+                .build();
+
+        transport.beginFrame(ProtocolSizerTest.SIZED_XTRUCT_ADAPTER.serializedSize(ProtocolSizer.compact(), xtruct));
+        Xtruct.ADAPTER.write(protocol, xtruct);
+        protocol.flush();
+
+        // Buffered frames work as usual afterwards.
+        transport.write("abc".getBytes(Charsets.UTF_8));
+        transport.flush();
+
+        FramedTransport reader = new FramedTransport(new BufferTransport(target));
+        assertThat(Xtruct.ADAPTER.read(new CompactProtocol(reader)), is(xtruct));
+
+        byte[] readBuffer = new byte[3];
+        assertThat(reader.read(readBuffer, 0, 3), is(3));
+        assertThat(new String(readBuffer, Charsets.UTF_8), is("abc"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void streamingFrameRejectsExcessData() throws Exception {
+        FramedTransport transport = new FramedTransport(new BufferTransport(new Buffer()));
+
+        transport.beginFrame(2);
+        transport.write("abc".getBytes(Charsets.UTF_8));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void streamingFrameRejectsMissingData() throws Exception {
+        FramedTransport transport = new FramedTransport(new BufferTransport(new Buffer()));
+
+        transport.beginFrame(4);
+        transport.write("abc".getBytes(Charsets.UTF_8));
+        transport.flush();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotBeginFrameWithPendingData() throws Exception {
+        FramedTransport transport = new FramedTransport(new BufferTransport(new Buffer()));
+
+        transport.write("abc".getBytes(Charsets.UTF_8));
+        transport.beginFrame(3);
+    }
+
+    @Test
+    public void framesLargerThanTheMaximumAreRejected() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(100);
+        buffer.write(new byte[100]);
+
+        FramedTransport transport = new FramedTransport(new BufferTransport(buffer)).withMaxFrameSize(99);
+
+        try {
+            transport.read(new byte[1], 0, 1);
+            fail("Expected a ProtocolException");
+        } catch (ProtocolException e) {
+            assertThat(e.getMessage(), containsString("exceeds the maximum of 99"));
+        }
+
+        // None of the payload was read.
+        assertThat(buffer.size(), is(100L));
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void framesLargerThanTheDefaultMaximumAreRejected() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(FramedTransport.DEFAULT_MAX_FRAME_SIZE + 1);
+
+        new FramedTransport(new BufferTransport(buffer)).read(new byte[1], 0, 1);
+    }
+
+    @Test(expected = ProtocolException.class)
+    public void negativeFrameSizesAreRejected() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(-1);
+
+        new FramedTransport(new BufferTransport(buffer)).read(new byte[1], 0, 1);
+    }
+
+    @Test
+    public void wholeFrameReadsUseOneBulkRead() throws Exception {
+        Buffer buffer = new Buffer();
+        buffer.writeInt(6);
+        buffer.writeUtf8("abcdef");
+        buffer.writeInt(0);
+        buffer.writeInt(4);
+        buffer.writeUtf8("ghij");
+
+        UnbufferedTransport unbuffered = new UnbufferedTransport(new BufferTransport(buffer));
+        FramedTransport transport = new FramedTransport(unbuffered).withWholeFrameReads(true);
+
+        assertThat(transport.getBytesRemainingInBuffer(), is(0));
+
+        byte[] readBuffer = new byte[10];
+        assertThat(transport.read(readBuffer, 0, 1), is(1));
+        assertThat(unbuffered.readCount, is(2)); // header and payload
+        assertThat(buffer.size(), is(12L));
+
+        assertThat(transport.getBytesRemainingInBuffer(), is(5));
+        assertThat(transport.getBuffer()[transport.getBufferPosition()], is((byte) 'b'));
+        transport.consumeBuffer(2);
+        assertThat(transport.read(readBuffer, 1, 10), is(3));
+
+        // An empty frame is skipped over.
+        assertThat(transport.read(readBuffer, 4, 4), is(4));
+        assertThat(new String(readBuffer, 0, 8, Charsets.UTF_8), is("adefghij"));
+        assertThat(transport.getBytesRemainingInBuffer(), is(0));
+    }
+
+    @Test
+    public void wholeFrameReadsDecodeStructs() throws Exception {
+        Buffer buffer = new Buffer();
+        Xtruct xtruct = new Xtruct.Builder()
+                .string_thing("foo")
+                .i32_thing(42)
+                .build();
+
+        FramedTransport writer = new FramedTransport(new BufferTransport(buffer));
+        Xtruct.ADAPTER.write(new BinaryProtocol(writer), xtruct);
+        writer.flush();
+        writer.write(new byte[100 * 1024]); // A large frame that is not retained.
+        writer.flush();
+        Xtruct.ADAPTER.write(new BinaryProtocol(writer), xtruct);
+        writer.flush();
+
+        UnbufferedTransport unbuffered = new UnbufferedTransport(new BufferTransport(buffer));
+        FramedTransport transport = new FramedTransport(unbuffered).withWholeFrameReads(true);
+        Protocol protocol = new BinaryProtocol(transport);
+
+        assertThat(Xtruct.ADAPTER.read(protocol), is(xtruct));
+        assertThat(unbuffered.readCount, is(2));
+
+        // The large frame takes as many reads as the inner transport needs.
+        transport.skip(100 * 1024);
+        int readCount = unbuffered.readCount;
+        assertThat(Xtruct.ADAPTER.read(protocol), is(xtruct));
+        assertThat(unbuffered.readCount, is(readCount + 2));
+    }
+
     @Test(expected = EOFException.class)
     public void readHeaderWhenEOFReached() throws Exception {
         Buffer buffer = new Buffer();
@@ -99,4 +310,34 @@ public class FramedTransportTest {
         byte[] readBuffer = new byte[10];
         transport.read(readBuffer, 0, 10);
     }
-}
\ No newline at end of file
+
+    private static class UnbufferedTransport extends Transport {
+        private final Transport inner;
+        int readCount;
+
+        UnbufferedTransport(Transport inner) {
+            this.inner = inner;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            readCount++;
+            return inner.read(buffer, offset, count);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            inner.write(buffer, offset, count);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            inner.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            inner.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.transport;
+
+import com.google.common.base.Charsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SocketChannelTransportTest {
+    private ServerSocket serverSocket;
+    private Thread echoThread;
+
+    @Before
+    public void setup() throws Exception {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        echoThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try (Socket socket = serverSocket.accept()) {
+                    InputStream in = socket.getInputStream();
+                    OutputStream out = socket.getOutputStream();
+                    byte[] buffer = new byte[1024];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        if (n == 1 && buffer[0] == '!') {
+                            // Signal to go quiet, so clients can time out.
+                            continue;
+                        }
+                        out.write(buffer, 0, n);
+                        out.flush();
+                    }
+                } catch (IOException ignored) {
+                    // test is over
+                }
+            }
+        });
+        echoThread.setDaemon(true);
+        echoThread.start();
+    }
+
+    @After
+    public void teardown() throws Exception {
+        serverSocket.close();
+    }
+
+    @Test
+    public void roundTripsSmallWrites() throws Exception {
+        SocketChannelTransport transport = connect(new SocketChannelTransport.Builder("localhost", port()));
+
+        transport.write("hello".getBytes(Charsets.UTF_8));
+        transport.write(", world".getBytes(Charsets.UTF_8));
+        transport.flush();
+
+        assertThat(new String(readExactly(transport, 12), Charsets.UTF_8), is("hello, world"));
+        transport.close();
+    }
+
+    @Test
+    public void roundTripsWritesLargerThanTheBuffer() throws Exception {
+        SocketChannelTransport transport = connect(new SocketChannelTransport.Builder("localhost", port())
+                .bufferSize(64));
+
+        byte[] payload = new byte[1000];
+        for (int i = 0; i < payload.length; ++i) {
+            payload[i] = (byte) i;
+        }
+
+        transport.write(new byte[] { 1, 2, 3, 4 });
+        transport.write(payload);
+        transport.flush();
+
+        byte[] received = readExactly(transport, 1004);
+        assertThat(Arrays.copyOfRange(received, 0, 4), is(new byte[] { 1, 2, 3, 4 }));
+        assertThat(Arrays.copyOfRange(received, 4, 1004), is(payload));
+        transport.close();
+    }
+
+    @Test
+    public void framedRoundTrip() throws Exception {
+        SocketChannelTransport socket = connect(new SocketChannelTransport.Builder("localhost", port()));
+        FramedTransport transport = new FramedTransport(socket);
+
+        transport.write("abcde".getBytes(Charsets.UTF_8));
+        transport.flush();
+
+        assertThat(new String(readExactly(transport, 5), Charsets.UTF_8), is("abcde"));
+        transport.close();
+    }
+
+    @Test(expected = SocketTimeoutException.class)
+    public void readTimesOut() throws Exception {
+        SocketChannelTransport transport = connect(new SocketChannelTransport.Builder("localhost", port())
+                .readTimeout(50));
+
+        transport.write(new byte[] { '!' });
+        transport.flush();
+
+        try {
+            transport.read(new byte[1], 0, 1);
+        } finally {
+            transport.close();
+        }
+    }
+
+    @Test
+    public void isConnectedReflectsState() throws Exception {
+        SocketChannelTransport transport = new SocketChannelTransport.Builder("localhost", port()).build();
+        assertThat(transport.isConnected(), is(false));
+
+        transport.connect();
+        assertThat(transport.isConnected(), is(true));
+
+        transport.close();
+        assertThat(transport.isConnected(), is(false));
+    }
+
+    private int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    private static SocketChannelTransport connect(SocketChannelTransport.Builder builder) throws IOException {
+        SocketChannelTransport transport = builder.connectTimeout(1000).build();
+        transport.connect();
+        return transport;
+    }
+
+    private static byte[] readExactly(Transport transport, int count) throws IOException {
+        byte[] result = new byte[count];
+        int offset = 0;
+        while (offset < count) {
+            int n = transport.read(result, offset, count - offset);
+            if (n == -1) {
+                throw new IOException("Unexpected EOF");
+            }
+            offset += n;
+        }
+        return result;
+    }
+}
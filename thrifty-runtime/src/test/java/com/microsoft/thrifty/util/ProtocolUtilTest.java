@@ -22,6 +22,7 @@ package com.microsoft.thrifty.util;
 
 import com.microsoft.thrifty.TType;
 import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.CompactProtocol;
 import com.microsoft.thrifty.protocol.Protocol;
 import com.microsoft.thrifty.protocol.Xtruct;
 import com.microsoft.thrifty.transport.BufferTransport;
@@ -55,7 +56,8 @@ public class ProtocolUtilTest {
     public void setup() {
         buffer = new Buffer();
         protocol = new BinaryProtocol(new BufferTransport(buffer));
-        mockProtocol = mock(Protocol.class);
+        // Protocol.skip() is the default implementation under test.
+        mockProtocol = mock(Protocol.class, CALLS_REAL_METHODS);
     }
 
     @Test
@@ -188,6 +190,7 @@ public class ProtocolUtilTest {
     @Test
     public void skipsBools() throws Exception {
         ProtocolUtil.skip(mockProtocol, TType.BOOL);
+        verify(mockProtocol).skip(TType.BOOL);
         verify(mockProtocol).readBool();
         verifyNoMoreInteractions(mockProtocol);
     }
@@ -195,6 +198,7 @@ public class ProtocolUtilTest {
     @Test
     public void skipsBytes() throws Exception {
         ProtocolUtil.skip(mockProtocol, TType.BYTE);
+        verify(mockProtocol).skip(TType.BYTE);
         verify(mockProtocol).readByte();
         verifyNoMoreInteractions(mockProtocol);
     }
@@ -202,6 +206,7 @@ public class ProtocolUtilTest {
     @Test
     public void skipsShorts() throws Exception {
         ProtocolUtil.skip(mockProtocol, TType.I16);
+        verify(mockProtocol).skip(TType.I16);
         verify(mockProtocol).readI16();
         verifyNoMoreInteractions(mockProtocol);
     }
@@ -209,6 +214,7 @@ public class ProtocolUtilTest {
     @Test
     public void skipsInts() throws Exception {
         ProtocolUtil.skip(mockProtocol, TType.I32);
+        verify(mockProtocol).skip(TType.I32);
         verify(mockProtocol).readI32();
         verifyNoMoreInteractions(mockProtocol);
     }
@@ -216,6 +222,7 @@ public class ProtocolUtilTest {
     @Test
     public void skipsLongs() throws Exception {
         ProtocolUtil.skip(mockProtocol, TType.I64);
+        verify(mockProtocol).skip(TType.I64);
         verify(mockProtocol).readI64();
         verifyNoMoreInteractions(mockProtocol);
     }
@@ -223,6 +230,7 @@ public class ProtocolUtilTest {
     @Test
     public void skipsDoubles() throws Exception {
         ProtocolUtil.skip(mockProtocol, TType.DOUBLE);
+        verify(mockProtocol).skip(TType.DOUBLE);
         verify(mockProtocol).readDouble();
         verifyNoMoreInteractions(mockProtocol);
     }
@@ -230,7 +238,36 @@ public class ProtocolUtilTest {
     @Test
     public void skipsStrings() throws Exception {
         ProtocolUtil.skip(mockProtocol, TType.STRING);
+        verify(mockProtocol).skip(TType.STRING);
         verify(mockProtocol).readString();
         verifyNoMoreInteractions(mockProtocol);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void binaryProtocolSkipsStringsWithoutDecoding() throws Exception {
+        BinaryProtocol spy = spy(protocol);
+        protocol.writeString("skip me");
+        protocol.writeI32(7);
+
+        ProtocolUtil.skip(spy, TType.STRING);
+
+        verify(spy, never()).readString();
+        assertThat(protocol.readI32(), is(7));
+    }
+
+    @Test
+    public void compactProtocolSkipsStructsWithoutDecodingStrings() throws Exception {
+        CompactProtocol compact = spy(new CompactProtocol(new BufferTransport(buffer)));
+        Xtruct xtruct = new Xtruct.Builder()
+                .string_thing("skip me")
+                .i32_thing(1)
+                .build();
+        Xtruct.ADAPTER.write(compact, xtruct);
+        compact.writeI32(7);
+
+        ProtocolUtil.skip(compact, TType.STRUCT);
+
+        verify(compact, never()).readString();
+        assertThat(compact.readI32(), is(7));
+    }
+}
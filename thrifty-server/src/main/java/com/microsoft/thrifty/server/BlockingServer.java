@@ -0,0 +1,509 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server;
+
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.protocol.ProtocolFactory;
+import com.microsoft.thrifty.service.Processor;
+import com.microsoft.thrifty.transport.BufferedTransport;
+import com.microsoft.thrifty.transport.FramedTransport;
+import com.microsoft.thrifty.transport.Transport;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A blocking server that hosts a generated {@link Processor}, with one
+ * thread per connection.
+ *
+ * <p>One thread accepts connections; each accepted connection gets a thread
+ * of its own, which reads requests, processes them and writes their replies
+ * with ordinary blocking socket I/O, one request at a time.  On JDK 21 and
+ * later, {@link Builder#virtualThreads()} makes those threads virtual, so
+ * that tens of thousands of mostly-idle connections cost little more than
+ * their sockets and buffers.
+ *
+ * <p>Like Apache Thrift's {@code TThreadPoolServer}, the server expects
+ * unframed messages by default; see {@link Builder#framed(boolean)}.
+ *
+ * <p>Closing the server is graceful: it stops accepting connections, closes
+ * those waiting for a request, and lets requests already being processed
+ * finish and send their replies, up to {@link Builder#shutdownTimeout(int)}.
+ */
+public final class BlockingServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(BlockingServer.class.getName());
+
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = 30000;
+
+    private final Processor processor;
+    private final ProtocolFactory protocolFactory;
+    private final InetSocketAddress bindAddress;
+    private final boolean framed;
+    private final int maxFrameSize;
+    private final int maxConnections;
+    private final int idleTimeout;
+    private final int shutdownTimeout;
+    private final ThreadFactory threadFactory;
+
+    // Guarded by itself.
+    private final Set<Connection> connections = new HashSet<>();
+
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+
+    public static class Builder {
+        private final Processor processor;
+        private ProtocolFactory protocolFactory = ProtocolFactory.BINARY;
+        private InetSocketAddress bindAddress = new InetSocketAddress(0);
+        private boolean framed;
+        private int maxFrameSize = FramedTransport.DEFAULT_MAX_FRAME_SIZE;
+        private int maxConnections = Integer.MAX_VALUE;
+        private int idleTimeout;
+        private int shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+        private ThreadFactory threadFactory = new NamedThreadFactory();
+
+        public Builder(Processor processor) {
+            if (processor == null) {
+                throw new NullPointerException("processor");
+            }
+            this.processor = processor;
+        }
+
+        /**
+         * Sets the protocol in which requests and replies are encoded.  The
+         * default is {@link BinaryProtocol}.
+         */
+        public Builder protocolFactory(ProtocolFactory protocolFactory) {
+            if (protocolFactory == null) {
+                throw new NullPointerException("protocolFactory");
+            }
+            this.protocolFactory = protocolFactory;
+            return this;
+        }
+
+        /**
+         * Sets the port on which to listen, on all local addresses.  The
+         * default, zero, picks a free port; see {@link BlockingServer#port()}.
+         */
+        public Builder port(int port) {
+            if (port < 0 || port > 0xFFFF) {
+                throw new IllegalArgumentException("Invalid port number: " + port);
+            }
+            this.bindAddress = new InetSocketAddress(port);
+            return this;
+        }
+
+        /**
+         * Sets the address on which to listen.
+         */
+        public Builder bindAddress(InetSocketAddress bindAddress) {
+            if (bindAddress == null) {
+                throw new NullPointerException("bindAddress");
+            }
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        /**
+         * Sets whether messages are framed, i.e. whether clients use a
+         * {@link FramedTransport}.  The default is false.
+         */
+        public Builder framed(boolean framed) {
+            this.framed = framed;
+            return this;
+        }
+
+        /**
+         * Sets the size of the largest frame that clients may send, when
+         * messages are framed.  The default is
+         * {@link FramedTransport#DEFAULT_MAX_FRAME_SIZE}.
+         */
+        public Builder maxFrameSize(int maxFrameSize) {
+            if (maxFrameSize <= 0) {
+                throw new IllegalArgumentException("maxFrameSize must be positive");
+            }
+            this.maxFrameSize = maxFrameSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of connections that may be open at once;
+         * connections accepted beyond it are closed immediately.  The
+         * default is unlimited.
+         */
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("maxConnections must be positive");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Sets how long, in milliseconds, a connection may go without
+         * sending any data before it is closed.  This applies both between
+         * requests and within them.  The default, zero, never times out.
+         */
+        public Builder idleTimeout(int idleTimeout) {
+            if (idleTimeout < 0) {
+                throw new IllegalArgumentException("idleTimeout cannot be negative");
+            }
+            this.idleTimeout = idleTimeout;
+            return this;
+        }
+
+        /**
+         * Sets how long, in milliseconds, {@link BlockingServer#close()}
+         * waits for requests being processed to finish before closing their
+         * connections regardless.  The default is thirty seconds.
+         */
+        public Builder shutdownTimeout(int shutdownTimeout) {
+            if (shutdownTimeout < 0) {
+                throw new IllegalArgumentException("shutdownTimeout cannot be negative");
+            }
+            this.shutdownTimeout = shutdownTimeout;
+            return this;
+        }
+
+        /**
+         * Sets the factory creating each connection's thread.  By default,
+         * connections run on new platform threads.
+         */
+        public Builder threadFactory(ThreadFactory threadFactory) {
+            if (threadFactory == null) {
+                throw new NullPointerException("threadFactory");
+            }
+            this.threadFactory = threadFactory;
+            return this;
+        }
+
+        /**
+         * Runs each connection on a new virtual thread.
+         *
+         * @throws UnsupportedOperationException if the running JDK does not
+         *                                       support virtual threads, i.e.
+         *                                       is older than JDK 21.
+         */
+        public Builder virtualThreads() {
+            this.threadFactory = virtualThreadFactory();
+            return this;
+        }
+
+        public BlockingServer build() {
+            return new BlockingServer(this);
+        }
+    }
+
+    BlockingServer(Builder builder) {
+        this.processor = builder.processor;
+        this.protocolFactory = builder.protocolFactory;
+        this.bindAddress = builder.bindAddress;
+        this.framed = builder.framed;
+        this.maxFrameSize = builder.maxFrameSize;
+        this.maxConnections = builder.maxConnections;
+        this.idleTimeout = builder.idleTimeout;
+        this.shutdownTimeout = builder.shutdownTimeout;
+        this.threadFactory = builder.threadFactory;
+    }
+
+    /**
+     * Binds the server's socket and starts accepting connections.
+     *
+     * @throws IOException if the socket cannot be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Server already started");
+        }
+
+        ServerSocket socket = new ServerSocket();
+        try {
+            socket.bind(bindAddress);
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+
+        serverSocket = socket;
+        running = true;
+
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "thrifty-server-accept");
+        acceptThread.start();
+    }
+
+    /**
+     * Returns the port on which the server is listening.
+     */
+    public int port() {
+        ServerSocket socket = serverSocket;
+        if (socket == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return socket.getLocalPort();
+    }
+
+    /**
+     * Returns the number of connections currently open.
+     */
+    public int connectionCount() {
+        synchronized (connections) {
+            return connections.size();
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones, waiting for
+     * requests being processed to finish and send their replies first.
+     *
+     * <p>Connections whose requests are still being processed after the
+     * configured shutdown timeout are closed anyway; their threads are
+     * not waited for.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+
+        closeQuietly(serverSocket);
+        boolean interrupted = joinUninterruptibly(acceptThread);
+
+        // Every accepted connection is now in the set.
+        for (Connection connection : openConnections()) {
+            connection.closeIfIdle();
+        }
+
+        long deadline = System.currentTimeMillis() + shutdownTimeout;
+        synchronized (connections) {
+            long remaining;
+            while (!connections.isEmpty() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    connections.wait(remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        for (Connection connection : openConnections()) {
+            LOGGER.log(Level.WARNING, "Closing a connection whose request did not finish in time");
+            connection.close();
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Connection> openConnections() {
+        synchronized (connections) {
+            return new ArrayList<>(connections);
+        }
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    break;
+                }
+                LOGGER.log(Level.WARNING, "Failed to accept a connection", e);
+                continue;
+            }
+
+            Connection connection = new Connection(socket);
+            synchronized (connections) {
+                if (!running || connections.size() >= maxConnections) {
+                    closeQuietly(socket);
+                    continue;
+                }
+                connections.add(connection);
+            }
+
+            Thread thread;
+            try {
+                thread = threadFactory.newThread(connection);
+            } catch (RuntimeException | OutOfMemoryError e) {
+                LOGGER.log(Level.WARNING, "Failed to create a thread for a connection", e);
+                thread = null;
+            }
+
+            if (thread == null) {
+                connection.close();
+                continue;
+            }
+            thread.start();
+        }
+    }
+
+    /**
+     * One client connection, and the body of its thread.
+     *
+     * <p>Its state tells {@link BlockingServer#close()} whether a request
+     * is being processed: only idle connections may be closed right away.
+     */
+    private final class Connection implements Runnable {
+        private static final int IDLE = 0;
+        private static final int BUSY = 1;
+        private static final int CLOSED = 2;
+
+        private final Socket socket;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(idleTimeout);
+
+                BufferedTransport stream = new BufferedTransport(
+                        new StreamTransport(socket.getInputStream(), socket.getOutputStream()));
+                Transport transport = framed
+                        ? new FramedTransport(stream).withMaxFrameSize(maxFrameSize)
+                        : stream;
+                Protocol input = protocolFactory.createProtocol(transport);
+                Protocol output = protocolFactory.createProtocol(transport);
+
+                while (running && stream.awaitInput()) {
+                    if (!state.compareAndSet(IDLE, BUSY)) {
+                        break;
+                    }
+                    processor.process(input, output);
+                    if (!state.compareAndSet(BUSY, IDLE)) {
+                        break;
+                    }
+                }
+            } catch (SocketTimeoutException e) {
+                LOGGER.log(Level.FINE, "Closing an idle connection");
+            } catch (EOFException | SocketException e) {
+                // The client went away, or the server closed the connection.
+                LOGGER.log(Level.FINEST, "Connection closed", e);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Malformed request; closing its connection", e);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to process a request; closing its connection", e);
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Closes the connection unless a request is being processed, in
+         * which case it closes itself once the reply is sent.
+         */
+        void closeIfIdle() {
+            if (state.compareAndSet(IDLE, CLOSED)) {
+                closeQuietly(socket);
+            }
+        }
+
+        void close() {
+            state.set(CLOSED);
+            closeQuietly(socket);
+            synchronized (connections) {
+                if (connections.remove(this)) {
+                    connections.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a factory of virtual threads, which are created through
+     * reflection so that the server itself can run on older JDKs.
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, "thrifty-server-connection-", 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later");
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "thrifty-server-connection-" + count.getAndIncrement());
+        }
+    }
+
+    private static boolean joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // nope
+            }
+        }
+    }
+}
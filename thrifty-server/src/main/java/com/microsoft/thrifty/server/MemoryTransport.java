@@ -0,0 +1,133 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server;
+
+import com.microsoft.thrifty.transport.Transport;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * An in-memory transport holding one request frame and one reply frame.
+ *
+ * <p>Requests are decoded in place from the array into which the server
+ * read them.  Replies are encoded after four bytes reserved for their frame
+ * header, so that a finished reply can be written to the socket as-is.
+ * Both arrays are reused from one request to the next.
+ */
+final class MemoryTransport extends Transport {
+    private static final int HEADER_SIZE = 4;
+    private static final int INITIAL_OUTPUT_SIZE = 256;
+    private static final int MAX_RETAINED_OUTPUT_SIZE = 64 * 1024;
+
+    private byte[] input;
+    private int inputPosition;
+    private int inputLimit;
+
+    private byte[] output = new byte[INITIAL_OUTPUT_SIZE];
+    private int outputSize = HEADER_SIZE;
+
+    /**
+     * Prepares to decode a request occupying the first {@code count} bytes
+     * of the given array, and to encode its reply.
+     */
+    void reset(byte[] request, int count) {
+        input = request;
+        inputPosition = 0;
+        inputLimit = count;
+
+        if (output.length > MAX_RETAINED_OUTPUT_SIZE) {
+            // Don't hold on to the memory of an unusually large reply.
+            output = new byte[INITIAL_OUTPUT_SIZE];
+        }
+        outputSize = HEADER_SIZE;
+    }
+
+    /**
+     * Returns the encoded reply, framed and ready to be written, or null if
+     * nothing was written since the last {@link #reset}.
+     */
+    ByteBuffer reply() {
+        int frameSize = outputSize - HEADER_SIZE;
+        if (frameSize == 0) {
+            return null;
+        }
+
+        output[0] = (byte) ((frameSize >> 24) & 0xFF);
+        output[1] = (byte) ((frameSize >> 16) & 0xFF);
+        output[2] = (byte) ((frameSize >> 8) & 0xFF);
+        output[3] = (byte) (frameSize & 0xFF);
+        return ByteBuffer.wrap(output, 0, outputSize);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) {
+        int available = inputLimit - inputPosition;
+        if (available == 0 && count > 0) {
+            return -1;
+        }
+
+        int toCopy = Math.min(count, available);
+        System.arraycopy(input, inputPosition, buffer, offset, toCopy);
+        inputPosition += toCopy;
+        return toCopy;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) {
+        int required = outputSize + count;
+        if (required > output.length) {
+            output = Arrays.copyOf(output, Math.max(required, output.length * 2));
+        }
+        System.arraycopy(buffer, offset, output, outputSize, count);
+        outputSize = required;
+    }
+
+    @Override
+    public void flush() {
+        // Replies are sent by the server once the processor returns.
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return input;
+    }
+
+    @Override
+    public int getBufferPosition() {
+        return inputPosition;
+    }
+
+    @Override
+    public int getBytesRemainingInBuffer() {
+        return inputLimit - inputPosition;
+    }
+
+    @Override
+    public void consumeBuffer(int count) {
+        inputPosition += count;
+    }
+
+    @Override
+    public void close() {
+        input = null;
+    }
+}
@@ -0,0 +1,744 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server;
+
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.protocol.ProtocolFactory;
+import com.microsoft.thrifty.service.Processor;
+import com.microsoft.thrifty.transport.FramedTransport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A non-blocking server that hosts a generated {@link Processor}.
+ *
+ * <p>One thread accepts connections and hands them, in turn, to one or more
+ * selector threads, which read and write the connections' frames without
+ * blocking.  Once a request frame has been read in full, it is processed on
+ * a worker thread - or, if the server has no workers, on the selector thread
+ * itself - and the reply is handed back to the selector thread to be sent.
+ *
+ * <p>By default, requests on a single connection are processed one at a
+ * time, in order.  With {@link Builder#maxConcurrentRequests(int)}, several
+ * requests from one connection may be processed at once, and each reply is
+ * sent as soon as it is ready; a slow call then no longer holds up the fast
+ * ones behind it.  Replies may be sent out of order, so clients must match
+ * them to calls by sequence ID, as an
+ * {@link com.microsoft.thrifty.service.AsyncClientBase} does when
+ * configured with
+ * {@link com.microsoft.thrifty.service.AsyncClientConfig.Builder#outOfOrderResponses(boolean)}.
+ *
+ * <p>As with Apache Thrift's {@code TNonblockingServer}, every message must
+ * be framed, i.e. clients must use a {@link FramedTransport}.  Frames larger
+ * than {@link Builder#maxFrameSize(int)} cause their connection to be closed
+ * before any of their payload is read.
+ *
+ * <p>Each connection keeps its own read and write buffers, and its own
+ * protocols - one set for each request it may have in progress - and reuses
+ * them from one request to the next.
+ */
+public final class NonblockingServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(NonblockingServer.class.getName());
+
+    private static final int INITIAL_FRAME_SIZE = 256;
+    private static final int MAX_RETAINED_FRAME_SIZE = 64 * 1024;
+
+    private final Processor processor;
+    private final ProtocolFactory protocolFactory;
+    private final InetSocketAddress bindAddress;
+    private final int maxFrameSize;
+    private final int maxConnections;
+    private final int maxConcurrentRequests;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final SelectorThread[] selectorThreads;
+
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    private volatile boolean running;
+    private ServerSocketChannel serverChannel;
+    private Thread acceptThread;
+
+    public static class Builder {
+        private final Processor processor;
+        private ProtocolFactory protocolFactory = ProtocolFactory.BINARY;
+        private InetSocketAddress bindAddress = new InetSocketAddress(0);
+        private int selectorThreads = 1;
+        private int workerThreads = Runtime.getRuntime().availableProcessors();
+        private ExecutorService executor;
+        private int maxFrameSize = FramedTransport.DEFAULT_MAX_FRAME_SIZE;
+        private int maxConnections = Integer.MAX_VALUE;
+        private int maxConcurrentRequests = 1;
+
+        public Builder(Processor processor) {
+            if (processor == null) {
+                throw new NullPointerException("processor");
+            }
+            this.processor = processor;
+        }
+
+        /**
+         * Sets the protocol in which requests and replies are encoded.  The
+         * default is {@link BinaryProtocol}.
+         */
+        public Builder protocolFactory(ProtocolFactory protocolFactory) {
+            if (protocolFactory == null) {
+                throw new NullPointerException("protocolFactory");
+            }
+            this.protocolFactory = protocolFactory;
+            return this;
+        }
+
+        /**
+         * Sets the port on which to listen, on all local addresses.  The
+         * default, zero, picks a free port; see {@link NonblockingServer#port()}.
+         */
+        public Builder port(int port) {
+            if (port < 0 || port > 0xFFFF) {
+                throw new IllegalArgumentException("Invalid port number: " + port);
+            }
+            this.bindAddress = new InetSocketAddress(port);
+            return this;
+        }
+
+        /**
+         * Sets the address on which to listen.
+         */
+        public Builder bindAddress(InetSocketAddress bindAddress) {
+            if (bindAddress == null) {
+                throw new NullPointerException("bindAddress");
+            }
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads performing network I/O.  The default
+         * is one.
+         */
+        public Builder selectorThreads(int selectorThreads) {
+            if (selectorThreads <= 0) {
+                throw new IllegalArgumentException("selectorThreads must be positive");
+            }
+            this.selectorThreads = selectorThreads;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads in the pool that processes requests.
+         * The default is the number of available processors.
+         *
+         * <p>With zero workers, requests are processed on the selector
+         * threads, which suits processors that never block.
+         */
+        public Builder workerThreads(int workerThreads) {
+            if (workerThreads < 0) {
+                throw new IllegalArgumentException("workerThreads cannot be negative");
+            }
+            this.workerThreads = workerThreads;
+            this.executor = null;
+            return this;
+        }
+
+        /**
+         * Processes requests on the given executor instead of on a pool
+         * owned by the server.  The server does not shut it down.
+         */
+        public Builder executor(ExecutorService executor) {
+            if (executor == null) {
+                throw new NullPointerException("executor");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the size of the largest frame that clients may send.  The
+         * default is {@link FramedTransport#DEFAULT_MAX_FRAME_SIZE}.
+         */
+        public Builder maxFrameSize(int maxFrameSize) {
+            if (maxFrameSize <= 0) {
+                throw new IllegalArgumentException("maxFrameSize must be positive");
+            }
+            this.maxFrameSize = maxFrameSize;
+            return this;
+        }
+
+        /**
+         * Sets the number of connections that may be open at once;
+         * connections accepted beyond it are closed immediately.  The
+         * default is unlimited.
+         */
+        public Builder maxConnections(int maxConnections) {
+            if (maxConnections <= 0) {
+                throw new IllegalArgumentException("maxConnections must be positive");
+            }
+            this.maxConnections = maxConnections;
+            return this;
+        }
+
+        /**
+         * Sets the number of requests from one connection that may be in
+         * progress at once.  The default is one: each request is processed,
+         * and its reply sent, before the next is read.
+         *
+         * <p>With a larger value, the server keeps reading requests while
+         * earlier ones are processed on the worker threads, and sends each
+         * reply as soon as it is ready, regardless of the order in which the
+         * requests arrived.  Only clients that match replies to calls by
+         * sequence ID should connect to such a server.  Without worker
+         * threads, requests are processed one at a time regardless.
+         */
+        public Builder maxConcurrentRequests(int maxConcurrentRequests) {
+            if (maxConcurrentRequests <= 0) {
+                throw new IllegalArgumentException("maxConcurrentRequests must be positive");
+            }
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public NonblockingServer build() {
+            return new NonblockingServer(this);
+        }
+    }
+
+    NonblockingServer(Builder builder) {
+        this.processor = builder.processor;
+        this.protocolFactory = builder.protocolFactory;
+        this.bindAddress = builder.bindAddress;
+        this.maxFrameSize = builder.maxFrameSize;
+        this.maxConnections = builder.maxConnections;
+        this.maxConcurrentRequests = builder.maxConcurrentRequests;
+        this.selectorThreads = new SelectorThread[builder.selectorThreads];
+
+        if (builder.executor != null) {
+            this.executor = builder.executor;
+            this.ownsExecutor = false;
+        } else if (builder.workerThreads > 0) {
+            this.executor = Executors.newFixedThreadPool(builder.workerThreads, new NamedThreadFactory());
+            this.ownsExecutor = true;
+        } else {
+            this.executor = null;
+            this.ownsExecutor = false;
+        }
+    }
+
+    /**
+     * Binds the server's socket and starts accepting connections.
+     *
+     * @throws IOException if the socket cannot be bound.
+     */
+    public synchronized void start() throws IOException {
+        if (serverChannel != null) {
+            throw new IllegalStateException("Server already started");
+        }
+
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            channel.bind(bindAddress);
+            for (int i = 0; i < selectorThreads.length; ++i) {
+                selectorThreads[i] = new SelectorThread(i);
+            }
+        } catch (IOException e) {
+            for (SelectorThread thread : selectorThreads) {
+                if (thread != null) {
+                    closeQuietly(thread.selector);
+                }
+            }
+            closeQuietly(channel);
+            throw e;
+        }
+
+        serverChannel = channel;
+        running = true;
+
+        for (SelectorThread thread : selectorThreads) {
+            thread.start();
+        }
+
+        acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "thrifty-server-accept");
+        acceptThread.start();
+    }
+
+    /**
+     * Returns the port on which the server is listening.
+     */
+    public int port() {
+        ServerSocketChannel channel = serverChannel;
+        if (channel == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return channel.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the number of connections currently open.
+     */
+    public int connectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * Stops accepting connections, closes the open ones, and waits for the
+     * server's threads to finish.  Requests being processed when the server
+     * is closed are allowed to complete, but their replies are discarded.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+
+        closeQuietly(serverChannel);
+        for (SelectorThread thread : selectorThreads) {
+            thread.selector.wakeup();
+        }
+
+        boolean interrupted = joinUninterruptibly(acceptThread);
+        for (SelectorThread thread : selectorThreads) {
+            interrupted |= joinUninterruptibly(thread);
+        }
+
+        if (ownsExecutor) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to accept a connection", e);
+                continue;
+            }
+
+            if (connectionCount.incrementAndGet() > maxConnections) {
+                connectionCount.decrementAndGet();
+                closeQuietly(channel);
+                continue;
+            }
+
+            selectorThreads[next].addConnection(channel);
+            next = (next + 1) % selectorThreads.length;
+        }
+    }
+
+    private final class SelectorThread extends Thread {
+        final Selector selector;
+        private final Queue<SocketChannel> acceptedChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection.Request> completedRequests = new ConcurrentLinkedQueue<>();
+
+        SelectorThread(int index) throws IOException {
+            super("thrifty-server-selector-" + index);
+            this.selector = Selector.open();
+        }
+
+        void addConnection(SocketChannel channel) {
+            acceptedChannels.add(channel);
+            selector.wakeup();
+            if (!running) {
+                // We may have missed our chance to be closed by this thread.
+                closeAcceptedChannels();
+            }
+        }
+
+        void requestCompleted(Connection.Request request) {
+            completedRequests.add(request);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerAcceptedChannels();
+                    finishCompletedRequests();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        handle(key);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Selector failed; closing its connections", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                closeAcceptedChannels();
+                closeQuietly(selector);
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (!key.isValid()) {
+                    connection.close();
+                    return;
+                }
+
+                int readyOps = key.readyOps();
+                if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                    connection.handleWrite();
+                }
+                if ((readyOps & SelectionKey.OP_READ) != 0 && !connection.closed) {
+                    connection.handleRead();
+                }
+            } catch (IOException e) {
+                connection.close();
+            }
+        }
+
+        private void registerAcceptedChannels() {
+            SocketChannel channel;
+            while ((channel = acceptedChannels.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, channel, key));
+                } catch (IOException e) {
+                    closeQuietly(channel);
+                    connectionCount.decrementAndGet();
+                }
+            }
+        }
+
+        private void finishCompletedRequests() {
+            Connection.Request request;
+            while ((request = completedRequests.poll()) != null) {
+                try {
+                    request.connection().finishRequest(request);
+                } catch (IOException e) {
+                    request.connection().close();
+                }
+            }
+        }
+
+        private void closeAcceptedChannels() {
+            SocketChannel channel;
+            while ((channel = acceptedChannels.poll()) != null) {
+                closeQuietly(channel);
+                connectionCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection.
+     *
+     * <p>All methods but {@link Request#run()} are called on the
+     * connection's selector thread; {@link Request#run()} is called on a
+     * worker thread while the selector thread leaves that request alone.
+     * The hand-offs between them, through
+     * {@link ExecutorService#execute(Runnable)} and
+     * {@link SelectorThread#requestCompleted(Request)}, publish the buffers
+     * each touches.
+     */
+    private final class Connection {
+        private final SelectorThread selectorThread;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+
+        private final ByteBuffer header = ByteBuffer.allocate(4);
+
+        // Requests not in progress, ready for reuse.
+        private final ArrayDeque<Request> idleRequests = new ArrayDeque<>();
+
+        // Requests whose replies are waiting to be written, in the order in
+        // which they were completed.
+        private final ArrayDeque<Request> replies = new ArrayDeque<>();
+
+        // Non-null while reading a frame's payload.
+        private Request reading;
+
+        // Requests read but not yet answered.
+        private int requestsInProgress;
+
+        boolean closed;
+
+        Connection(SelectorThread selectorThread, SocketChannel channel, SelectionKey key) {
+            this.selectorThread = selectorThread;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void handleRead() throws IOException {
+            if (reading == null) {
+                if (channel.read(header) == -1) {
+                    close();
+                    return;
+                }
+                if (header.hasRemaining()) {
+                    return;
+                }
+
+                int frameSize = header.getInt(0);
+                if (frameSize < 0 || frameSize > maxFrameSize) {
+                    LOGGER.log(Level.FINE, "Closing a connection that sent a frame of {0} bytes", frameSize);
+                    close();
+                    return;
+                }
+
+                Request request = idleRequests.poll();
+                reading = request != null ? request : new Request();
+                reading.prepare(frameSize);
+            }
+
+            if (channel.read(reading.frameBuffer) == -1) {
+                close();
+                return;
+            }
+            if (reading.frameBuffer.hasRemaining()) {
+                return;
+            }
+
+            Request request = reading;
+            reading = null;
+            header.clear();
+            request.frameRead();
+
+            // Stop reading once the limit is reached, until a request is answered.
+            ++requestsInProgress;
+            updateInterestOps();
+
+            if (executor == null) {
+                request.run();
+                finishRequest(request);
+                return;
+            }
+
+            try {
+                executor.execute(request);
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+
+        void finishRequest(Request request) throws IOException {
+            if (closed) {
+                return;
+            }
+
+            if (request.failed) {
+                close();
+                return;
+            }
+
+            request.reply = request.transport.reply();
+            if (request.reply == null) {
+                release(request);
+                updateInterestOps();
+                return;
+            }
+
+            replies.add(request);
+            if (replies.size() == 1) {
+                handleWrite();
+            }
+        }
+
+        void handleWrite() throws IOException {
+            Request request;
+            while ((request = replies.peek()) != null) {
+                channel.write(request.reply);
+                if (request.reply.hasRemaining()) {
+                    break;
+                }
+
+                replies.poll();
+                request.reply = null;
+                release(request);
+            }
+            updateInterestOps();
+        }
+
+        private void release(Request request) {
+            --requestsInProgress;
+            request.recycle();
+            idleRequests.push(request);
+        }
+
+        private void updateInterestOps() {
+            int ops = 0;
+            if (requestsInProgress < maxConcurrentRequests) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!replies.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            key.cancel();
+            closeQuietly(channel);
+            connectionCount.decrementAndGet();
+        }
+
+        /**
+         * One request: its frame, the transport and protocols with which it
+         * is decoded and its reply encoded, and the reply itself.  Reused,
+         * once its reply has been sent, for later requests on the same
+         * connection.
+         */
+        final class Request implements Runnable {
+            private byte[] frame = new byte[INITIAL_FRAME_SIZE];
+            private final MemoryTransport transport = new MemoryTransport();
+            private final Protocol input;
+            private final Protocol output;
+
+            // Non-null while reading the frame.
+            ByteBuffer frameBuffer;
+
+            // Non-null while writing the reply.
+            ByteBuffer reply;
+
+            boolean failed;
+
+            Request() {
+                this.input = protocolFactory.createProtocol(transport);
+                this.output = protocolFactory.createProtocol(transport);
+            }
+
+            Connection connection() {
+                return Connection.this;
+            }
+
+            void prepare(int frameSize) {
+                if (frameSize > frame.length) {
+                    frame = new byte[frameSize];
+                }
+                frameBuffer = ByteBuffer.wrap(frame, 0, frameSize);
+            }
+
+            void frameRead() {
+                transport.reset(frame, frameBuffer.limit());
+                frameBuffer = null;
+            }
+
+            void recycle() {
+                if (frame.length > MAX_RETAINED_FRAME_SIZE) {
+                    // Don't hold on to the memory of an unusually large request.
+                    frame = new byte[INITIAL_FRAME_SIZE];
+                }
+            }
+
+            @Override
+            public void run() {
+                try {
+                    processor.process(input, output);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Malformed request; closing its connection", e);
+                    failed = true;
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Failed to process a request; closing its connection", e);
+                    failed = true;
+                }
+
+                if (executor != null) {
+                    selectorThread.requestCompleted(this);
+                }
+            }
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "thrifty-server-worker-" + count.getAndIncrement());
+        }
+    }
+
+    private static boolean joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+                // nope
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server;
+
+import com.microsoft.thrifty.transport.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An unbuffered transport over a connected socket's streams.
+ *
+ * <p>Every read and write goes straight to the stream; wrap this in a
+ * {@link com.microsoft.thrifty.transport.BufferedTransport} to coalesce them.
+ */
+final class StreamTransport extends Transport {
+    private final InputStream in;
+    private final OutputStream out;
+
+    StreamTransport(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        return in.read(buffer, offset, count);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        out.write(buffer, offset, count);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            out.close();
+        }
+    }
+}
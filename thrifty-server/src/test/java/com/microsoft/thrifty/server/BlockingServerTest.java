@@ -0,0 +1,239 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server;
+
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.service.Processor;
+import com.microsoft.thrifty.service.TMessageType;
+import com.microsoft.thrifty.transport.FramedTransport;
+import com.microsoft.thrifty.transport.SocketTransport;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.thrifty.server.EchoProcessor.echo;
+import static com.microsoft.thrifty.server.EchoProcessor.readReply;
+import static com.microsoft.thrifty.server.EchoProcessor.send;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class BlockingServerTest {
+    private final EchoProcessor processor = new EchoProcessor();
+    private final List<Socket> sockets = new ArrayList<>();
+    private BlockingServer server;
+
+    @After
+    public void teardown() throws Exception {
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void processesRequestsFromManyConnections() throws Exception {
+        start(new BlockingServer.Builder(processor));
+
+        Protocol first = connect(false);
+        Protocol second = connect(false);
+
+        for (int i = 0; i < 5; ++i) {
+            assertThat(echo(first, i, "first " + i), is("first " + i));
+            assertThat(echo(second, i, "second " + i), is("second " + i));
+        }
+    }
+
+    @Test
+    public void processesFramedRequests() throws Exception {
+        start(new BlockingServer.Builder(processor).framed(true));
+
+        Protocol protocol = connect(true);
+        assertThat(echo(protocol, 1, "framed"), is("framed"));
+        assertThat(echo(protocol, 2, "again"), is("again"));
+    }
+
+    @Test
+    public void onewayRequestsGetNoReply() throws Exception {
+        start(new BlockingServer.Builder(processor));
+
+        Protocol protocol = connect(false);
+        send(protocol, "notify", TMessageType.ONEWAY, 1, "hi");
+        assertThat(processor.notifications.poll(5, TimeUnit.SECONDS), is("hi"));
+
+        assertThat(echo(protocol, 2, "there"), is("there"));
+    }
+
+    @Test
+    public void runsConnectionsOnVirtualThreads() throws Exception {
+        BlockingServer.Builder builder = new BlockingServer.Builder(processor);
+        try {
+            builder.virtualThreads();
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+        start(builder);
+
+        Protocol protocol = connect(false);
+        assertThat(echo(protocol, 1, "virtual"), is("virtual"));
+    }
+
+    @Test
+    public void idleConnectionsAreClosed() throws Exception {
+        start(new BlockingServer.Builder(processor).idleTimeout(100));
+
+        Protocol protocol = connect(false);
+        assertThat(echo(protocol, 1, "active"), is("active"));
+
+        Socket idle = rawConnect();
+        assertThat(idle.getInputStream().read(), is(-1));
+    }
+
+    @Test
+    public void connectionsBeyondTheLimitAreClosed() throws Exception {
+        start(new BlockingServer.Builder(processor).maxConnections(1));
+
+        Protocol protocol = connect(false);
+        assertThat(echo(protocol, 1, "first"), is("first"));
+
+        Socket rejected = rawConnect();
+        assertThat(rejected.getInputStream().read(), is(-1));
+
+        assertThat(echo(protocol, 2, "still here"), is("still here"));
+        assertThat(server.connectionCount(), is(1));
+    }
+
+    @Test
+    public void oversizedFramesCloseTheConnection() throws Exception {
+        start(new BlockingServer.Builder(processor).framed(true).maxFrameSize(64));
+
+        Socket socket = rawConnect();
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[] { 0, 0, 0, 65 });
+        out.flush();
+
+        assertThat(socket.getInputStream().read(), is(-1));
+    }
+
+    @Test
+    public void closeLetsRequestsInProgressFinish() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        start(new BlockingServer.Builder(blockingUntil(started, release)));
+
+        Protocol busy = connect(false);
+        Socket idle = rawConnect();
+        send(busy, "echo", TMessageType.CALL, 1, "in flight");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        Thread closer = closeInBackground();
+
+        // Idle connections are closed right away...
+        assertThat(idle.getInputStream().read(), is(-1));
+
+        // ...while busy ones get to send their replies.
+        release.countDown();
+        assertThat(readReply(busy, 1), is("in flight"));
+
+        closer.join(5000);
+        assertThat(closer.isAlive(), is(false));
+        assertThat(server.connectionCount(), is(0));
+    }
+
+    @Test(expected = EOFException.class)
+    public void closeGivesUpOnRequestsAfterTheShutdownTimeout() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        start(new BlockingServer.Builder(blockingUntil(started, release)).shutdownTimeout(100));
+
+        Protocol protocol = connect(false);
+        send(protocol, "echo", TMessageType.CALL, 1, "stuck");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        server.close();
+        assertThat(server.connectionCount(), is(0));
+        try {
+            protocol.readMessageBegin();
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private Processor blockingUntil(final CountDownLatch started, final CountDownLatch release) {
+        return new Processor() {
+            @Override
+            public void process(Protocol input, Protocol output) throws IOException {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                processor.process(input, output);
+            }
+        };
+    }
+
+    private Thread closeInBackground() {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                server.close();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void start(BlockingServer.Builder builder) throws IOException {
+        server = builder.bindAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).build();
+        server.start();
+    }
+
+    private Protocol connect(boolean framed) throws IOException {
+        SocketTransport transport = new SocketTransport.Builder("localhost", server.port())
+                .readTimeout(5000)
+                .build();
+        transport.connect();
+        return new BinaryProtocol(framed ? new FramedTransport(transport) : transport);
+    }
+
+    private Socket rawConnect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+        socket.setSoTimeout(5000);
+        sockets.add(socket);
+        return socket;
+    }
+}
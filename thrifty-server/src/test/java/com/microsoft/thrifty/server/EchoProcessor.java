@@ -0,0 +1,131 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server;
+
+import com.microsoft.thrifty.TType;
+import com.microsoft.thrifty.protocol.FieldMetadata;
+import com.microsoft.thrifty.protocol.MessageMetadata;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.service.ProcessorBase;
+import com.microsoft.thrifty.service.TMessageType;
+import com.microsoft.thrifty.util.ProtocolUtil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Implements "echo", which returns its string argument, and the oneway
+ * method "notify", which records it.  Echoing {@link #SLOW} waits until
+ * {@link #slowCalls} is released.
+ */
+class EchoProcessor extends ProcessorBase {
+    static final String SLOW = "slow";
+
+    final BlockingQueue<String> notifications = new LinkedBlockingQueue<>();
+    final CountDownLatch slowCalls = new CountDownLatch(1);
+
+    @Override
+    protected boolean dispatch(MessageMetadata message, Protocol input, Protocol output) throws IOException {
+        if (!message.name.equals("echo") && !message.name.equals("notify")) {
+            return false;
+        }
+
+        String arg = null;
+        input.readStructBegin();
+        while (true) {
+            FieldMetadata field = input.readFieldBegin();
+            if (field.typeId == TType.STOP) {
+                break;
+            }
+            if (field.fieldId == 1 && field.typeId == TType.STRING) {
+                arg = input.readString();
+            } else {
+                ProtocolUtil.skip(input, field.typeId);
+            }
+            input.readFieldEnd();
+        }
+        input.readStructEnd();
+        input.readMessageEnd();
+
+        if (message.name.equals("notify")) {
+            notifications.add(arg);
+            return true;
+        }
+
+        if (SLOW.equals(arg)) {
+            try {
+                slowCalls.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+
+        output.writeMessageBegin(message.name, TMessageType.REPLY, message.seqId);
+        output.writeStructBegin("echo_result");
+        output.writeFieldBegin("success", 0, TType.STRING);
+        output.writeString(arg);
+        output.writeFieldEnd();
+        output.writeFieldStop();
+        output.writeStructEnd();
+        output.writeMessageEnd();
+        output.flush();
+        return true;
+    }
+
+    static String echo(Protocol protocol, int seqId, String value) throws IOException {
+        send(protocol, "echo", TMessageType.CALL, seqId, value);
+        return readReply(protocol, seqId);
+    }
+
+    static String readReply(Protocol protocol, int seqId) throws IOException {
+        MessageMetadata reply = protocol.readMessageBegin();
+        assertThat(reply.type, is(TMessageType.REPLY));
+        assertThat(reply.seqId, is(seqId));
+
+        protocol.readStructBegin();
+        FieldMetadata field = protocol.readFieldBegin();
+        assertThat(field.fieldId, is((short) 0));
+        String result = protocol.readString();
+        protocol.readFieldEnd();
+        assertThat(protocol.readFieldBegin().typeId, is(TType.STOP));
+        protocol.readStructEnd();
+        protocol.readMessageEnd();
+        return result;
+    }
+
+    static void send(Protocol protocol, String name, byte type, int seqId, String value) throws IOException {
+        protocol.writeMessageBegin(name, type, seqId);
+        protocol.writeStructBegin("args");
+        protocol.writeFieldBegin("value", 1, TType.STRING);
+        protocol.writeString(value);
+        protocol.writeFieldEnd();
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        protocol.writeMessageEnd();
+        protocol.flush();
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Thrifty
+ *
+ * Copyright (c) Microsoft Corporation
+ *
+ * All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the License);
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * THIS CODE IS PROVIDED ON AN  *AS IS* BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, EITHER EXPRESS OR IMPLIED, INCLUDING
+ * WITHOUT LIMITATION ANY IMPLIED WARRANTIES OR CONDITIONS OF TITLE,
+ * FITNESS FOR A PARTICULAR PURPOSE, MERCHANTABLITY OR NON-INFRINGEMENT.
+ *
+ * See the Apache Version 2.0 License for specific language governing permissions and limitations under the License.
+ */
+package com.microsoft.thrifty.server;
+
+import com.microsoft.thrifty.protocol.BinaryProtocol;
+import com.microsoft.thrifty.protocol.Protocol;
+import com.microsoft.thrifty.service.TMessageType;
+import com.microsoft.thrifty.transport.FramedTransport;
+import com.microsoft.thrifty.transport.SocketTransport;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.thrifty.server.EchoProcessor.echo;
+import static com.microsoft.thrifty.server.EchoProcessor.readReply;
+import static com.microsoft.thrifty.server.EchoProcessor.send;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class NonblockingServerTest {
+    private final EchoProcessor processor = new EchoProcessor();
+    private final List<Socket> sockets = new ArrayList<>();
+    private NonblockingServer server;
+
+    @After
+    public void teardown() throws Exception {
+        processor.slowCalls.countDown();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void processesRequestsOnWorkers() throws Exception {
+        start(new NonblockingServer.Builder(processor).workerThreads(2));
+
+        Protocol protocol = connect();
+        for (int i = 0; i < 5; ++i) {
+            assertThat(echo(protocol, i, "hello " + i), is("hello " + i));
+        }
+    }
+
+    @Test
+    public void processesRequestsOnSelectorThreadsWithoutWorkers() throws Exception {
+        start(new NonblockingServer.Builder(processor)
+                .workerThreads(0)
+                .selectorThreads(2));
+
+        Protocol first = connect();
+        Protocol second = connect();
+        Protocol third = connect();
+
+        assertThat(echo(first, 1, "one"), is("one"));
+        assertThat(echo(second, 1, "two"), is("two"));
+        assertThat(echo(third, 1, "three"), is("three"));
+        assertThat(echo(first, 2, "four"), is("four"));
+    }
+
+    @Test
+    public void onewayRequestsGetNoReply() throws Exception {
+        start(new NonblockingServer.Builder(processor));
+
+        Protocol protocol = connect();
+        send(protocol, "notify", TMessageType.ONEWAY, 1, "hi");
+        assertThat(processor.notifications.poll(5, TimeUnit.SECONDS), is("hi"));
+
+        // The next reply read is the echo's, not anything for the oneway call.
+        assertThat(echo(protocol, 2, "there"), is("there"));
+    }
+
+    @Test
+    public void concurrentRequestsAreAnsweredAsTheyComplete() throws Exception {
+        start(new NonblockingServer.Builder(processor)
+                .workerThreads(2)
+                .maxConcurrentRequests(2));
+
+        Protocol protocol = connect();
+        send(protocol, "echo", TMessageType.CALL, 1, EchoProcessor.SLOW);
+        send(protocol, "echo", TMessageType.CALL, 2, "fast");
+
+        assertThat(readReply(protocol, 2), is("fast"));
+        processor.slowCalls.countDown();
+        assertThat(readReply(protocol, 1), is(EchoProcessor.SLOW));
+
+        // Both requests are done; the connection carries on as usual.
+        assertThat(echo(protocol, 3, "after"), is("after"));
+    }
+
+    @Test
+    public void sendsRepliesLargerThanTheSocketBuffer() throws Exception {
+        start(new NonblockingServer.Builder(processor));
+
+        char[] chars = new char[4 * 1024 * 1024];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        Protocol protocol = connect();
+        assertThat(echo(protocol, 1, large), is(large));
+        assertThat(echo(protocol, 2, "small"), is("small"));
+    }
+
+    @Test
+    public void oversizedFramesCloseTheConnection() throws Exception {
+        start(new NonblockingServer.Builder(processor).maxFrameSize(64));
+
+        Socket socket = rawConnect();
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[] { 0, 0, 0, 65 });
+        out.flush();
+
+        assertThat(socket.getInputStream().read(), is(-1));
+    }
+
+    @Test
+    public void connectionsBeyondTheLimitAreClosed() throws Exception {
+        start(new NonblockingServer.Builder(processor).maxConnections(1));
+
+        Protocol protocol = connect();
+        assertThat(echo(protocol, 1, "first"), is("first"));
+
+        Socket rejected = rawConnect();
+        assertThat(rejected.getInputStream().read(), is(-1));
+
+        assertThat(echo(protocol, 2, "still here"), is("still here"));
+        assertThat(server.connectionCount(), is(1));
+    }
+
+    @Test
+    public void malformedRequestsCloseTheConnection() throws Exception {
+        start(new NonblockingServer.Builder(processor));
+
+        Socket socket = rawConnect();
+        OutputStream out = socket.getOutputStream();
+        out.write(new byte[] { 0, 0, 0, 4, 1, 2, 3, 4 });
+        out.flush();
+
+        assertThat(socket.getInputStream().read(), is(-1));
+    }
+
+    @Test
+    public void closingTheServerClosesConnections() throws Exception {
+        start(new NonblockingServer.Builder(processor));
+
+        Socket socket = rawConnect();
+        while (server.connectionCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        server.close();
+
+        assertThat(socket.getInputStream().read(), is(-1));
+        assertThat(server.connectionCount(), is(0));
+    }
+
+    private void start(NonblockingServer.Builder builder) throws IOException {
+        server = builder.bindAddress(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)).build();
+        server.start();
+    }
+
+    private Protocol connect() throws IOException {
+        SocketTransport transport = new SocketTransport.Builder("localhost", server.port())
+                .readTimeout(5000)
+                .build();
+        transport.connect();
+        return new BinaryProtocol(new FramedTransport(transport));
+    }
+
+    private Socket rawConnect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+        socket.setSoTimeout(5000);
+        sockets.add(socket);
+        return socket;
+    }
+}